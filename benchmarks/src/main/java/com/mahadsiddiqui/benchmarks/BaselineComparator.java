@@ -0,0 +1,86 @@
+package com.mahadsiddiqui.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares a JMH JSON result file against a stored baseline and fails on regressions
+ * Usage: BaselineComparator &lt;baseline.json&gt; &lt;results.json&gt; [tolerance percent, default 10]
+ * Exits with status 1 when any benchmark is slower than the baseline by more than the tolerance
+ * plus its own error margin, so that run-to-run noise alone does not fail the build
+ */
+public class BaselineComparator {
+    
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineComparator <baseline.json> <results.json> [tolerance percent]");
+            System.exit(2);
+        }
+        
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        Map<String, JsonNode> baseline = load(new File(args[0]));
+        Map<String, JsonNode> current = load(new File(args[1]));
+        
+        int regressions = 0;
+        for (Map.Entry<String, JsonNode> entry : current.entrySet()) {
+            JsonNode before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.println(String.format("NEW        %s", entry.getKey()));
+                continue;
+            }
+            
+            JsonNode after = entry.getValue();
+            double oldScore = before.path("primaryMetric").path("score").asDouble();
+            double newScore = after.path("primaryMetric").path("score").asDouble();
+            double error = Math.abs(after.path("primaryMetric").path("scoreError").asDouble(0));
+            String unit = after.path("primaryMetric").path("scoreUnit").asText();
+            
+            // Throughput modes are better when higher, time modes when lower
+            boolean higherIsBetter = "thrpt".equals(after.path("mode").asText());
+            double change = oldScore == 0 ? 0 : (newScore - oldScore) / oldScore * 100;
+            double worse = higherIsBetter ? -change : change;
+            double noise = newScore == 0 ? 0 : error / newScore * 100;
+            
+            String verdict = worse > tolerance + noise ? "REGRESSION" : worse < -tolerance ? "IMPROVED" : "OK";
+            if ("REGRESSION".equals(verdict)) {
+                regressions++;
+            }
+            System.out.println(String.format("%-10s %s: %.3f -> %.3f %s (%+.1f%%)",
+                verdict, entry.getKey(), oldScore, newScore, unit, change));
+        }
+        
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) {
+                System.out.println(String.format("MISSING    %s", key));
+            }
+        }
+        
+        System.out.println(regressions + " regression(s) beyond " + tolerance + "%");
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+    
+    /**
+     * Results keyed by benchmark name plus its parameters
+     */
+    static Map<String, JsonNode> load(File file) throws IOException {
+        Map<String, JsonNode> results = new LinkedHashMap<>();
+        for (JsonNode result : MAPPER.readTree(file)) {
+            StringBuilder key = new StringBuilder(result.path("benchmark").asText());
+            Iterator<Map.Entry<String, JsonNode>> params = result.path("params").fields();
+            while (params.hasNext()) {
+                Map.Entry<String, JsonNode> param = params.next();
+                key.append(' ').append(param.getKey()).append('=').append(param.getValue().asText());
+            }
+            results.put(key.toString(), result);
+        }
+        return results;
+    }
+}
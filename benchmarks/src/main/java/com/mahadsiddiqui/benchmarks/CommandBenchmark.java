@@ -0,0 +1,57 @@
+package com.mahadsiddiqui.benchmarks;
+
+import io.appium.java_client.android.AndroidDriver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebElement;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trips for the element commands the test helpers are built from
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandBenchmark {
+    
+    private AndroidDriver driver;
+    
+    @Setup
+    public void setUp(StubServerState server) {
+        driver = server.newDriver(true);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        driver.quit();
+    }
+    
+    @Benchmark
+    public WebElement findElement() {
+        return driver.findElement(By.id("email_field"));
+    }
+    
+    @Benchmark
+    public void findAndClick() {
+        driver.findElement(By.id("login_button")).click();
+    }
+    
+    @Benchmark
+    public void findAndSendKeys() {
+        driver.findElement(By.id("email_field")).sendKeys("test@example.com");
+    }
+}
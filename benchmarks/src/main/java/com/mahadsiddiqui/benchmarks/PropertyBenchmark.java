@@ -0,0 +1,61 @@
+package com.mahadsiddiqui.benchmarks;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import com.mahadsiddiqui.drivers.DeviceProfile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuration lookups made on every command, wait poll and capability build
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertyBenchmark {
+    
+    private DeviceProfile profile;
+    
+    @Setup
+    public void setUp() {
+        profile = new DeviceProfile("benchmark", Collections.singletonMap("device.name", "Pixel_7"));
+    }
+    
+    @Benchmark
+    public String getProperty() {
+        return MobileDriverConfig.getProperty("platform.name", "android");
+    }
+    
+    @Benchmark
+    public int getIntProperty() {
+        return MobileDriverConfig.getIntProperty("appium.server.port");
+    }
+    
+    @Benchmark
+    public boolean getBooleanProperty() {
+        return MobileDriverConfig.getBooleanProperty("implicit.wait.enabled");
+    }
+    
+    @Benchmark
+    public int getExplicitWaitTimeout() {
+        return MobileDriverConfig.getExplicitWaitTimeout();
+    }
+    
+    @Benchmark
+    public String deviceProfileFallback() {
+        return profile.getProperty("platform.version", "13.0");
+    }
+}
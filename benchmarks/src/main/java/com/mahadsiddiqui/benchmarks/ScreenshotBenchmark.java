@@ -0,0 +1,62 @@
+package com.mahadsiddiqui.benchmarks;
+
+import com.mahadsiddiqui.utils.ScreenshotPipeline;
+import io.appium.java_client.android.AndroidDriver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.OutputType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Screenshot cost on the test thread: fetching and decoding the PNG, and handing it to the pipeline
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScreenshotBenchmark {
+    
+    @Param({"png", "jpg"})
+    public String format;
+    
+    private AndroidDriver driver;
+    private ScreenshotPipeline pipeline;
+    
+    @Setup
+    public void setUp(StubServerState server) throws IOException {
+        driver = server.newDriver(true);
+        pipeline = new ScreenshotPipeline(Files.createTempDirectory("benchmark-screenshots"),
+            ScreenshotPipeline.Policy.STEP, 1.0, true, false, 540, "jpg".equals(format), 0.8f, 2, 32);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        pipeline.flush(60);
+        driver.quit();
+    }
+    
+    @Benchmark
+    public byte[] getScreenshotBytes() {
+        return driver.getScreenshotAs(OutputType.BYTES);
+    }
+    
+    @Benchmark
+    public void pipelineCapture() {
+        pipeline.capture(driver, "benchmark");
+    }
+}
@@ -0,0 +1,46 @@
+package com.mahadsiddiqui.benchmarks;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import com.mahadsiddiqui.drivers.DeviceProfile;
+import io.appium.java_client.AppiumDriver;
+import io.appium.java_client.android.AndroidDriver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of opening and closing a session, with and without the pooled HTTP client
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionBenchmark {
+    
+    @Param({"true", "false"})
+    public boolean pooled;
+    
+    @Benchmark
+    public void createAndQuit(StubServerState server) {
+        AndroidDriver driver = server.newDriver(pooled);
+        driver.quit();
+    }
+    
+    @Benchmark
+    public void createThroughConfig(StubServerState server) {
+        // Full MobileDriverConfig path: capabilities from the properties, routing and timeouts
+        DeviceProfile profile = new DeviceProfile("benchmark",
+            Collections.singletonMap("appium.server.url", server.getUrl().toString()));
+        AppiumDriver driver = MobileDriverConfig.createDriver(profile);
+        driver.quit();
+    }
+}
@@ -0,0 +1,52 @@
+package com.mahadsiddiqui.benchmarks;
+
+import com.mahadsiddiqui.drivers.InstrumentedCommandExecutor;
+import com.mahadsiddiqui.drivers.PooledHttpClientFactory;
+import io.appium.java_client.android.AndroidDriver;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.http.HttpClient;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * One stub server shared by all benchmark threads of a trial
+ */
+@State(Scope.Benchmark)
+public class StubServerState {
+    
+    private StubWebDriverServer server;
+    private URL url;
+    
+    @Setup
+    public void start() throws IOException {
+        server = new StubWebDriverServer();
+        server.start();
+        url = server.getUrl();
+    }
+    
+    @TearDown
+    public void stop() {
+        server.stop();
+    }
+    
+    public URL getUrl() {
+        return url;
+    }
+    
+    /**
+     * Open a session the way MobileDriverConfig does, through the instrumented executor
+     */
+    public AndroidDriver newDriver(boolean pooled) {
+        DesiredCapabilities capabilities = new DesiredCapabilities();
+        capabilities.setCapability("platformName", "Android");
+        capabilities.setCapability("appium:automationName", "UiAutomator2");
+        capabilities.setCapability("appium:deviceName", "benchmark");
+        HttpClient.Factory factory = pooled ? PooledHttpClientFactory.get() : HttpClient.Factory.createDefault();
+        return new AndroidDriver(new InstrumentedCommandExecutor(url, factory, "benchmark"), capabilities);
+    }
+}
@@ -0,0 +1,167 @@
+package com.mahadsiddiqui.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Base64;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Minimal in-process W3C WebDriver endpoint answering the commands the benchmarks send
+ * Every element lookup succeeds except for ids starting with "missing", so the benchmarks measure
+ * the framework and the HTTP stack rather than a device
+ */
+public class StubWebDriverServer {
+    
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String ELEMENT_KEY = "element-6066-11e4-a52e-4f735466cecf";
+    
+    private final Set<String> sessions = ConcurrentHashMap.newKeySet();
+    private final String screenshot;
+    private HttpServer server;
+    private ExecutorService executor;
+    
+    public StubWebDriverServer() {
+        this.screenshot = Base64.getEncoder().encodeToString(renderScreen(1080, 2400));
+    }
+    
+    /**
+     * Start listening on a free local port
+     */
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newFixedThreadPool(16);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+    
+    /**
+     * Stop the server
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Base URL of the server
+     */
+    public URL getUrl() throws IOException {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort());
+    }
+    
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            byte[] request = body.readAllBytes();
+            String method = exchange.getRequestMethod();
+            String[] path = exchange.getRequestURI().getPath().replaceAll("^/|/$", "").split("/");
+            
+            if (path.length == 1 && "session".equals(path[0]) && "POST".equals(method)) {
+                String sessionId = UUID.randomUUID().toString();
+                sessions.add(sessionId);
+                ObjectNode value = MAPPER.createObjectNode();
+                value.put("sessionId", sessionId);
+                JsonNode requested = MAPPER.readTree(request).path("capabilities").path("alwaysMatch");
+                value.set("capabilities", requested.isMissingNode() ? MAPPER.createObjectNode() : requested);
+                respond(exchange, 200, value);
+                return;
+            }
+            if (path.length < 2 || !"session".equals(path[0]) || !sessions.contains(path[1])) {
+                error(exchange, 404, "invalid session id", "No such session");
+                return;
+            }
+            
+            String sessionId = path[1];
+            String command = path.length > 2 ? path[2] : "";
+            if (path.length == 2 && "DELETE".equals(method)) {
+                sessions.remove(sessionId);
+                respond(exchange, 200, null);
+            } else if ("element".equals(command) && path.length == 3) {
+                String using = MAPPER.readTree(request).path("value").asText();
+                if (using.startsWith("missing")) {
+                    error(exchange, 404, "no such element", "No element matching " + using);
+                } else {
+                    respond(exchange, 200, MAPPER.createObjectNode().put(ELEMENT_KEY, "el-" + using));
+                }
+            } else if ("elements".equals(command)) {
+                String using = MAPPER.readTree(request).path("value").asText();
+                if (using.startsWith("missing")) {
+                    respond(exchange, 200, MAPPER.createArrayNode());
+                } else {
+                    respond(exchange, 200, MAPPER.createArrayNode()
+                        .add(MAPPER.createObjectNode().put(ELEMENT_KEY, "el-" + using)));
+                }
+            } else if ("element".equals(command) && path.length == 5 && "displayed".equals(path[4])) {
+                respond(exchange, 200, MAPPER.getNodeFactory().booleanNode(true));
+            } else if ("element".equals(command) && path.length == 5 && "enabled".equals(path[4])) {
+                respond(exchange, 200, MAPPER.getNodeFactory().booleanNode(true));
+            } else if ("screenshot".equals(command)) {
+                respond(exchange, 200, MAPPER.getNodeFactory().textNode(screenshot));
+            } else if ("timeouts".equals(command) && "GET".equals(method)) {
+                respond(exchange, 200, MAPPER.createObjectNode().put("implicit", 0).put("pageLoad", 300000)
+                    .put("script", 30000));
+            } else {
+                // click, value, timeouts and anything else without a result
+                respond(exchange, 200, null);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    private void error(HttpExchange exchange, int status, String error, String message) throws IOException {
+        respond(exchange, status, MAPPER.createObjectNode().put("error", error).put("message", message)
+            .put("stacktrace", ""));
+    }
+    
+    private void respond(HttpExchange exchange, int status, JsonNode value) throws IOException {
+        ObjectNode body = MAPPER.createObjectNode();
+        body.set("value", value);
+        byte[] bytes = MAPPER.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+    
+    private static byte[] renderScreen(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        for (int y = 0; y < height; y += 120) {
+            graphics.setColor(new Color((y * 7) % 256, (y * 3) % 256, 200));
+            graphics.fillRect(0, y, width, 120);
+            graphics.setColor(Color.WHITE);
+            graphics.drawString("Row " + y / 120, 40, y + 60);
+        }
+        graphics.dispose();
+        
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(image, "png", output);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to render stub screenshot", e);
+        }
+        return output.toByteArray();
+    }
+}
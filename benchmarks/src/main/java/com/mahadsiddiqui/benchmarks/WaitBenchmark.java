@@ -0,0 +1,63 @@
+package com.mahadsiddiqui.benchmarks;
+
+import com.mahadsiddiqui.utils.WaitEngine;
+import io.appium.java_client.android.AndroidDriver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebElement;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WaitEngine overhead: an element that is already there, a condition that needs a few polls
+ * and an absence check that has to run out its grace period
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WaitBenchmark {
+    
+    private AndroidDriver driver;
+    private WaitEngine wait;
+    
+    @Setup
+    public void setUp(StubServerState server) {
+        driver = server.newDriver(true);
+        wait = new WaitEngine(driver, Duration.ofSeconds(10));
+    }
+    
+    @TearDown
+    public void tearDown() {
+        driver.quit();
+    }
+    
+    @Benchmark
+    public WebElement waitForPresent() {
+        return wait.waitForPresent(By.id("email_field"));
+    }
+    
+    @Benchmark
+    public Boolean untilThirdPoll() {
+        int[] polls = {0};
+        return wait.until("benchmark third poll", d -> ++polls[0] >= 3 ? Boolean.TRUE : null);
+    }
+    
+    @Benchmark
+    public boolean isAbsent() {
+        return wait.isAbsent(By.id("missing_banner"), Duration.ofMillis(200));
+    }
+}
@@ -1,17 +1,34 @@
 package com.mahadsiddiqui.config;
 
+import com.mahadsiddiqui.drivers.AppInstallCache;
+import com.mahadsiddiqui.drivers.AppiumServerFarm;
+import com.mahadsiddiqui.drivers.CloudSessionBroker;
+import com.mahadsiddiqui.drivers.DevicePool;
+import com.mahadsiddiqui.drivers.DeviceProfile;
+import com.mahadsiddiqui.drivers.DriverLease;
+import com.mahadsiddiqui.drivers.InstrumentedCommandExecutor;
+import com.mahadsiddiqui.drivers.PooledHttpClientFactory;
+import com.mahadsiddiqui.drivers.SessionPrewarmer;
+import com.mahadsiddiqui.simulator.SimulatedAppiumServer;
 import io.appium.java_client.AppiumDriver;
 import io.appium.java_client.android.AndroidDriver;
 import io.appium.java_client.ios.IOSDriver;
 import io.appium.java_client.service.local.AppiumDriverLocalService;
 import io.appium.java_client.service.local.AppiumServiceBuilder;
+import io.appium.java_client.service.local.flags.GeneralServerFlag;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.http.HttpClient;
 
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 /**
@@ -21,8 +38,12 @@ import java.util.Properties;
 public class MobileDriverConfig {
     
     private static Properties properties;
-    private static AppiumDriver driver;
+    private static final ThreadLocal<DriverLease> currentLease = new ThreadLocal<>();
+    private static volatile DevicePool devicePool;
     private static AppiumDriverLocalService service;
+    private static volatile AppiumServerFarm serverFarm;
+    private static volatile SimulatedAppiumServer simulator;
+    private static volatile boolean devicePoolHeld;
     
     static {
         loadProperties();
@@ -84,26 +105,85 @@ public class MobileDriverConfig {
     }
     
     /**
-     * Initialize Appium driver based on platform
+     * Get all properties under a prefix, with the prefix stripped from the keys
+     */
+    public static Map<String, String> getPropertiesWithPrefix(String prefix) {
+        Map<String, String> result = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                result.put(key.substring(prefix.length()), properties.getProperty(key));
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Initialize Appium driver for the current thread by leasing a device from the pool
      */
     public static AppiumDriver initializeDriver() {
-        String platform = getProperty("platform.name", "android").toLowerCase();
+        DriverLease lease = currentLease.get();
+        if (lease != null) {
+            return lease.getDriver();
+        }
+        
+        lease = getDevicePool().acquire();
+        currentLease.set(lease);
+        return lease.getDriver();
+    }
+    
+    /**
+     * Get the device pool, building it from configuration on first use
+     */
+    public static DevicePool getDevicePool() {
+        if (devicePool == null) {
+            synchronized (MobileDriverConfig.class) {
+                if (devicePool == null) {
+                    DevicePool pool = new DevicePool(DeviceProfile.fromConfig(), MobileDriverConfig::createDriver);
+                    if (getBooleanProperty("prewarm.enabled")) {
+                        pool.setPrewarmer(new SessionPrewarmer(MobileDriverConfig::createDriver,
+                            Integer.parseInt(getProperty("prewarm.threads", "2")),
+                            Integer.parseInt(getProperty("prewarm.max.ready", "1"))));
+                    }
+                    if (CloudSessionBroker.isEnabled()) {
+                        // Idle reusable sessions hold provider slots that queued sessions are waiting for
+                        CloudSessionBroker broker = CloudSessionBroker.get();
+                        broker.setIdleSessionReclaimer(pool::closeIdleSession);
+                        pool.setSessionsQueued(broker::hasQueuedRequests);
+                    }
+                    devicePool = pool;
+                }
+            }
+        }
+        return devicePool;
+    }
+    
+    /**
+     * Create a new Appium session for the given device profile
+     */
+    public static AppiumDriver createDriver(DeviceProfile profile) {
+        String platform = profile.getPlatformName().toLowerCase();
         
         try {
+            AppiumDriver driver;
             if (platform.equals("android")) {
-                driver = createAndroidDriver();
+                driver = createAndroidDriver(profile);
             } else if (platform.equals("ios")) {
-                driver = createIOSDriver();
+                driver = createIOSDriver(profile);
+            } else if (platform.equals("simulated")) {
+                driver = createSimulatedDriver(profile);
             } else {
                 throw new IllegalArgumentException("Unsupported platform: " + platform);
             }
             
-            // Set implicit wait
-            driver.manage().timeouts().implicitlyWait(Duration.ofSeconds(getIntProperty("implicit.wait")));
+            // Explicit waits own all polling unless the implicit wait is asked for
+            Duration implicitWait = profile.getBooleanProperty("implicit.wait.enabled")
+                ? Duration.ofSeconds(profile.getIntProperty("implicit.wait"))
+                : Duration.ZERO;
+            driver.manage().timeouts().implicitlyWait(implicitWait);
             
             return driver;
         } catch (Exception e) {
-            System.err.println("Failed to initialize driver: " + e.getMessage());
+            System.err.println("Failed to initialize driver for device " + profile.getId() + ": " + e.getMessage());
             throw new RuntimeException("Driver initialization failed", e);
         }
     }
@@ -111,24 +191,27 @@ public class MobileDriverConfig {
     /**
      * Create Android driver
      */
-    private static AppiumDriver createAndroidDriver() throws Exception {
+    private static AppiumDriver createAndroidDriver(DeviceProfile profile) throws Exception {
         DesiredCapabilities capabilities = new DesiredCapabilities();
         
         // Basic capabilities
         capabilities.setCapability("platformName", "Android");
-        capabilities.setCapability("platformVersion", getProperty("platform.version", "13.0"));
-        capabilities.setCapability("deviceName", getProperty("device.name", "Pixel_7"));
+        capabilities.setCapability("platformVersion", profile.getProperty("platform.version", "13.0"));
+        capabilities.setCapability("deviceName", profile.getProperty("device.name", "Pixel_7"));
         capabilities.setCapability("automationName", "UiAutomator2");
+        if (profile.getProperty("udid") != null) {
+            capabilities.setCapability("udid", profile.getProperty("udid"));
+        }
         
         // App capabilities
-        capabilities.setCapability("app", getProperty("app.path"));
-        capabilities.setCapability("appPackage", getProperty("app.package"));
-        capabilities.setCapability("appActivity", getProperty("app.activity"));
+        capabilities.setCapability("app", profile.getProperty("app.path"));
+        capabilities.setCapability("appPackage", profile.getProperty("app.package"));
+        capabilities.setCapability("appActivity", profile.getProperty("app.activity"));
         
         // Additional capabilities
-        capabilities.setCapability("noReset", getBooleanProperty("no.reset"));
-        capabilities.setCapability("fullReset", getBooleanProperty("full.reset"));
-        capabilities.setCapability("newCommandTimeout", getIntProperty("command.timeout"));
+        capabilities.setCapability("noReset", profile.getBooleanProperty("no.reset"));
+        capabilities.setCapability("fullReset", profile.getBooleanProperty("full.reset"));
+        capabilities.setCapability("newCommandTimeout", profile.getIntProperty("command.timeout"));
         capabilities.setCapability("autoGrantPermissions", true);
         capabilities.setCapability("unicodeKeyboard", true);
         capabilities.setCapability("resetKeyboard", true);
@@ -137,30 +220,36 @@ public class MobileDriverConfig {
         capabilities.setCapability("skipDeviceInitialization", false);
         capabilities.setCapability("skipServerInstallation", false);
         
-        URL serverUrl = new URL(getProperty("appium.server.url", "http://localhost:4723"));
-        return new AndroidDriver(serverUrl, capabilities);
+        if (CloudSessionBroker.isEnabled()) {
+            return createCloudDriver(profile, capabilities, true);
+        }
+        URL serverUrl = resolveServerUrl(profile, capabilities, true);
+        return openSession(profile, serverUrl, capabilities, true);
     }
     
     /**
      * Create iOS driver
      */
-    private static AppiumDriver createIOSDriver() throws Exception {
+    private static AppiumDriver createIOSDriver(DeviceProfile profile) throws Exception {
         DesiredCapabilities capabilities = new DesiredCapabilities();
         
         // Basic capabilities
         capabilities.setCapability("platformName", "iOS");
-        capabilities.setCapability("platformVersion", getProperty("platform.version", "16.0"));
-        capabilities.setCapability("deviceName", getProperty("device.name", "iPhone 14"));
+        capabilities.setCapability("platformVersion", profile.getProperty("platform.version", "16.0"));
+        capabilities.setCapability("deviceName", profile.getProperty("device.name", "iPhone 14"));
         capabilities.setCapability("automationName", "XCUITest");
+        if (profile.getProperty("udid") != null) {
+            capabilities.setCapability("udid", profile.getProperty("udid"));
+        }
         
         // App capabilities
-        capabilities.setCapability("bundleId", getProperty("bundle.id"));
-        capabilities.setCapability("app", getProperty("app.path"));
+        capabilities.setCapability("bundleId", profile.getProperty("bundle.id"));
+        capabilities.setCapability("app", profile.getProperty("app.path"));
         
         // Additional capabilities
-        capabilities.setCapability("noReset", getBooleanProperty("no.reset"));
-        capabilities.setCapability("fullReset", getBooleanProperty("full.reset"));
-        capabilities.setCapability("newCommandTimeout", getIntProperty("command.timeout"));
+        capabilities.setCapability("noReset", profile.getBooleanProperty("no.reset"));
+        capabilities.setCapability("fullReset", profile.getBooleanProperty("full.reset"));
+        capabilities.setCapability("newCommandTimeout", profile.getIntProperty("command.timeout"));
         capabilities.setCapability("autoAcceptAlerts", true);
         capabilities.setCapability("autoDismissAlerts", false);
         
@@ -168,8 +257,149 @@ public class MobileDriverConfig {
         capabilities.setCapability("skipDeviceInitialization", false);
         capabilities.setCapability("skipServerInstallation", false);
         
-        URL serverUrl = new URL(getProperty("appium.server.url", "http://localhost:4723"));
-        return new IOSDriver(serverUrl, capabilities);
+        if (CloudSessionBroker.isEnabled()) {
+            return createCloudDriver(profile, capabilities, false);
+        }
+        URL serverUrl = resolveServerUrl(profile, capabilities, false);
+        return openSession(profile, serverUrl, capabilities, false);
+    }
+    
+    /**
+     * Open a session on the cloud provider once the broker admits it; the slot is freed when the session quits
+     */
+    private static AppiumDriver createCloudDriver(DeviceProfile profile, DesiredCapabilities capabilities,
+                                                  boolean android) {
+        CloudSessionBroker broker = CloudSessionBroker.get();
+        broker.applyTo(capabilities, profile);
+        return broker.open(slot -> {
+            InstrumentedCommandExecutor executor = createCommandExecutor(broker.getHubUrl(), profile);
+            executor.setOnQuit(slot::release);
+            return android ? new AndroidDriver(executor, capabilities) : new IOSDriver(executor, capabilities);
+        });
+    }
+    
+    /**
+     * Open a session, skipping the app install and helper setup when the device already has this build
+     * If a session with skipped installs fails, the device's install record is dropped and the session
+     * is retried with a full install
+     */
+    private static AppiumDriver openSession(DeviceProfile profile, URL serverUrl, DesiredCapabilities capabilities,
+                                            boolean android) {
+        AppInstallCache.Plan plan = planInstall(profile, serverUrl, android);
+        if (plan == null) {
+            return newDriver(profile, serverUrl, capabilities, android);
+        }
+        
+        plan.applyTo(capabilities, android);
+        AppiumDriver driver;
+        try {
+            driver = newDriver(profile, serverUrl, capabilities, android);
+        } catch (WebDriverException e) {
+            if (!plan.isUpToDate()) {
+                throw e;
+            }
+            System.err.println("Session without install failed on " + plan.getDevice() + ", reinstalling: "
+                + e.getMessage());
+            AppInstallCache.get().invalidate(plan.getDevice());
+            plan.restore(capabilities, android);
+            driver = newDriver(profile, serverUrl, capabilities, android);
+        }
+        AppInstallCache.get().installed(plan);
+        return driver;
+    }
+    
+    /**
+     * Plan the install for a session, or null when the install cache does not apply
+     */
+    private static AppInstallCache.Plan planInstall(DeviceProfile profile, URL serverUrl, boolean android) {
+        String appPath = profile.getProperty("app.path");
+        // A full reset uninstalls the app at the end of every session, so there is nothing to reuse
+        if (!profile.getBooleanProperty("app.install.cache") || profile.getBooleanProperty("full.reset")
+            || appPath == null || !Files.isRegularFile(Paths.get(appPath))) {
+            return null;
+        }
+        
+        String device = profile.getProperty("udid") != null ? profile.getProperty("udid") : profile.getId();
+        return AppInstallCache.get().plan(device, Paths.get(appPath), AppInstallCache.helperVersion(serverUrl, android ? "uiautomator2" : "xcuitest"));
+    }
+    
+    private static AppiumDriver newDriver(DeviceProfile profile, URL serverUrl, DesiredCapabilities capabilities,
+                                          boolean android) {
+        InstrumentedCommandExecutor executor = createCommandExecutor(serverUrl, profile);
+        return android ? new AndroidDriver(executor, capabilities) : new IOSDriver(executor, capabilities);
+    }
+    
+    /**
+     * Create a driver against the in-process simulator, starting it on first use
+     */
+    private static AppiumDriver createSimulatedDriver(DeviceProfile profile) {
+        DesiredCapabilities capabilities = new DesiredCapabilities();
+        capabilities.setCapability("platformName", "Android");
+        capabilities.setCapability("automationName", "UiAutomator2");
+        capabilities.setCapability("deviceName", profile.getId());
+        capabilities.setCapability("udid", profile.getId());
+        capabilities.setCapability("appPackage", profile.getProperty("app.package"));
+        capabilities.setCapability("appActivity", profile.getProperty("app.activity"));
+        
+        return new AndroidDriver(createCommandExecutor(startSimulator().getUrl(), profile), capabilities);
+    }
+    
+    /**
+     * Start the simulated Appium server if it is not running yet
+     */
+    public static SimulatedAppiumServer startSimulator() {
+        if (simulator == null) {
+            synchronized (MobileDriverConfig.class) {
+                if (simulator == null) {
+                    SimulatedAppiumServer server = SimulatedAppiumServer.fromConfig();
+                    server.start();
+                    simulator = server;
+                }
+            }
+        }
+        return simulator;
+    }
+    
+    /**
+     * Stop the simulated Appium server
+     */
+    public static synchronized void stopSimulator() {
+        if (simulator != null) {
+            System.out.println("Simulated Appium server: " + simulator);
+            simulator.stop();
+            simulator = null;
+        }
+    }
+    
+    /**
+     * Create the command executor for a session, timing every command for CommandMetrics
+     * Sessions against the same server share one pooled HTTP client unless http.pooled is disabled
+     */
+    private static InstrumentedCommandExecutor createCommandExecutor(URL serverUrl, DeviceProfile profile) {
+        HttpClient.Factory factory = getBooleanProperty("http.pooled")
+            ? PooledHttpClientFactory.get()
+            : HttpClient.Factory.createDefault();
+        return new InstrumentedCommandExecutor(serverUrl, factory, profile.getId());
+    }
+    
+    /**
+     * Resolve the server URL for a device, routing through the server farm when one is running
+     */
+    private static URL resolveServerUrl(DeviceProfile profile, DesiredCapabilities capabilities, boolean android)
+            throws Exception {
+        AppiumServerFarm farm = serverFarm;
+        if (farm == null) {
+            return new URL(profile.getProperty("appium.server.url", "http://localhost:4723"));
+        }
+        
+        AppiumServerFarm.Route route = farm.route(profile);
+        if (android) {
+            capabilities.setCapability("systemPort", route.getSystemPort());
+            capabilities.setCapability("chromedriverPort", route.getChromedriverPort());
+        } else {
+            capabilities.setCapability("wdaLocalPort", route.getWdaLocalPort());
+        }
+        return route.getUrl();
     }
     
     /**
@@ -180,6 +410,10 @@ public class MobileDriverConfig {
         builder.withIPAddress("127.0.0.1");
         builder.usingPort(getIntProperty("appium.server.port"));
         builder.withTimeout(Duration.ofSeconds(60));
+        String allowInsecure = getProperty("appium.allow.insecure", "");
+        if (!allowInsecure.isEmpty()) {
+            builder.withArgument(GeneralServerFlag.ALLOW_INSECURE, allowInsecure);
+        }
         
         service = builder.build();
         service.start();
@@ -198,25 +432,113 @@ public class MobileDriverConfig {
     }
     
     /**
-     * Get current driver instance
+     * Start one Appium server per device (or appium.farm.size servers) on allocated ports
+     */
+    public static synchronized void startAppiumServerFarm() {
+        if (serverFarm == null) {
+            AppiumServerFarm farm = AppiumServerFarm.fromConfig(getDevicePool().size());
+            farm.start(Integer.parseInt(getProperty("appium.farm.health.interval", "15")));
+            serverFarm = farm;
+        }
+    }
+    
+    /**
+     * Stop the Appium server farm
+     */
+    public static synchronized void stopAppiumServerFarm() {
+        if (serverFarm != null) {
+            serverFarm.stop();
+            serverFarm = null;
+            System.out.println("Appium server farm stopped");
+        }
+    }
+    
+    /**
+     * Get current driver instance for this thread
      */
     public static AppiumDriver getDriver() {
-        if (driver == null) {
-            driver = initializeDriver();
+        DriverLease lease = currentLease.get();
+        if (lease == null) {
+            return initializeDriver();
+        }
+        return lease.getDriver();
+    }
+    
+    /**
+     * Get the device lease held by this thread, or null if none
+     */
+    public static DriverLease getCurrentLease() {
+        return currentLease.get();
+    }
+    
+    /**
+     * Bind a lease acquired directly from the pool to this thread, or unbind with null
+     * Lets helpers that go through getDriver() run on worker threads such as broadcast devices
+     */
+    public static void bindLease(DriverLease lease) {
+        if (lease == null) {
+            currentLease.remove();
+        } else {
+            currentLease.set(lease);
         }
-        return driver;
     }
     
     /**
-     * Quit driver and clean up
+     * Return this thread's driver to the pool
      */
     public static void quitDriver() {
-        if (driver != null) {
-            driver.quit();
-            driver = null;
+        DriverLease lease = currentLease.get();
+        if (lease != null) {
+            currentLease.remove();
+            getDevicePool().release(lease);
         }
     }
     
+    /**
+     * Evict this thread's session from the pool, e.g. after it broke mid-test
+     */
+    public static void evictDriver() {
+        DriverLease lease = currentLease.get();
+        if (lease != null) {
+            currentLease.remove();
+            getDevicePool().evict(lease);
+        }
+    }
+    
+    /**
+     * Quit every pooled session; does nothing while the pool is held
+     */
+    public static void shutdownDevicePool() {
+        if (devicePoolHeld) {
+            return;
+        }
+        if (devicePool != null) {
+            devicePool.shutdown();
+        }
+        if (getBooleanProperty("http.pooled")) {
+            PooledHttpClientFactory.get().shutdown();
+        }
+        stopSimulator();
+    }
+    
+    /**
+     * Keep the pool, its sessions and the simulator across suites, e.g. on a grid worker that runs every test
+     * as its own suite; releasing the hold shuts the pool down
+     */
+    public static void holdDevicePool(boolean held) {
+        devicePoolHeld = held;
+        if (!held) {
+            shutdownDevicePool();
+        }
+    }
+    
+    /**
+     * Whether sessions outlive the current suite; suite-end hooks should leave shared device state alone
+     */
+    public static boolean isDevicePoolHeld() {
+        return devicePoolHeld;
+    }
+    
     /**
      * Get platform name
      */
@@ -0,0 +1,339 @@
+package com.mahadsiddiqui.drivers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import org.openqa.selenium.MutableCapabilities;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Remembers which app build and helper server version each device already has, so that sessions on
+ * an up-to-date device skip the app install and UiAutomator2/WDA setup
+ * Builds are identified by the SHA-256 of the artifact, computed through memory-mapped windows so a
+ * large APK or IPA never sits on the heap, and memoized by path, size and modification time.
+ * The per-device state is kept in a JSON file so it carries over between runs
+ */
+public class AppInstallCache {
+    
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+    private static volatile AppInstallCache instance;
+    private static final long CLI_TIMEOUT_SECONDS = 30;
+    private static final Map<String, CompletableFuture<Optional<String>>> DRIVER_VERSIONS = new ConcurrentHashMap<>();
+    
+    private final Path stateFile;
+    private final Map<String, Installed> devices = new ConcurrentHashMap<>();
+    private final Map<String, String> hashes = new ConcurrentHashMap<>();
+    
+    public AppInstallCache(Path stateFile) {
+        this.stateFile = stateFile;
+        load();
+    }
+    
+    /**
+     * Get the cache configured from app.install.* properties
+     */
+    public static AppInstallCache get() {
+        if (instance == null) {
+            synchronized (AppInstallCache.class) {
+                if (instance == null) {
+                    instance = new AppInstallCache(Paths.get(MobileDriverConfig.getProperty("app.install.state.path",
+                        "target/app-install-state.json")));
+                }
+            }
+        }
+        return instance;
+    }
+    
+    /**
+     * SHA-256 of a file, memoized until its size or modification time changes
+     */
+    public String hash(Path file) {
+        try {
+            String key = file.toAbsolutePath() + "|" + Files.size(file) + "|" + Files.getLastModifiedTime(file).toMillis();
+            return hashes.computeIfAbsent(key, ignored -> digest(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read app artifact " + file, e);
+        }
+    }
+    
+    /**
+     * Decide whether a session on this device can skip the install
+     */
+    public Plan plan(String device, Path app, String helperVersion) {
+        String hash = hash(app);
+        Installed installed = devices.get(device);
+        boolean upToDate = installed != null && installed.appHash.equals(hash)
+            && helperVersion != null && installed.helperVersion.equals(helperVersion);
+        return new Plan(device, app, hash, helperVersion, upToDate);
+    }
+    
+    /**
+     * Record that a session on the device came up with this build and helper version
+     */
+    public synchronized void installed(Plan plan) {
+        if (plan.helperVersion == null) {
+            return;
+        }
+        Installed current = devices.get(plan.device);
+        if (current != null && current.appHash.equals(plan.hash) && current.helperVersion.equals(plan.helperVersion)) {
+            return;
+        }
+        devices.put(plan.device, new Installed(plan.hash, plan.helperVersion));
+        save();
+    }
+    
+    /**
+     * Forget what a device has installed, e.g. after a skipped install turned out not to be usable
+     */
+    public synchronized void invalidate(String device) {
+        if (devices.remove(device) != null) {
+            save();
+        }
+    }
+    
+    /**
+     * Helper server version to key installs on: helper.server.version if set, otherwise the version of the
+     * Appium driver that installs the helper (uiautomator2 or xcuitest), or null if it cannot be determined.
+     * The driver version comes from the server's /appium/extensions, or for a local server from
+     * appium driver list --installed; it is looked up once per server and driver
+     */
+    public static String helperVersion(URL serverUrl, String driver) {
+        String configured = MobileDriverConfig.getProperty("helper.server.version", "");
+        if (!configured.isEmpty()) {
+            return configured;
+        }
+        
+        // The first caller looks the version up outside the map; concurrent sessions wait for its result
+        CompletableFuture<Optional<String>> created = new CompletableFuture<>();
+        CompletableFuture<Optional<String>> lookup = DRIVER_VERSIONS.putIfAbsent(serverUrl + "|" + driver, created);
+        if (lookup == null) {
+            lookup = created;
+            try {
+                created.complete(Optional.ofNullable(lookUpDriverVersion(serverUrl, driver)));
+            } finally {
+                created.complete(Optional.empty());
+            }
+        }
+        try {
+            return lookup.get(CLI_TIMEOUT_SECONDS + 5, TimeUnit.SECONDS).orElse(null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
+        }
+    }
+    
+    private static String lookUpDriverVersion(URL serverUrl, String driver) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(serverUrl, "appium/extensions").openConnection();
+            connection.setConnectTimeout(2000);
+            connection.setReadTimeout(2000);
+            try {
+                if (connection.getResponseCode() == 200) {
+                    String version = driverVersion(MAPPER.readTree(connection.getInputStream()), driver);
+                    if (version != null) {
+                        return version;
+                    }
+                }
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            // Not exposed by this server; ask the CLI if the server runs here
+        }
+        
+        String host = serverUrl.getHost();
+        if (!"localhost".equals(host) && !"127.0.0.1".equals(host)) {
+            return null;
+        }
+        Path output = null;
+        try {
+            // Output goes to a file so a hung CLI cannot block the read past the timeout
+            output = Files.createTempFile("appium-drivers", ".json");
+            Process process = new ProcessBuilder(MobileDriverConfig.getProperty("appium.cli.path", "appium"),
+                "driver", "list", "--installed", "--json")
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .redirectOutput(output.toFile())
+                .start();
+            if (!process.waitFor(CLI_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                System.err.println("appium driver list timed out, not keying installs on the driver version");
+                return null;
+            }
+            return process.exitValue() == 0 ? driverVersion(MAPPER.readTree(output.toFile()), driver) : null;
+        } catch (IOException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            if (output != null) {
+                try {
+                    Files.deleteIfExists(output);
+                } catch (IOException ignored) {
+                    // Left in the temp directory
+                }
+            }
+        }
+    }
+    
+    /**
+     * Version of the named driver in an extensions listing, as driver-version, or null if it is not listed
+     */
+    static String driverVersion(JsonNode extensions, String driver) {
+        JsonNode entry = extensions == null ? null : extensions.findValue(driver);
+        String version = entry == null ? "" : entry.path("version").asText("");
+        return version.isEmpty() ? null : driver + "-" + version;
+    }
+    
+    private static String digest(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAP_WINDOW) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(MAP_WINDOW, size - position));
+                digest.update(window);
+            }
+            
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to hash app artifact " + file, e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private void load() {
+        if (!Files.isRegularFile(stateFile)) {
+            return;
+        }
+        try {
+            Iterator<Map.Entry<String, JsonNode>> fields = MAPPER.readTree(stateFile.toFile()).fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                devices.put(field.getKey(), new Installed(field.getValue().path("appHash").asText(),
+                    field.getValue().path("helperVersion").asText()));
+            }
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable install state " + stateFile + ": " + e.getMessage());
+        }
+    }
+    
+    private void save() {
+        ObjectNode root = MAPPER.createObjectNode();
+        for (Map.Entry<String, Installed> entry : devices.entrySet()) {
+            root.putObject(entry.getKey())
+                .put("appHash", entry.getValue().appHash)
+                .put("helperVersion", entry.getValue().helperVersion);
+        }
+        
+        try {
+            Path parent = stateFile.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, "install-state", ".tmp");
+            MAPPER.writeValue(temp.toFile(), root);
+            Files.move(temp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Failed to save install state " + stateFile + ": " + e.getMessage());
+        }
+    }
+    
+    private static class Installed {
+        final String appHash;
+        final String helperVersion;
+        
+        Installed(String appHash, String helperVersion) {
+            this.appHash = appHash;
+            this.helperVersion = helperVersion;
+        }
+    }
+    
+    /**
+     * The install decision for one session
+     */
+    public static class Plan {
+        private final String device;
+        private final Path app;
+        private final String hash;
+        private final String helperVersion;
+        private final boolean upToDate;
+        
+        Plan(String device, Path app, String hash, String helperVersion, boolean upToDate) {
+            this.device = device;
+            this.app = app;
+            this.hash = hash;
+            this.helperVersion = helperVersion;
+            this.upToDate = upToDate;
+        }
+        
+        public String getDevice() {
+            return device;
+        }
+        
+        public String getHash() {
+            return hash;
+        }
+        
+        /**
+         * Whether the device already has this build and helper server
+         */
+        public boolean isUpToDate() {
+            return upToDate;
+        }
+        
+        /**
+         * Set the install capabilities: skip the app and helper setup when up to date, install otherwise
+         */
+        public void applyTo(MutableCapabilities capabilities, boolean android) {
+            capabilities.setCapability("app", upToDate ? null : app.toString());
+            if (android) {
+                capabilities.setCapability("skipServerInstallation", upToDate);
+                capabilities.setCapability("skipDeviceInitialization", upToDate);
+            } else {
+                capabilities.setCapability("usePrebuiltWDA", upToDate);
+            }
+        }
+        
+        /**
+         * Set the capabilities for a full install
+         */
+        public void restore(MutableCapabilities capabilities, boolean android) {
+            new Plan(device, app, hash, helperVersion, false).applyTo(capabilities, android);
+        }
+        
+        @Override
+        public String toString() {
+            return device + " " + hash.substring(0, 12) + (upToDate ? " (installed)" : " (install)");
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.mahadsiddiqui.drivers;
+
+import io.appium.java_client.AppiumDriver;
+import io.appium.java_client.InteractsWithApps;
+import io.appium.java_client.android.AndroidDriver;
+
+import java.util.Collections;
+
+/**
+ * Restores a clean app state on a reused session between tests
+ */
+final class AppStateReset {
+    
+    private AppStateReset() {
+    }
+    
+    /**
+     * Terminate the app, clear its data when no.reset/full.reset ask for it, and bring it back to the foreground
+     * Returns false when the state cannot be restored in place and the session should be recycled instead
+     */
+    static boolean reset(DriverLease lease) {
+        AppiumDriver driver = lease.getDriver();
+        DeviceProfile profile = lease.getProfile();
+        if (!(driver instanceof InteractsWithApps)) {
+            return false;
+        }
+        
+        boolean android = driver instanceof AndroidDriver;
+        String appId = android ? profile.getProperty("app.package") : profile.getProperty("bundle.id");
+        if (appId == null) {
+            return false;
+        }
+        
+        boolean clearData = profile.getBooleanProperty("full.reset") || !profile.getBooleanProperty("no.reset");
+        if (clearData && !android) {
+            // XCUITest has no in-place data clear, a new session reinstalls the app
+            return false;
+        }
+        
+        InteractsWithApps apps = (InteractsWithApps) driver;
+        apps.terminateApp(appId);
+        if (clearData) {
+            driver.executeScript("mobile: clearApp", Collections.singletonMap("appId", appId));
+        }
+        apps.activateApp(appId);
+        return true;
+    }
+}
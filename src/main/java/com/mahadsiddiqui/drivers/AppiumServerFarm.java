@@ -0,0 +1,255 @@
+package com.mahadsiddiqui.drivers;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * Runs several local automation servers on allocated ports and routes each device to one of them
+ * Each device also gets its own systemPort, wdaLocalPort and chromedriverPort so parallel sessions
+ * on one host never collide, and crashed servers are restarted by a scheduled health check
+ */
+public class AppiumServerFarm {
+    
+    private final int size;
+    private final IntFunction<ServerInstance> serverFactory;
+    private final PortAllocator ports;
+    private final List<ServerInstance> servers = new ArrayList<>();
+    private final List<Integer> serverPorts = new ArrayList<>();
+    private final int[] devicesPerServer;
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+    private ScheduledExecutorService healthChecker;
+    private volatile int restarts;
+    
+    public AppiumServerFarm(int size, IntFunction<ServerInstance> serverFactory, PortAllocator ports) {
+        this.size = size;
+        this.serverFactory = serverFactory;
+        this.ports = ports;
+        this.devicesPerServer = new int[size];
+    }
+    
+    /**
+     * Start every server in parallel and begin health checks every intervalSeconds
+     */
+    public synchronized void start(int intervalSeconds) {
+        ExecutorService starter = Executors.newFixedThreadPool(size);
+        try {
+            List<Future<?>> started = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                int port = ports.allocate();
+                ServerInstance server = serverFactory.apply(port);
+                serverPorts.add(port);
+                servers.add(server);
+                started.add(starter.submit(server::start));
+            }
+            for (Future<?> future : started) {
+                future.get();
+            }
+        } catch (Exception e) {
+            stop();
+            throw new RuntimeException("Failed to start server farm", e);
+        } finally {
+            starter.shutdown();
+        }
+        
+        healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "server-farm-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthChecker.scheduleWithFixedDelay(this::checkHealth, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        System.out.println("Server farm started with " + size + " instances on ports " + serverPorts);
+    }
+    
+    /**
+     * Stop the health checks and every server
+     */
+    public synchronized void stop() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+        }
+        for (ServerInstance server : servers) {
+            try {
+                server.stop();
+            } catch (RuntimeException e) {
+                System.err.println("Failed to stop server: " + e.getMessage());
+            }
+        }
+        for (int port : serverPorts) {
+            ports.release(port);
+        }
+        for (Route route : routes.values()) {
+            ports.release(route.systemPort);
+            ports.release(route.wdaLocalPort);
+            ports.release(route.chromedriverPort);
+        }
+        servers.clear();
+        serverPorts.clear();
+        routes.clear();
+        Arrays.fill(devicesPerServer, 0);
+    }
+    
+    /**
+     * Get the route for a device, assigning it to the least loaded server on first use
+     */
+    public synchronized Route route(DeviceProfile profile) {
+        Route route = routes.get(profile.getId());
+        if (route == null) {
+            int server = 0;
+            for (int i = 1; i < size; i++) {
+                if (devicesPerServer[i] < devicesPerServer[server]) {
+                    server = i;
+                }
+            }
+            devicesPerServer[server]++;
+            
+            route = new Route(server,
+                ports.allocate(8200, 8299),
+                ports.allocate(8100, 8199),
+                ports.allocate(9515, 9614));
+            routes.put(profile.getId(), route);
+        }
+        return route;
+    }
+    
+    /**
+     * Check every server and restart the ones that stopped answering
+     * Probes and restarts run outside the lock, so routing and URL lookups never wait on a slow server
+     */
+    public void checkHealth() {
+        List<ServerInstance> current;
+        List<Integer> currentPorts;
+        synchronized (this) {
+            current = new ArrayList<>(servers);
+            currentPorts = new ArrayList<>(serverPorts);
+        }
+        
+        for (int i = 0; i < current.size(); i++) {
+            ServerInstance dead = current.get(i);
+            if (dead.isRunning()) {
+                continue;
+            }
+            
+            int port = currentPorts.get(i);
+            System.err.println("Server on port " + port + " is down, restarting");
+            try {
+                dead.stop();
+            } catch (RuntimeException e) {
+                // Already dead
+            }
+            
+            ServerInstance replacement = serverFactory.apply(port);
+            try {
+                replacement.start();
+            } catch (RuntimeException e) {
+                System.err.println("Failed to restart server on port " + port + ": " + e.getMessage());
+                continue;
+            }
+            
+            boolean swapped;
+            synchronized (this) {
+                swapped = i < servers.size() && servers.get(i) == dead;
+                if (swapped) {
+                    servers.set(i, replacement);
+                    restarts++;
+                }
+            }
+            if (!swapped) {
+                // The farm was stopped or the server replaced while restarting
+                replacement.stop();
+            }
+        }
+    }
+    
+    /**
+     * Number of servers restarted by the health check
+     */
+    public int getRestarts() {
+        return restarts;
+    }
+    
+    /**
+     * Number of servers in the farm
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Base URL of the server with the given index
+     */
+    public synchronized URL getServerUrl(int server) {
+        return servers.get(server).getUrl();
+    }
+    
+    /**
+     * Build a farm of Appium servers from appium.farm.* configuration
+     */
+    public static AppiumServerFarm fromConfig(int deviceCount) {
+        int size = Integer.parseInt(MobileDriverConfig.getProperty("appium.farm.size", "0"));
+        String logPath = MobileDriverConfig.getProperty("appium.farm.log.path", "target/appium-logs/");
+        new File(logPath).mkdirs();
+        
+        return new AppiumServerFarm(size > 0 ? size : deviceCount,
+            port -> new AppiumServerInstance(port, new File(logPath, "appium-" + port + ".log")),
+            new PortAllocator());
+    }
+    
+    /**
+     * The server and driver ports assigned to one device
+     */
+    public class Route {
+        
+        private final int server;
+        private final int systemPort;
+        private final int wdaLocalPort;
+        private final int chromedriverPort;
+        
+        Route(int server, int systemPort, int wdaLocalPort, int chromedriverPort) {
+            this.server = server;
+            this.systemPort = systemPort;
+            this.wdaLocalPort = wdaLocalPort;
+            this.chromedriverPort = chromedriverPort;
+        }
+        
+        /**
+         * URL of the assigned server, following restarts
+         */
+        public URL getUrl() {
+            return getServerUrl(server);
+        }
+        
+        /**
+         * UiAutomator2 system port
+         */
+        public int getSystemPort() {
+            return systemPort;
+        }
+        
+        /**
+         * WebDriverAgent local port
+         */
+        public int getWdaLocalPort() {
+            return wdaLocalPort;
+        }
+        
+        /**
+         * Chromedriver port for webview contexts
+         */
+        public int getChromedriverPort() {
+            return chromedriverPort;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.mahadsiddiqui.drivers;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import io.appium.java_client.service.local.AppiumDriverLocalService;
+import io.appium.java_client.service.local.AppiumServiceBuilder;
+import io.appium.java_client.service.local.flags.GeneralServerFlag;
+
+import java.io.File;
+import java.net.URL;
+import java.time.Duration;
+
+/**
+ * Appium server started through AppiumDriverLocalService on a fixed local port
+ */
+public class AppiumServerInstance implements ServerInstance {
+    
+    private final int port;
+    private final File logFile;
+    private AppiumDriverLocalService service;
+    
+    public AppiumServerInstance(int port, File logFile) {
+        this.port = port;
+        this.logFile = logFile;
+    }
+    
+    @Override
+    public void start() {
+        AppiumServiceBuilder builder = new AppiumServiceBuilder();
+        builder.withIPAddress("127.0.0.1");
+        builder.usingPort(port);
+        builder.withTimeout(Duration.ofSeconds(60));
+        String allowInsecure = MobileDriverConfig.getProperty("appium.allow.insecure", "");
+        if (!allowInsecure.isEmpty()) {
+            builder.withArgument(GeneralServerFlag.ALLOW_INSECURE, allowInsecure);
+        }
+        if (logFile != null) {
+            builder.withLogFile(logFile);
+        }
+        
+        service = builder.build();
+        service.start();
+    }
+    
+    @Override
+    public void stop() {
+        if (service != null && service.isRunning()) {
+            service.stop();
+        }
+    }
+    
+    @Override
+    public boolean isRunning() {
+        return service != null && service.isRunning();
+    }
+    
+    @Override
+    public URL getUrl() {
+        return service.getUrl();
+    }
+}
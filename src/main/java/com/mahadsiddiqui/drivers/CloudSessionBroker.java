@@ -0,0 +1,324 @@
+package com.mahadsiddiqui.drivers;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import com.mahadsiddiqui.utils.LatencyHistogram;
+import org.openqa.selenium.MutableCapabilities;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * Admits session requests to a cloud device provider within the number of parallel slots on the plan
+ * Requests beyond cloud.max.sessions wait in a fair FIFO queue instead of hitting the provider and failing.
+ * When the provider still rejects a session for capacity, e.g. because other runs share the account,
+ * the request keeps its slot and retries with exponential backoff and full jitter, so a burst of threads
+ * cannot turn into a retry storm. Queue waits are recorded to show whether the slots are the bottleneck
+ * Idle sessions kept open for reuse still hold their slots, so a request that has to queue first asks the
+ * idle session reclaimer to quit one of them
+ */
+public class CloudSessionBroker {
+    
+    private static volatile CloudSessionBroker instance;
+    
+    private final String provider;
+    private final URL hubUrl;
+    private final int slots;
+    private final Semaphore permits;
+    private final Duration queueTimeout;
+    private final int maxAttempts;
+    private final long backoffInitialMillis;
+    private final long backoffMaxMillis;
+    private final List<String> capacityPatterns;
+    
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger peakInUse = new AtomicInteger();
+    private final AtomicLong sessions = new AtomicLong();
+    private final AtomicLong capacityRejections = new AtomicLong();
+    private final AtomicLong backoffMillis = new AtomicLong();
+    private final AtomicLong reclaimed = new AtomicLong();
+    private volatile BooleanSupplier idleSessionReclaimer;
+    
+    public CloudSessionBroker(String provider, URL hubUrl, int slots, Duration queueTimeout, int maxAttempts,
+                              long backoffInitialMillis, long backoffMaxMillis, List<String> capacityPatterns) {
+        this.provider = provider;
+        this.hubUrl = hubUrl;
+        this.slots = slots;
+        this.permits = new Semaphore(slots, true);
+        this.queueTimeout = queueTimeout;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffInitialMillis = backoffInitialMillis;
+        this.backoffMaxMillis = backoffMaxMillis;
+        this.capacityPatterns = new ArrayList<>();
+        for (String pattern : capacityPatterns) {
+            if (!pattern.trim().isEmpty()) {
+                this.capacityPatterns.add(pattern.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+    
+    /**
+     * Whether sessions go to a cloud provider rather than a local Appium server
+     */
+    public static boolean isEnabled() {
+        return !"none".equalsIgnoreCase(MobileDriverConfig.getProperty("cloud.provider", "none"));
+    }
+    
+    /**
+     * Get the broker for the provider configured in cloud.provider
+     */
+    public static CloudSessionBroker get() {
+        if (instance == null) {
+            synchronized (CloudSessionBroker.class) {
+                if (instance == null) {
+                    instance = fromConfig();
+                }
+            }
+        }
+        return instance;
+    }
+    
+    private static CloudSessionBroker fromConfig() {
+        String provider = MobileDriverConfig.getProperty("cloud.provider", "none").toLowerCase(Locale.ROOT);
+        String hub = MobileDriverConfig.getProperty("cloud.hub.url", "");
+        if (hub.isEmpty()) {
+            if (provider.equals("browserstack")) {
+                hub = "https://hub.browserstack.com/wd/hub";
+            } else if (provider.equals("sauce")) {
+                hub = "https://ondemand." + MobileDriverConfig.getProperty("sauce.region", "us-west-1")
+                    + ".saucelabs.com/wd/hub";
+            } else {
+                throw new IllegalArgumentException("Unsupported cloud provider: " + provider);
+            }
+        }
+        
+        try {
+            return new CloudSessionBroker(provider, new URL(hub),
+                Integer.parseInt(MobileDriverConfig.getProperty("cloud.max.sessions", "5")),
+                Duration.ofSeconds(Long.parseLong(MobileDriverConfig.getProperty("cloud.queue.timeout", "900"))),
+                Integer.parseInt(MobileDriverConfig.getProperty("cloud.session.attempts", "6")),
+                Long.parseLong(MobileDriverConfig.getProperty("cloud.backoff.initial.ms", "2000")),
+                Long.parseLong(MobileDriverConfig.getProperty("cloud.backoff.max.ms", "60000")),
+                Arrays.asList(MobileDriverConfig.getProperty("cloud.capacity.patterns",
+                    "parallel,capacity,concurrency,queue,busy,too many,ccy_limit").split(",")));
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid cloud hub URL: " + hub, e);
+        }
+    }
+    
+    /**
+     * Quit one idle session, returning whether one was found; called when a request finds no free slot
+     */
+    public void setIdleSessionReclaimer(BooleanSupplier idleSessionReclaimer) {
+        this.idleSessionReclaimer = idleSessionReclaimer;
+    }
+    
+    /**
+     * Whether requests are waiting for a slot, in which case idle sessions should not be kept
+     */
+    public boolean hasQueuedRequests() {
+        return permits.hasQueuedThreads();
+    }
+    
+    public String getProvider() {
+        return provider;
+    }
+    
+    public URL getHubUrl() {
+        return hubUrl;
+    }
+    
+    /**
+     * Add the provider credentials and build name to the capabilities, and point app at the uploaded build
+     */
+    public void applyTo(MutableCapabilities capabilities, DeviceProfile profile) {
+        Map<String, Object> options = new HashMap<>();
+        String build = MobileDriverConfig.getProperty("cloud.build.name", "");
+        if (provider.equals("browserstack")) {
+            options.put("userName", MobileDriverConfig.getProperty("browserstack.username", ""));
+            options.put("accessKey", MobileDriverConfig.getProperty("browserstack.access.key", ""));
+            options.put("sessionName", profile.getId());
+            if (!build.isEmpty()) {
+                options.put("buildName", build);
+            }
+            capabilities.setCapability("bstack:options", options);
+        } else if (provider.equals("sauce")) {
+            options.put("username", MobileDriverConfig.getProperty("sauce.username", ""));
+            options.put("accessKey", MobileDriverConfig.getProperty("sauce.access.key", ""));
+            options.put("name", profile.getId());
+            if (!build.isEmpty()) {
+                options.put("build", build);
+            }
+            capabilities.setCapability("sauce:options", options);
+        }
+        
+        // Providers install from an uploaded build (bs://..., storage:filename=...), not a local path
+        String app = profile.getProperty("cloud.app", "");
+        if (!app.isEmpty()) {
+            capabilities.setCapability("app", app);
+        }
+    }
+    
+    /**
+     * Wait for a free slot and open a session in it, retrying with backoff while the provider is at capacity
+     * The factory gets the slot and must arrange for it to be released when the session ends; the slot is
+     * released here if no session comes up
+     */
+    public <T> T open(Function<Slot, T> factory) {
+        Slot slot = acquire();
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    T session = factory.apply(slot);
+                    sessions.incrementAndGet();
+                    return session;
+                } catch (RuntimeException e) {
+                    if (!isCapacityError(e) || attempt >= maxAttempts) {
+                        throw e;
+                    }
+                    capacityRejections.incrementAndGet();
+                    backoff(attempt);
+                }
+            }
+        } catch (RuntimeException e) {
+            slot.release();
+            throw e;
+        }
+    }
+    
+    /**
+     * Take a slot, waiting in FIFO order up to cloud.queue.timeout
+     */
+    public Slot acquire() {
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(0, TimeUnit.MILLISECONDS);
+            if (!acquired) {
+                BooleanSupplier reclaimer = idleSessionReclaimer;
+                if (reclaimer != null && reclaimer.getAsBoolean()) {
+                    reclaimed.incrementAndGet();
+                }
+                acquired = permits.tryAcquire(queueTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a " + provider + " session slot", e);
+        }
+        queueWait.record((System.nanoTime() - start) / 1000);
+        if (!acquired) {
+            throw new RuntimeException("No " + provider + " session slot became free within "
+                + queueTimeout.getSeconds() + "s (" + slots + " slots)");
+        }
+        
+        peakInUse.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+        return new Slot();
+    }
+    
+    /**
+     * Whether a session failure means the provider is out of parallel capacity
+     */
+    public boolean isCapacityError(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            String message = cause.getMessage();
+            if (message == null) {
+                continue;
+            }
+            String lower = message.toLowerCase(Locale.ROOT);
+            for (String pattern : capacityPatterns) {
+                if (lower.contains(pattern)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Time requests spent queued for a slot, in microseconds
+     */
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+    
+    public int getInUse() {
+        return inUse.get();
+    }
+    
+    public int getPeakInUse() {
+        return peakInUse.get();
+    }
+    
+    public long getCapacityRejections() {
+        return capacityRejections.get();
+    }
+    
+    /**
+     * Idle sessions quit to free a slot for a queued request
+     */
+    public long getReclaimed() {
+        return reclaimed.get();
+    }
+    
+    /**
+     * Slots, sessions, capacity rejections and queue wait percentiles
+     */
+    public String summary() {
+        return String.format("%s: %d slots, peak %d in use, %d sessions, %d idle sessions reclaimed, "
+                + "%d capacity rejections (%d ms backoff), queue wait p50=%d ms p95=%d ms max=%d ms over %d requests",
+            provider, slots, peakInUse.get(), sessions.get(), reclaimed.get(), capacityRejections.get(),
+            backoffMillis.get(),
+            queueWait.getPercentile(50) / 1000, queueWait.getPercentile(95) / 1000, queueWait.getMax() / 1000,
+            queueWait.getCount());
+    }
+    
+    @Override
+    public String toString() {
+        return summary();
+    }
+    
+    private void backoff(int attempt) {
+        long ceiling = Math.min(backoffMaxMillis, backoffInitialMillis << Math.min(attempt - 1, 20));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        backoffMillis.addAndGet(delay);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while backing off from " + provider, e);
+        }
+    }
+    
+    /**
+     * One admitted session's claim on a provider slot
+     */
+    public class Slot {
+        
+        private final AtomicBoolean released = new AtomicBoolean();
+        
+        /**
+         * Give the slot back; safe to call more than once
+         */
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                inUse.decrementAndGet();
+                permits.release();
+            }
+        }
+    }
+}
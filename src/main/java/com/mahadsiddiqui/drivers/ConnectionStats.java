@@ -0,0 +1,96 @@
+package com.mahadsiddiqui.drivers;
+
+import com.mahadsiddiqui.utils.LatencyHistogram;
+import org.openqa.selenium.remote.http.Filter;
+import org.openqa.selenium.remote.http.HttpHandler;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Estimates how many requests reuse a kept-alive connection and how many had to open one
+ * The JDK client does not expose its pool or sockets, so nothing here is measured: idle connections are
+ * modelled the way it manages them:
+ * a finished request returns its connection to the pool, a new request takes one if any is idle and
+ * the pool empties once it has been idle for the keep-alive timeout. The handshake estimate is the
+ * median latency of requests on new connections minus that of requests on reused ones
+ */
+class ConnectionStats implements Filter {
+    
+    private final int poolSize;
+    private final long keepAliveMillis;
+    private final LatencyHistogram reusedLatency = new LatencyHistogram();
+    private final LatencyHistogram newLatency = new LatencyHistogram();
+    private final LongAdder sessionsReused = new LongAdder();
+    private int idle;
+    private long lastActivity;
+    
+    ConnectionStats(int poolSize, long keepAliveMillis) {
+        this.poolSize = poolSize > 0 ? poolSize : Integer.MAX_VALUE;
+        this.keepAliveMillis = keepAliveMillis;
+    }
+    
+    @Override
+    public HttpHandler apply(HttpHandler next) {
+        return request -> {
+            boolean reused = takeConnection();
+            long start = System.nanoTime();
+            try {
+                return next.execute(request);
+            } finally {
+                long micros = (System.nanoTime() - start) / 1000;
+                (reused ? reusedLatency : newLatency).record(micros);
+                returnConnection();
+            }
+        };
+    }
+    
+    void sessionReused() {
+        sessionsReused.increment();
+    }
+    
+    /**
+     * Requests the model expects to have opened a connection
+     */
+    long getConnectionsOpened() {
+        return newLatency.getCount();
+    }
+    
+    /**
+     * Requests the model expects to have reused an idle connection
+     */
+    long getConnectionsReused() {
+        return reusedLatency.getCount();
+    }
+    
+    private synchronized boolean takeConnection() {
+        long now = System.currentTimeMillis();
+        if (now - lastActivity > keepAliveMillis) {
+            idle = 0;
+        }
+        lastActivity = now;
+        if (idle > 0) {
+            idle--;
+            return true;
+        }
+        return false;
+    }
+    
+    private synchronized void returnConnection() {
+        lastActivity = System.currentTimeMillis();
+        idle = Math.min(poolSize, idle + 1);
+    }
+    
+    @Override
+    public String toString() {
+        long reused = reusedLatency.getCount();
+        long opened = newLatency.getCount();
+        long total = reused + opened;
+        long handshakeMicros = opened > 0 && reused > 0
+            ? Math.max(0, newLatency.getPercentile(50) - reusedLatency.getPercentile(50))
+            : 0;
+        return String.format("%d requests, est. %d connections opened, est. %.1f%% reused, "
+                + "est. %.1f ms handshake, %d sessions on a warm client",
+            total, opened, total > 0 ? reused * 100.0 / total : 0, handshakeMicros / 1000.0,
+            sessionsReused.sum());
+    }
+}
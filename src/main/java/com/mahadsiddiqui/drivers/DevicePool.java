@@ -0,0 +1,297 @@
+package com.mahadsiddiqui.drivers;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import com.mahadsiddiqui.utils.GestureEngine;
+import io.appium.java_client.AppiumDriver;
+import org.openqa.selenium.WebDriverException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * Thread-safe pool of devices, each leased to one test thread at a time
+ * With session.reuse enabled, sessions stay open between leases: the app is reset on release and the
+ * session is recycled once it exceeds session.max.age seconds or session.max.tests tests. Sessions are not
+ * kept while other sessions are waiting for capacity, e.g. a cloud provider's parallel slots
+ */
+public class DevicePool {
+    
+    private final BlockingQueue<DriverLease> available = new LinkedBlockingQueue<>();
+    private final Map<String, DriverLease> leases = new ConcurrentHashMap<>();
+    private final Function<DeviceProfile, AppiumDriver> driverFactory;
+    private final Duration defaultTimeout;
+    private final boolean healthCheck;
+    private final boolean reuseSessions;
+    private final long maxSessionAgeMillis;
+    private final int maxSessionTests;
+    private final boolean prewarmBeforeExpiry;
+    private final long prewarmMarginMillis;
+    private volatile SessionPrewarmer prewarmer;
+    private volatile BooleanSupplier sessionsQueued = () -> false;
+    
+    public DevicePool(List<DeviceProfile> profiles, Function<DeviceProfile, AppiumDriver> driverFactory) {
+        this.driverFactory = driverFactory;
+        this.defaultTimeout = Duration.ofSeconds(
+            Integer.parseInt(MobileDriverConfig.getProperty("device.pool.acquire.timeout", "300")));
+        this.healthCheck = Boolean.parseBoolean(MobileDriverConfig.getProperty("device.pool.health.check", "true"));
+        this.reuseSessions = Boolean.parseBoolean(MobileDriverConfig.getProperty("session.reuse", "true"));
+        this.maxSessionAgeMillis = Long.parseLong(MobileDriverConfig.getProperty("session.max.age", "0")) * 1000;
+        this.maxSessionTests = Integer.parseInt(MobileDriverConfig.getProperty("session.max.tests", "0"));
+        this.prewarmBeforeExpiry = Boolean.parseBoolean(MobileDriverConfig.getProperty("prewarm.before.expiry", "true"));
+        this.prewarmMarginMillis = Long.parseLong(MobileDriverConfig.getProperty("prewarm.expiry.margin", "60")) * 1000;
+        
+        for (DeviceProfile profile : profiles) {
+            DriverLease lease = new DriverLease(profile);
+            leases.put(profile.getId(), lease);
+            available.add(lease);
+        }
+    }
+    
+    /**
+     * Open replacement sessions in the background whenever a device is left without one
+     */
+    public void setPrewarmer(SessionPrewarmer prewarmer) {
+        this.prewarmer = prewarmer;
+    }
+    
+    /**
+     * Tell the pool when session requests are queued for capacity, so released sessions are quit instead of kept
+     */
+    public void setSessionsQueued(BooleanSupplier sessionsQueued) {
+        this.sessionsQueued = sessionsQueued;
+    }
+    
+    /**
+     * Get the pre-warmer, or null if pre-warming is disabled
+     */
+    public SessionPrewarmer getPrewarmer() {
+        return prewarmer;
+    }
+    
+    /**
+     * Pre-warm a session on every idle device that has none
+     */
+    public void warmIdleDevices() {
+        if (prewarmer == null) {
+            return;
+        }
+        for (DriverLease lease : available) {
+            if (!lease.hasSession()) {
+                prewarmer.warm(lease.getProfile());
+            }
+        }
+    }
+    
+    /**
+     * Lease a device, waiting up to device.pool.acquire.timeout seconds
+     */
+    public DriverLease acquire() {
+        return acquire(defaultTimeout);
+    }
+    
+    /**
+     * Lease a device, waiting up to the given timeout for one to become free
+     */
+    public DriverLease acquire(Duration timeout) {
+        DriverLease lease;
+        try {
+            lease = available.poll(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a device", e);
+        }
+        if (lease == null) {
+            throw new RuntimeException("No device became available within " + timeout.getSeconds() + "s");
+        }
+        
+        try {
+            prepare(lease);
+            return lease;
+        } catch (RuntimeException e) {
+            available.add(lease);
+            throw e;
+        }
+    }
+    
+    /**
+     * Lease a device without waiting, or return null if all devices are busy
+     */
+    public DriverLease tryAcquire() {
+        DriverLease lease = available.poll();
+        if (lease == null) {
+            return null;
+        }
+        
+        try {
+            prepare(lease);
+            return lease;
+        } catch (RuntimeException e) {
+            available.add(lease);
+            throw e;
+        }
+    }
+    
+    /**
+     * Return a device to the pool, resetting the app so the session can serve the next lease
+     */
+    public void release(DriverLease lease) {
+        lease.recordTest();
+        
+        if (!reuseSessions || isExpired(lease) || sessionsQueued.getAsBoolean()) {
+            closeSession(lease);
+        } else if (lease.hasSession()) {
+            try {
+                if (!AppStateReset.reset(lease)) {
+                    closeSession(lease);
+                }
+            } catch (WebDriverException e) {
+                System.err.println("App reset failed on device " + lease.getProfile().getId() + ": " + e.getMessage());
+                closeSession(lease);
+            }
+        }
+        available.add(lease);
+        replaceSession(lease);
+    }
+    
+    /**
+     * Return a device to the pool and discard its session
+     */
+    public void evict(DriverLease lease) {
+        closeSession(lease);
+        available.add(lease);
+        replaceSession(lease);
+    }
+    
+    /**
+     * Quit the session on one idle device to free its capacity, returning whether there was one
+     */
+    public boolean closeIdleSession() {
+        for (DriverLease lease : available) {
+            // Removing the lease first keeps acquire() from handing it out while its session is quit
+            if (lease.hasSession() && available.remove(lease)) {
+                try {
+                    closeSession(lease);
+                } finally {
+                    available.add(lease);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Number of devices in the pool
+     */
+    public int size() {
+        return leases.size();
+    }
+    
+    /**
+     * Number of devices not currently leased
+     */
+    public int availableCount() {
+        return available.size();
+    }
+    
+    /**
+     * Quit every idle session; leased sessions are left to their owners
+     */
+    public void shutdown() {
+        if (prewarmer != null) {
+            prewarmer.shutdown();
+        }
+        for (DriverLease lease : available) {
+            closeSession(lease);
+        }
+    }
+    
+    private void prepare(DriverLease lease) {
+        long start = System.currentTimeMillis();
+        
+        if (lease.hasSession() && healthCheck && !isHealthy(lease.getDriver())) {
+            System.err.println("Evicting unhealthy session on device " + lease.getProfile().getId());
+            closeSession(lease);
+        }
+        
+        boolean warm = lease.hasSession();
+        if (!warm) {
+            AppiumDriver driver = takePrewarmed(lease);
+            lease.attach(driver != null ? driver : driverFactory.apply(lease.getProfile()));
+        }
+        lease.recordAcquire(System.currentTimeMillis() - start, warm);
+        
+        // The session will be closed when this lease ends, so open its replacement while the test runs
+        if (prewarmer != null && prewarmBeforeExpiry && willExpireOnRelease(lease) && !sessionsQueued.getAsBoolean()) {
+            prewarmer.warm(lease.getProfile());
+        }
+    }
+    
+    /**
+     * Take a pre-warmed session for the lease, discarding one that died while it waited
+     */
+    private AppiumDriver takePrewarmed(DriverLease lease) {
+        if (prewarmer == null) {
+            return null;
+        }
+        AppiumDriver driver = prewarmer.take(lease.getProfile());
+        if (driver != null && healthCheck && !isHealthy(driver)) {
+            System.err.println("Discarding unhealthy pre-warmed session on device " + lease.getProfile().getId());
+            try {
+                driver.quit();
+            } catch (WebDriverException e) {
+                // Already gone
+            }
+            return null;
+        }
+        return driver;
+    }
+    
+    private void replaceSession(DriverLease lease) {
+        if (prewarmer != null && !lease.hasSession() && !sessionsQueued.getAsBoolean()) {
+            prewarmer.warm(lease.getProfile());
+        }
+    }
+    
+    private boolean isExpired(DriverLease lease) {
+        return (maxSessionAgeMillis > 0 && lease.getSessionAgeMillis() >= maxSessionAgeMillis)
+            || (maxSessionTests > 0 && lease.getTestsRun() >= maxSessionTests);
+    }
+    
+    /**
+     * Whether release() will close the lease's session once the current test is done
+     */
+    private boolean willExpireOnRelease(DriverLease lease) {
+        return !reuseSessions
+            || (maxSessionTests > 0 && lease.getTestsRun() + 1 >= maxSessionTests)
+            || (maxSessionAgeMillis > 0 && lease.getSessionAgeMillis() + prewarmMarginMillis >= maxSessionAgeMillis);
+    }
+    
+    private boolean isHealthy(AppiumDriver driver) {
+        try {
+            driver.manage().timeouts().getImplicitWaitTimeout();
+            return driver.getSessionId() != null;
+        } catch (WebDriverException e) {
+            return false;
+        }
+    }
+    
+    private void closeSession(DriverLease lease) {
+        if (lease.hasSession()) {
+            GestureEngine.release(lease.getDriver());
+            try {
+                lease.getDriver().quit();
+            } catch (WebDriverException e) {
+                System.err.println("Failed to quit session on device " + lease.getProfile().getId() + ": " + e.getMessage());
+            }
+            lease.detach();
+        }
+    }
+}
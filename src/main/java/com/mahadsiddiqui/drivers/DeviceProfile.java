@@ -0,0 +1,101 @@
+package com.mahadsiddiqui.drivers;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single device in the pool and the capability overrides that apply to it
+ * Per-device keys are configured as device.&lt;id&gt;.&lt;key&gt; and fall back to the global configuration
+ */
+public class DeviceProfile {
+    
+    private final String id;
+    private final Map<String, String> overrides;
+    
+    public DeviceProfile(String id, Map<String, String> overrides) {
+        this.id = id;
+        this.overrides = Collections.unmodifiableMap(overrides);
+    }
+    
+    /**
+     * Build the device profiles listed in device.pool, simulator.devices simulated devices when running
+     * against the simulator, or a single default profile if none are listed
+     */
+    public static List<DeviceProfile> fromConfig() {
+        List<DeviceProfile> profiles = new ArrayList<>();
+        String pool = MobileDriverConfig.getProperty("device.pool", "");
+        
+        for (String id : pool.split(",")) {
+            id = id.trim();
+            if (!id.isEmpty()) {
+                profiles.add(new DeviceProfile(id, MobileDriverConfig.getPropertiesWithPrefix("device." + id + ".")));
+            }
+        }
+        
+        // The simulator can stand in for any number of devices without listing them
+        int simulated = MobileDriverConfig.getIntProperty("simulator.devices");
+        if (profiles.isEmpty() && "simulated".equalsIgnoreCase(MobileDriverConfig.getPlatformName()) && simulated > 0) {
+            for (int i = 1; i <= simulated; i++) {
+                profiles.add(new DeviceProfile("sim-" + i, Collections.emptyMap()));
+            }
+        }
+        
+        if (profiles.isEmpty()) {
+            profiles.add(new DeviceProfile("default", Collections.emptyMap()));
+        }
+        return profiles;
+    }
+    
+    /**
+     * Get device id
+     */
+    public String getId() {
+        return id;
+    }
+    
+    /**
+     * Get property value, preferring the device override
+     */
+    public String getProperty(String key) {
+        String value = overrides.get(key);
+        return value != null ? value : MobileDriverConfig.getProperty(key);
+    }
+    
+    /**
+     * Get property value with default
+     */
+    public String getProperty(String key, String defaultValue) {
+        String value = getProperty(key);
+        return value != null ? value : defaultValue;
+    }
+    
+    /**
+     * Get integer property value
+     */
+    public int getIntProperty(String key) {
+        return Integer.parseInt(getProperty(key, "0"));
+    }
+    
+    /**
+     * Get boolean property value
+     */
+    public boolean getBooleanProperty(String key) {
+        return Boolean.parseBoolean(getProperty(key, "false"));
+    }
+    
+    /**
+     * Get platform name
+     */
+    public String getPlatformName() {
+        return getProperty("platform.name", "android");
+    }
+    
+    @Override
+    public String toString() {
+        return id;
+    }
+}
@@ -0,0 +1,89 @@
+package com.mahadsiddiqui.drivers;
+
+import io.appium.java_client.AppiumDriver;
+
+/**
+ * A device slot in the pool together with the Appium session currently open on it
+ * The pool's pre-warm and replacement threads read leases while tests use them, so the state is volatile
+ */
+public class DriverLease {
+    
+    private final DeviceProfile profile;
+    private volatile AppiumDriver driver;
+    private volatile long sessionStartedAt;
+    private volatile int testsRun;
+    private volatile long acquireMillis;
+    private volatile boolean warm;
+    
+    DriverLease(DeviceProfile profile) {
+        this.profile = profile;
+    }
+    
+    /**
+     * Get the leased device
+     */
+    public DeviceProfile getProfile() {
+        return profile;
+    }
+    
+    /**
+     * Get the session open on the device
+     */
+    public AppiumDriver getDriver() {
+        return driver;
+    }
+    
+    /**
+     * Number of tests that have used the current session
+     */
+    public int getTestsRun() {
+        return testsRun;
+    }
+    
+    /**
+     * Age of the current session in milliseconds
+     */
+    public long getSessionAgeMillis() {
+        return driver == null ? 0 : System.currentTimeMillis() - sessionStartedAt;
+    }
+    
+    /**
+     * Time spent handing out this lease, including session creation on a cold start
+     */
+    public long getAcquireMillis() {
+        return acquireMillis;
+    }
+    
+    /**
+     * Whether the last acquisition reused an already open session
+     */
+    public boolean isWarm() {
+        return warm;
+    }
+    
+    boolean hasSession() {
+        return driver != null;
+    }
+    
+    void attach(AppiumDriver driver) {
+        // Publish the session last, so a thread that sees it also sees when it started
+        this.sessionStartedAt = System.currentTimeMillis();
+        this.testsRun = 0;
+        this.driver = driver;
+    }
+    
+    void detach() {
+        this.driver = null;
+        this.testsRun = 0;
+    }
+    
+    void recordAcquire(long millis, boolean warm) {
+        this.acquireMillis = millis;
+        this.warm = warm;
+    }
+    
+    void recordTest() {
+        // Only the thread holding the lease counts tests
+        testsRun++;
+    }
+}
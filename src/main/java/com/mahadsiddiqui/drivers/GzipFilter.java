@@ -0,0 +1,45 @@
+package com.mahadsiddiqui.drivers;
+
+import org.openqa.selenium.remote.http.Contents;
+import org.openqa.selenium.remote.http.Filter;
+import org.openqa.selenium.remote.http.HttpHandler;
+import org.openqa.selenium.remote.http.HttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Asks the server for gzip responses and inflates them, which pays off for page source and
+ * screenshots over slow links to remote devices
+ */
+class GzipFilter implements Filter {
+    
+    @Override
+    public HttpHandler apply(HttpHandler next) {
+        return request -> {
+            request.setHeader("Accept-Encoding", "gzip");
+            HttpResponse response = next.execute(request);
+            if (!"gzip".equalsIgnoreCase(response.getHeader("Content-Encoding"))) {
+                return response;
+            }
+            
+            try (InputStream in = new GZIPInputStream(response.getContent().get())) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+                response.removeHeader("Content-Encoding");
+                response.removeHeader("Content-Length");
+                response.setContent(Contents.bytes(out.toByteArray()));
+                return response;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to inflate gzip response", e);
+            }
+        };
+    }
+}
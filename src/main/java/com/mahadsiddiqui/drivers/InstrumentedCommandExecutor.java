@@ -0,0 +1,109 @@
+package com.mahadsiddiqui.drivers;
+
+import com.mahadsiddiqui.utils.CommandMetrics;
+import io.appium.java_client.MobileCommand;
+import io.appium.java_client.remote.AppiumCommandExecutor;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.Response;
+import org.openqa.selenium.json.Json;
+import org.openqa.selenium.json.JsonOutput;
+import org.openqa.selenium.remote.http.HttpClient;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Appium command executor that times every W3C command and records it in CommandMetrics
+ * While tracing, each command also records its payload: the JSON characters of its parameters and response value
+ */
+public class InstrumentedCommandExecutor extends AppiumCommandExecutor {
+    
+    private static final Json JSON = new Json();
+    
+    private final String device;
+    private volatile Runnable onQuit;
+    
+    public InstrumentedCommandExecutor(URL serverUrl, HttpClient.Factory httpClientFactory, String device) {
+        super(MobileCommand.commandRepository, serverUrl, httpClientFactory);
+        this.device = device;
+    }
+    
+    /**
+     * Run a callback once the session's quit command has been sent, whether or not it succeeded
+     */
+    public void setOnQuit(Runnable onQuit) {
+        this.onQuit = onQuit;
+    }
+    
+    @Override
+    public Response execute(Command command) throws IOException {
+        long start = System.nanoTime();
+        Response response = null;
+        String outcome = "ok";
+        try {
+            response = super.execute(command);
+            if (response != null && response.getStatus() != null && response.getStatus() != 0) {
+                outcome = "error";
+            }
+            return response;
+        } catch (IOException | RuntimeException e) {
+            outcome = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            long payloadChars = CommandMetrics.isTracing() ? payloadChars(command, response) : 0;
+            String sessionId = command.getSessionId() != null
+                ? command.getSessionId().toString()
+                : response != null ? response.getSessionId() : null;
+            CommandMetrics.record(command.getName(), sessionId, device, start, System.nanoTime() - start,
+                payloadChars, outcome);
+            if (onQuit != null && DriverCommand.QUIT.equals(command.getName())) {
+                onQuit.run();
+            }
+        }
+    }
+    
+    private static long payloadChars(Command command, Response response) {
+        return jsonChars(command.getParameters()) + (response != null ? jsonChars(response.getValue()) : 0);
+    }
+    
+    /**
+     * Length of the value serialized as Selenium sends it, counted without building the string
+     */
+    private static long jsonChars(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        CharCounter counter = new CharCounter();
+        try (JsonOutput output = JSON.newOutput(counter)) {
+            output.setPrettyPrint(false);
+            output.write(value);
+        } catch (RuntimeException e) {
+            // A value Selenium cannot serialize was not sent as JSON either
+        }
+        return counter.count;
+    }
+    
+    private static class CharCounter implements Appendable {
+        
+        private long count;
+        
+        @Override
+        public Appendable append(CharSequence chars) {
+            count += chars == null ? 4 : chars.length();
+            return this;
+        }
+        
+        @Override
+        public Appendable append(CharSequence chars, int start, int end) {
+            count += end - start;
+            return this;
+        }
+        
+        @Override
+        public Appendable append(char c) {
+            count++;
+            return this;
+        }
+    }
+}
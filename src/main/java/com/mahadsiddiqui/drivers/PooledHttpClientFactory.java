@@ -0,0 +1,246 @@
+package com.mahadsiddiqui.drivers;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import org.openqa.selenium.Credentials;
+import org.openqa.selenium.remote.http.ClientConfig;
+import org.openqa.selenium.remote.http.Filter;
+import org.openqa.selenium.remote.http.HttpClient;
+import org.openqa.selenium.remote.http.HttpRequest;
+import org.openqa.selenium.remote.http.HttpResponse;
+import org.openqa.selenium.remote.http.WebSocket;
+
+import java.net.Proxy;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * HTTP client factory that gives every session against the same Appium server one shared client
+ * Selenium's default factory builds a new JDK HTTP client, with its own connection pool and threads, per
+ * session and closes it when the session quits. Here the underlying client lives for the whole run, so
+ * kept-alive connections carry over from one session to the next; sessions get a delegate whose close()
+ * only detaches them. Sessions share a client only if their configs agree on the server, proxy, credentials
+ * and filters. Timeouts, pool size and keep-alive come from the http.* properties
+ */
+public class PooledHttpClientFactory implements HttpClient.Factory {
+    
+    private static volatile PooledHttpClientFactory instance;
+    
+    private final HttpClient.Factory delegate;
+    private final Map<ClientKey, SharedClient> clients = new ConcurrentHashMap<>();
+    private final Map<String, ConnectionStats> stats = new ConcurrentHashMap<>();
+    private final Duration connectTimeout;
+    private final Duration readTimeout;
+    private final boolean compression;
+    private final int poolSize;
+    private final long keepAliveMillis;
+    
+    public PooledHttpClientFactory(HttpClient.Factory delegate, Duration connectTimeout, Duration readTimeout,
+                                   boolean compression, int poolSize, Duration keepAlive) {
+        this.delegate = delegate;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.compression = compression;
+        this.poolSize = poolSize;
+        this.keepAliveMillis = keepAlive.toMillis();
+    }
+    
+    /**
+     * Shared factory configured from the http.* properties
+     */
+    public static PooledHttpClientFactory get() {
+        if (instance == null) {
+            synchronized (PooledHttpClientFactory.class) {
+                if (instance == null) {
+                    int poolSize = MobileDriverConfig.getIntProperty("http.pool.size");
+                    long keepAlive = Long.parseLong(MobileDriverConfig.getProperty("http.keepalive.seconds", "60"));
+                    
+                    // Read once by the JDK client when its first instance is created, so set them before that
+                    setIfAbsent("jdk.httpclient.keepalive.timeout", String.valueOf(keepAlive));
+                    if (poolSize > 0) {
+                        setIfAbsent("jdk.httpclient.connectionPoolSize", String.valueOf(poolSize));
+                    }
+                    
+                    instance = new PooledHttpClientFactory(HttpClient.Factory.createDefault(),
+                        Duration.ofSeconds(Long.parseLong(MobileDriverConfig.getProperty("http.connect.timeout", "10"))),
+                        Duration.ofSeconds(Long.parseLong(MobileDriverConfig.getProperty("http.read.timeout", "180"))),
+                        MobileDriverConfig.getBooleanProperty("http.compression"),
+                        poolSize, Duration.ofSeconds(keepAlive));
+                }
+            }
+        }
+        return instance;
+    }
+    
+    @Override
+    public HttpClient createClient(ClientConfig config) {
+        String server = String.valueOf(config.baseUri());
+        ClientKey key = new ClientKey(config);
+        while (true) {
+            SharedClient shared = clients.computeIfAbsent(key, ignored -> {
+                ConnectionStats serverStats = stats.computeIfAbsent(server,
+                    unused -> new ConnectionStats(poolSize, keepAliveMillis));
+                Filter filters = compression ? serverStats.andThen(new GzipFilter()) : serverStats;
+                ClientConfig tuned = config
+                    .connectionTimeout(connectTimeout)
+                    .readTimeout(readTimeout)
+                    .withFilter(filters);
+                return new SharedClient(delegate.createClient(tuned), serverStats);
+            });
+            
+            // A client retired by shutdown() or cleanup is on its way out; make a new one
+            int sessions = shared.attach();
+            if (sessions > 0) {
+                if (sessions > 1) {
+                    shared.stats.sessionReused();
+                }
+                return new SessionClient(shared);
+            }
+            clients.remove(key, shared);
+        }
+    }
+    
+    /**
+     * Close pooled clients that no session is using
+     */
+    @Override
+    public void cleanupIdleClients() {
+        clients.entrySet().removeIf(entry -> entry.getValue().retireIfIdle());
+    }
+    
+    /**
+     * Retire every pooled client: idle ones close now, ones still used by a session close when it detaches
+     */
+    public void shutdown() {
+        for (Map.Entry<ClientKey, SharedClient> entry : clients.entrySet()) {
+            clients.remove(entry.getKey(), entry.getValue());
+            entry.getValue().retire();
+        }
+    }
+    
+    /**
+     * Connection reuse and handshake estimates per server, kept after the clients are closed
+     * The JDK client does not report its connections, so these are modelled from request timing, not measured
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<String, ConnectionStats> entry : new TreeMap<>(stats).entrySet()) {
+            summary.append(String.format("  %s: %s%n", entry.getKey(), entry.getValue()));
+        }
+        return summary.length() > 0 ? summary.toString() : "  no HTTP clients created\n";
+    }
+    
+    private static void setIfAbsent(String property, String value) {
+        if (System.getProperty(property) == null) {
+            System.setProperty(property, value);
+        }
+    }
+    
+    /**
+     * The parts of a session's client config that the shared client is built with
+     * Filters and credentials are compared by identity, as they do not define equality
+     */
+    private static class ClientKey {
+        final URI baseUri;
+        final Proxy proxy;
+        final Credentials credentials;
+        final Filter filter;
+        
+        ClientKey(ClientConfig config) {
+            this.baseUri = config.baseUri();
+            this.proxy = config.proxy();
+            this.credentials = config.credentials();
+            this.filter = config.filter();
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ClientKey)) {
+                return false;
+            }
+            ClientKey key = (ClientKey) other;
+            return Objects.equals(baseUri, key.baseUri) && Objects.equals(proxy, key.proxy)
+                && credentials == key.credentials && filter == key.filter;
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(baseUri, proxy, System.identityHashCode(credentials), System.identityHashCode(filter));
+        }
+    }
+    
+    private static class SharedClient {
+        final HttpClient client;
+        final ConnectionStats stats;
+        private int sessions;
+        private boolean retired;
+        
+        SharedClient(HttpClient client, ConnectionStats stats) {
+            this.client = client;
+            this.stats = stats;
+        }
+        
+        /**
+         * Attach a session, returning the number attached, or 0 if the client has been retired
+         */
+        synchronized int attach() {
+            return retired ? 0 : ++sessions;
+        }
+        
+        synchronized void detach() {
+            if (--sessions == 0 && retired) {
+                client.close();
+            }
+        }
+        
+        synchronized void retire() {
+            if (!retired) {
+                retired = true;
+                if (sessions == 0) {
+                    client.close();
+                }
+            }
+        }
+        
+        synchronized boolean retireIfIdle() {
+            if (sessions == 0) {
+                retire();
+                return true;
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * A session's view of the shared client; closing it leaves the connections pooled
+     */
+    private static class SessionClient implements HttpClient {
+        private final SharedClient shared;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        
+        SessionClient(SharedClient shared) {
+            this.shared = shared;
+        }
+        
+        @Override
+        public HttpResponse execute(HttpRequest request) {
+            return shared.client.execute(request);
+        }
+        
+        @Override
+        public WebSocket openSocket(HttpRequest request, WebSocket.Listener listener) {
+            return shared.client.openSocket(request, listener);
+        }
+        
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                shared.detach();
+            }
+        }
+    }
+}
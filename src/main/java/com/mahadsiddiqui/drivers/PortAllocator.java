@@ -0,0 +1,61 @@
+package com.mahadsiddiqui.drivers;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Hands out local ports that are free and not already reserved by another server or device in this JVM
+ */
+public class PortAllocator {
+    
+    private final Set<Integer> reserved = new HashSet<>();
+    
+    /**
+     * Reserve a free port chosen by the operating system
+     */
+    public synchronized int allocate() {
+        for (int attempt = 0; attempt < 20; attempt++) {
+            try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                int port = socket.getLocalPort();
+                if (reserved.add(port)) {
+                    return port;
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to find a free port", e);
+            }
+        }
+        throw new RuntimeException("Unable to find an unreserved free port");
+    }
+    
+    /**
+     * Reserve the first free port in [from, to], as required for driver ports with fixed ranges
+     */
+    public synchronized int allocate(int from, int to) {
+        for (int port = from; port <= to; port++) {
+            if (!reserved.contains(port) && isFree(port)) {
+                reserved.add(port);
+                return port;
+            }
+        }
+        throw new RuntimeException("No free port in range " + from + "-" + to);
+    }
+    
+    /**
+     * Return a port to the allocator
+     */
+    public synchronized void release(int port) {
+        reserved.remove(port);
+    }
+    
+    private static boolean isFree(int port) {
+        try (ServerSocket socket = new ServerSocket(port, 1, InetAddress.getLoopbackAddress())) {
+            socket.setReuseAddress(true);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.mahadsiddiqui.drivers;
+
+import java.net.URL;
+
+/**
+ * A local automation server process managed by the server farm
+ */
+public interface ServerInstance {
+    
+    /**
+     * Start the server, blocking until it accepts requests
+     */
+    void start();
+    
+    /**
+     * Stop the server
+     */
+    void stop();
+    
+    /**
+     * Whether the server is up and answering requests
+     */
+    boolean isRunning();
+    
+    /**
+     * Base URL that sessions should be created against
+     */
+    URL getUrl();
+}
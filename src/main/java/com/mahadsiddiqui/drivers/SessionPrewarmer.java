@@ -0,0 +1,212 @@
+package com.mahadsiddiqui.drivers;
+
+import io.appium.java_client.AppiumDriver;
+import org.openqa.selenium.WebDriverException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Opens sessions in the background so that a test rarely waits on session creation
+ * Keeps at most prewarm.max.ready ready or in-flight sessions per device profile and
+ * quits spare sessions once there are fewer tests left to start than sessions ready
+ */
+public class SessionPrewarmer {
+    
+    private final Function<DeviceProfile, AppiumDriver> driverFactory;
+    private final ExecutorService executor;
+    private final int maxReady;
+    
+    private final Map<String, Deque<AppiumDriver>> ready = new HashMap<>();
+    private final Map<String, Integer> inFlight = new HashMap<>();
+    private int readyTotal;
+    private int inFlightTotal;
+    private int testsNotStarted = Integer.MAX_VALUE;
+    private boolean shutdown;
+    
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final AtomicInteger wasted = new AtomicInteger();
+    
+    public SessionPrewarmer(Function<DeviceProfile, AppiumDriver> driverFactory, int threads, int maxReady) {
+        this.driverFactory = driverFactory;
+        this.maxReady = maxReady;
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "session-prewarmer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Start opening a session for the profile unless enough are already ready or on the way
+     */
+    public synchronized void warm(DeviceProfile profile) {
+        String id = profile.getId();
+        int pending = ready.getOrDefault(id, new ArrayDeque<>()).size() + inFlight.getOrDefault(id, 0);
+        if (shutdown || pending >= maxReady || readyTotal + inFlightTotal >= testsNotStarted) {
+            return;
+        }
+        
+        inFlight.merge(id, 1, Integer::sum);
+        inFlightTotal++;
+        started.incrementAndGet();
+        executor.submit(() -> create(profile));
+    }
+    
+    /**
+     * Take a ready session for the profile, waiting for one that is already being opened
+     * Returns null when nothing was pre-warmed and the caller should open the session itself
+     */
+    public synchronized AppiumDriver take(DeviceProfile profile) {
+        String id = profile.getId();
+        while (isEmpty(ready.get(id)) && inFlight.getOrDefault(id, 0) > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        
+        Deque<AppiumDriver> sessions = ready.get(id);
+        if (isEmpty(sessions)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        readyTotal--;
+        hits.incrementAndGet();
+        return sessions.poll();
+    }
+    
+    /**
+     * Set how many tests have yet to start, trimming spare sessions beyond that
+     */
+    public synchronized void setTestsNotStarted(int count) {
+        testsNotStarted = count;
+        trimToDemand();
+    }
+    
+    /**
+     * Record that a test started, trimming spare sessions once the remaining queue runs dry
+     */
+    public synchronized void testStarted() {
+        if (testsNotStarted != Integer.MAX_VALUE && testsNotStarted > 0) {
+            testsNotStarted--;
+        }
+        trimToDemand();
+    }
+    
+    /**
+     * Quit all ready sessions and stop the background workers
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            testsNotStarted = 0;
+            trimToDemand();
+        }
+        executor.shutdownNow();
+    }
+    
+    /**
+     * Sessions open and waiting to be taken
+     */
+    public synchronized int getReady() {
+        return readyTotal;
+    }
+    
+    /**
+     * Sessions started in the background
+     */
+    public int getStarted() {
+        return started.get();
+    }
+    
+    /**
+     * Leases served by a pre-warmed session
+     */
+    public int getHits() {
+        return hits.get();
+    }
+    
+    /**
+     * Leases that had to open a session themselves
+     */
+    public int getMisses() {
+        return misses.get();
+    }
+    
+    /**
+     * Pre-warmed sessions that were quit without ever being leased
+     */
+    public int getWasted() {
+        return wasted.get();
+    }
+    
+    /**
+     * Fraction of cold leases served by a pre-warmed session
+     */
+    public double getHitRate() {
+        int total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("started=%d, hits=%d, misses=%d, wasted=%d, hit rate=%.1f%%",
+            getStarted(), getHits(), getMisses(), getWasted(), getHitRate() * 100);
+    }
+    
+    private void create(DeviceProfile profile) {
+        AppiumDriver driver = null;
+        try {
+            driver = driverFactory.apply(profile);
+        } catch (RuntimeException e) {
+            System.err.println("Pre-warming session on device " + profile.getId() + " failed: " + e.getMessage());
+        }
+        
+        synchronized (this) {
+            inFlight.merge(profile.getId(), -1, Integer::sum);
+            inFlightTotal--;
+            if (driver != null) {
+                if (shutdown || readyTotal >= testsNotStarted) {
+                    quit(driver);
+                } else {
+                    ready.computeIfAbsent(profile.getId(), id -> new ArrayDeque<>()).add(driver);
+                    readyTotal++;
+                }
+            }
+            notifyAll();
+        }
+    }
+    
+    private void trimToDemand() {
+        for (Deque<AppiumDriver> sessions : ready.values()) {
+            while (readyTotal > testsNotStarted && !sessions.isEmpty()) {
+                quit(sessions.poll());
+                readyTotal--;
+            }
+        }
+    }
+    
+    private void quit(AppiumDriver driver) {
+        wasted.incrementAndGet();
+        try {
+            driver.quit();
+        } catch (WebDriverException e) {
+            System.err.println("Failed to quit spare session: " + e.getMessage());
+        }
+    }
+    
+    private static boolean isEmpty(Deque<AppiumDriver> sessions) {
+        return sessions == null || sessions.isEmpty();
+    }
+}
@@ -0,0 +1,158 @@
+package com.mahadsiddiqui.grid;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.mahadsiddiqui.utils.ResultStream;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * One coordinator/worker socket carrying newline-delimited JSON messages
+ * Workers only ever send a request and wait for its reply, so requests from several threads are serialized
+ */
+class GridConnection implements Closeable {
+    
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    
+    private final Socket socket;
+    private final BufferedReader in;
+    private final Writer out;
+    
+    GridConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        socket.setTcpNoDelay(true);
+        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+    
+    static ObjectNode message(String type) {
+        ObjectNode message = MAPPER.createObjectNode();
+        message.put("type", type);
+        return message;
+    }
+    
+    synchronized void send(ObjectNode message) throws IOException {
+        out.write(MAPPER.writeValueAsString(message));
+        out.write('\n');
+        out.flush();
+    }
+    
+    JsonNode read() throws IOException {
+        String line = in.readLine();
+        if (line == null) {
+            throw new EOFException("Connection closed by " + socket.getRemoteSocketAddress());
+        }
+        return MAPPER.readTree(line);
+    }
+    
+    /**
+     * Send a message and wait for the reply
+     */
+    synchronized JsonNode request(ObjectNode message) throws IOException {
+        send(message);
+        return read();
+    }
+    
+    void setReadTimeout(long millis) throws IOException {
+        socket.setSoTimeout((int) millis);
+    }
+    
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Already closed
+        }
+    }
+    
+    /**
+     * Encode a result in the result stream's record format, waiting for attachments still being written
+     * Attachment contents travel with the result, since the coordinator may run on another host
+     */
+    static ObjectNode toJson(ResultStream.TestRecord record, long attachmentTimeoutMillis) {
+        ObjectNode json = MAPPER.createObjectNode();
+        json.put("name", record.getName());
+        json.put("class", record.getClassName());
+        json.put("status", record.getStatus());
+        json.put("device", record.getDevice());
+        json.put("start", record.getStartMillis());
+        json.put("duration", record.getDurationMillis());
+        json.put("parameters", record.getParameters());
+        json.put("error", record.getError());
+        
+        ArrayNode attachments = json.putArray("attachments");
+        for (ResultStream.Attachment attachment : record.getAttachments()) {
+            try {
+                Path path = attachment.getFile().get(attachmentTimeoutMillis, TimeUnit.MILLISECONDS);
+                attachments.addObject()
+                    .put("name", attachment.getName())
+                    .put("type", attachment.getType())
+                    .put("file", path.getFileName().toString())
+                    .put("data", Base64.getEncoder().encodeToString(Files.readAllBytes(path)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException | TimeoutException | IOException e) {
+                System.err.println("Dropping attachment " + attachment.getName() + ": " + e);
+            }
+        }
+        return json;
+    }
+    
+    /**
+     * Decode a result sent by a worker, prefixing the device with the worker it ran on and writing its
+     * attachments under attachmentDir/[worker]/
+     */
+    static ResultStream.TestRecord fromJson(JsonNode json, String worker, Path attachmentDir) throws IOException {
+        ResultStream.TestRecord record = new ResultStream.TestRecord(
+            json.path("name").asText(),
+            json.path("class").asText(),
+            json.path("status").asText(),
+            worker + "/" + json.path("device").asText("-"),
+            json.path("start").asLong(),
+            json.path("duration").asLong(),
+            json.path("parameters").isTextual() ? json.path("parameters").asText() : null,
+            json.path("error").isTextual() ? json.path("error").asText() : null);
+        
+        Path dir = attachmentDir.resolve(safeName(worker));
+        for (JsonNode attachment : json.path("attachments")) {
+            Files.createDirectories(dir);
+            String name = safeName(attachment.path("file").asText("attachment"));
+            Path file = dir.resolve(name);
+            if (Files.exists(file)) {
+                file = Files.createTempFile(dir, "", "-" + name);
+            }
+            Files.write(file, Base64.getDecoder().decode(attachment.path("data").asText("")));
+            record.getAttachments().add(new ResultStream.Attachment(attachment.path("name").asText(),
+                attachment.path("type").asText(), CompletableFuture.completedFuture(file)));
+        }
+        return record;
+    }
+    
+    /**
+     * A worker id or file name reduced to characters that are safe as a single path segment
+     */
+    private static String safeName(String name) {
+        String safe = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        return safe.isEmpty() || safe.startsWith(".") ? "_" + safe : safe;
+    }
+}
@@ -0,0 +1,418 @@
+package com.mahadsiddiqui.grid;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import com.mahadsiddiqui.utils.HtmlReport;
+import com.mahadsiddiqui.utils.ResultStream;
+import com.mahadsiddiqui.utils.TestHistory;
+import com.mahadsiddiqui.utils.TestScheduler;
+import org.testng.annotations.Test;
+import org.testng.xml.XmlClass;
+import org.testng.xml.XmlInclude;
+import org.testng.xml.XmlSuite;
+import org.testng.xml.XmlTest;
+import org.testng.xml.internal.Parser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the test methods of a suite to GridWorker processes on any number of runner hosts
+ * Tests are handed out one per free device, so throughput follows the total device count. Each worker
+ * takes batches from the scheduled queue into its own deque, sized by its devices; once the queue is empty
+ * an idle worker steals the back half of the longest deque. Work held by a worker that disconnects or
+ * misses heartbeats goes back to the front of the queue. Results are merged into one result stream, and
+ * the attachments workers send with them are stored in an attachments directory next to it
+ */
+public class GridCoordinator implements Closeable {
+    
+    private final ServerSocket server;
+    private final ResultStream results;
+    private final Path attachmentDir;
+    private final int prefetchPerDevice;
+    private final long heartbeatTimeoutMillis;
+    private final int maxAttempts;
+    private final int total;
+    
+    private final Deque<String> queue;
+    private final Map<String, Worker> workers = new LinkedHashMap<>();
+    private final Map<String, Integer> attempts = new HashMap<>();
+    private final Set<String> finished = new HashSet<>();
+    private final CountDownLatch complete = new CountDownLatch(1);
+    private int steals;
+    private int reassigned;
+    private volatile boolean closed;
+    
+    public GridCoordinator(int port, List<String> tests, ResultStream results, int prefetchPerDevice,
+                           long heartbeatTimeoutMillis, int maxAttempts) throws IOException {
+        this.server = new ServerSocket(port);
+        this.results = results;
+        this.attachmentDir = results.getFile().toAbsolutePath().getParent().resolve("attachments");
+        this.prefetchPerDevice = Math.max(1, prefetchPerDevice);
+        this.heartbeatTimeoutMillis = heartbeatTimeoutMillis;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.queue = new ArrayDeque<>(new LinkedHashSet<>(tests));
+        this.total = queue.size();
+        if (total == 0) {
+            complete.countDown();
+        }
+    }
+    
+    /**
+     * Build a coordinator from the grid.* properties
+     */
+    public static GridCoordinator fromConfig(List<String> tests, ResultStream results) throws IOException {
+        return new GridCoordinator(
+            Integer.parseInt(MobileDriverConfig.getProperty("grid.coordinator.port", "7420")),
+            tests,
+            results,
+            Integer.parseInt(MobileDriverConfig.getProperty("grid.prefetch.per.device", "2")),
+            Long.parseLong(MobileDriverConfig.getProperty("grid.heartbeat.timeout.ms", "15000")),
+            Integer.parseInt(MobileDriverConfig.getProperty("grid.max.attempts", "2")));
+    }
+    
+    /**
+     * Start accepting workers
+     */
+    public GridCoordinator start() {
+        Thread acceptor = new Thread(this::accept, "grid-coordinator");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return this;
+    }
+    
+    public int getPort() {
+        return server.getLocalPort();
+    }
+    
+    /**
+     * Wait until every test has a result
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        return complete.await(timeout, unit);
+    }
+    
+    /**
+     * Number of times an idle worker took tests queued on another worker
+     */
+    public synchronized int getSteals() {
+        return steals;
+    }
+    
+    /**
+     * Number of tests put back on the queue after their worker was lost
+     */
+    public synchronized int getReassigned() {
+        return reassigned;
+    }
+    
+    public synchronized String summary() {
+        StringBuilder text = new StringBuilder(String.format("%d/%d tests finished, %d steals, %d reassigned%n",
+            finished.size(), total, steals, reassigned));
+        for (Worker worker : workers.values()) {
+            text.append(String.format("  %s: %d devices, %d run, %d queued%n",
+                worker.id, worker.devices, worker.completed, worker.queue.size()));
+        }
+        return text.toString();
+    }
+    
+    /**
+     * Stop accepting workers, giving connected ones up to a heartbeat timeout to see that the run is over
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + heartbeatTimeoutMillis;
+            while (!workers.isEmpty() && complete.getCount() == 0 && System.currentTimeMillis() < deadline) {
+                try {
+                    wait(Math.max(1, deadline - System.currentTimeMillis()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            closed = true;
+            for (Worker worker : workers.values()) {
+                worker.connection.close();
+            }
+        }
+        try {
+            server.close();
+        } catch (IOException ignored) {
+            // Already closed
+        }
+    }
+    
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                Thread handler = new Thread(() -> serve(socket), "grid-worker-" + socket.getRemoteSocketAddress());
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Grid coordinator failed to accept a worker: " + e.getMessage());
+                }
+            }
+        }
+    }
+    
+    private void serve(Socket socket) {
+        Worker worker = null;
+        try (GridConnection connection = new GridConnection(socket)) {
+            // Workers heartbeat well inside this, so a silent connection means a hung or partitioned worker
+            connection.setReadTimeout(heartbeatTimeoutMillis);
+            JsonNode hello = connection.read();
+            if (!"register".equals(hello.path("type").asText())) {
+                throw new IOException("Expected register, got " + hello);
+            }
+            worker = register(hello.path("worker").asText("worker"), Math.max(1, hello.path("devices").size()),
+                connection);
+            connection.send(GridConnection.message("registered").put("worker", worker.id));
+            
+            while (true) {
+                JsonNode message = connection.read();
+                String type = message.path("type").asText();
+                if ("next".equals(type)) {
+                    connection.send(next(worker));
+                } else if ("result".equals(type)) {
+                    // Attachments are written out before taking the coordinator's lock
+                    List<ResultStream.TestRecord> records = new ArrayList<>();
+                    for (JsonNode record : message.path("records")) {
+                        records.add(GridConnection.fromJson(record, worker.id, attachmentDir));
+                    }
+                    result(worker, message.path("test").asText(), records);
+                    connection.send(GridConnection.message("ok"));
+                } else if ("heartbeat".equals(type)) {
+                    connection.send(GridConnection.message("ok"));
+                } else if ("bye".equals(type)) {
+                    return;
+                } else {
+                    throw new IOException("Unknown message " + message);
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                System.err.println("Lost grid worker " + (worker != null ? worker.id : socket.getRemoteSocketAddress())
+                    + ": " + e.getMessage());
+            }
+        } finally {
+            if (worker != null) {
+                disconnect(worker);
+            }
+        }
+    }
+    
+    private synchronized Worker register(String id, int devices, GridConnection connection) {
+        String unique = id;
+        for (int i = 2; workers.containsKey(unique); i++) {
+            unique = id + "#" + i;
+        }
+        Worker worker = new Worker(unique, devices, connection);
+        workers.put(unique, worker);
+        System.out.println("Grid worker " + unique + " registered with " + devices + " devices");
+        return worker;
+    }
+    
+    private synchronized ObjectNode next(Worker worker) {
+        if (complete.getCount() == 0) {
+            return GridConnection.message("done");
+        }
+        
+        String test = worker.queue.pollFirst();
+        if (test == null) {
+            for (int i = 0; i < prefetchPerDevice * worker.devices && !queue.isEmpty(); i++) {
+                worker.queue.addLast(queue.pollFirst());
+            }
+            test = worker.queue.pollFirst();
+        }
+        if (test == null) {
+            test = steal(worker);
+        }
+        if (test == null) {
+            // Everything left is running; a lost worker may still hand some of it back
+            return GridConnection.message("wait");
+        }
+        
+        worker.running.add(test);
+        attempts.merge(test, 1, Integer::sum);
+        return GridConnection.message("run").put("test", test);
+    }
+    
+    /**
+     * Move the back half of the longest deque to an idle worker; the queue is longest first,
+     * so the shortest tests are the ones that move
+     */
+    private String steal(Worker thief) {
+        Worker victim = null;
+        for (Worker worker : workers.values()) {
+            if (worker != thief && (victim == null || worker.queue.size() > victim.queue.size())) {
+                victim = worker;
+            }
+        }
+        if (victim == null || victim.queue.isEmpty()) {
+            return null;
+        }
+        
+        int count = (victim.queue.size() + 1) / 2;
+        for (int i = 0; i < count; i++) {
+            thief.queue.addFirst(victim.queue.pollLast());
+        }
+        steals++;
+        return thief.queue.pollFirst();
+    }
+    
+    private synchronized void result(Worker worker, String test, List<ResultStream.TestRecord> records) {
+        if (!worker.running.remove(test)) {
+            System.err.println("Ignoring result for " + test + " from " + worker.id + ", which was not running it");
+            return;
+        }
+        
+        records.forEach(results::write);
+        worker.completed++;
+        finish(test);
+    }
+    
+    private synchronized void disconnect(Worker worker) {
+        if (workers.remove(worker.id) == null) {
+            return;
+        }
+        
+        List<String> orphaned = new ArrayList<>(worker.running);
+        orphaned.addAll(worker.queue);
+        int requeued = 0;
+        for (int i = orphaned.size() - 1; i >= 0; i--) {
+            String test = orphaned.get(i);
+            if (attempts.getOrDefault(test, 0) >= maxAttempts) {
+                // The test may be what keeps killing workers, so stop handing it out
+                String[] name = split(test);
+                results.write(new ResultStream.TestRecord(name[1], name[0], "FAILED", worker.id + "/-",
+                    System.currentTimeMillis(), 0, null,
+                    "Lost with worker " + worker.id + " after " + attempts.get(test) + " attempts"));
+                finish(test);
+            } else {
+                queue.addFirst(test);
+                requeued++;
+            }
+        }
+        reassigned += requeued;
+        if (requeued > 0 && !closed) {
+            System.out.println("Grid worker " + worker.id + " left; " + requeued + " tests back in the queue");
+        }
+        notifyAll();
+    }
+    
+    private void finish(String test) {
+        finished.add(test);
+        if (finished.size() == total) {
+            complete.countDown();
+        }
+    }
+    
+    private static String[] split(String test) {
+        int dot = test.lastIndexOf('.');
+        return new String[] {test.substring(0, Math.max(0, dot)), test.substring(dot + 1)};
+    }
+    
+    /**
+     * Test methods of a testng.xml suite, keyed class.method like the scheduler history
+     */
+    public static List<String> testsFromSuite(File suiteFile) throws IOException, ClassNotFoundException {
+        List<String> tests = new ArrayList<>();
+        for (XmlSuite suite : new Parser(suiteFile.getPath()).parseToList()) {
+            for (XmlTest xmlTest : suite.getTests()) {
+                for (XmlClass xmlClass : xmlTest.getXmlClasses()) {
+                    Set<String> included = new HashSet<>();
+                    for (XmlInclude include : xmlClass.getIncludedMethods()) {
+                        included.add(include.getName());
+                    }
+                    
+                    Class<?> testClass = Class.forName(xmlClass.getName());
+                    for (Method method : testClass.getMethods()) {
+                        Test test = method.getAnnotation(Test.class);
+                        if (test != null && test.enabled()
+                            && (included.isEmpty() || included.contains(method.getName()))
+                            && !xmlClass.getExcludedMethods().contains(method.getName())) {
+                            tests.add(testClass.getName() + "." + method.getName());
+                        }
+                    }
+                }
+            }
+        }
+        return tests;
+    }
+    
+    /**
+     * Run a suite across grid workers: java ... GridCoordinator [testng.xml]
+     * Tests are ordered from the scheduler history, and the merged results update it and build the HTML report
+     */
+    public static void main(String[] args) throws Exception {
+        File suiteFile = new File(args.length > 0 ? args[0] : "src/test/resources/testng.xml");
+        File historyFile = new File(MobileDriverConfig.getProperty("scheduler.history.file", "reports/test-history.json"));
+        TestHistory history = TestHistory.load(historyFile,
+            Double.parseDouble(MobileDriverConfig.getProperty("scheduler.history.alpha", "0.3")));
+        TestScheduler scheduler = new TestScheduler(history,
+            MobileDriverConfig.getBooleanProperty("scheduler.fail.fast"),
+            Double.parseDouble(MobileDriverConfig.getProperty("scheduler.fail.fast.threshold", "0.2")));
+        List<String> tests = scheduler.order(testsFromSuite(suiteFile));
+        
+        Path reportPath = Paths.get(MobileDriverConfig.getProperty("report.path", "reports/"));
+        ResultStream results = new ResultStream(reportPath.resolve("results.ndjson"),
+            Integer.parseInt(MobileDriverConfig.getProperty("report.stream.queue.size", "256")), 30_000);
+        GridCoordinator coordinator = fromConfig(tests, results).start();
+        System.out.println("Grid coordinator serving " + tests.size() + " tests from " + suiteFile
+            + " on port " + coordinator.getPort());
+        
+        coordinator.awaitCompletion(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        coordinator.close();
+        System.out.print(coordinator.summary());
+        
+        Path merged = results.close();
+        ResultStream.forEach(merged, record -> {
+            if (!"SKIPPED".equals(record.path("status").asText())) {
+                history.record(record.path("class").asText() + "." + record.path("name").asText(),
+                    record.path("duration").asLong(), "PASSED".equals(record.path("status").asText()));
+            }
+        });
+        history.save(historyFile);
+        
+        Path html = reportPath.resolve("test-report.html");
+        HtmlReport.write(merged, html, MobileDriverConfig.getProperty("extent.report.title", "Grid run"));
+        System.out.println("Merged " + results.getWritten() + " results into " + merged + ", report at " + html);
+    }
+    
+    private static class Worker {
+        private final String id;
+        private final int devices;
+        private final GridConnection connection;
+        private final Deque<String> queue = new ArrayDeque<>();
+        private final Set<String> running = new LinkedHashSet<>();
+        private int completed;
+        
+        Worker(String id, int devices, GridConnection connection) {
+            this.id = id;
+            this.devices = devices;
+            this.connection = connection;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.mahadsiddiqui.grid;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import com.mahadsiddiqui.drivers.DeviceProfile;
+import com.mahadsiddiqui.utils.ResultStream;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registers this host's devices with a GridCoordinator and runs the tests it hands out, one device lane
+ * per device, until the coordinator reports the run finished. Heartbeats keep the worker's tests assigned
+ * to it while they run
+ */
+public class GridWorker {
+    
+    /**
+     * Runs one test method, keyed class.method, on a device lane
+     */
+    public interface Executor {
+        List<ResultStream.TestRecord> run(String test, String lane) throws Exception;
+    }
+    
+    private final String host;
+    private final int port;
+    private final String id;
+    private final List<String> lanes;
+    private final Executor executor;
+    private final long heartbeatMillis;
+    private final long pollMillis;
+    private final AtomicInteger executed = new AtomicInteger();
+    private volatile GridConnection connection;
+    private volatile boolean stopped;
+    private volatile String registeredId;
+    
+    public GridWorker(String host, int port, String id, List<String> lanes, Executor executor,
+                      long heartbeatMillis, long pollMillis) {
+        this.host = host;
+        this.port = port;
+        this.id = id;
+        this.lanes = lanes;
+        this.executor = executor;
+        this.heartbeatMillis = heartbeatMillis;
+        this.pollMillis = pollMillis;
+    }
+    
+    /**
+     * Build a worker for this host's device pool from the grid.* properties
+     */
+    public static GridWorker fromConfig(String id, Executor executor) {
+        List<String> lanes = new ArrayList<>();
+        for (DeviceProfile profile : DeviceProfile.fromConfig()) {
+            lanes.add(profile.getId());
+        }
+        return new GridWorker(
+            MobileDriverConfig.getProperty("grid.coordinator.host", "localhost"),
+            Integer.parseInt(MobileDriverConfig.getProperty("grid.coordinator.port", "7420")),
+            id,
+            lanes,
+            executor,
+            Long.parseLong(MobileDriverConfig.getProperty("grid.heartbeat.ms", "2000")),
+            Long.parseLong(MobileDriverConfig.getProperty("grid.poll.interval.ms", "500")));
+    }
+    
+    /**
+     * Worker id from grid.worker.id, or host name and process id
+     */
+    public static String defaultId() {
+        String id = MobileDriverConfig.getProperty("grid.worker.id", "");
+        if (!id.isEmpty()) {
+            return id;
+        }
+        try {
+            id = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            id = "worker";
+        }
+        return id + "-" + ProcessHandle.current().pid();
+    }
+    
+    /**
+     * Register and run tests until the coordinator has none left or goes away
+     */
+    public void run() throws IOException, InterruptedException {
+        connection = new GridConnection(new Socket(host, port));
+        ObjectNode hello = GridConnection.message("register").put("worker", id);
+        ArrayNode devices = hello.putArray("devices");
+        lanes.forEach(devices::add);
+        registeredId = connection.request(hello).path("worker").asText(id);
+        System.out.println("Grid worker " + registeredId + " registered " + lanes.size() + " devices with "
+            + host + ":" + port);
+        
+        Thread heartbeat = new Thread(this::heartbeat, "grid-heartbeat-" + registeredId);
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+        
+        List<Thread> threads = new ArrayList<>();
+        for (String lane : lanes) {
+            Thread thread = new Thread(() -> work(lane), "grid-lane-" + lane);
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        boolean lost = stopped;
+        stopped = true;
+        heartbeat.interrupt();
+        if (!lost) {
+            try {
+                connection.send(GridConnection.message("bye"));
+            } catch (IOException ignored) {
+                // The coordinator is already shutting down
+            }
+        }
+        connection.close();
+        System.out.println("Grid worker " + registeredId + " ran " + executed.get() + " tests");
+    }
+    
+    /**
+     * Drop the connection without reporting, as a crashed worker would
+     */
+    public void abort() {
+        stopped = true;
+        if (connection != null) {
+            connection.close();
+        }
+    }
+    
+    /**
+     * Number of tests run and reported
+     */
+    public int getExecuted() {
+        return executed.get();
+    }
+    
+    /**
+     * Id the coordinator registered this worker under
+     */
+    public String getRegisteredId() {
+        return registeredId;
+    }
+    
+    private void work(String lane) {
+        try {
+            while (!stopped) {
+                JsonNode reply = connection.request(GridConnection.message("next"));
+                String type = reply.path("type").asText();
+                if ("done".equals(type)) {
+                    return;
+                }
+                if ("wait".equals(type)) {
+                    Thread.sleep(pollMillis);
+                    continue;
+                }
+                
+                String test = reply.path("test").asText();
+                ObjectNode result = GridConnection.message("result").put("test", test);
+                ArrayNode records = result.putArray("records");
+                for (ResultStream.TestRecord record : execute(test, lane)) {
+                    records.add(GridConnection.toJson(record, 30_000));
+                }
+                if (stopped) {
+                    return;
+                }
+                connection.request(result);
+                executed.incrementAndGet();
+            }
+        } catch (IOException e) {
+            if (!stopped) {
+                System.err.println("Grid worker " + registeredId + " lost the coordinator: " + e.getMessage());
+                stopped = true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private List<ResultStream.TestRecord> execute(String test, String lane) {
+        try {
+            return executor.run(test, lane);
+        } catch (Exception e) {
+            StringWriter trace = new StringWriter();
+            e.printStackTrace(new PrintWriter(trace));
+            int dot = test.lastIndexOf('.');
+            return Collections.singletonList(new ResultStream.TestRecord(test.substring(dot + 1),
+                test.substring(0, Math.max(0, dot)), "FAILED", lane, System.currentTimeMillis(), 0, null,
+                trace.toString()));
+        }
+    }
+    
+    private void heartbeat() {
+        try {
+            while (!stopped) {
+                Thread.sleep(heartbeatMillis);
+                connection.request(GridConnection.message("heartbeat"));
+            }
+        } catch (IOException e) {
+            // The lanes see the same failure on their next request
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Run a worker for this host's devices: java ... GridWorker
+     */
+    public static void main(String[] args) throws Exception {
+        String id = defaultId();
+        // Every test runs as its own suite, so keep sessions open across them
+        MobileDriverConfig.holdDevicePool(true);
+        try (TestNgExecutor executor = TestNgExecutor.fromConfig(id)) {
+            fromConfig(id, executor).run();
+        } finally {
+            MobileDriverConfig.holdDevicePool(false);
+        }
+    }
+}
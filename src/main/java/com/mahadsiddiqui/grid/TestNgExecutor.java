@@ -0,0 +1,119 @@
+package com.mahadsiddiqui.grid;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import com.mahadsiddiqui.listeners.DeviceLogListener;
+import com.mahadsiddiqui.listeners.ResultStreamListener;
+import com.mahadsiddiqui.utils.ResultStream;
+import com.mahadsiddiqui.utils.ScreenshotPipeline;
+import org.testng.ISuite;
+import org.testng.ITestNGListener;
+import org.testng.ITestResult;
+import org.testng.TestNG;
+import org.testng.xml.XmlClass;
+import org.testng.xml.XmlInclude;
+import org.testng.xml.XmlSuite;
+import org.testng.xml.XmlTest;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs a single test method through TestNG on the calling thread, so the method leases its device as usual
+ * Every test is its own suite while other lanes keep running, so the worker holds the device pool, which
+ * tells suite-end hooks to leave sessions, log collectors and the screenshot writers alone until close()
+ * Results also go to a per-worker result stream on this host, which keeps a partial report if the
+ * coordinator is lost and collects the attachments listeners add while the test runs
+ */
+public class TestNgExecutor implements GridWorker.Executor, Closeable {
+    
+    private final List<Class<? extends ITestNGListener>> listeners;
+    private final ResultStream partial;
+    
+    public TestNgExecutor(List<Class<? extends ITestNGListener>> listeners, Path partialResults) {
+        this.listeners = listeners;
+        this.partial = partialResults != null ? ResultStream.open(partialResults) : null;
+    }
+    
+    /**
+     * Build an executor with the listeners in grid.worker.listeners, streaming to report.path/results-[id].ndjson
+     */
+    @SuppressWarnings("unchecked")
+    public static TestNgExecutor fromConfig(String workerId) throws ClassNotFoundException {
+        List<Class<? extends ITestNGListener>> listeners = new ArrayList<>();
+        for (String name : MobileDriverConfig.getProperty("grid.worker.listeners", "").split(",")) {
+            if (!name.trim().isEmpty()) {
+                listeners.add((Class<? extends ITestNGListener>) Class.forName(name.trim()));
+            }
+        }
+        Path partial = ResultStream.isEnabled()
+            ? Paths.get(MobileDriverConfig.getProperty("report.path", "reports/"), "results-" + workerId + ".ndjson")
+            : null;
+        return new TestNgExecutor(listeners, partial);
+    }
+    
+    @Override
+    public List<ResultStream.TestRecord> run(String test, String lane) {
+        int dot = test.lastIndexOf('.');
+        XmlSuite suite = new XmlSuite();
+        suite.setName("Grid lane " + lane);
+        XmlTest xmlTest = new XmlTest(suite);
+        xmlTest.setName(test);
+        XmlClass xmlClass = new XmlClass(test.substring(0, dot));
+        xmlClass.setIncludedMethods(Collections.singletonList(new XmlInclude(test.substring(dot + 1))));
+        xmlTest.setXmlClasses(Collections.singletonList(xmlClass));
+        
+        Capture capture = new Capture();
+        TestNG testng = new TestNG(false);
+        testng.setVerbose(0);
+        testng.setXmlSuites(Collections.singletonList(suite));
+        testng.setListenerClasses(listeners);
+        testng.addListener(capture);
+        testng.run();
+        
+        if (capture.records.isEmpty()) {
+            throw new IllegalStateException("TestNG ran no test for " + test);
+        }
+        if (partial != null) {
+            capture.records.forEach(partial::write);
+        }
+        return capture.records;
+    }
+    
+    /**
+     * Finish what the listeners leave running while the device pool is held, then close the partial stream
+     */
+    @Override
+    public void close() {
+        ScreenshotPipeline pipeline = ScreenshotPipeline.get();
+        pipeline.flush(60);
+        System.out.println("Screenshots: " + pipeline);
+        DeviceLogListener.stopCollectors();
+        if (partial != null) {
+            partial.close();
+        }
+    }
+    
+    /**
+     * Collects results in the result stream format instead of writing them to the suite's stream
+     */
+    private static class Capture extends ResultStreamListener {
+        private final List<ResultStream.TestRecord> records = Collections.synchronizedList(new ArrayList<>());
+        
+        @Override
+        public void onStart(ISuite suite) {
+        }
+        
+        @Override
+        public void onFinish(ISuite suite) {
+        }
+        
+        @Override
+        protected void record(ITestResult result, String status) {
+            records.add(toRecord(result, status));
+        }
+    }
+}
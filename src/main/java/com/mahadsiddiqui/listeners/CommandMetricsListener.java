@@ -0,0 +1,64 @@
+package com.mahadsiddiqui.listeners;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import com.mahadsiddiqui.drivers.CloudSessionBroker;
+import com.mahadsiddiqui.drivers.PooledHttpClientFactory;
+import com.mahadsiddiqui.utils.CommandMetrics;
+import io.qameta.allure.Allure;
+import org.testng.IInvokedMethod;
+import org.testng.IInvokedMethodListener;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ITestResult;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Attaches per-test Appium command latency to the report and prints the suite-wide percentiles at the end
+ * Also writes the command timeline as Chrome trace JSON when metrics.trace.enabled is set
+ */
+public class CommandMetricsListener implements IInvokedMethodListener, ISuiteListener {
+    
+    @Override
+    public void onStart(ISuite suite) {
+        CommandMetrics.setTracing(MobileDriverConfig.getBooleanProperty("metrics.trace.enabled"));
+    }
+    
+    @Override
+    public void beforeInvocation(IInvokedMethod method, ITestResult testResult) {
+        if (method.isTestMethod()) {
+            CommandMetrics.startTest();
+        }
+    }
+    
+    @Override
+    public void afterInvocation(IInvokedMethod method, ITestResult testResult) {
+        if (method.isTestMethod()) {
+            Allure.addAttachment("Appium command latency", "text/plain", CommandMetrics.testSummary());
+        }
+    }
+    
+    @Override
+    public void onFinish(ISuite suite) {
+        System.out.println("Appium command latency for suite " + suite.getName() + ":");
+        System.out.println(CommandMetrics.suiteSummary());
+        if (MobileDriverConfig.getBooleanProperty("http.pooled")) {
+            System.out.println("HTTP connection reuse (estimated from request timing, not measured):");
+            System.out.print(PooledHttpClientFactory.get().summary());
+        }
+        if (CloudSessionBroker.isEnabled()) {
+            System.out.println("Cloud session slots: " + CloudSessionBroker.get().summary());
+        }
+        
+        if (MobileDriverConfig.getBooleanProperty("metrics.trace.enabled")) {
+            File trace = new File(MobileDriverConfig.getProperty("metrics.trace.path", "target/command-trace.json"));
+            try {
+                CommandMetrics.writeTrace(trace);
+                System.out.println("Command trace written to " + trace.getPath());
+            } catch (IOException e) {
+                System.err.println("Failed to write command trace: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.mahadsiddiqui.listeners;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import com.mahadsiddiqui.drivers.CloudSessionBroker;
+import com.mahadsiddiqui.drivers.DeviceProfile;
+import com.mahadsiddiqui.drivers.DriverLease;
+import com.mahadsiddiqui.utils.DeviceLogCollector;
+import com.mahadsiddiqui.utils.LogRingBuffer;
+import com.mahadsiddiqui.utils.ResultStream;
+import io.qameta.allure.Allure;
+import org.openqa.selenium.Capabilities;
+import org.testng.IInvokedMethod;
+import org.testng.IInvokedMethodListener;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ITestResult;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a log collector running for each device session and writes the test's log window only when
+ * log.capture.policy asks for it: on failure (the default) or always. Passing tests cost no session calls
+ */
+public class DeviceLogListener implements IInvokedMethodListener, ISuiteListener {
+    
+    private static final String START_ATTRIBUTE = "device.log.start";
+    private static final Map<String, DeviceLogCollector> COLLECTORS = new ConcurrentHashMap<>();
+    
+    @Override
+    public void beforeInvocation(IInvokedMethod method, ITestResult testResult) {
+        DriverLease lease = MobileDriverConfig.getCurrentLease();
+        if (!method.isTestMethod() || !isEnabled() || lease == null || lease.getDriver() == null) {
+            return;
+        }
+        
+        DeviceProfile profile = lease.getProfile();
+        DeviceLogCollector collector = COLLECTORS.get(profile.getId());
+        if (collector == null || collector.getDriver() != lease.getDriver()) {
+            // New session on the device: keep its buffer so lines from the previous session stay available
+            if (collector != null) {
+                collector.stop();
+            }
+            collector = create(lease, collector != null ? collector.getBuffer() : null);
+            collector.start();
+            COLLECTORS.put(profile.getId(), collector);
+        }
+        testResult.setAttribute(START_ATTRIBUTE, System.currentTimeMillis());
+    }
+    
+    @Override
+    public void afterInvocation(IInvokedMethod method, ITestResult testResult) {
+        Object start = testResult.getAttribute(START_ATTRIBUTE);
+        DriverLease lease = MobileDriverConfig.getCurrentLease();
+        if (!method.isTestMethod() || start == null || lease == null) {
+            return;
+        }
+        
+        boolean failed = testResult.getStatus() == ITestResult.FAILURE;
+        String policy = MobileDriverConfig.getProperty("log.capture.policy", "failure");
+        DeviceLogCollector collector = COLLECTORS.get(lease.getProfile().getId());
+        if (collector == null || !(failed || "always".equalsIgnoreCase(policy))) {
+            return;
+        }
+        
+        long from = (Long) start - Long.parseLong(MobileDriverConfig.getProperty("log.window.before.ms", "5000"));
+        Path file = Paths.get(MobileDriverConfig.getProperty("log.output.path", "target/device-logs/"),
+            testResult.getName() + "-" + lease.getProfile().getId() + "-" + System.currentTimeMillis() + ".log.gz");
+        try {
+            int lines = collector.flush(from, System.currentTimeMillis(), file);
+            try (InputStream stream = Files.newInputStream(file)) {
+                Allure.addAttachment("Device log (" + lines + " lines)", "application/gzip", stream, "gz");
+            }
+            ResultStream.attach("Device log", "application/gzip", CompletableFuture.completedFuture(file));
+        } catch (IOException e) {
+            System.err.println("Failed to write device log for " + testResult.getName() + ": " + e.getMessage());
+        }
+    }
+    
+    @Override
+    public void onFinish(ISuite suite) {
+        // A held pool outlives the suite, and other suites may still be logging on its sessions
+        if (!MobileDriverConfig.isDevicePoolHeld()) {
+            stopCollectors();
+        }
+    }
+    
+    /**
+     * Stop every device's collector
+     */
+    public static void stopCollectors() {
+        for (DeviceLogCollector collector : COLLECTORS.values()) {
+            collector.stop();
+        }
+        COLLECTORS.clear();
+    }
+    
+    private static boolean isEnabled() {
+        return MobileDriverConfig.getBooleanProperty("log.capture.enabled")
+            && !"off".equalsIgnoreCase(MobileDriverConfig.getProperty("log.capture.policy", "failure"));
+    }
+    
+    private static DeviceLogCollector create(DriverLease lease, LogRingBuffer buffer) {
+        DeviceProfile profile = lease.getProfile();
+        boolean ios = "ios".equalsIgnoreCase(profile.getPlatformName());
+        List<String> tokens = new ArrayList<>(split(profile.getProperty("log.filter.tokens", "")));
+        String app = ios ? profile.getProperty("bundle.id") : profile.getProperty("app.package");
+        if (app != null && !app.isEmpty()) {
+            tokens.add(app);
+        }
+        
+        if (buffer == null) {
+            buffer = new LogRingBuffer(Integer.parseInt(profile.getProperty("log.buffer.kb", "1024")) * 1024,
+                Integer.parseInt(profile.getProperty("log.buffer.entries", "16384")));
+        }
+        return new DeviceLogCollector(lease.getDriver(),
+            split(profile.getProperty(ios ? "log.types.ios" : "log.types.android", ios ? "syslog" : "logcat")),
+            tokens,
+            Boolean.parseBoolean(profile.getProperty("log.filter.enabled", "true")),
+            buffer,
+            tailCommands(profile, udid(lease)));
+    }
+    
+    /**
+     * Commands streaming logcat and syslog straight from a local device; none for simulated or cloud devices
+     */
+    private static Map<String, List<String>> tailCommands(DeviceProfile profile, String udid) {
+        Map<String, List<String>> commands = new HashMap<>();
+        if (udid == null || udid.isEmpty() || "simulated".equalsIgnoreCase(profile.getPlatformName())
+            || CloudSessionBroker.isEnabled()) {
+            return commands;
+        }
+        for (String type : Arrays.asList("logcat", "syslog")) {
+            String command = profile.getProperty("log.tail." + type, "").trim();
+            if (!command.isEmpty()) {
+                List<String> args = new ArrayList<>();
+                for (String arg : command.split("\\s+")) {
+                    args.add(arg.replace("{udid}", udid));
+                }
+                commands.put(type, args);
+            }
+        }
+        return commands;
+    }
+    
+    /**
+     * The device's udid from its profile, or else the one the server picked, from the session capabilities
+     */
+    private static String udid(DriverLease lease) {
+        String udid = lease.getProfile().getProperty("udid");
+        if (udid != null && !udid.isEmpty()) {
+            return udid;
+        }
+        Capabilities capabilities = lease.getDriver().getCapabilities();
+        for (String name : new String[] {"appium:udid", "udid", "appium:deviceUDID", "deviceUDID"}) {
+            Object value = capabilities == null ? null : capabilities.getCapability(name);
+            if (value != null && !value.toString().isEmpty()) {
+                return value.toString();
+            }
+        }
+        return null;
+    }
+    
+    private static List<String> split(String value) {
+        List<String> parts = new ArrayList<>();
+        for (String part : value.split(",")) {
+            if (!part.trim().isEmpty()) {
+                parts.add(part.trim());
+            }
+        }
+        return parts;
+    }
+}
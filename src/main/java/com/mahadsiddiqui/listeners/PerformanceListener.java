@@ -0,0 +1,84 @@
+package com.mahadsiddiqui.listeners;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import com.mahadsiddiqui.drivers.DeviceProfile;
+import com.mahadsiddiqui.drivers.DriverLease;
+import com.mahadsiddiqui.utils.PerformanceSampler;
+import io.appium.java_client.android.AndroidDriver;
+import io.qameta.allure.Allure;
+import org.testng.IInvokedMethod;
+import org.testng.IInvokedMethodListener;
+import org.testng.ITestResult;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Runs a performance sampler alongside each test when enable.performance.testing is set
+ * Tests that cross memory.threshold, cpu.threshold or battery.threshold are failed, or only flagged
+ * when performance.threshold.action=flag
+ */
+public class PerformanceListener implements IInvokedMethodListener {
+    
+    private static final ThreadLocal<PerformanceSampler> SAMPLER = new ThreadLocal<>();
+    
+    /**
+     * Sampler running for the current test thread, or null if sampling is off
+     */
+    public static PerformanceSampler current() {
+        return SAMPLER.get();
+    }
+    
+    @Override
+    public void beforeInvocation(IInvokedMethod method, ITestResult testResult) {
+        if (!method.isTestMethod() || !MobileDriverConfig.getBooleanProperty("enable.performance.testing")) {
+            return;
+        }
+        
+        DriverLease lease = MobileDriverConfig.getCurrentLease();
+        if (lease == null || !(lease.getDriver() instanceof AndroidDriver)) {
+            return;
+        }
+        
+        DeviceProfile profile = lease.getProfile();
+        try {
+            PerformanceSampler sampler = new PerformanceSampler((AndroidDriver) lease.getDriver(),
+                profile.getProperty("performance.adb.path", "adb"),
+                profile.getProperty("udid"),
+                profile.getProperty("app.package"),
+                Long.parseLong(profile.getProperty("performance.sample.interval", "2000")),
+                profile.getBooleanProperty("performance.frame.stats"),
+                Boolean.parseBoolean(profile.getProperty("performance.screen.from.activity", "true")),
+                Double.parseDouble(profile.getProperty("memory.threshold", "0")),
+                Double.parseDouble(profile.getProperty("cpu.threshold", "0")),
+                Double.parseDouble(profile.getProperty("battery.threshold", "0")),
+                Paths.get(profile.getProperty("performance.output.path", "target/performance/"),
+                    testResult.getName() + "-" + profile.getId() + "-" + System.currentTimeMillis() + ".perf"));
+            sampler.start();
+            SAMPLER.set(sampler);
+        } catch (IOException e) {
+            System.err.println("Failed to start performance sampler: " + e.getMessage());
+        }
+    }
+    
+    @Override
+    public void afterInvocation(IInvokedMethod method, ITestResult testResult) {
+        PerformanceSampler sampler = SAMPLER.get();
+        if (!method.isTestMethod() || sampler == null) {
+            return;
+        }
+        SAMPLER.remove();
+        
+        sampler.stop();
+        Allure.addAttachment("Device performance", "text/plain", sampler.summary());
+        
+        List<String> violations = sampler.getViolations();
+        testResult.setAttribute("performance.violations", violations.size());
+        if (!violations.isEmpty() && testResult.getStatus() == ITestResult.SUCCESS
+            && !"flag".equalsIgnoreCase(MobileDriverConfig.getProperty("performance.threshold.action", "fail"))) {
+            testResult.setStatus(ITestResult.FAILURE);
+            testResult.setThrowable(new AssertionError("Performance thresholds exceeded: " + violations));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.mahadsiddiqui.listeners;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import com.mahadsiddiqui.drivers.DevicePool;
+import com.mahadsiddiqui.drivers.SessionPrewarmer;
+import com.mahadsiddiqui.utils.TestData;
+import com.mahadsiddiqui.utils.TestDataProvider;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ITestListener;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * Feeds the remaining test count to the session pre-warmer and reports its hit rate at the end of the suite
+ * Only invocations of classes under prewarm.demand.packages count, since only those lease devices; each
+ * {@link TestData} row is one invocation
+ */
+public class PrewarmListener implements ISuiteListener, ITestListener {
+    
+    @Override
+    public void onStart(ISuite suite) {
+        SessionPrewarmer prewarmer = MobileDriverConfig.getDevicePool().getPrewarmer();
+        if (prewarmer != null) {
+            prewarmer.setTestsNotStarted(deviceInvocations(suite.getAllMethods()));
+            MobileDriverConfig.getDevicePool().warmIdleDevices();
+        }
+    }
+    
+    @Override
+    public void onTestStart(ITestResult result) {
+        SessionPrewarmer prewarmer = MobileDriverConfig.getDevicePool().getPrewarmer();
+        if (prewarmer != null && leasesDevice(result.getMethod())) {
+            prewarmer.testStarted();
+        }
+    }
+    
+    @Override
+    public void onFinish(ISuite suite) {
+        DevicePool pool = MobileDriverConfig.getDevicePool();
+        if (pool.getPrewarmer() != null) {
+            System.out.println("Session pre-warmer: " + pool.getPrewarmer());
+        }
+    }
+    
+    /**
+     * Number of test invocations that will lease a device
+     */
+    static int deviceInvocations(List<ITestNGMethod> methods) {
+        int invocations = 0;
+        for (ITestNGMethod method : methods) {
+            if (leasesDevice(method)) {
+                invocations += Math.max(1, method.getInvocationCount()) * rows(method);
+            }
+        }
+        return invocations;
+    }
+    
+    private static boolean leasesDevice(ITestNGMethod method) {
+        String name = method.getRealClass().getName();
+        String packages = MobileDriverConfig.getProperty("prewarm.demand.packages", "com.mahadsiddiqui.tests");
+        for (String prefix : packages.split(",")) {
+            if (!prefix.trim().isEmpty() && name.startsWith(prefix.trim() + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Data rows a method runs once each; other data providers are counted as one invocation
+     */
+    private static int rows(ITestNGMethod method) {
+        Method javaMethod = method.getConstructorOrMethod().getMethod();
+        TestData data = javaMethod == null ? null : javaMethod.getAnnotation(TestData.class);
+        if (data == null) {
+            return 1;
+        }
+        try {
+            return Math.max(1, TestDataProvider.count(data.value()));
+        } catch (RuntimeException e) {
+            return 1;
+        }
+    }
+}
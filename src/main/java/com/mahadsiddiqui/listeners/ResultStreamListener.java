@@ -0,0 +1,123 @@
+package com.mahadsiddiqui.listeners;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import com.mahadsiddiqui.drivers.DriverLease;
+import com.mahadsiddiqui.utils.HtmlReport;
+import com.mahadsiddiqui.utils.ResultStream;
+import org.testng.IInvokedMethod;
+import org.testng.IInvokedMethodListener;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ITestListener;
+import org.testng.ITestResult;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Streams every finished test to the result stream and builds the HTML report from it at suite end
+ */
+public class ResultStreamListener implements ITestListener, IInvokedMethodListener, ISuiteListener {
+    
+    private static final String DEVICE_ATTRIBUTE = "result.stream.device";
+    
+    @Override
+    public void onStart(ISuite suite) {
+        if (ResultStream.isEnabled()) {
+            ResultStream.get();
+        }
+    }
+    
+    @Override
+    public void onTestStart(ITestResult result) {
+        // Drop anything attached outside a test, e.g. from configuration methods
+        ResultStream.takeAttachments();
+    }
+    
+    @Override
+    public void afterInvocation(IInvokedMethod method, ITestResult testResult) {
+        // The lease is returned in @AfterMethod, before the result listeners run
+        DriverLease lease = MobileDriverConfig.getCurrentLease();
+        if (method.isTestMethod() && lease != null) {
+            testResult.setAttribute(DEVICE_ATTRIBUTE, lease.getProfile().getId());
+        }
+    }
+    
+    @Override
+    public void onTestSuccess(ITestResult result) {
+        record(result, "PASSED");
+    }
+    
+    @Override
+    public void onTestFailure(ITestResult result) {
+        record(result, "FAILED");
+    }
+    
+    @Override
+    public void onTestSkipped(ITestResult result) {
+        record(result, "SKIPPED");
+    }
+    
+    @Override
+    public void onFinish(ISuite suite) {
+        if (!ResultStream.isEnabled()) {
+            return;
+        }
+        
+        ResultStream stream = ResultStream.get();
+        Path results = stream.close();
+        Path html = Paths.get(MobileDriverConfig.getProperty("report.path", "reports/"), "test-report.html");
+        try {
+            HtmlReport.write(results, html, MobileDriverConfig.getProperty("extent.report.title", suite.getName()));
+            System.out.println("Streamed " + stream.getWritten() + " results to " + results + ", report at " + html);
+        } catch (IOException e) {
+            System.err.println("Failed to build HTML report from " + results + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Handle a finished test; writes it to the result stream
+     */
+    protected void record(ITestResult result, String status) {
+        if (ResultStream.isEnabled()) {
+            ResultStream.get().write(toRecord(result, status));
+        }
+    }
+    
+    /**
+     * Build the stream record for a finished test, taking the attachments collected on this thread
+     */
+    protected static ResultStream.TestRecord toRecord(ITestResult result, String status) {
+        Object device = result.getAttribute(DEVICE_ATTRIBUTE);
+        Object[] parameters = result.getParameters();
+        return new ResultStream.TestRecord(
+            result.getName(),
+            result.getTestClass().getName(),
+            status,
+            device != null ? device.toString() : "-",
+            result.getStartMillis(),
+            result.getEndMillis() - result.getStartMillis(),
+            parameters != null && parameters.length > 0 ? Arrays.toString(parameters) : null,
+            describe(result.getThrowable()))
+            .attach(ResultStream.takeAttachments());
+    }
+    
+    private static String describe(Throwable error) {
+        if (error == null) {
+            return null;
+        }
+        
+        int lines = Integer.parseInt(MobileDriverConfig.getProperty("report.stacktrace.lines", "20"));
+        StringBuilder text = new StringBuilder(error.toString());
+        StackTraceElement[] trace = error.getStackTrace();
+        for (int i = 0; i < Math.min(lines, trace.length); i++) {
+            text.append("\n    at ").append(trace[i]);
+        }
+        if (trace.length > lines) {
+            text.append("\n    ... ").append(trace.length - lines).append(" more");
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,106 @@
+package com.mahadsiddiqui.listeners;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import com.mahadsiddiqui.drivers.DeviceProfile;
+import com.mahadsiddiqui.utils.TestHistory;
+import com.mahadsiddiqui.utils.TestScheduler;
+import org.testng.IInvokedMethod;
+import org.testng.IInvokedMethodListener;
+import org.testng.IMethodInstance;
+import org.testng.IMethodInterceptor;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ITestContext;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reorders test methods from their recorded history to shorten the run across the device pool,
+ * and records each test's duration and outcome for the next run
+ */
+public class SchedulingListener implements IMethodInterceptor, IInvokedMethodListener, ISuiteListener {
+    
+    private static volatile TestHistory history;
+    
+    @Override
+    public void onStart(ISuite suite) {
+        history();
+    }
+    
+    @Override
+    public List<IMethodInstance> intercept(List<IMethodInstance> methods, ITestContext context) {
+        if (!MobileDriverConfig.getBooleanProperty("scheduler.enabled")) {
+            return methods;
+        }
+        
+        TestScheduler scheduler = new TestScheduler(history(),
+            MobileDriverConfig.getBooleanProperty("scheduler.fail.fast"),
+            Double.parseDouble(MobileDriverConfig.getProperty("scheduler.fail.fast.threshold", "0.2")));
+        int lanes = Integer.parseInt(MobileDriverConfig.getProperty("scheduler.lanes",
+            String.valueOf(DeviceProfile.fromConfig().size())));
+        
+        List<String> declared = new ArrayList<>();
+        for (IMethodInstance method : methods) {
+            declared.add(key(method.getMethod()));
+        }
+        
+        Comparator<String> order = scheduler.comparator();
+        List<IMethodInstance> ordered = new ArrayList<>(methods);
+        ordered.sort((a, b) -> order.compare(key(a.getMethod()), key(b.getMethod())));
+        
+        List<String> keys = new ArrayList<>();
+        for (IMethodInstance method : ordered) {
+            keys.add(key(method.getMethod()));
+        }
+        System.out.println("Scheduled " + ordered.size() + " tests in " + context.getName() + " across " + lanes
+            + " lanes: predicted " + scheduler.makespan(keys, lanes) + " ms, declaration order "
+            + scheduler.makespan(declared, lanes) + " ms");
+        return ordered;
+    }
+    
+    @Override
+    public void afterInvocation(IInvokedMethod method, ITestResult testResult) {
+        if (!method.isTestMethod() || testResult.getStatus() == ITestResult.SKIP) {
+            return;
+        }
+        
+        history().record(key(testResult.getMethod()), testResult.getEndMillis() - testResult.getStartMillis(),
+            testResult.isSuccess());
+    }
+    
+    @Override
+    public void onFinish(ISuite suite) {
+        File file = historyFile();
+        try {
+            history().save(file);
+        } catch (IOException e) {
+            System.err.println("Failed to save test history to " + file + ": " + e.getMessage());
+        }
+    }
+    
+    private static TestHistory history() {
+        if (history == null) {
+            synchronized (SchedulingListener.class) {
+                if (history == null) {
+                    history = TestHistory.load(historyFile(),
+                        Double.parseDouble(MobileDriverConfig.getProperty("scheduler.history.alpha", "0.3")));
+                }
+            }
+        }
+        return history;
+    }
+    
+    private static File historyFile() {
+        return new File(MobileDriverConfig.getProperty("scheduler.history.file", "reports/test-history.json"));
+    }
+    
+    private static String key(ITestNGMethod method) {
+        return method.getTestClass().getName() + "." + method.getMethodName();
+    }
+}
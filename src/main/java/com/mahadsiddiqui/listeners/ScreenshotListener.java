@@ -0,0 +1,40 @@
+package com.mahadsiddiqui.listeners;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import com.mahadsiddiqui.drivers.DriverLease;
+import com.mahadsiddiqui.utils.ScreenshotPipeline;
+import org.testng.IInvokedMethod;
+import org.testng.IInvokedMethodListener;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ITestResult;
+
+/**
+ * Takes end-of-test screenshots through the screenshot pipeline and waits for pending writes at suite end
+ */
+public class ScreenshotListener implements IInvokedMethodListener, ISuiteListener {
+    
+    @Override
+    public void afterInvocation(IInvokedMethod method, ITestResult testResult) {
+        if (!method.isTestMethod()) {
+            return;
+        }
+        
+        DriverLease lease = MobileDriverConfig.getCurrentLease();
+        if (lease != null) {
+            ScreenshotPipeline.get().onTestEnd(lease.getDriver(), testResult.getName(),
+                testResult.getStatus() == ITestResult.SUCCESS);
+        }
+    }
+    
+    @Override
+    public void onFinish(ISuite suite) {
+        // With a held pool, suites end per test while others are still capturing; whoever holds the pool flushes
+        if (MobileDriverConfig.isDevicePoolHeld()) {
+            return;
+        }
+        ScreenshotPipeline pipeline = ScreenshotPipeline.get();
+        pipeline.flush(60);
+        System.out.println("Screenshots: " + pipeline);
+    }
+}
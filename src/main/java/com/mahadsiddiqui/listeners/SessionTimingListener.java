@@ -0,0 +1,32 @@
+package com.mahadsiddiqui.listeners;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import com.mahadsiddiqui.drivers.DriverLease;
+import io.qameta.allure.Allure;
+import org.testng.IInvokedMethod;
+import org.testng.IInvokedMethodListener;
+import org.testng.ITestResult;
+
+/**
+ * Reports whether each test ran on a cold (new) or warm (reused) session and how long acquiring it took
+ */
+public class SessionTimingListener implements IInvokedMethodListener {
+    
+    @Override
+    public void afterInvocation(IInvokedMethod method, ITestResult testResult) {
+        if (!method.isTestMethod()) {
+            return;
+        }
+        
+        DriverLease lease = MobileDriverConfig.getCurrentLease();
+        if (lease == null) {
+            return;
+        }
+        
+        String session = (lease.isWarm() ? "warm" : "cold") + ", " + lease.getAcquireMillis() + " ms";
+        testResult.setAttribute("session.warm", lease.isWarm());
+        testResult.setAttribute("session.acquire.ms", lease.getAcquireMillis());
+        Allure.parameter("session", session);
+        System.out.println(testResult.getName() + " on " + lease.getProfile().getId() + ": " + session);
+    }
+}
@@ -0,0 +1,16 @@
+package com.mahadsiddiqui.listeners;
+
+import com.mahadsiddiqui.utils.TestDataProvider;
+import org.testng.ITestContext;
+import org.testng.ITestListener;
+
+/**
+ * Closes test data streams the data provider opened but TestNG stopped reading before the end
+ */
+public class TestDataListener implements ITestListener {
+    
+    @Override
+    public void onFinish(ITestContext context) {
+        TestDataProvider.closeStreams(context);
+    }
+}
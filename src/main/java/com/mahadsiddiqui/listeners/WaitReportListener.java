@@ -0,0 +1,45 @@
+package com.mahadsiddiqui.listeners;
+
+import com.mahadsiddiqui.utils.WaitEngine;
+import io.qameta.allure.Allure;
+import org.testng.IInvokedMethod;
+import org.testng.IInvokedMethodListener;
+import org.testng.ITestResult;
+
+import java.util.List;
+
+/**
+ * Attaches the time each test spent in explicit waits, step by step, to the report
+ */
+public class WaitReportListener implements IInvokedMethodListener {
+    
+    @Override
+    public void beforeInvocation(IInvokedMethod method, ITestResult testResult) {
+        if (method.isTestMethod()) {
+            WaitEngine.drainRecords();
+        }
+    }
+    
+    @Override
+    public void afterInvocation(IInvokedMethod method, ITestResult testResult) {
+        if (!method.isTestMethod()) {
+            return;
+        }
+        
+        List<WaitEngine.WaitRecord> records = WaitEngine.drainRecords();
+        if (records.isEmpty()) {
+            return;
+        }
+        
+        long total = 0;
+        StringBuilder report = new StringBuilder();
+        for (WaitEngine.WaitRecord record : records) {
+            total += record.getWaitedMillis();
+            report.append(record).append('\n');
+        }
+        report.append("Total wait: ").append(total).append(" ms\n");
+        
+        testResult.setAttribute("wait.total.ms", total);
+        Allure.addAttachment("Wait timings", "text/plain", report.toString());
+    }
+}
@@ -0,0 +1,209 @@
+package com.mahadsiddiqui.simulator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Scripted app screens served by the simulator, loaded from a JSON file
+ * Each screen lists its elements top to bottom; an element's onClick can move to another screen,
+ * optionally only when the fields on screen match the given patterns, or increment a counter that
+ * texts such as "{cart}" display
+ */
+public class ScreenModel {
+    
+    private final String start;
+    private final Map<String, Screen> screens;
+    
+    public ScreenModel(String start, Map<String, Screen> screens) {
+        if (!screens.containsKey(start)) {
+            throw new IllegalArgumentException("Start screen " + start + " is not defined");
+        }
+        this.start = start;
+        this.screens = Collections.unmodifiableMap(screens);
+    }
+    
+    /**
+     * Load a model from a JSON file
+     */
+    public static ScreenModel load(File file) {
+        try {
+            JsonNode root = new ObjectMapper().readTree(file);
+            Map<String, Screen> screens = new LinkedHashMap<>();
+            Iterator<Map.Entry<String, JsonNode>> fields = root.path("screens").fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                screens.put(field.getKey(), parseScreen(field.getKey(), field.getValue()));
+            }
+            return new ScreenModel(root.path("start").asText(), screens);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load simulator screens from " + file, e);
+        }
+    }
+    
+    /**
+     * Get the screen an app starts on
+     */
+    public Screen getStart() {
+        return screens.get(start);
+    }
+    
+    /**
+     * Get a screen by name
+     */
+    public Screen getScreen(String name) {
+        Screen screen = screens.get(name);
+        if (screen == null) {
+            throw new IllegalStateException("Simulator screen " + name + " is not defined");
+        }
+        return screen;
+    }
+    
+    private static Screen parseScreen(String name, JsonNode node) {
+        List<ElementSpec> elements = new ArrayList<>();
+        for (JsonNode element : node.path("elements")) {
+            JsonNode click = element.path("onClick");
+            Action action = null;
+            if (!click.isMissingNode()) {
+                Map<String, Pattern> require = new LinkedHashMap<>();
+                Iterator<Map.Entry<String, JsonNode>> rules = click.path("require").fields();
+                while (rules.hasNext()) {
+                    Map.Entry<String, JsonNode> rule = rules.next();
+                    require.put(rule.getKey(), Pattern.compile(rule.getValue().asText()));
+                }
+                action = new Action(textOrNull(click, "goto"), textOrNull(click, "increment"), require,
+                    textOrNull(click, "otherwise"));
+            }
+            elements.add(new ElementSpec(element.path("id").asText(),
+                element.path("class").asText("android.widget.TextView"), element.path("text").asText(""),
+                element.path("contentDesc").asText(""), element.path("delayMs").asLong(0), action));
+        }
+        return new Screen(name, node.path("activity").asText(name), elements);
+    }
+    
+    private static String textOrNull(JsonNode node, String field) {
+        return node.hasNonNull(field) ? node.get(field).asText() : null;
+    }
+    
+    /**
+     * One screen of the app
+     */
+    public static class Screen {
+        private final String name;
+        private final String activity;
+        private final List<ElementSpec> elements;
+        
+        public Screen(String name, String activity, List<ElementSpec> elements) {
+            this.name = name;
+            this.activity = activity;
+            this.elements = Collections.unmodifiableList(elements);
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public String getActivity() {
+            return activity;
+        }
+        
+        public List<ElementSpec> getElements() {
+            return elements;
+        }
+    }
+    
+    /**
+     * One element on a screen; delayMs keeps it hidden for a while after the screen is entered
+     */
+    public static class ElementSpec {
+        private final String id;
+        private final String className;
+        private final String text;
+        private final String contentDesc;
+        private final long delayMillis;
+        private final Action onClick;
+        
+        public ElementSpec(String id, String className, String text, String contentDesc, long delayMillis,
+                           Action onClick) {
+            this.id = id;
+            this.className = className;
+            this.text = text;
+            this.contentDesc = contentDesc;
+            this.delayMillis = delayMillis;
+            this.onClick = onClick;
+        }
+        
+        public String getId() {
+            return id;
+        }
+        
+        public String getClassName() {
+            return className;
+        }
+        
+        public String getText() {
+            return text;
+        }
+        
+        public String getContentDesc() {
+            return contentDesc;
+        }
+        
+        public long getDelayMillis() {
+            return delayMillis;
+        }
+        
+        public Action getOnClick() {
+            return onClick;
+        }
+        
+        /**
+         * Whether the element accepts typed text
+         */
+        public boolean isEditable() {
+            return className.endsWith("EditText");
+        }
+    }
+    
+    /**
+     * What tapping an element does
+     */
+    public static class Action {
+        private final String target;
+        private final String increment;
+        private final Map<String, Pattern> require;
+        private final String otherwise;
+        
+        public Action(String target, String increment, Map<String, Pattern> require, String otherwise) {
+            this.target = target;
+            this.increment = increment;
+            this.require = Collections.unmodifiableMap(require);
+            this.otherwise = otherwise;
+        }
+        
+        public String getTarget() {
+            return target;
+        }
+        
+        public String getIncrement() {
+            return increment;
+        }
+        
+        public Map<String, Pattern> getRequire() {
+            return require;
+        }
+        
+        public String getOtherwise() {
+            return otherwise;
+        }
+    }
+}
@@ -0,0 +1,558 @@
+package com.mahadsiddiqui.simulator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import com.mahadsiddiqui.drivers.ServerInstance;
+import com.mahadsiddiqui.simulator.ScreenModel.ElementSpec;
+import com.mahadsiddiqui.utils.PageSnapshot;
+import com.mahadsiddiqui.utils.SnapshotElement;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process W3C/Appium server that drives scripted screens instead of a device
+ * Responses are computed straight away and written after the configured latency by a small scheduler,
+ * so thousands of sessions can wait on simulated latency without a thread each. Failures can be injected
+ * into commands and session creation, and max sessions caps capacity like a real device farm would
+ */
+public class SimulatedAppiumServer implements ServerInstance {
+    
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String ELEMENT_KEY = "element-6066-11e4-a52e-4f735466cecf";
+    
+    private final ScreenModel model;
+    private final int port;
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final long sessionStartMillis;
+    private final double failureRate;
+    private final int maxSessions;
+    private final int threads;
+    private final Map<String, SimulatedSession> sessions = new ConcurrentHashMap<>();
+    // Sessions counted against max sessions, reserved before a session is added so the cap holds under load
+    private final AtomicInteger reserved = new AtomicInteger();
+    private final Map<String, String> screenshots = new ConcurrentHashMap<>();
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong injectedFailures = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService handlers;
+    private ScheduledExecutorService responder;
+    
+    public SimulatedAppiumServer(ScreenModel model, int port, long latencyMillis, long jitterMillis,
+                                 long sessionStartMillis, double failureRate, int maxSessions, int threads) {
+        this.model = model;
+        this.port = port;
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.sessionStartMillis = sessionStartMillis;
+        this.failureRate = failureRate;
+        this.maxSessions = maxSessions;
+        this.threads = threads;
+    }
+    
+    /**
+     * Build a simulator from the simulator.* properties
+     */
+    public static SimulatedAppiumServer fromConfig() {
+        return new SimulatedAppiumServer(
+            ScreenModel.load(new File(MobileDriverConfig.getProperty("simulator.model.path",
+                "src/test/resources/simulator/screens.json"))),
+            MobileDriverConfig.getIntProperty("simulator.port"),
+            Long.parseLong(MobileDriverConfig.getProperty("simulator.latency.ms", "0")),
+            Long.parseLong(MobileDriverConfig.getProperty("simulator.latency.jitter.ms", "0")),
+            Long.parseLong(MobileDriverConfig.getProperty("simulator.session.start.ms", "0")),
+            Double.parseDouble(MobileDriverConfig.getProperty("simulator.failure.rate", "0")),
+            MobileDriverConfig.getIntProperty("simulator.max.sessions"),
+            Integer.parseInt(MobileDriverConfig.getProperty("simulator.threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors() * 2))));
+    }
+    
+    @Override
+    public void start() {
+        try {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to start simulator on port " + port, e);
+        }
+        handlers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "simulator-handler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        responder = Executors.newScheduledThreadPool(Math.max(2, threads / 2), runnable -> {
+            Thread thread = new Thread(runnable, "simulator-responder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(handlers);
+        server.createContext("/", this::handle);
+        server.start();
+        System.out.println("Simulated Appium server started on: " + getUrl());
+    }
+    
+    @Override
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            handlers.shutdownNow();
+            responder.shutdownNow();
+            server = null;
+        }
+        sessions.clear();
+        reserved.set(0);
+    }
+    
+    @Override
+    public boolean isRunning() {
+        return server != null;
+    }
+    
+    @Override
+    public URL getUrl() {
+        try {
+            return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Number of open sessions
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("sessions=%d, commands=%d, injected failures=%d",
+            sessions.size(), commands.get(), injectedFailures.get());
+    }
+    
+    private void handle(HttpExchange exchange) throws IOException {
+        Reply reply;
+        try (InputStream body = exchange.getRequestBody()) {
+            byte[] request = body.readAllBytes();
+            String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/");
+            reply = route(exchange.getRequestMethod(), path,
+                request.length > 0 ? MAPPER.readTree(request) : MAPPER.createObjectNode());
+        } catch (IOException e) {
+            // Malformed JSON would otherwise escape the handler and drop the connection without a reply
+            reply = error(400, "invalid argument", "Malformed request body: " + e.getMessage());
+        } catch (RuntimeException e) {
+            reply = error(500, "unknown error", String.valueOf(e.getMessage()));
+        }
+        
+        commands.incrementAndGet();
+        long delay = reply.delayMillis + latencyMillis
+            + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+        Reply response = reply;
+        if (delay <= 0) {
+            send(exchange, response);
+        } else {
+            // The exchange stays open after handle() returns; the responder finishes it later
+            responder.schedule(() -> send(exchange, response), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    private Reply route(String method, String[] path, JsonNode body) {
+        if (path.length == 1 && "status".equals(path[0])) {
+            return ok(MAPPER.createObjectNode().put("ready", true).put("message", "Simulator ready"));
+        }
+        if (path.length == 1 && "session".equals(path[0]) && "POST".equals(method)) {
+            return createSession(body);
+        }
+        if (path.length < 2 || !"session".equals(path[0])) {
+            return error(404, "unknown command", "Unknown command " + method + " /" + String.join("/", path));
+        }
+        
+        SimulatedSession session = sessions.get(path[1]);
+        if (session == null) {
+            return error(404, "invalid session id", "No active session " + path[1]);
+        }
+        if (path.length == 2 && "DELETE".equals(method)) {
+            if (sessions.remove(path[1]) != null) {
+                reserved.decrementAndGet();
+            }
+            return ok(null);
+        }
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            injectedFailures.incrementAndGet();
+            return error(500, "unknown error", "Injected simulator failure");
+        }
+        
+        String command = path.length > 2 ? path[2] : "";
+        String rest = path.length > 3 ? String.join("/", Arrays.copyOfRange(path, 3, path.length)) : "";
+        switch (command) {
+            case "timeouts":
+                return "GET".equals(method)
+                    ? ok(MAPPER.createObjectNode().put("implicit", 0).put("pageLoad", 300000).put("script", 30000))
+                    : ok(null);
+            case "element":
+                return path.length == 3 ? findElement(session, body) : element(session, path, body);
+            case "elements":
+                return findElements(session, body);
+            case "source":
+                return ok(MAPPER.getNodeFactory().textNode(session.pageSource()));
+            case "screenshot":
+                return ok(MAPPER.getNodeFactory().textNode(screenshot(session)));
+            case "orientation":
+                if ("POST".equals(method)) {
+                    session.setLandscape("LANDSCAPE".equalsIgnoreCase(body.path("orientation").asText()));
+                    return ok(null);
+                }
+                return ok(MAPPER.getNodeFactory().textNode(session.isLandscape() ? "LANDSCAPE" : "PORTRAIT"));
+            case "window":
+                return ok(MAPPER.createObjectNode().put("x", 0).put("y", 0)
+                    .put("width", session.width()).put("height", session.height()));
+            case "actions":
+                return "POST".equals(method) ? performActions(session, body) : ok(null);
+            case "execute":
+                return executeScript(session, body);
+            case "appium":
+                return appium(session, rest, body);
+            default:
+                return error(404, "unknown command", "Simulator does not support " + method + " " + command);
+        }
+    }
+    
+    private Reply createSession(JsonNode body) {
+        if (!reserveSession()) {
+            return error(500, "session not created", "All " + maxSessions + " simulated devices are busy");
+        }
+        
+        JsonNode requested = body.path("capabilities").path("alwaysMatch");
+        String appPackage = requested.path("appium:appPackage")
+            .asText(requested.path("appPackage").asText("com.example.app"));
+        String sessionId = UUID.randomUUID().toString();
+        try {
+            sessions.put(sessionId, new SimulatedSession(sessionId, model, appPackage));
+        } catch (RuntimeException e) {
+            reserved.decrementAndGet();
+            throw e;
+        }
+        
+        ObjectNode capabilities = requested.isObject() ? ((ObjectNode) requested).deepCopy() : MAPPER.createObjectNode();
+        capabilities.put("platformName", "Android");
+        capabilities.put("appium:automationName", "UiAutomator2");
+        ObjectNode value = MAPPER.createObjectNode();
+        value.put("sessionId", sessionId);
+        value.set("capabilities", capabilities);
+        Reply reply = ok(value);
+        reply.delayMillis = sessionStartMillis;
+        return reply;
+    }
+    
+    /**
+     * Take one of the max sessions slots, or return false if they are all taken
+     */
+    private boolean reserveSession() {
+        while (true) {
+            int current = reserved.get();
+            if (maxSessions > 0 && current >= maxSessions) {
+                return false;
+            }
+            if (reserved.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+    
+    private Reply findElement(SimulatedSession session, JsonNode body) {
+        List<ElementSpec> matches = find(session, body.path("using").asText(), body.path("value").asText());
+        if (matches.isEmpty()) {
+            return error(404, "no such element", "No element matching " + body.path("using").asText() + " "
+                + body.path("value").asText());
+        }
+        return ok(reference(matches.get(0)));
+    }
+    
+    private Reply findElements(SimulatedSession session, JsonNode body) {
+        ArrayNode references = MAPPER.createArrayNode();
+        for (ElementSpec element : find(session, body.path("using").asText(), body.path("value").asText())) {
+            references.add(reference(element));
+        }
+        return ok(references);
+    }
+    
+    private List<ElementSpec> find(SimulatedSession session, String using, String value) {
+        List<ElementSpec> matches = new ArrayList<>();
+        if ("id".equals(using) || "accessibility id".equals(using)) {
+            String id = value.substring(value.indexOf(":id/") >= 0 ? value.indexOf(":id/") + 4 : 0);
+            for (ElementSpec element : session.visibleElements()) {
+                if ("id".equals(using) ? element.getId().equals(id) : element.getContentDesc().equals(value)) {
+                    matches.add(element);
+                }
+            }
+            return matches;
+        }
+        
+        PageSnapshot snapshot = PageSnapshot.parse(session.pageSource());
+        List<SnapshotElement> found;
+        if ("xpath".equals(using)) {
+            found = snapshot.findByXPath(value);
+        } else if ("class name".equals(using)) {
+            found = snapshot.findByClassName(value);
+        } else {
+            throw new IllegalArgumentException("Simulator does not support " + using + " locators");
+        }
+        for (SnapshotElement element : found) {
+            String resourceId = element.getAttribute("resource-id");
+            ElementSpec spec = resourceId != null
+                ? session.element(resourceId.substring(resourceId.indexOf(":id/") + 4))
+                : null;
+            if (spec != null) {
+                matches.add(spec);
+            }
+        }
+        return matches;
+    }
+    
+    private Reply element(SimulatedSession session, String[] path, JsonNode body) {
+        ElementSpec element = session.element(path[3]);
+        if (element == null) {
+            return error(404, "stale element reference", "Element " + path[3] + " is no longer on screen");
+        }
+        
+        String action = path.length > 4 ? path[4] : "";
+        switch (action) {
+            case "click":
+                session.click(element);
+                return ok(null);
+            case "value":
+                if (!element.isEditable()) {
+                    return error(400, "element not interactable", element.getId() + " does not accept text");
+                }
+                session.type(element, body.path("text").asText());
+                return ok(null);
+            case "clear":
+                session.clear(element);
+                return ok(null);
+            case "text":
+                return ok(MAPPER.getNodeFactory().textNode(session.text(element)));
+            case "displayed":
+            case "enabled":
+                return ok(MAPPER.getNodeFactory().booleanNode(true));
+            case "selected":
+                return ok(MAPPER.getNodeFactory().booleanNode(false));
+            case "name":
+                return ok(MAPPER.getNodeFactory().textNode(element.getClassName()));
+            case "rect":
+                Rectangle bounds = session.bounds(element);
+                return ok(MAPPER.createObjectNode().put("x", bounds.x).put("y", bounds.y)
+                    .put("width", bounds.width).put("height", bounds.height));
+            case "attribute":
+                return ok(attribute(session, element, path.length > 5 ? path[5] : ""));
+            default:
+                return error(404, "unknown command", "Simulator does not support element " + action);
+        }
+    }
+    
+    private JsonNode attribute(SimulatedSession session, ElementSpec element, String name) {
+        switch (name) {
+            case "resource-id":
+            case "resourceId":
+                return MAPPER.getNodeFactory().textNode(session.getAppPackage() + ":id/" + element.getId());
+            case "text":
+                return MAPPER.getNodeFactory().textNode(session.text(element));
+            case "content-desc":
+            case "contentDescription":
+                return MAPPER.getNodeFactory().textNode(element.getContentDesc());
+            case "class":
+            case "className":
+                return MAPPER.getNodeFactory().textNode(element.getClassName());
+            case "displayed":
+            case "enabled":
+                return MAPPER.getNodeFactory().textNode("true");
+            case "clickable":
+                return MAPPER.getNodeFactory().textNode(String.valueOf(element.getOnClick() != null));
+            default:
+                return null;
+        }
+    }
+    
+    private Reply performActions(SimulatedSession session, JsonNode body) {
+        for (JsonNode source : body.path("actions")) {
+            if (!"pointer".equals(source.path("type").asText())) {
+                continue;
+            }
+            int x = 0;
+            int y = 0;
+            int downX = -1;
+            int downY = -1;
+            for (JsonNode action : source.path("actions")) {
+                String type = action.path("type").asText();
+                if ("pointerMove".equals(type)) {
+                    x = action.path("x").asInt();
+                    y = action.path("y").asInt();
+                } else if ("pointerDown".equals(type)) {
+                    downX = x;
+                    downY = y;
+                } else if ("pointerUp".equals(type) && downX >= 0) {
+                    // Only a press and release in roughly the same place counts as a tap
+                    if (Math.abs(x - downX) < 20 && Math.abs(y - downY) < 20) {
+                        ElementSpec element = session.hitTest(x, y);
+                        if (element != null) {
+                            session.click(element);
+                        }
+                    }
+                    downX = -1;
+                }
+            }
+        }
+        return ok(null);
+    }
+    
+    private Reply executeScript(SimulatedSession session, JsonNode body) {
+        String script = body.path("script").asText();
+        switch (script) {
+            case "mobile: clearApp":
+                session.clearData();
+                return ok(null);
+            case "mobile: terminateApp":
+                session.terminate();
+                return ok(MAPPER.getNodeFactory().booleanNode(true));
+            case "mobile: activateApp":
+                session.activate();
+                return ok(null);
+            case "mobile: queryAppState":
+                return ok(MAPPER.getNodeFactory().numberNode(session.isRunning() ? 4 : 1));
+            case "mobile: backgroundApp":
+                Reply reply = ok(null);
+                reply.delayMillis = Math.max(0, body.path("args").path(0).path("seconds").asLong(0)) * 1000;
+                return reply;
+            case "mobile: shell":
+                return ok(MAPPER.getNodeFactory().textNode(""));
+            default:
+                return error(404, "unknown command", "Simulator does not run script " + script);
+        }
+    }
+    
+    private Reply appium(SimulatedSession session, String command, JsonNode body) {
+        switch (command) {
+            case "device/current_activity":
+                return ok(MAPPER.getNodeFactory().textNode(session.getActivity()));
+            case "device/current_package":
+                return ok(MAPPER.getNodeFactory().textNode(session.getAppPackage()));
+            case "device/terminate_app":
+                session.terminate();
+                return ok(MAPPER.getNodeFactory().booleanNode(true));
+            case "device/activate_app":
+                session.activate();
+                return ok(null);
+            case "device/app_state":
+                return ok(MAPPER.getNodeFactory().numberNode(session.isRunning() ? 4 : 1));
+            case "app/background":
+                Reply reply = ok(null);
+                reply.delayMillis = Math.max(0, body.path("seconds").asLong(0)) * 1000;
+                return reply;
+            default:
+                return error(404, "unknown command", "Simulator does not support appium/" + command);
+        }
+    }
+    
+    private String screenshot(SimulatedSession session) {
+        String source = session.pageSource();
+        if (screenshots.size() > 256) {
+            screenshots.clear();
+        }
+        return screenshots.computeIfAbsent(source, key -> render(session));
+    }
+    
+    private static String render(SimulatedSession session) {
+        BufferedImage image = new BufferedImage(session.width(), session.height(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 40));
+        for (ElementSpec element : session.visibleElements()) {
+            Rectangle bounds = session.bounds(element);
+            graphics.setColor(new Color(element.getId().hashCode() & 0x7f7f7f));
+            graphics.fillRect(bounds.x, bounds.y, bounds.width, bounds.height);
+            graphics.setColor(Color.WHITE);
+            graphics.drawString(session.text(element), bounds.x + 20, bounds.y + bounds.height / 2 + 15);
+        }
+        graphics.dispose();
+        
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(image, "png", png);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to render simulator screenshot", e);
+        }
+        return Base64.getEncoder().encodeToString(png.toByteArray());
+    }
+    
+    private static ObjectNode reference(ElementSpec element) {
+        return MAPPER.createObjectNode().put(ELEMENT_KEY, element.getId()).put("ELEMENT", element.getId());
+    }
+    
+    private static Reply ok(JsonNode value) {
+        return new Reply(200, value);
+    }
+    
+    private static Reply error(int status, String error, String message) {
+        return new Reply(status, MAPPER.createObjectNode().put("error", error).put("message", message)
+            .put("stacktrace", ""));
+    }
+    
+    private static void send(HttpExchange exchange, Reply reply) {
+        try {
+            ObjectNode body = MAPPER.createObjectNode();
+            body.set("value", reply.value);
+            byte[] bytes = MAPPER.writeValueAsBytes(body);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(reply.status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } catch (IOException e) {
+            System.err.println("Simulator failed to respond: " + e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    private static class Reply {
+        final int status;
+        final JsonNode value;
+        long delayMillis;
+        
+        Reply(int status, JsonNode value) {
+            this.status = status;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.mahadsiddiqui.simulator;
+
+import com.mahadsiddiqui.simulator.ScreenModel.Action;
+import com.mahadsiddiqui.simulator.ScreenModel.ElementSpec;
+import com.mahadsiddiqui.simulator.ScreenModel.Screen;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * State of one simulated device session: the current screen, typed field values, counters and orientation
+ * All methods are synchronized since a session may be driven from several client threads
+ */
+class SimulatedSession {
+    
+    static final int WIDTH = 1080;
+    static final int HEIGHT = 2400;
+    private static final int ROW_HEIGHT = 160;
+    private static final int TOP = 240;
+    private static final Pattern TEMPLATE = Pattern.compile("\\{(\\w+)}");
+    
+    private final String id;
+    private final ScreenModel model;
+    private final String appPackage;
+    private final Map<String, Integer> counters = new HashMap<>();
+    private final Map<String, String> values = new HashMap<>();
+    private Screen screen;
+    private long enteredAt;
+    private boolean landscape;
+    private boolean running = true;
+    
+    SimulatedSession(String id, ScreenModel model, String appPackage) {
+        this.id = id;
+        this.model = model;
+        this.appPackage = appPackage;
+        enter(model.getStart());
+    }
+    
+    String getId() {
+        return id;
+    }
+    
+    String getAppPackage() {
+        return appPackage;
+    }
+    
+    /**
+     * Elements currently on screen, leaving out those whose delay has not passed
+     */
+    synchronized List<ElementSpec> visibleElements() {
+        List<ElementSpec> visible = new ArrayList<>();
+        if (!running) {
+            return visible;
+        }
+        long elapsed = System.currentTimeMillis() - enteredAt;
+        for (ElementSpec element : screen.getElements()) {
+            if (element.getDelayMillis() <= elapsed) {
+                visible.add(element);
+            }
+        }
+        return visible;
+    }
+    
+    /**
+     * A visible element by id, or null
+     */
+    synchronized ElementSpec element(String elementId) {
+        for (ElementSpec element : visibleElements()) {
+            if (element.getId().equals(elementId)) {
+                return element;
+            }
+        }
+        return null;
+    }
+    
+    synchronized String text(ElementSpec element) {
+        String typed = values.get(element.getId());
+        if (typed != null) {
+            return typed;
+        }
+        Matcher matcher = TEMPLATE.matcher(element.getText());
+        StringBuffer text = new StringBuffer();
+        while (matcher.find()) {
+            matcher.appendReplacement(text, String.valueOf(counters.getOrDefault(matcher.group(1), 0)));
+        }
+        matcher.appendTail(text);
+        return text.toString();
+    }
+    
+    synchronized void click(ElementSpec element) {
+        Action action = element.getOnClick();
+        if (action == null) {
+            return;
+        }
+        if (action.getIncrement() != null) {
+            counters.merge(action.getIncrement(), 1, Integer::sum);
+        }
+        
+        String target = action.getTarget();
+        for (Map.Entry<String, Pattern> rule : action.getRequire().entrySet()) {
+            if (!rule.getValue().matcher(values.getOrDefault(rule.getKey(), "")).find()) {
+                target = action.getOtherwise();
+                break;
+            }
+        }
+        if (target != null) {
+            enter(model.getScreen(target));
+        }
+    }
+    
+    synchronized void type(ElementSpec element, String text) {
+        values.merge(element.getId(), text, String::concat);
+    }
+    
+    synchronized void clear(ElementSpec element) {
+        values.remove(element.getId());
+    }
+    
+    /**
+     * Element under a screen coordinate, or null
+     */
+    synchronized ElementSpec hitTest(int x, int y) {
+        for (ElementSpec element : visibleElements()) {
+            if (bounds(element).contains(x, y)) {
+                return element;
+            }
+        }
+        return null;
+    }
+    
+    synchronized Rectangle bounds(ElementSpec element) {
+        int index = screen.getElements().indexOf(element);
+        return new Rectangle(40, TOP + index * ROW_HEIGHT, width() - 80, ROW_HEIGHT - 40);
+    }
+    
+    synchronized int width() {
+        return landscape ? HEIGHT : WIDTH;
+    }
+    
+    synchronized int height() {
+        return landscape ? WIDTH : HEIGHT;
+    }
+    
+    synchronized boolean isLandscape() {
+        return landscape;
+    }
+    
+    synchronized void setLandscape(boolean landscape) {
+        this.landscape = landscape;
+    }
+    
+    synchronized String getActivity() {
+        return "." + screen.getActivity();
+    }
+    
+    synchronized boolean isRunning() {
+        return running;
+    }
+    
+    /**
+     * Stop the app; it starts over on the first screen when activated again
+     */
+    synchronized void terminate() {
+        running = false;
+    }
+    
+    synchronized void activate() {
+        if (!running) {
+            running = true;
+            enter(model.getStart());
+        }
+    }
+    
+    /**
+     * Drop counters and typed values, as clearing app data would
+     */
+    synchronized void clearData() {
+        counters.clear();
+        values.clear();
+        enter(model.getStart());
+    }
+    
+    /**
+     * UiAutomator2-style page source of the current screen
+     */
+    synchronized String pageSource() {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        xml.append("<hierarchy rotation=\"").append(landscape ? 1 : 0).append("\">");
+        xml.append("<android.widget.FrameLayout package=\"").append(escape(appPackage))
+            .append("\" class=\"android.widget.FrameLayout\" bounds=\"[0,0][").append(width()).append(',')
+            .append(height()).append("]\" displayed=\"true\">");
+        for (ElementSpec element : visibleElements()) {
+            Rectangle bounds = bounds(element);
+            xml.append('<').append(element.getClassName())
+                .append(" class=\"").append(element.getClassName())
+                .append("\" package=\"").append(escape(appPackage))
+                .append("\" resource-id=\"").append(escape(appPackage)).append(":id/").append(escape(element.getId()))
+                .append("\" text=\"").append(escape(text(element)))
+                .append("\" content-desc=\"").append(escape(element.getContentDesc()))
+                .append("\" clickable=\"").append(element.getOnClick() != null || element.isEditable())
+                .append("\" enabled=\"true\" displayed=\"true\" bounds=\"[")
+                .append(bounds.x).append(',').append(bounds.y).append("][")
+                .append(bounds.x + bounds.width).append(',').append(bounds.y + bounds.height).append("]\"/>");
+        }
+        xml.append("</android.widget.FrameLayout></hierarchy>");
+        return xml.toString();
+    }
+    
+    private void enter(Screen next) {
+        screen = next;
+        enteredAt = System.currentTimeMillis();
+        values.clear();
+    }
+    
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
@@ -0,0 +1,392 @@
+package com.mahadsiddiqui.utils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import io.appium.java_client.ExecutesDriverScript;
+import io.appium.java_client.driverscripts.ScriptOptions;
+import io.appium.java_client.driverscripts.ScriptType;
+import io.appium.java_client.driverscripts.ScriptValue;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records a sequence of find, type, tap and assert steps and runs them in one round trip
+ * The steps are sent as a single Appium execute-driver-script call, which runs them on the server
+ * with server-side polling for each element; results and errors are mapped back to the step that
+ * produced them. Sessions whose server does not allow driver scripts run the steps one by one instead
+ */
+public class ActionBatch {
+    
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Set<String> UNSUPPORTED_SESSIONS = ConcurrentHashMap.newKeySet();
+    
+    private static final String SCRIPT =
+        "const steps = %s;\n"
+        + "const key = 'element-6066-11e4-a52e-4f735466cecf';\n"
+        + "const results = [];\n"
+        + "for (const step of steps) {\n"
+        + "  const started = Date.now();\n"
+        + "  try {\n"
+        + "    let el;\n"
+        + "    while (true) {\n"
+        + "      try {\n"
+        + "        el = await driver.findElement(step.using, step.value);\n"
+        + "        if (el && !el.error) break;\n"
+        + "      } catch (e) {}\n"
+        + "      if (Date.now() - started >= step.timeout) throw new Error('No element matching ' + step.locator);\n"
+        + "      await driver.pause(step.poll);\n"
+        + "    }\n"
+        + "    const id = el[key] || el.ELEMENT;\n"
+        + "    let value = null;\n"
+        + "    if (step.action === 'type') await driver.elementSendKeys(id, step.text);\n"
+        + "    else if (step.action === 'tap') await driver.elementClick(id);\n"
+        + "    else if (step.action === 'assertDisplayed') {\n"
+        + "      if (!(await driver.isElementDisplayed(id))) throw new Error(step.locator + ' is not displayed');\n"
+        + "    } else if (step.action === 'assertText') {\n"
+        + "      value = await driver.getElementText(id);\n"
+        + "      if (value !== step.text) throw new Error(step.locator + ' has text \"' + value + '\"');\n"
+        + "    }\n"
+        + "    results.push({ok: true, value: value, ms: Date.now() - started});\n"
+        + "  } catch (e) {\n"
+        + "    results.push({ok: false, error: String(e && e.message || e), ms: Date.now() - started});\n"
+        + "    break;\n"
+        + "  }\n"
+        + "}\n"
+        + "return results;\n";
+    
+    private final WebDriver driver;
+    private final List<Step> steps = new ArrayList<>();
+    private final long timeoutMillis;
+    private final long pollMillis;
+    
+    public ActionBatch(WebDriver driver) {
+        this(driver, Duration.ofSeconds(MobileDriverConfig.getExplicitWaitTimeout()));
+    }
+    
+    public ActionBatch(WebDriver driver, Duration timeout) {
+        this.driver = driver;
+        this.timeoutMillis = timeout.toMillis();
+        this.pollMillis = Long.parseLong(MobileDriverConfig.getProperty("wait.poll.initial.ms", "50"));
+    }
+    
+    /**
+     * Wait for an element to be present
+     */
+    public ActionBatch find(By by) {
+        steps.add(new Step("find", by, null));
+        return this;
+    }
+    
+    /**
+     * Type text into an element
+     */
+    public ActionBatch type(By by, String text) {
+        steps.add(new Step("type", by, text));
+        return this;
+    }
+    
+    /**
+     * Tap an element
+     */
+    public ActionBatch tap(By by) {
+        steps.add(new Step("tap", by, null));
+        return this;
+    }
+    
+    /**
+     * Fail unless the element is displayed
+     */
+    public ActionBatch assertDisplayed(By by) {
+        steps.add(new Step("assertDisplayed", by, null));
+        return this;
+    }
+    
+    /**
+     * Fail unless the element has exactly the given text
+     */
+    public ActionBatch assertText(By by, String text) {
+        steps.add(new Step("assertText", by, text));
+        return this;
+    }
+    
+    /**
+     * Run the recorded steps, in one round trip when the server supports driver scripts
+     * @throws StepFailedException naming the first step that failed
+     */
+    public List<StepResult> run() {
+        String session = sessionId();
+        boolean batchable = MobileDriverConfig.getBooleanProperty("action.batch.enabled")
+            && driver instanceof ExecutesDriverScript
+            && !UNSUPPORTED_SESSIONS.contains(session)
+            && allStepsBatchable();
+        
+        if (batchable) {
+            try {
+                return runScript();
+            } catch (WebDriverException e) {
+                if (e instanceof StepFailedException || !isUnsupported(e)) {
+                    throw e;
+                }
+                UNSUPPORTED_SESSIONS.add(session);
+                System.out.println("Driver scripts unavailable for session " + session
+                    + ", running steps individually: " + e.getMessage());
+            }
+        }
+        return runStepByStep();
+    }
+    
+    private List<StepResult> runScript() {
+        List<Map<String, Object>> payload = new ArrayList<>();
+        for (Step step : steps) {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("action", step.action);
+            json.put("using", step.using);
+            json.put("value", step.value);
+            json.put("locator", step.by.toString());
+            json.put("text", step.text);
+            json.put("timeout", timeoutMillis);
+            json.put("poll", pollMillis);
+            payload.add(json);
+        }
+        
+        String script;
+        try {
+            script = String.format(SCRIPT, MAPPER.writeValueAsString(payload));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to encode action batch", e);
+        }
+        
+        ScriptValue value = ((ExecutesDriverScript) driver).executeDriverScript(script, new ScriptOptions()
+            .withScriptType(ScriptType.WEBDRIVERIO)
+            .withTimeout(timeoutMillis * steps.size() + 10_000));
+        
+        List<StepResult> results = new ArrayList<>();
+        Object raw = value != null ? value.getResult() : null;
+        if (!(raw instanceof List)) {
+            throw new WebDriverException("Unexpected action batch result: " + raw);
+        }
+        
+        for (Object item : (List<?>) raw) {
+            Map<?, ?> map = (Map<?, ?>) item;
+            Step step = steps.get(results.size());
+            Object elapsed = map.get("ms");
+            StepResult result = new StepResult(results.size(), step.describe(), Boolean.TRUE.equals(map.get("ok")),
+                map.get("value") != null ? String.valueOf(map.get("value")) : null,
+                map.get("error") != null ? String.valueOf(map.get("error")) : null,
+                elapsed instanceof Number ? ((Number) elapsed).longValue() : 0, true);
+            results.add(result);
+            if (!result.isSuccess()) {
+                throw new StepFailedException(result, results);
+            }
+        }
+        return Collections.unmodifiableList(results);
+    }
+    
+    private List<StepResult> runStepByStep() {
+        WaitEngine wait = new WaitEngine(driver, Duration.ofMillis(timeoutMillis));
+        List<StepResult> results = new ArrayList<>();
+        for (Step step : steps) {
+            long started = System.currentTimeMillis();
+            String value = null;
+            String error = null;
+            try {
+                WebElement element = wait.waitForPresent(step.by);
+                if ("type".equals(step.action)) {
+                    element.sendKeys(step.text);
+                } else if ("tap".equals(step.action)) {
+                    element.click();
+                } else if ("assertDisplayed".equals(step.action) && !element.isDisplayed()) {
+                    error = step.by + " is not displayed";
+                } else if ("assertText".equals(step.action)) {
+                    value = element.getText();
+                    if (!value.equals(step.text)) {
+                        error = step.by + " has text \"" + value + "\"";
+                    }
+                }
+            } catch (WebDriverException e) {
+                error = e.getMessage();
+            }
+            
+            StepResult result = new StepResult(results.size(), step.describe(), error == null, value, error,
+                System.currentTimeMillis() - started, false);
+            results.add(result);
+            if (!result.isSuccess()) {
+                throw new StepFailedException(result, results);
+            }
+        }
+        return Collections.unmodifiableList(results);
+    }
+    
+    private boolean allStepsBatchable() {
+        for (Step step : steps) {
+            if (step.using == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private String sessionId() {
+        if (driver instanceof RemoteWebDriver && ((RemoteWebDriver) driver).getSessionId() != null) {
+            return ((RemoteWebDriver) driver).getSessionId().toString();
+        }
+        return String.valueOf(System.identityHashCode(driver));
+    }
+    
+    private static boolean isUnsupported(WebDriverException e) {
+        String message = String.valueOf(e.getMessage()).toLowerCase();
+        return message.contains("execute_driver_script") || message.contains("insecure feature")
+            || message.contains("unknown command") || message.contains("not implemented")
+            || message.contains("not yet implemented");
+    }
+    
+    /**
+     * Map a Selenium or Appium locator to its W3C strategy and value; the strategy is null when it cannot be sent
+     */
+    static String[] toW3C(By by) {
+        String locator = by.toString();
+        int separator = locator.indexOf(": ");
+        if (separator < 0) {
+            return new String[] {null, null};
+        }
+        
+        String strategy = locator.substring(locator.indexOf('.') + 1, separator);
+        String value = locator.substring(separator + 2);
+        switch (strategy) {
+            case "id":
+                return new String[] {"id", value};
+            case "accessibilityId":
+                return new String[] {"accessibility id", value};
+            case "className":
+                return new String[] {"class name", value};
+            case "xpath":
+                return new String[] {"xpath", value};
+            case "name":
+                return new String[] {"name", value};
+            case "androidUIAutomator":
+                return new String[] {"-android uiautomator", value};
+            case "iOSNsPredicateString":
+                return new String[] {"-ios predicate string", value};
+            case "iOSClassChain":
+                return new String[] {"-ios class chain", value};
+            default:
+                return new String[] {null, value};
+        }
+    }
+    
+    private static class Step {
+        final String action;
+        final By by;
+        final String text;
+        final String using;
+        final String value;
+        
+        Step(String action, By by, String text) {
+            this.action = action;
+            this.by = by;
+            this.text = text;
+            String[] w3c = toW3C(by);
+            this.using = w3c[0];
+            this.value = w3c[1];
+        }
+        
+        String describe() {
+            return action + " " + by + ("type".equals(action) || text == null ? "" : " \"" + text + "\"");
+        }
+    }
+    
+    /**
+     * Outcome of one step in a batch
+     */
+    public static class StepResult {
+        private final int index;
+        private final String step;
+        private final boolean success;
+        private final String value;
+        private final String error;
+        private final long elapsedMillis;
+        private final boolean batched;
+        
+        StepResult(int index, String step, boolean success, String value, String error, long elapsedMillis,
+                   boolean batched) {
+            this.index = index;
+            this.step = step;
+            this.success = success;
+            this.value = value;
+            this.error = error;
+            this.elapsedMillis = elapsedMillis;
+            this.batched = batched;
+        }
+        
+        public int getIndex() {
+            return index;
+        }
+        
+        public String getStep() {
+            return step;
+        }
+        
+        public boolean isSuccess() {
+            return success;
+        }
+        
+        public String getValue() {
+            return value;
+        }
+        
+        public String getError() {
+            return error;
+        }
+        
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+        
+        /**
+         * Whether the step ran inside a driver script rather than as its own commands
+         */
+        public boolean isBatched() {
+            return batched;
+        }
+        
+        @Override
+        public String toString() {
+            return "#" + index + " " + step + ": " + (success ? "ok" : error) + " (" + elapsedMillis + " ms)";
+        }
+    }
+    
+    /**
+     * Thrown when a step fails, carrying the results of every step that ran
+     */
+    public static class StepFailedException extends WebDriverException {
+        private final StepResult failed;
+        private final List<StepResult> results;
+        
+        StepFailedException(StepResult failed, List<StepResult> results) {
+            super("Action batch step " + failed);
+            this.failed = failed;
+            this.results = Collections.unmodifiableList(new ArrayList<>(results));
+        }
+        
+        public StepResult getFailedStep() {
+            return failed;
+        }
+        
+        public List<StepResult> getResults() {
+            return results;
+        }
+    }
+}
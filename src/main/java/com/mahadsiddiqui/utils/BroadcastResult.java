@@ -0,0 +1,190 @@
+package com.mahadsiddiqui.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of running one test body on several devices at once, with per-device step timings
+ */
+public class BroadcastResult {
+    
+    private final String name;
+    private final List<DeviceResult> devices;
+    private final long wallMillis;
+    
+    BroadcastResult(String name, List<DeviceResult> devices, long wallMillis) {
+        this.name = name;
+        this.devices = Collections.unmodifiableList(devices);
+        this.wallMillis = wallMillis;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public List<DeviceResult> getDevices() {
+        return devices;
+    }
+    
+    /**
+     * Elapsed time of the whole broadcast, which tracks the slowest device
+     */
+    public long getWallMillis() {
+        return wallMillis;
+    }
+    
+    /**
+     * Time the devices would have taken one after another
+     */
+    public long getSerialMillis() {
+        long total = 0;
+        for (DeviceResult device : devices) {
+            total += device.getTotalMillis();
+        }
+        return total;
+    }
+    
+    /**
+     * Whether the body passed on every device
+     */
+    public boolean isPassed() {
+        return getFailures().isEmpty();
+    }
+    
+    public List<DeviceResult> getFailures() {
+        List<DeviceResult> failures = new ArrayList<>();
+        for (DeviceResult device : devices) {
+            if (!device.isPassed()) {
+                failures.add(device);
+            }
+        }
+        return failures;
+    }
+    
+    /**
+     * Spread between the fastest and slowest device for each step, in step order
+     */
+    public Map<String, Long> getStepSkew() {
+        Map<String, long[]> range = new LinkedHashMap<>();
+        for (DeviceResult device : devices) {
+            for (Map.Entry<String, Long> step : device.getStepMillis().entrySet()) {
+                long[] minMax = range.computeIfAbsent(step.getKey(), key -> new long[] {Long.MAX_VALUE, 0});
+                minMax[0] = Math.min(minMax[0], step.getValue());
+                minMax[1] = Math.max(minMax[1], step.getValue());
+            }
+        }
+        
+        Map<String, Long> skew = new LinkedHashMap<>();
+        for (Map.Entry<String, long[]> step : range.entrySet()) {
+            skew.put(step.getKey(), step.getValue()[1] - step.getValue()[0]);
+        }
+        return skew;
+    }
+    
+    /**
+     * Fail with every device's error if the body failed anywhere
+     */
+    public void assertPassed() {
+        List<DeviceResult> failures = getFailures();
+        if (failures.isEmpty()) {
+            return;
+        }
+        
+        StringBuilder message = new StringBuilder(name + " failed on " + failures.size() + " of "
+            + devices.size() + " devices:");
+        for (DeviceResult failure : failures) {
+            message.append("\n  ").append(failure.getDeviceId()).append(": ").append(failure.getError());
+        }
+        AssertionError error = new AssertionError(message.toString());
+        for (DeviceResult failure : failures) {
+            error.addSuppressed(failure.getError());
+        }
+        throw error;
+    }
+    
+    /**
+     * Per-step timings for every device with the slowest device and skew of each step
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("%s on %d devices: wall %d ms, serial %d ms%n",
+            name, devices.size(), wallMillis, getSerialMillis()));
+        
+        for (Map.Entry<String, Long> step : getStepSkew().entrySet()) {
+            summary.append(String.format("  %-24s skew %6d ms", step.getKey(), step.getValue()));
+            for (DeviceResult device : devices) {
+                Long millis = device.getStepMillis().get(step.getKey());
+                summary.append(String.format("  %s=%s", device.getDeviceId(), millis == null ? "-" : millis + "ms"));
+            }
+            summary.append(System.lineSeparator());
+        }
+        
+        for (DeviceResult device : devices) {
+            summary.append(String.format("  %-12s %-8s %6d ms %s%n", device.getDeviceId(), device.getPlatform(),
+                device.getTotalMillis(), device.isPassed() ? "passed" : "FAILED: " + device.getError()));
+        }
+        return summary.toString();
+    }
+    
+    @Override
+    public String toString() {
+        return summary();
+    }
+    
+    /**
+     * Outcome on a single device
+     */
+    public static class DeviceResult {
+        
+        private final String deviceId;
+        private final String platform;
+        private final Map<String, Long> stepMillis;
+        private final long totalMillis;
+        private final Throwable error;
+        
+        DeviceResult(String deviceId, String platform, Map<String, Long> stepMillis, long totalMillis,
+                     Throwable error) {
+            this.deviceId = deviceId;
+            this.platform = platform;
+            this.stepMillis = Collections.unmodifiableMap(stepMillis);
+            this.totalMillis = totalMillis;
+            this.error = error;
+        }
+        
+        public String getDeviceId() {
+            return deviceId;
+        }
+        
+        public String getPlatform() {
+            return platform;
+        }
+        
+        /**
+         * Time spent in each step on this device, excluding time waiting for other devices at barriers
+         */
+        public Map<String, Long> getStepMillis() {
+            return stepMillis;
+        }
+        
+        /**
+         * Time spent running the body, excluding barrier waits
+         */
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+        
+        public boolean isPassed() {
+            return error == null;
+        }
+        
+        /**
+         * The failure on this device, or null if it passed
+         */
+        public Throwable getError() {
+            return error;
+        }
+    }
+}
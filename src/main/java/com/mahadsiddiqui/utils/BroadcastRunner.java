@@ -0,0 +1,261 @@
+package com.mahadsiddiqui.utils;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import com.mahadsiddiqui.drivers.DevicePool;
+import com.mahadsiddiqui.drivers.DeviceProfile;
+import com.mahadsiddiqui.drivers.DriverLease;
+import io.appium.java_client.AppiumDriver;
+import org.openqa.selenium.WebDriverException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs one test body concurrently on several leased devices, so a scenario covers Android and iOS or
+ * several OS versions in the time of the slowest device instead of the sum of all of them
+ * Every device is leased before the body starts anywhere, all or nothing, so a broadcast never sits on part
+ * of the pool waiting for the rest. Broadcasts lease their devices one at a time, so two of them cannot
+ * each hold half the pool. Every device starts the body together. With barriers on, each step() waits
+ * for the other devices to finish the same step, so their screens can be compared at the same point;
+ * a device that fails or finishes early drops out of the remaining barriers
+ */
+public class BroadcastRunner {
+    
+    private static final Object LEASING = new Object();
+    
+    /**
+     * Test body run on every device
+     */
+    public interface Body {
+        void run(Device device) throws Exception;
+    }
+    
+    private final DevicePool pool;
+    private final int devices;
+    private final boolean barriers;
+    private final Duration barrierTimeout;
+    private final Duration acquireTimeout;
+    
+    public BroadcastRunner(DevicePool pool, int devices, boolean barriers, Duration barrierTimeout,
+                           Duration acquireTimeout) {
+        this.pool = pool;
+        this.devices = devices;
+        this.barriers = barriers;
+        this.barrierTimeout = barrierTimeout;
+        this.acquireTimeout = acquireTimeout;
+    }
+    
+    /**
+     * Broadcast across the configured device pool using the broadcast.* properties
+     * broadcast.devices of 0 uses every device in the pool
+     */
+    public static BroadcastRunner fromConfig() {
+        DevicePool pool = MobileDriverConfig.getDevicePool();
+        int devices = MobileDriverConfig.getIntProperty("broadcast.devices");
+        return new BroadcastRunner(pool, devices > 0 ? Math.min(devices, pool.size()) : pool.size(),
+            Boolean.parseBoolean(MobileDriverConfig.getProperty("broadcast.barriers", "true")),
+            Duration.ofSeconds(Long.parseLong(MobileDriverConfig.getProperty("broadcast.barrier.timeout", "120"))),
+            Duration.ofSeconds(Long.parseLong(MobileDriverConfig.getProperty("device.pool.acquire.timeout", "300"))));
+    }
+    
+    /**
+     * Run the body on every device and wait for all of them
+     * The calling thread should not hold a lease itself, or it keeps one device out of the broadcast
+     */
+    public BroadcastResult run(String name, Body body) {
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(devices, runnable -> {
+            Thread thread = new Thread(runnable, "broadcast-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        try {
+            List<DriverLease> leases = leaseAll(name, executor);
+            Phaser phaser = new Phaser(leases.size());
+            long start = System.nanoTime();
+            List<Future<BroadcastResult.DeviceResult>> futures = new ArrayList<>();
+            for (DriverLease lease : leases) {
+                futures.add(executor.submit(() -> runOnDevice(lease, body, phaser)));
+            }
+            
+            List<BroadcastResult.DeviceResult> results = new ArrayList<>();
+            for (Future<BroadcastResult.DeviceResult> future : futures) {
+                results.add(future.get());
+            }
+            return new BroadcastResult(name, results, (System.nanoTime() - start) / 1_000_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while broadcasting " + name, e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Broadcast worker failed for " + name, e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Lease every device, opening their sessions in parallel, or release the ones leased and fail
+     */
+    private List<DriverLease> leaseAll(String name, ExecutorService executor) {
+        synchronized (LEASING) {
+            List<Future<DriverLease>> pending = new ArrayList<>();
+            for (int i = 0; i < devices; i++) {
+                pending.add(executor.submit(() -> pool.acquire(acquireTimeout)));
+            }
+            
+            List<DriverLease> leases = new ArrayList<>();
+            Throwable failure = null;
+            boolean interrupted = false;
+            for (Future<DriverLease> future : pending) {
+                while (true) {
+                    try {
+                        leases.add(future.get());
+                        break;
+                    } catch (ExecutionException e) {
+                        failure = failure == null ? e.getCause() : failure;
+                        break;
+                    } catch (InterruptedException e) {
+                        // Acquisition is bounded by its timeout; wait it out so no lease is left behind
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+                failure = failure == null ? new InterruptedException() : failure;
+            }
+            if (failure == null) {
+                return leases;
+            }
+            leases.forEach(pool::release);
+            throw new RuntimeException("Could not lease " + devices + " devices for broadcast " + name + " within "
+                + acquireTimeout.getSeconds() + "s", failure);
+        }
+    }
+    
+    private BroadcastResult.DeviceResult runOnDevice(DriverLease lease, Body body, Phaser phaser) {
+        Device device = new Device(lease, phaser);
+        MobileDriverConfig.bindLease(lease);
+        Throwable error = null;
+        try {
+            // Line the devices up so the body starts everywhere at the same moment
+            device.await("start");
+            device.stepStart = System.nanoTime();
+            body.run(device);
+        } catch (Exception | AssertionError e) {
+            error = e;
+        } finally {
+            device.stop();
+            device.leave();
+            MobileDriverConfig.bindLease(null);
+            if (error instanceof WebDriverException) {
+                pool.evict(lease);
+            } else {
+                pool.release(lease);
+            }
+        }
+        return device.result(error);
+    }
+    
+    /**
+     * One device's view of the broadcast, handed to the body
+     */
+    public class Device {
+        
+        private final DriverLease lease;
+        private final Phaser phaser;
+        private final Map<String, Long> stepMillis = new LinkedHashMap<>();
+        private long stepStart;
+        private long runningNanos;
+        private boolean left;
+        
+        Device(DriverLease lease, Phaser phaser) {
+            this.lease = lease;
+            this.phaser = phaser;
+        }
+        
+        public String getId() {
+            return lease.getProfile().getId();
+        }
+        
+        public DeviceProfile getProfile() {
+            return lease.getProfile();
+        }
+        
+        public AppiumDriver getDriver() {
+            return lease.getDriver();
+        }
+        
+        /**
+         * End the named step: record its time, take a step screenshot if the screenshot policy asks for one
+         * and, with barriers on, wait for the other devices to finish the step
+         */
+        public void step(String name) {
+            long elapsed = System.nanoTime() - stepStart;
+            runningNanos += elapsed;
+            String key = name;
+            for (int i = 2; stepMillis.containsKey(key); i++) {
+                key = name + "#" + i;
+            }
+            stepMillis.put(key, elapsed / 1_000_000);
+            
+            if (getDriver() != null) {
+                ScreenshotPipeline.get().onStep(getDriver(), getId() + "_" + key);
+            }
+            if (barriers) {
+                await(key);
+            }
+            stepStart = System.nanoTime();
+        }
+        
+        private void await(String step) {
+            if (phaser.isTerminated()) {
+                return;
+            }
+            
+            int phase = phaser.arrive();
+            try {
+                phaser.awaitAdvanceInterruptibly(phase, barrierTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Waiting on a device that is stuck would stall everyone; carry on without barriers
+                System.err.println("Broadcast barrier at " + step + " timed out on " + getId()
+                    + " after " + barrierTimeout.getSeconds() + "s, continuing unsynchronized");
+                phaser.forceTermination();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted at broadcast barrier " + step, e);
+            }
+        }
+        
+        private void stop() {
+            if (stepStart > 0) {
+                runningNanos += System.nanoTime() - stepStart;
+                stepStart = 0;
+            }
+        }
+        
+        private void leave() {
+            if (!left) {
+                left = true;
+                phaser.arriveAndDeregister();
+            }
+        }
+        
+        private BroadcastResult.DeviceResult result(Throwable error) {
+            return new BroadcastResult.DeviceResult(getId(), getProfile().getPlatformName(), stepMillis,
+                runningNanos / 1_000_000, error);
+        }
+    }
+}
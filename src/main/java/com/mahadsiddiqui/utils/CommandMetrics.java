@@ -0,0 +1,174 @@
+package com.mahadsiddiqui.utils;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Suite-wide and per-test latency of every WebDriver command sent to Appium
+ * Suite-wide figures are kept in lock-free histograms per command; per-test figures are thread-confined,
+ * since commands run on the calling test thread. Timeline events are only kept when tracing is enabled
+ */
+public final class CommandMetrics {
+    
+    private static final Map<String, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> ERRORS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Map<String, LatencyHistogram>> TEST_HISTOGRAMS =
+        ThreadLocal.withInitial(LinkedHashMap::new);
+    private static final ConcurrentLinkedQueue<TraceEvent> TRACE = new ConcurrentLinkedQueue<>();
+    private static final long EPOCH_NANOS = System.nanoTime();
+    private static volatile boolean tracing;
+    
+    private CommandMetrics() {
+    }
+    
+    /**
+     * Record one executed command
+     */
+    public static void record(String command, String sessionId, String device, long startNanos, long durationNanos,
+                              long payloadChars, String outcome) {
+        long micros = durationNanos / 1000;
+        HISTOGRAMS.computeIfAbsent(command, key -> new LatencyHistogram()).record(micros);
+        TEST_HISTOGRAMS.get().computeIfAbsent(command, key -> new LatencyHistogram()).record(micros);
+        if (!"ok".equals(outcome)) {
+            ERRORS.computeIfAbsent(command, key -> new LongAdder()).increment();
+        }
+        
+        if (tracing) {
+            TRACE.add(new TraceEvent(command, sessionId, device, Thread.currentThread().getId(),
+                (startNanos - EPOCH_NANOS) / 1000, micros, payloadChars, outcome));
+        }
+    }
+    
+    /**
+     * Keep a timeline event for every command so it can be exported as a Chrome trace
+     */
+    public static void setTracing(boolean enabled) {
+        tracing = enabled;
+    }
+    
+    /**
+     * Whether timeline events are being kept, so callers can skip work only the trace needs
+     */
+    public static boolean isTracing() {
+        return tracing;
+    }
+    
+    /**
+     * Suite-wide histogram for a command, or null if it never ran
+     */
+    public static LatencyHistogram getHistogram(String command) {
+        return HISTOGRAMS.get(command);
+    }
+    
+    /**
+     * Clear the per-test figures for this thread
+     */
+    public static void startTest() {
+        TEST_HISTOGRAMS.remove();
+    }
+    
+    /**
+     * Summary of the commands this thread ran since startTest()
+     */
+    public static String testSummary() {
+        return format(TEST_HISTOGRAMS.get(), null);
+    }
+    
+    /**
+     * Summary of every command run in the suite, slowest total first
+     */
+    public static String suiteSummary() {
+        return format(HISTOGRAMS, ERRORS);
+    }
+    
+    /**
+     * Write all recorded timeline events as Chrome trace JSON (chrome://tracing, Perfetto)
+     */
+    public static void writeTrace(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        
+        try (JsonGenerator json = new JsonFactory().createGenerator(file, JsonEncoding.UTF8)) {
+            json.writeStartObject();
+            json.writeArrayFieldStart("traceEvents");
+            for (TraceEvent event : TRACE) {
+                json.writeStartObject();
+                json.writeStringField("name", event.command);
+                json.writeStringField("cat", "appium");
+                json.writeStringField("ph", "X");
+                json.writeNumberField("ts", event.startMicros);
+                json.writeNumberField("dur", event.durationMicros);
+                json.writeNumberField("pid", 1);
+                json.writeNumberField("tid", event.threadId);
+                json.writeObjectFieldStart("args");
+                json.writeStringField("session", event.sessionId);
+                json.writeStringField("device", event.device);
+                json.writeNumberField("payloadChars", event.payloadChars);
+                json.writeStringField("outcome", event.outcome);
+                json.writeEndObject();
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+    }
+    
+    private static String format(Map<String, LatencyHistogram> histograms, Map<String, LongAdder> errors) {
+        List<Map.Entry<String, LatencyHistogram>> entries = new ArrayList<>(new TreeMap<>(histograms).entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue().getTotal(), a.getValue().getTotal()));
+        
+        StringBuilder summary = new StringBuilder(String.format("%-28s %8s %10s %9s %9s %9s %9s%s%n",
+            "command", "count", "total ms", "p50 ms", "p90 ms", "p99 ms", "max ms", errors != null ? "   errors" : ""));
+        for (Map.Entry<String, LatencyHistogram> entry : entries) {
+            LatencyHistogram histogram = entry.getValue();
+            summary.append(String.format("%-28s %8d %10.1f %9.1f %9.1f %9.1f %9.1f",
+                entry.getKey(), histogram.getCount(), histogram.getTotal() / 1000.0,
+                histogram.getPercentile(50) / 1000.0, histogram.getPercentile(90) / 1000.0,
+                histogram.getPercentile(99) / 1000.0, histogram.getMax() / 1000.0));
+            if (errors != null) {
+                LongAdder failed = errors.get(entry.getKey());
+                summary.append(String.format(" %8d", failed == null ? 0 : failed.sum()));
+            }
+            summary.append(System.lineSeparator());
+        }
+        return summary.toString();
+    }
+    
+    private static class TraceEvent {
+        
+        final String command;
+        final String sessionId;
+        final String device;
+        final long threadId;
+        final long startMicros;
+        final long durationMicros;
+        final long payloadChars;
+        final String outcome;
+        
+        TraceEvent(String command, String sessionId, String device, long threadId, long startMicros,
+                   long durationMicros, long payloadChars, String outcome) {
+            this.command = command;
+            this.sessionId = sessionId;
+            this.device = device;
+            this.threadId = threadId;
+            this.startMicros = startMicros;
+            this.durationMicros = durationMicros;
+            this.payloadChars = payloadChars;
+            this.outcome = outcome;
+        }
+    }
+}
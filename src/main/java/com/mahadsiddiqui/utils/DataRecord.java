@@ -0,0 +1,54 @@
+package com.mahadsiddiqui.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One row of test data; rows from the same file share a single column array
+ */
+public class DataRecord {
+    
+    private final String[] columns;
+    private final String[] values;
+    
+    DataRecord(String[] columns, String[] values) {
+        this.columns = columns;
+        this.values = values;
+    }
+    
+    /**
+     * Get a value by column name, or null if absent
+     */
+    public String get(String column) {
+        for (int i = 0; i < columns.length && i < values.length; i++) {
+            if (columns[i].equals(column)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Get a value by column name with default
+     */
+    public String get(String column, String defaultValue) {
+        String value = get(column);
+        return value != null ? value : defaultValue;
+    }
+    
+    /**
+     * Copy the row into a column-to-value map
+     */
+    public Map<String, String> asMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < columns.length && i < values.length; i++) {
+            map.put(columns[i], values[i]);
+        }
+        return map;
+    }
+    
+    @Override
+    public String toString() {
+        return asMap().toString();
+    }
+}
@@ -0,0 +1,186 @@
+package com.mahadsiddiqui.utils;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.logging.LogEntry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Collects device and server logs for a session into a LogRingBuffer
+ * Log types with a tail command (adb logcat, idevicesyslog) are streamed from that process on a background
+ * thread, so only new lines cross the wire and the test's session is not involved. Other types, and tails
+ * that cannot start, are pulled through the session only when a window is flushed, never on a timer
+ * Logcat and syslog lines are kept only if they mention one of the filter tokens (the app package or
+ * bundle id, crash markers) or come from one of the app's processes, whose pids are learned from the
+ * "Start proc" lines; server log lines are always kept. Nothing is written to disk unless a window is
+ * flushed, which is what keeps passing tests cheap
+ */
+public class DeviceLogCollector {
+    
+    private static final Pattern START_PROC = Pattern.compile("Start proc (\\d+):([^/\\s]+)");
+    private static final Pattern LOGCAT_PID = Pattern.compile("^\\d\\d-\\d\\d \\S+\\s+(\\d+)\\s");
+    private static final Pattern SYSLOG_PID = Pattern.compile("\\[(\\d+)\\]");
+    
+    private final WebDriver driver;
+    private final String[] types;
+    private final List<String> tokens;
+    private final boolean filter;
+    private final LogRingBuffer buffer;
+    private final Set<String> appPids = ConcurrentHashMap.newKeySet();
+    private final Set<String> unsupported = ConcurrentHashMap.newKeySet();
+    private final Map<String, List<String>> tailCommands;
+    private final Set<String> tailed = ConcurrentHashMap.newKeySet();
+    private final List<Process> tails = new ArrayList<>();
+    
+    public DeviceLogCollector(WebDriver driver, List<String> types, List<String> tokens, boolean filter,
+                              LogRingBuffer buffer, Map<String, List<String>> tailCommands) {
+        this.driver = driver;
+        this.types = types.toArray(new String[0]);
+        this.tokens = new ArrayList<>(tokens);
+        this.filter = filter;
+        this.buffer = buffer;
+        this.tailCommands = tailCommands;
+    }
+    
+    /**
+     * Start the tail processes; log types without one are left to flush()
+     */
+    public synchronized void start() {
+        for (int source = 0; source < types.length; source++) {
+            List<String> command = tailCommands.get(types[source]);
+            if (command != null && !command.isEmpty()) {
+                startTail(source, command);
+            }
+        }
+    }
+    
+    /**
+     * Stop the tail processes
+     */
+    public synchronized void stop() {
+        tails.forEach(Process::destroy);
+        tails.clear();
+    }
+    
+    public WebDriver getDriver() {
+        return driver;
+    }
+    
+    public LogRingBuffer getBuffer() {
+        return buffer;
+    }
+    
+    /**
+     * Pull the log types that are not tailed through the session, then write the lines logged between two
+     * times as a gzip file
+     * Returns the number of lines written
+     */
+    public int flush(long fromMillis, long toMillis, Path file) throws IOException {
+        pullQuietly();
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file), 8192)) {
+            return buffer.writeTo(out, fromMillis, toMillis, types);
+        }
+    }
+    
+    /**
+     * Whether a line of the given log type belongs to the app under test
+     */
+    public boolean accept(String type, String message) {
+        if (!filter || "server".equals(type)) {
+            return true;
+        }
+        
+        Matcher started = START_PROC.matcher(message);
+        if (started.find()) {
+            for (String token : tokens) {
+                if (started.group(2).equals(token)) {
+                    appPids.add(started.group(1));
+                    return true;
+                }
+            }
+        }
+        for (String token : tokens) {
+            if (message.contains(token)) {
+                return true;
+            }
+        }
+        
+        Matcher pid = "logcat".equals(type) ? LOGCAT_PID.matcher(message) : SYSLOG_PID.matcher(message);
+        return pid.find() && appPids.contains(pid.group(1));
+    }
+    
+    private void startTail(int source, List<String> command) {
+        String type = types[source];
+        Process process;
+        try {
+            process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        } catch (IOException e) {
+            System.err.println("Cannot tail " + type + " with " + command.get(0) + " (" + e.getMessage()
+                + "), pulling it through the session on flush");
+            return;
+        }
+        tails.add(process);
+        tailed.add(type);
+        
+        Thread reader = new Thread(() -> {
+            try (BufferedReader lines = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = lines.readLine()) != null) {
+                    if (accept(type, line)) {
+                        buffer.add(System.currentTimeMillis(), source, line);
+                    }
+                }
+                if (isTailing(process)) {
+                    System.err.println("Tailing " + type + " stopped with exit code " + process.waitFor());
+                }
+            } catch (IOException e) {
+                // The process was destroyed by stop()
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "device-log-tail-" + type);
+        reader.setDaemon(true);
+        reader.start();
+    }
+    
+    private synchronized boolean isTailing(Process process) {
+        return tails.contains(process);
+    }
+    
+    private synchronized void pullQuietly() {
+        for (int source = 0; source < types.length; source++) {
+            String type = types[source];
+            if (unsupported.contains(type) || tailed.contains(type)) {
+                continue;
+            }
+            try {
+                for (LogEntry entry : driver.manage().logs().get(type)) {
+                    if (accept(type, entry.getMessage())) {
+                        buffer.add(entry.getTimestamp(), source, entry.getMessage());
+                    }
+                }
+            } catch (WebDriverException e) {
+                // e.g. server logs without the get_server_logs insecure feature, or a session that just ended
+                unsupported.add(type);
+                System.err.println("Not collecting " + type + " logs: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package com.mahadsiddiqui.utils;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import io.appium.java_client.AppiumBy;
+import io.appium.java_client.AppiumDriver;
+import io.appium.java_client.ios.IOSDriver;
+import io.appium.java_client.remote.SupportsRotation;
+import org.openqa.selenium.By;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.Point;
+import org.openqa.selenium.Rectangle;
+import org.openqa.selenium.ScreenOrientation;
+import org.openqa.selenium.UnsupportedCommandException;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.interactions.Pause;
+import org.openqa.selenium.interactions.PointerInput;
+import org.openqa.selenium.interactions.Sequence;
+import org.openqa.selenium.remote.SessionId;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Swipe, fling, pinch and long-press as W3C pointer actions, and scroll-into-view done on the server
+ * Window and container rectangles are cached per screen and orientation, so a gesture costs one round trip
+ * and rotating only re-measures the first time each orientation is seen. Scrolling to an element uses
+ * UiScrollable on Android and mobile: scroll on iOS, which scroll and find in one request; servers that
+ * cannot do that fall back to find-and-swipe on the client. Engines are kept per session id until the
+ * session is released
+ */
+public class GestureEngine {
+    
+    /**
+     * Direction the finger moves; swiping UP scrolls content further down the page
+     */
+    public enum Direction {
+        UP, DOWN, LEFT, RIGHT
+    }
+    
+    private static final Map<String, GestureEngine> ENGINES = new ConcurrentHashMap<>();
+    private static final String WINDOW = "window";
+    
+    private final AppiumDriver driver;
+    private final GeometryCache geometry = new GeometryCache();
+    private final int maxSwipes;
+    private volatile String screen = "default";
+    private volatile ScreenOrientation orientation;
+    private volatile boolean serverScrollUnsupported;
+    
+    GestureEngine(AppiumDriver driver, int maxSwipes) {
+        this.driver = driver;
+        this.maxSwipes = maxSwipes;
+    }
+    
+    /**
+     * Get the engine for a session, keeping its cached geometry for as long as the session is in use
+     */
+    public static GestureEngine of(AppiumDriver driver) {
+        int maxSwipes = Integer.parseInt(MobileDriverConfig.getProperty("gesture.scroll.max.swipes", "10"));
+        SessionId session = driver.getSessionId();
+        if (session == null) {
+            // The session has ended, so there is nothing worth caching for it
+            return new GestureEngine(driver, maxSwipes);
+        }
+        return ENGINES.computeIfAbsent(session.toString(), id -> new GestureEngine(driver, maxSwipes));
+    }
+    
+    /**
+     * Drop the engine for a session that is about to quit; call before quit(), which clears the session id
+     */
+    public static void release(AppiumDriver driver) {
+        SessionId session = driver.getSessionId();
+        if (session != null) {
+            ENGINES.remove(session.toString());
+        }
+    }
+    
+    /**
+     * Mark the screen the app is on; geometry cached for other screens is kept for when the app returns
+     */
+    public GestureEngine onScreen(String name) {
+        screen = name;
+        return this;
+    }
+    
+    /**
+     * Rotate the device; gestures then use the geometry cached for the new orientation, measuring it once
+     */
+    public void rotate(ScreenOrientation target) {
+        ((SupportsRotation) driver).rotate(target);
+        orientation = target;
+    }
+    
+    /**
+     * Current orientation, asked from the device only the first time
+     */
+    public ScreenOrientation getOrientation() {
+        if (orientation == null) {
+            orientation = ((SupportsRotation) driver).getOrientation();
+        }
+        return orientation;
+    }
+    
+    /**
+     * Swipe across the middle of the window
+     */
+    public void swipe(Direction direction) {
+        swipe(window(), direction, Duration.ofMillis(600));
+    }
+    
+    /**
+     * Swipe across the middle of a container, such as a list or carousel
+     */
+    public void swipe(By container, Direction direction) {
+        swipe(area(container), direction, Duration.ofMillis(600));
+    }
+    
+    /**
+     * Short, fast swipe that leaves the content scrolling with momentum
+     */
+    public void fling(Direction direction) {
+        swipe(window(), direction, Duration.ofMillis(100));
+    }
+    
+    /**
+     * Fling within a container
+     */
+    public void fling(By container, Direction direction) {
+        swipe(area(container), direction, Duration.ofMillis(100));
+    }
+    
+    /**
+     * Press and hold an element
+     */
+    public void longPress(WebElement element, Duration hold) {
+        Rectangle rect = element.getRect();
+        longPress(new Point(rect.getX() + rect.getWidth() / 2, rect.getY() + rect.getHeight() / 2), hold);
+    }
+    
+    /**
+     * Press and hold a point
+     */
+    public void longPress(Point point, Duration hold) {
+        PointerInput finger = new PointerInput(PointerInput.Kind.TOUCH, "finger");
+        Sequence press = new Sequence(finger, 0)
+            .addAction(finger.createPointerMove(Duration.ZERO, PointerInput.Origin.viewport(), point.getX(), point.getY()))
+            .addAction(finger.createPointerDown(PointerInput.MouseButton.LEFT.asArg()))
+            .addAction(new Pause(finger, hold))
+            .addAction(finger.createPointerUp(PointerInput.MouseButton.LEFT.asArg()));
+        driver.perform(Collections.singletonList(press));
+    }
+    
+    /**
+     * Tap a point
+     */
+    public void tap(Point point) {
+        longPress(point, Duration.ofMillis(50));
+    }
+    
+    /**
+     * Two-finger pinch on a container: a scale below 1 pinches in (zoom out), above 1 spreads (zoom in)
+     */
+    public void pinch(By container, double scale) {
+        int[][] paths = pinchPaths(area(container), scale);
+        PointerInput first = new PointerInput(PointerInput.Kind.TOUCH, "finger1");
+        PointerInput second = new PointerInput(PointerInput.Kind.TOUCH, "finger2");
+        driver.perform(Arrays.asList(
+            stroke(first, paths[0], Duration.ofMillis(500)),
+            stroke(second, paths[1], Duration.ofMillis(500))));
+    }
+    
+    /**
+     * Scroll until an element is on screen and return it
+     * @throws NoSuchElementException if it cannot be found within gesture.scroll.max.swipes swipes
+     */
+    public WebElement scrollIntoView(By target) {
+        return scroll(target, target);
+    }
+    
+    /**
+     * Scroll until an element whose text or label contains the given text is on screen
+     */
+    public WebElement scrollToText(String text) {
+        By server = driver instanceof IOSDriver
+            ? AppiumBy.iOSNsPredicateString("label CONTAINS " + quote(text) + " OR name CONTAINS " + quote(text))
+            : AppiumBy.androidUIAutomator("new UiSelector().textContains(" + quote(text) + ")");
+        By client = By.xpath("//*[contains(@text, " + quote(text) + ") or contains(@label, " + quote(text) + ")]");
+        return scroll(server, client);
+    }
+    
+    private WebElement scroll(By serverTarget, By clientTarget) {
+        if (!serverScrollUnsupported) {
+            String[] w3c = ActionBatch.toW3C(serverTarget);
+            try {
+                WebElement element = serverScroll(serverTarget, w3c[0], w3c[1]);
+                if (element != null) {
+                    return element;
+                }
+            } catch (NoSuchElementException e) {
+                throw e;
+            } catch (WebDriverException e) {
+                // Only a server without the command gives up on it for good; other errors fall back this once
+                if (isUnsupported(e)) {
+                    serverScrollUnsupported = true;
+                    System.out.println("Server-side scrolling unavailable, swiping from the client: " + e.getMessage());
+                } else {
+                    System.out.println("Server-side scroll failed, swiping from the client: " + e.getMessage());
+                }
+            }
+        }
+        return clientScroll(clientTarget);
+    }
+    
+    /**
+     * Drop cached geometry for the current screen, e.g. after its layout changed
+     */
+    public void invalidate() {
+        geometry.invalidate(screen);
+    }
+    
+    private WebElement serverScroll(By target, String using, String value) {
+        if (driver instanceof IOSDriver) {
+            Map<String, Object> args = new HashMap<>();
+            if ("accessibility id".equals(using) || "id".equals(using)) {
+                args.put("name", value);
+            } else if ("-ios predicate string".equals(using)) {
+                args.put("predicateString", value);
+            } else {
+                return null;
+            }
+            args.put("toVisible", true);
+            driver.executeScript("mobile: scroll", args);
+            return driver.findElement(target);
+        }
+        
+        String selector;
+        if ("id".equals(using)) {
+            selector = value.contains(":id/")
+                ? "new UiSelector().resourceId(" + quote(value) + ")"
+                : "new UiSelector().resourceIdMatches(" + quote(".*:id/" + value) + ")";
+        } else if ("accessibility id".equals(using)) {
+            selector = "new UiSelector().description(" + quote(value) + ")";
+        } else if ("-android uiautomator".equals(using) && value.startsWith("new UiSelector()")) {
+            selector = value;
+        } else {
+            return null;
+        }
+        // UiScrollable scrolls the first scrollable container until the selector matches, then finds it
+        return driver.findElement(AppiumBy.androidUIAutomator(
+            "new UiScrollable(new UiSelector().scrollable(true)).setMaxSearchSwipes(" + maxSwipes + ")"
+                + ".scrollIntoView(" + selector + ")"));
+    }
+    
+    private WebElement clientScroll(By target) {
+        for (int swipes = 0; ; swipes++) {
+            List<WebElement> found = driver.findElements(target);
+            if (!found.isEmpty() && found.get(0).isDisplayed()) {
+                return found.get(0);
+            }
+            if (swipes == maxSwipes) {
+                throw new NoSuchElementException("Element " + target + " not found after " + maxSwipes + " swipes");
+            }
+            swipe(Direction.UP);
+        }
+    }
+    
+    private void swipe(Rectangle area, Direction direction, Duration duration) {
+        PointerInput finger = new PointerInput(PointerInput.Kind.TOUCH, "finger");
+        driver.perform(Collections.singletonList(stroke(finger, swipePath(area, direction, 0.6), duration)));
+    }
+    
+    private static Sequence stroke(PointerInput finger, int[] path, Duration duration) {
+        return new Sequence(finger, 0)
+            .addAction(finger.createPointerMove(Duration.ZERO, PointerInput.Origin.viewport(), path[0], path[1]))
+            .addAction(finger.createPointerDown(PointerInput.MouseButton.LEFT.asArg()))
+            .addAction(finger.createPointerMove(duration, PointerInput.Origin.viewport(), path[2], path[3]))
+            .addAction(finger.createPointerUp(PointerInput.MouseButton.LEFT.asArg()));
+    }
+    
+    private Rectangle window() {
+        return geometry.get(screen, getOrientation(), WINDOW,
+            () -> new Rectangle(new Point(0, 0), driver.manage().window().getSize()));
+    }
+    
+    private Rectangle area(By container) {
+        return geometry.get(screen, getOrientation(), container.toString(),
+            () -> driver.findElement(container).getRect());
+    }
+    
+    /**
+     * Start and end of a swipe covering a fraction of the area along the direction, centred on the area
+     */
+    static int[] swipePath(Rectangle area, Direction direction, double distance) {
+        int centerX = area.getX() + area.getWidth() / 2;
+        int centerY = area.getY() + area.getHeight() / 2;
+        int dx = (int) (area.getWidth() * distance / 2);
+        int dy = (int) (area.getHeight() * distance / 2);
+        switch (direction) {
+            case UP:
+                return new int[] {centerX, centerY + dy, centerX, centerY - dy};
+            case DOWN:
+                return new int[] {centerX, centerY - dy, centerX, centerY + dy};
+            case LEFT:
+                return new int[] {centerX + dx, centerY, centerX - dx, centerY};
+            default:
+                return new int[] {centerX - dx, centerY, centerX + dx, centerY};
+        }
+    }
+    
+    /**
+     * Paths of two fingers moving along the area's diagonal, from their start spread to the scaled spread
+     */
+    static int[][] pinchPaths(Rectangle area, double scale) {
+        int centerX = area.getX() + area.getWidth() / 2;
+        int centerY = area.getY() + area.getHeight() / 2;
+        // Keep both spreads inside the area whichever way the pinch goes
+        double outer = 0.4;
+        double inner = outer * Math.min(scale, 1 / scale);
+        double from = scale < 1 ? outer : inner;
+        double to = scale < 1 ? inner : outer;
+        int fromX = (int) (area.getWidth() * from);
+        int fromY = (int) (area.getHeight() * from);
+        int toX = (int) (area.getWidth() * to);
+        int toY = (int) (area.getHeight() * to);
+        return new int[][] {
+            {centerX - fromX, centerY - fromY, centerX - toX, centerY - toY},
+            {centerX + fromX, centerY + fromY, centerX + toX, centerY + toY}
+        };
+    }
+    
+    /**
+     * Whether a server-side scroll failed because the server does not have the command or locator strategy
+     */
+    static boolean isUnsupported(WebDriverException error) {
+        if (error instanceof UnsupportedCommandException) {
+            return true;
+        }
+        String message = String.valueOf(error.getMessage()).toLowerCase(Locale.ROOT);
+        return message.contains("unknown method") || message.contains("unknown command")
+            || message.contains("not implemented") || message.contains("not supported")
+            || message.contains("unsupported");
+    }
+    
+    private static String quote(String text) {
+        return "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+    
+    /**
+     * Rectangles keyed by screen, orientation and name, each measured once
+     */
+    static class GeometryCache {
+        private final Map<String, Rectangle> rects = new ConcurrentHashMap<>();
+        
+        Rectangle get(String screen, ScreenOrientation orientation, String name, Supplier<Rectangle> measure) {
+            return rects.computeIfAbsent(screen + "|" + orientation + "|" + name, key -> measure.get());
+        }
+        
+        void invalidate(String screen) {
+            rects.keySet().removeIf(key -> key.startsWith(screen + "|"));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.mahadsiddiqui.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Builds a self-contained HTML report from a ResultStream file
+ * The file is read twice, once for the totals and once for the rows, and each row is written as soon as
+ * it is read, so building the report takes the same memory for ten tests or a hundred thousand.
+ * Screenshots are linked relative to the report rather than embedded
+ */
+public class HtmlReport {
+    
+    private HtmlReport() {
+    }
+    
+    /**
+     * Write the report for a result stream file
+     */
+    public static void write(Path results, Path html, String title) throws IOException {
+        Totals totals = new Totals();
+        ResultStream.forEach(results, totals::add);
+        
+        Files.createDirectories(html.toAbsolutePath().getParent());
+        Path base = html.toAbsolutePath().getParent();
+        try (Writer out = Files.newBufferedWriter(html, StandardCharsets.UTF_8)) {
+            out.write("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>" + escape(title) + "</title>\n");
+            out.write("<style>body{font-family:sans-serif;margin:2em}table{border-collapse:collapse;width:100%}"
+                + "td,th{border:1px solid #ccc;padding:4px 8px;text-align:left;vertical-align:top}"
+                + ".PASSED{color:#2e7d32}.FAILED{color:#c62828}.SKIPPED{color:#9e9e9e}"
+                + "pre{white-space:pre-wrap;margin:0;font-size:12px}img{max-width:160px}</style></head><body>\n");
+            out.write("<h1>" + escape(title) + "</h1>\n");
+            out.write(String.format("<p>%d tests: <span class=\"PASSED\">%d passed</span>, "
+                    + "<span class=\"FAILED\">%d failed</span>, <span class=\"SKIPPED\">%d skipped</span>; "
+                    + "%d ms test time, %s to %s</p>%n",
+                totals.tests, totals.count("PASSED"), totals.count("FAILED"), totals.count("SKIPPED"),
+                totals.duration, Instant.ofEpochMilli(totals.firstStart), Instant.ofEpochMilli(totals.lastEnd)));
+            
+            out.write("<table><tr><th>Test</th><th>Device</th><th>Status</th><th>Duration (ms)</th>"
+                + "<th>Details</th></tr>\n");
+            ResultStream.forEach(results, record -> {
+                try {
+                    writeRow(out, record, base);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            out.write("</table></body></html>\n");
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+    
+    private static void writeRow(Writer out, JsonNode record, Path base) throws IOException {
+        String status = record.path("status").asText();
+        out.write("<tr><td>" + escape(record.path("class").asText()) + "." + escape(record.path("name").asText()));
+        if (record.has("parameters")) {
+            out.write("<br><small>" + escape(record.path("parameters").asText()) + "</small>");
+        }
+        out.write("</td><td>" + escape(record.path("device").asText()) + "</td>");
+        out.write("<td class=\"" + escape(status) + "\">" + escape(status) + "</td>");
+        out.write("<td>" + record.path("duration").asLong() + "</td><td>");
+        if (record.has("error")) {
+            out.write("<pre>" + escape(record.path("error").asText()) + "</pre>");
+        }
+        for (JsonNode attachment : record.path("attachments")) {
+            String href = escape(link(base, attachment.path("path").asText()));
+            String name = escape(attachment.path("name").asText());
+            if (attachment.path("type").asText().startsWith("image/")) {
+                out.write("<a href=\"" + href + "\"><img loading=\"lazy\" src=\"" + href + "\" alt=\"" + name + "\"></a>");
+            } else {
+                out.write("<a href=\"" + href + "\">" + name + "</a> ");
+            }
+        }
+        out.write("</td></tr>\n");
+    }
+    
+    private static String link(Path base, String path) {
+        try {
+            return base.relativize(Paths.get(path).toAbsolutePath()).toString().replace('\\', '/');
+        } catch (IllegalArgumentException e) {
+            return Paths.get(path).toAbsolutePath().toUri().toString();
+        }
+    }
+    
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+    
+    private static class Totals {
+        private final Map<String, Integer> statuses = new TreeMap<>();
+        private int tests;
+        private long duration;
+        private long firstStart;
+        private long lastEnd;
+        
+        void add(JsonNode record) {
+            tests++;
+            statuses.merge(record.path("status").asText(), 1, Integer::sum);
+            long start = record.path("start").asLong();
+            duration += record.path("duration").asLong();
+            firstStart = tests == 1 ? start : Math.min(firstStart, start);
+            lastEnd = Math.max(lastEnd, start + record.path("duration").asLong());
+        }
+        
+        int count(String status) {
+            return statuses.getOrDefault(status, 0);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.mahadsiddiqui.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Fixed-size ring of log lines held in primitive arrays
+ * Message bytes share one circular byte array and each entry is a timestamp, source, offset and length in
+ * parallel arrays, so the buffer never grows and adding a line allocates nothing beyond its UTF-8 bytes.
+ * The oldest lines are dropped to make room
+ */
+public class LogRingBuffer {
+    
+    private final byte[] data;
+    private final long[] times;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final byte[] sources;
+    
+    private int head;
+    private int count;
+    private int writePosition;
+    private int usedBytes;
+    private long dropped;
+    
+    public LogRingBuffer(int capacityBytes, int maxEntries) {
+        this.data = new byte[capacityBytes];
+        this.times = new long[maxEntries];
+        this.offsets = new int[maxEntries];
+        this.lengths = new int[maxEntries];
+        this.sources = new byte[maxEntries];
+    }
+    
+    /**
+     * Add a line, truncating it to the buffer size and dropping the oldest lines to make room
+     */
+    public synchronized void add(long timeMillis, int source, String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, data.length);
+        while (count > 0 && (count == times.length || usedBytes + length > data.length)) {
+            dropOldest();
+        }
+        
+        int slot = (head + count) % times.length;
+        times[slot] = timeMillis;
+        offsets[slot] = writePosition;
+        lengths[slot] = length;
+        sources[slot] = (byte) source;
+        
+        int first = Math.min(length, data.length - writePosition);
+        System.arraycopy(bytes, 0, data, writePosition, first);
+        System.arraycopy(bytes, first, data, 0, length - first);
+        writePosition = (writePosition + length) % data.length;
+        usedBytes += length;
+        count++;
+    }
+    
+    /**
+     * Write the lines logged between two times, each prefixed with its time and source name
+     */
+    public synchronized int writeTo(OutputStream out, long fromMillis, long toMillis, String[] sourceNames)
+            throws IOException {
+        int written = 0;
+        for (int i = 0; i < count; i++) {
+            int slot = (head + i) % times.length;
+            if (times[slot] < fromMillis || times[slot] > toMillis) {
+                continue;
+            }
+            
+            out.write((Instant.ofEpochMilli(times[slot]) + " [" + sourceNames[sources[slot]] + "] ")
+                .getBytes(StandardCharsets.UTF_8));
+            int first = Math.min(lengths[slot], data.length - offsets[slot]);
+            out.write(data, offsets[slot], first);
+            out.write(data, 0, lengths[slot] - first);
+            out.write('\n');
+            written++;
+        }
+        return written;
+    }
+    
+    /**
+     * Number of lines held
+     */
+    public synchronized int size() {
+        return count;
+    }
+    
+    /**
+     * Number of lines dropped to make room since the buffer was created
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+    
+    private void dropOldest() {
+        usedBytes -= lengths[head];
+        head = (head + 1) % times.length;
+        count--;
+        dropped++;
+    }
+}
@@ -0,0 +1,173 @@
+package com.mahadsiddiqui.utils;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parsed page source with every element indexed by resource-id, accessibility id, class and text
+ * Answers locators locally so that many lookups on one screen cost a single getPageSource round trip
+ */
+public class PageSnapshot {
+    
+    private final Document document;
+    private final Map<String, List<SnapshotElement>> byId = new HashMap<>();
+    private final Map<String, List<SnapshotElement>> byAccessibilityId = new HashMap<>();
+    private final Map<String, List<SnapshotElement>> byClass = new HashMap<>();
+    private final Map<String, List<SnapshotElement>> byText = new HashMap<>();
+    private final Map<Node, SnapshotElement> elements = new HashMap<>();
+    private final Map<String, XPathExpression> compiledXPaths = new HashMap<>();
+    private final XPathFactory xpathFactory = XPathFactory.newInstance();
+    private final long createdAt = System.currentTimeMillis();
+    
+    private PageSnapshot(Document document) {
+        this.document = document;
+        index(document.getDocumentElement());
+    }
+    
+    /**
+     * Parse page source XML as returned by UiAutomator2 or XCUITest
+     */
+    public static PageSnapshot parse(String pageSource) {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            factory.setNamespaceAware(false);
+            return new PageSnapshot(factory.newDocumentBuilder().parse(new InputSource(new StringReader(pageSource))));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to parse page source", e);
+        }
+    }
+    
+    /**
+     * Elements whose resource-id (Android) or name (iOS) matches, with or without the package prefix
+     */
+    public List<SnapshotElement> findById(String id) {
+        return byId.getOrDefault(id, Collections.emptyList());
+    }
+    
+    /**
+     * Elements whose content-desc (Android) or name (iOS) matches
+     */
+    public List<SnapshotElement> findByAccessibilityId(String accessibilityId) {
+        return byAccessibilityId.getOrDefault(accessibilityId, Collections.emptyList());
+    }
+    
+    /**
+     * Elements of the given class, e.g. android.widget.Button or XCUIElementTypeButton
+     */
+    public List<SnapshotElement> findByClassName(String className) {
+        return byClass.getOrDefault(className, Collections.emptyList());
+    }
+    
+    /**
+     * Elements whose text (Android) or label/value (iOS) matches exactly
+     */
+    public List<SnapshotElement> findByText(String text) {
+        return byText.getOrDefault(text, Collections.emptyList());
+    }
+    
+    /**
+     * Elements matching an XPath evaluated against the snapshot
+     */
+    public List<SnapshotElement> findByXPath(String xpath) {
+        try {
+            XPathExpression expression = compiledXPaths.get(xpath);
+            if (expression == null) {
+                expression = xpathFactory.newXPath().compile(xpath);
+                compiledXPaths.put(xpath, expression);
+            }
+            
+            NodeList nodes = (NodeList) expression.evaluate(document, XPathConstants.NODESET);
+            List<SnapshotElement> result = new ArrayList<>(nodes.getLength());
+            for (int i = 0; i < nodes.getLength(); i++) {
+                SnapshotElement element = elements.get(nodes.item(i));
+                if (element != null) {
+                    result.add(element);
+                }
+            }
+            return result;
+        } catch (XPathExpressionException e) {
+            throw new IllegalArgumentException("Invalid XPath: " + xpath, e);
+        }
+    }
+    
+    /**
+     * Number of elements in the snapshot
+     */
+    public int size() {
+        return elements.size();
+    }
+    
+    /**
+     * Age of the snapshot in milliseconds
+     */
+    public long getAgeMillis() {
+        return System.currentTimeMillis() - createdAt;
+    }
+    
+    private void index(Element root) {
+        List<Element> stack = new ArrayList<>();
+        stack.add(root);
+        
+        while (!stack.isEmpty()) {
+            Element node = stack.remove(stack.size() - 1);
+            SnapshotElement element = new SnapshotElement(this, node);
+            elements.put(node, element);
+            
+            String resourceId = node.getAttribute("resource-id");
+            if (!resourceId.isEmpty()) {
+                add(byId, resourceId, element);
+                int separator = resourceId.indexOf(":id/");
+                if (separator >= 0) {
+                    add(byId, resourceId.substring(separator + 4), element);
+                }
+            }
+            
+            String name = node.getAttribute("name");
+            if (!name.isEmpty()) {
+                add(byId, name, element);
+                add(byAccessibilityId, name, element);
+            }
+            add(byAccessibilityId, node.getAttribute("content-desc"), element);
+            add(byClass, node.getTagName(), element);
+            add(byClass, node.getAttribute("class"), element);
+            add(byText, node.getAttribute("text"), element);
+            add(byText, node.getAttribute("label"), element);
+            add(byText, node.getAttribute("value"), element);
+            
+            NodeList children = node.getChildNodes();
+            for (int i = children.getLength() - 1; i >= 0; i--) {
+                if (children.item(i) instanceof Element) {
+                    stack.add((Element) children.item(i));
+                }
+            }
+        }
+    }
+    
+    private static void add(Map<String, List<SnapshotElement>> index, String key, SnapshotElement element) {
+        if (key.isEmpty()) {
+            return;
+        }
+        List<SnapshotElement> matches = index.computeIfAbsent(key, k -> new ArrayList<>(1));
+        if (matches.isEmpty() || matches.get(matches.size() - 1) != element) {
+            matches.add(element);
+        }
+    }
+}
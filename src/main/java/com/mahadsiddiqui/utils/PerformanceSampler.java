@@ -0,0 +1,418 @@
+package com.mahadsiddiqui.utils;
+
+import io.appium.java_client.android.AndroidDriver;
+import org.openqa.selenium.WebDriverException;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Polls the app's memory, CPU, battery and (optionally) frame stats on a background thread while a test runs
+ * Each sample is one batched shell script run through a local adb, which does not touch the Appium session, so
+ * sampling never queues behind or ahead of the test's commands. Where adb cannot reach the device (remote
+ * servers, cloud devices) the same script goes through the session as a single mobile: shell call, which needs
+ * the adb_shell insecure feature and does hold the session for the length of the call
+ * Samples are streamed to a compact binary time series: one type byte and a timestamp per record, followed
+ * by a float for metric samples or a UTF string for screen changes. Thresholds are checked as samples
+ * arrive and aggregates are kept per screen
+ */
+public class PerformanceSampler {
+    
+    /**
+     * Sampled metrics and their record type in the time series
+     */
+    public enum Metric {
+        MEMORY_MB(1), CPU_PERCENT(2), BATTERY_PERCENT(3), JANKY_FRAMES_PERCENT(4);
+        
+        private final int type;
+        
+        Metric(int type) {
+            this.type = type;
+        }
+    }
+    
+    private static final int SCREEN_RECORD = 0;
+    private static final Pattern JANKY_FRAMES = Pattern.compile("Janky frames: \\d+ \\(([\\d.]+)%\\)");
+    private static final Pattern TOTAL_PSS = Pattern.compile("TOTAL(?: PSS)?:?\\s+(\\d+)");
+    private static final Pattern CPU = Pattern.compile("([\\d.]+)% user \\+ ([\\d.]+)% kernel");
+    private static final Pattern BATTERY_LEVEL = Pattern.compile("level: (\\d+)");
+    private static final Pattern RESUMED_ACTIVITY = Pattern.compile("\\{\\S+ \\S+ [^/\\s]+/([^\\s}]+)");
+    private static final String SECTION = "@@";
+    
+    private final AndroidDriver driver;
+    private final String adb;
+    private final String udid;
+    private final String appPackage;
+    private final long intervalMillis;
+    private final boolean frameStats;
+    private final boolean screenFromActivity;
+    private final double memoryThresholdMb;
+    private final double cpuThresholdPercent;
+    private final double batteryThresholdPercent;
+    private final DataOutputStream series;
+    
+    private final Map<String, Map<Metric, Aggregate>> screens = new LinkedHashMap<>();
+    private final List<String> violations = new ArrayList<>();
+    private ScheduledExecutorService scheduler;
+    private volatile String screen = "unknown";
+    private String lastRecordedScreen;
+    private volatile boolean adbReachable;
+    private volatile boolean sessionShellRejected;
+    
+    /**
+     * Sample through adb at the given path when udid is set, and through the session otherwise
+     */
+    public PerformanceSampler(AndroidDriver driver, String adb, String udid, String appPackage, long intervalMillis,
+                              boolean frameStats, boolean screenFromActivity, double memoryThresholdMb,
+                              double cpuThresholdPercent, double batteryThresholdPercent, Path seriesFile)
+            throws IOException {
+        this.driver = driver;
+        this.adb = adb;
+        this.udid = udid;
+        this.adbReachable = udid != null && !udid.isEmpty();
+        this.appPackage = appPackage;
+        this.intervalMillis = intervalMillis;
+        this.frameStats = frameStats;
+        this.screenFromActivity = screenFromActivity;
+        this.memoryThresholdMb = memoryThresholdMb;
+        this.cpuThresholdPercent = cpuThresholdPercent;
+        this.batteryThresholdPercent = batteryThresholdPercent;
+        
+        Files.createDirectories(seriesFile.toAbsolutePath().getParent());
+        this.series = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(seriesFile), 16 * 1024));
+    }
+    
+    /**
+     * Start sampling in the background
+     */
+    public synchronized void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "performance-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::sampleQuietly, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Stop sampling, waiting for an in-progress sample, and close the time series
+     */
+    public void stop() {
+        ScheduledExecutorService running;
+        synchronized (this) {
+            running = scheduler;
+            scheduler = null;
+        }
+        if (running != null) {
+            running.shutdown();
+            try {
+                running.awaitTermination(intervalMillis + 10_000, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        synchronized (this) {
+            try {
+                series.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close performance series: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Attribute the following samples to the named screen
+     */
+    public void markScreen(String name) {
+        screen = name;
+    }
+    
+    /**
+     * Take one sample immediately on the calling thread
+     */
+    public void sampleNow() {
+        sample();
+    }
+    
+    /**
+     * Threshold violations seen so far
+     */
+    public synchronized List<String> getViolations() {
+        return new ArrayList<>(violations);
+    }
+    
+    /**
+     * Per-screen aggregates of every metric
+     */
+    public synchronized Map<String, Map<Metric, Aggregate>> getScreenAggregates() {
+        Map<String, Map<Metric, Aggregate>> copy = new LinkedHashMap<>();
+        screens.forEach((name, metrics) -> copy.put(name, Collections.unmodifiableMap(new LinkedHashMap<>(metrics))));
+        return copy;
+    }
+    
+    /**
+     * Per-screen min/avg/max table
+     */
+    public synchronized String summary() {
+        StringBuilder summary = new StringBuilder(String.format("%-32s %-22s %8s %9s %9s %9s%n",
+            "screen", "metric", "samples", "min", "avg", "max"));
+        screens.forEach((name, metrics) -> metrics.forEach((metric, aggregate) ->
+            summary.append(String.format("%-32s %-22s %8d %9.1f %9.1f %9.1f%n", name, metric, aggregate.getCount(),
+                aggregate.getMin(), aggregate.getAverage(), aggregate.getMax()))));
+        for (String violation : violations) {
+            summary.append("THRESHOLD: ").append(violation).append(System.lineSeparator());
+        }
+        return summary.toString();
+    }
+    
+    private void sampleQuietly() {
+        try {
+            sample();
+        } catch (RuntimeException e) {
+            System.err.println("Performance sample failed: " + e.getMessage());
+        }
+    }
+    
+    private void sample() {
+        long timestamp = System.currentTimeMillis();
+        String output = shell(script());
+        if (output == null) {
+            return;
+        }
+        
+        Map<String, String> sections = sections(output);
+        if (screenFromActivity) {
+            String activity = parseActivity(sections.get("activity"));
+            if (activity != null) {
+                screen = activity;
+            }
+        }
+        record(timestamp, parse(sections));
+    }
+    
+    /**
+     * One shell script printing every metric under its own section marker
+     */
+    private String script() {
+        StringBuilder script = new StringBuilder();
+        script.append("echo ").append(SECTION).append("memory; dumpsys meminfo ").append(appPackage)
+            .append(" | grep -m 1 TOTAL; ");
+        script.append("echo ").append(SECTION).append("cpu; dumpsys cpuinfo | grep ").append(appPackage).append("; ");
+        script.append("echo ").append(SECTION).append("battery; dumpsys battery | grep level; ");
+        if (screenFromActivity) {
+            script.append("echo ").append(SECTION)
+                .append("activity; dumpsys activity activities | grep -m 1 -E 'mResumedActivity|topResumedActivity'; ");
+        }
+        if (frameStats) {
+            script.append("echo ").append(SECTION).append("frames; dumpsys gfxinfo ").append(appPackage)
+                .append(" | grep 'Janky frames'; ");
+        }
+        return script.toString();
+    }
+    
+    /**
+     * Run the script through adb, or through the session when adb cannot reach the device
+     */
+    private String shell(String script) {
+        if (adbReachable) {
+            Path outputFile = null;
+            try {
+                // Output goes to a file so a hung adb cannot block the read past the timeout below
+                outputFile = Files.createTempFile("perf-sample", ".txt");
+                Process process = new ProcessBuilder(adb, "-s", udid, "shell", script)
+                    .redirectErrorStream(true)
+                    .redirectOutput(outputFile.toFile())
+                    .start();
+                if (!process.waitFor(intervalMillis + 10_000, TimeUnit.MILLISECONDS)) {
+                    process.destroyForcibly();
+                    System.err.println("adb shell on " + udid + " timed out, skipping the sample");
+                    return null;
+                }
+                String output = new String(Files.readAllBytes(outputFile), StandardCharsets.UTF_8);
+                if (process.exitValue() == 0) {
+                    return output;
+                }
+                System.err.println("adb cannot reach " + udid + ", sampling through the session: " + output.trim());
+            } catch (IOException e) {
+                System.err.println("adb not available (" + e.getMessage() + "), sampling through the session");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                deleteQuietly(outputFile);
+            }
+            adbReachable = false;
+        }
+        
+        if (sessionShellRejected) {
+            return null;
+        }
+        try {
+            Map<String, Object> args = new HashMap<>();
+            args.put("command", "sh");
+            args.put("args", Arrays.asList("-c", script));
+            return String.valueOf(driver.executeScript("mobile: shell", args));
+        } catch (WebDriverException e) {
+            sessionShellRejected = true;
+            System.err.println("Performance sampling stopped: no adb access to the device and mobile: shell was "
+                + "rejected (enable the adb_shell insecure feature): " + e.getMessage());
+            return null;
+        }
+    }
+    
+    private static void deleteQuietly(Path file) {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // Left in the temp directory
+            }
+        }
+    }
+    
+    /**
+     * Split script output into its sections
+     */
+    static Map<String, String> sections(String output) {
+        Map<String, String> sections = new HashMap<>();
+        String name = null;
+        StringBuilder body = new StringBuilder();
+        for (String line : output.split("\\r?\\n")) {
+            if (line.startsWith(SECTION)) {
+                if (name != null) {
+                    sections.put(name, body.toString());
+                }
+                name = line.substring(SECTION.length()).trim();
+                body.setLength(0);
+            } else if (name != null) {
+                body.append(line).append('\n');
+            }
+        }
+        if (name != null) {
+            sections.put(name, body.toString());
+        }
+        return sections;
+    }
+    
+    /**
+     * Metric values found in the script sections
+     */
+    static Map<Metric, Double> parse(Map<String, String> sections) {
+        Map<Metric, Double> values = new HashMap<>();
+        Matcher memory = TOTAL_PSS.matcher(sections.getOrDefault("memory", ""));
+        if (memory.find()) {
+            values.put(Metric.MEMORY_MB, Double.parseDouble(memory.group(1)) / 1024);
+        }
+        Matcher cpu = CPU.matcher(sections.getOrDefault("cpu", ""));
+        if (cpu.find()) {
+            values.put(Metric.CPU_PERCENT, Double.parseDouble(cpu.group(1)) + Double.parseDouble(cpu.group(2)));
+        }
+        Matcher battery = BATTERY_LEVEL.matcher(sections.getOrDefault("battery", ""));
+        if (battery.find()) {
+            values.put(Metric.BATTERY_PERCENT, Double.parseDouble(battery.group(1)));
+        }
+        Matcher frames = JANKY_FRAMES.matcher(sections.getOrDefault("frames", ""));
+        if (frames.find()) {
+            values.put(Metric.JANKY_FRAMES_PERCENT, Double.parseDouble(frames.group(1)));
+        }
+        return values;
+    }
+    
+    /**
+     * Resumed activity from dumpsys activity, in the .Activity form currentActivity() returns
+     */
+    static String parseActivity(String section) {
+        Matcher matcher = RESUMED_ACTIVITY.matcher(section != null ? section : "");
+        return matcher.find() ? matcher.group(1) : null;
+    }
+    
+    private synchronized void record(long timestamp, Map<Metric, Double> values) {
+        String currentScreen = screen;
+        try {
+            if (!currentScreen.equals(lastRecordedScreen)) {
+                series.writeByte(SCREEN_RECORD);
+                series.writeLong(timestamp);
+                series.writeUTF(currentScreen);
+                lastRecordedScreen = currentScreen;
+            }
+            for (Map.Entry<Metric, Double> value : values.entrySet()) {
+                series.writeByte(value.getKey().type);
+                series.writeLong(timestamp);
+                series.writeFloat(value.getValue().floatValue());
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write performance sample: " + e.getMessage());
+        }
+        
+        Map<Metric, Aggregate> aggregates = screens.computeIfAbsent(currentScreen, key -> new LinkedHashMap<>());
+        for (Map.Entry<Metric, Double> value : values.entrySet()) {
+            aggregates.computeIfAbsent(value.getKey(), key -> new Aggregate()).add(value.getValue());
+        }
+        
+        check(values, Metric.MEMORY_MB, memoryThresholdMb, true, currentScreen);
+        check(values, Metric.CPU_PERCENT, cpuThresholdPercent, true, currentScreen);
+        check(values, Metric.BATTERY_PERCENT, batteryThresholdPercent, false, currentScreen);
+    }
+    
+    private void check(Map<Metric, Double> values, Metric metric, double threshold, boolean maximum, String where) {
+        Double value = values.get(metric);
+        if (value == null || threshold <= 0) {
+            return;
+        }
+        if (maximum ? value > threshold : value < threshold) {
+            violations.add(String.format("%s %.1f %s threshold %.1f on %s", metric, value,
+                maximum ? "above" : "below", threshold, where));
+        }
+    }
+    
+    /**
+     * Running min/avg/max of one metric
+     */
+    public static class Aggregate {
+        
+        private long count;
+        private double sum;
+        private double min = Double.MAX_VALUE;
+        private double max = -Double.MAX_VALUE;
+        
+        void add(double value) {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        
+        public long getCount() {
+            return count;
+        }
+        
+        public double getMin() {
+            return count == 0 ? 0 : min;
+        }
+        
+        public double getMax() {
+            return count == 0 ? 0 : max;
+        }
+        
+        public double getAverage() {
+            return count == 0 ? 0 : sum / count;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.mahadsiddiqui.utils;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mahadsiddiqui.config.MobileDriverConfig;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Streams finished test results to an NDJSON file from a background writer
+ * Each record is written and dropped as soon as the writer gets to it, and attachments are stored as
+ * paths to files already on disk, so memory stays flat however many tests and screenshots the suite has.
+ * A full queue blocks the reporting thread rather than growing. Reports are built from the file afterwards
+ */
+public class ResultStream {
+    
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TestRecord END = new TestRecord(null, null, null, null, 0, 0, null, null);
+    private static final ThreadLocal<List<Attachment>> pending = ThreadLocal.withInitial(ArrayList::new);
+    private static volatile ResultStream instance;
+    
+    private final Path file;
+    private final BlockingQueue<TestRecord> queue;
+    private final long attachmentTimeoutMillis;
+    private final Thread writer;
+    private volatile IOException failure;
+    private final AtomicInteger written = new AtomicInteger();
+    
+    public ResultStream(Path file, int queueSize, long attachmentTimeoutMillis) {
+        this.file = file;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.attachmentTimeoutMillis = attachmentTimeoutMillis;
+        this.writer = new Thread(this::drain, "result-stream-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+    
+    /**
+     * Whether results are streamed
+     */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(MobileDriverConfig.getProperty("report.stream.enabled", "true"));
+    }
+    
+    /**
+     * Get the stream configured from report.* properties, opening it on first use
+     */
+    public static ResultStream get() {
+        if (instance == null) {
+            return open(Paths.get(MobileDriverConfig.getProperty("report.path", "reports/"), "results.ndjson"));
+        }
+        return instance;
+    }
+    
+    /**
+     * Open the stream on a given file, or return the one already open
+     */
+    public static synchronized ResultStream open(Path file) {
+        if (instance == null) {
+            instance = new ResultStream(file,
+                Integer.parseInt(MobileDriverConfig.getProperty("report.stream.queue.size", "256")), 30_000);
+        }
+        return instance;
+    }
+    
+    /**
+     * Attach a file to the test running on this thread; the file may still be being written
+     * Nothing is collected unless a stream is open, so callers outside a streamed suite pay nothing
+     */
+    public static void attach(String name, String type, CompletableFuture<Path> file) {
+        if (instance != null) {
+            pending.get().add(new Attachment(name, type, file));
+        }
+    }
+    
+    /**
+     * Take the attachments collected on this thread since the last call
+     */
+    public static List<Attachment> takeAttachments() {
+        List<Attachment> attachments = pending.get();
+        if (attachments.isEmpty()) {
+            return Collections.emptyList();
+        }
+        pending.remove();
+        return attachments;
+    }
+    
+    /**
+     * Queue a finished test for writing, waiting if the writer is behind
+     */
+    public void write(TestRecord record) {
+        if (!writer.isAlive()) {
+            throw new IllegalStateException("Result stream " + file + " is closed");
+        }
+        try {
+            queue.put(record);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while queueing result " + record.name, e);
+        }
+    }
+    
+    /**
+     * Write everything queued and close the file
+     */
+    public Path close() {
+        try {
+            if (writer.isAlive()) {
+                queue.put(END);
+                writer.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (ResultStream.class) {
+            if (instance == this) {
+                instance = null;
+            }
+        }
+        if (failure != null) {
+            throw new UncheckedIOException("Failed to write results to " + file, failure);
+        }
+        return file;
+    }
+    
+    public Path getFile() {
+        return file;
+    }
+    
+    /**
+     * Number of records written so far
+     */
+    public int getWritten() {
+        return written.get();
+    }
+    
+    /**
+     * Read a result file one record at a time
+     */
+    public static void forEach(Path file, Consumer<JsonNode> consumer) throws IOException {
+        try (MappingIterator<JsonNode> records = MAPPER.readerFor(JsonNode.class).readValues(file.toFile())) {
+            while (records.hasNext()) {
+                consumer.accept(records.next());
+            }
+        }
+    }
+    
+    private void drain() {
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            try (JsonGenerator json = new JsonFactory(MAPPER).createGenerator(file.toFile(), JsonEncoding.UTF8)) {
+                while (true) {
+                    TestRecord record = queue.poll();
+                    if (record == null) {
+                        // Flush only when idle so bursts are written in large chunks
+                        json.flush();
+                        record = queue.take();
+                    }
+                    if (record == END) {
+                        break;
+                    }
+                    writeRecord(json, record);
+                    written.incrementAndGet();
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+            System.err.println("Result stream writer failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void writeRecord(JsonGenerator json, TestRecord record) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("name", record.name);
+        json.writeStringField("class", record.className);
+        json.writeStringField("status", record.status);
+        json.writeStringField("device", record.device);
+        json.writeNumberField("start", record.startMillis);
+        json.writeNumberField("duration", record.durationMillis);
+        if (record.parameters != null) {
+            json.writeStringField("parameters", record.parameters);
+        }
+        if (record.error != null) {
+            json.writeStringField("error", record.error);
+        }
+        
+        json.writeArrayFieldStart("attachments");
+        for (Attachment attachment : record.attachments) {
+            Path path = resolve(attachment);
+            if (path != null) {
+                json.writeStartObject();
+                json.writeStringField("name", attachment.name);
+                json.writeStringField("type", attachment.type);
+                json.writeStringField("path", path.toString());
+                json.writeEndObject();
+            }
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+        json.writeRaw('\n');
+    }
+    
+    private Path resolve(Attachment attachment) {
+        try {
+            return attachment.file.get(attachmentTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            System.err.println("Dropping attachment " + attachment.name + ": " + e);
+            return null;
+        }
+    }
+    
+    /**
+     * A file attached to a test by reference
+     */
+    public static class Attachment {
+        private final String name;
+        private final String type;
+        private final CompletableFuture<Path> file;
+        
+        public Attachment(String name, String type, CompletableFuture<Path> file) {
+            this.name = name;
+            this.type = type;
+            this.file = file;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public String getType() {
+            return type;
+        }
+        
+        public CompletableFuture<Path> getFile() {
+            return file;
+        }
+    }
+    
+    /**
+     * One finished test
+     */
+    public static class TestRecord {
+        private final String name;
+        private final String className;
+        private final String status;
+        private final String device;
+        private final long startMillis;
+        private final long durationMillis;
+        private final String parameters;
+        private final String error;
+        private final List<Attachment> attachments = new ArrayList<>();
+        
+        public TestRecord(String name, String className, String status, String device, long startMillis,
+                          long durationMillis, String parameters, String error) {
+            this.name = name;
+            this.className = className;
+            this.status = status;
+            this.device = device;
+            this.startMillis = startMillis;
+            this.durationMillis = durationMillis;
+            this.parameters = parameters;
+            this.error = error;
+        }
+        
+        public TestRecord attach(List<Attachment> files) {
+            attachments.addAll(files);
+            return this;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public String getClassName() {
+            return className;
+        }
+        
+        public String getStatus() {
+            return status;
+        }
+        
+        public String getDevice() {
+            return device;
+        }
+        
+        public long getStartMillis() {
+            return startMillis;
+        }
+        
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+        
+        public String getParameters() {
+            return parameters;
+        }
+        
+        public String getError() {
+            return error;
+        }
+        
+        public List<Attachment> getAttachments() {
+            return attachments;
+        }
+    }
+}
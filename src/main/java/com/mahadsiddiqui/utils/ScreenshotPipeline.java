@@ -0,0 +1,321 @@
+package com.mahadsiddiqui.utils;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import io.qameta.allure.Allure;
+import io.qameta.allure.AllureLifecycle;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.TakesScreenshot;
+import org.openqa.selenium.WebDriverException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Captures screenshots on the test thread and leaves everything else to a bounded background worker pool
+ * Only the raw PNG bytes are fetched synchronously; downscaling, compression, content-hash deduplication,
+ * the disk write and the Allure attachment happen off the test thread. When the queue is full the
+ * capturing thread does the work itself, which bounds memory instead of dropping screenshots.
+ * Written files are handed to the result stream by reference and can be hard-linked into the Allure
+ * results instead of copied
+ */
+public class ScreenshotPipeline {
+    
+    /**
+     * When screenshots are taken
+     */
+    public enum Policy {
+        /** Only at the end of tests, as configured by screenshot.on.failure and screenshot.on.pass */
+        FAILURE,
+        /** At the end of tests and on every step */
+        STEP,
+        /** At the end of tests and on a random sample of steps */
+        SAMPLED
+    }
+    
+    private static volatile ScreenshotPipeline instance;
+    
+    private final Path directory;
+    private final Policy policy;
+    private final double sampleRate;
+    private final boolean onFailure;
+    private final boolean onPass;
+    private final int maxWidth;
+    private final boolean jpeg;
+    private final float jpegQuality;
+    private final ThreadPoolExecutor workers;
+    private final Map<String, CompletableFuture<Path>> written = new ConcurrentHashMap<>();
+    private final Set<CompletableFuture<Path>> inFlight = ConcurrentHashMap.newKeySet();
+    private volatile Path allureLinkDirectory;
+    
+    private final AtomicInteger captured = new AtomicInteger();
+    private final AtomicInteger duplicates = new AtomicInteger();
+    private final AtomicLong captureNanos = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    
+    public ScreenshotPipeline(Path directory, Policy policy, double sampleRate, boolean onFailure, boolean onPass,
+                              int maxWidth, boolean jpeg, float jpegQuality, int threads, int queueSize) {
+        this.directory = directory;
+        this.policy = policy;
+        this.sampleRate = sampleRate;
+        this.onFailure = onFailure;
+        this.onPass = onPass;
+        this.maxWidth = maxWidth;
+        this.jpeg = jpeg;
+        this.jpegQuality = jpegQuality;
+        this.workers = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize), runnable -> {
+                Thread thread = new Thread(runnable, "screenshot-writer");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+    
+    /**
+     * Get the pipeline configured from screenshot.* properties
+     */
+    public static ScreenshotPipeline get() {
+        if (instance == null) {
+            synchronized (ScreenshotPipeline.class) {
+                if (instance == null) {
+                    instance = new ScreenshotPipeline(
+                        Paths.get(MobileDriverConfig.getProperty("screenshot.path", "screenshots/")),
+                        Policy.valueOf(MobileDriverConfig.getProperty("screenshot.policy", "failure").toUpperCase()),
+                        Double.parseDouble(MobileDriverConfig.getProperty("screenshot.sample.rate", "0.1")),
+                        MobileDriverConfig.getBooleanProperty("screenshot.on.failure"),
+                        MobileDriverConfig.getBooleanProperty("screenshot.on.pass"),
+                        MobileDriverConfig.getIntProperty("screenshot.max.width"),
+                        "jpg".equalsIgnoreCase(MobileDriverConfig.getProperty("screenshot.format", "png")),
+                        Float.parseFloat(MobileDriverConfig.getProperty("screenshot.jpeg.quality", "0.8")),
+                        Integer.parseInt(MobileDriverConfig.getProperty("screenshot.threads", "2")),
+                        Integer.parseInt(MobileDriverConfig.getProperty("screenshot.queue.size", "32")));
+                    if (MobileDriverConfig.getBooleanProperty("report.attachments.link")) {
+                        instance.setAllureLinkDirectory(
+                            Paths.get(System.getProperty("allure.results.directory", "allure-results")));
+                    }
+                }
+            }
+        }
+        return instance;
+    }
+    
+    /**
+     * Hard-link written screenshots into this Allure results directory instead of copying them,
+     * falling back to a copy where links are not supported; null always copies
+     */
+    public void setAllureLinkDirectory(Path directory) {
+        this.allureLinkDirectory = directory;
+    }
+    
+    /**
+     * Capture a step screenshot if the policy asks for one
+     */
+    public void onStep(TakesScreenshot driver, String name) {
+        if (policy == Policy.STEP
+            || (policy == Policy.SAMPLED && ThreadLocalRandom.current().nextDouble() < sampleRate)) {
+            capture(driver, name);
+        }
+    }
+    
+    /**
+     * Capture an end-of-test screenshot if screenshot.on.failure or screenshot.on.pass asks for one
+     */
+    public void onTestEnd(TakesScreenshot driver, String name, boolean passed) {
+        if (passed ? onPass : onFailure) {
+            capture(driver, name);
+        }
+    }
+    
+    /**
+     * Fetch the screenshot bytes now and queue them for processing
+     * The returned future completes with the written file, or null if nothing could be captured
+     */
+    public CompletableFuture<Path> capture(TakesScreenshot driver, String name) {
+        long start = System.nanoTime();
+        byte[] png;
+        try {
+            png = driver.getScreenshotAs(OutputType.BYTES);
+        } catch (WebDriverException e) {
+            System.err.println("Failed to capture screenshot " + name + ": " + e.getMessage());
+            return CompletableFuture.completedFuture(null);
+        }
+        
+        // Registering the attachment must happen on the test thread so Allure ties it to the running test
+        AllureLifecycle lifecycle = Allure.getLifecycle();
+        String attachment = lifecycle.prepareAttachment(name, jpeg ? "image/jpeg" : "image/png", extension());
+        captureNanos.addAndGet(System.nanoTime() - start);
+        captured.incrementAndGet();
+        
+        String fileName = sanitize(name) + "_" + System.currentTimeMillis() + "." + extension();
+        CompletableFuture<Path> result = new CompletableFuture<>();
+        ResultStream.attach(name, jpeg ? "image/jpeg" : "image/png", result);
+        inFlight.add(result);
+        result.whenComplete((file, error) -> inFlight.remove(result));
+        workers.execute(() -> process(png, fileName, lifecycle, attachment, result));
+        return result;
+    }
+    
+    /**
+     * Wait for the screenshots queued so far to be written
+     * The workers keep running, so the pipeline stays usable for later tests and for other threads still capturing
+     */
+    public void flush(long timeoutSeconds) {
+        CompletableFuture<?>[] pending = inFlight.toArray(new CompletableFuture<?>[0]);
+        try {
+            CompletableFuture.allOf(pending).get(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            System.err.println("Screenshot writers did not finish within " + timeoutSeconds + "s");
+        } catch (ExecutionException e) {
+            // Failed screenshots are already reported by the writer
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("captured=%d, duplicates=%d, written=%d KB, test-thread time=%d ms",
+            captured.get(), duplicates.get(), bytesWritten.get() / 1024, captureNanos.get() / 1_000_000);
+    }
+    
+    private void process(byte[] png, String fileName, AllureLifecycle lifecycle, String attachment,
+                         CompletableFuture<Path> result) {
+        try {
+            String hash = sha256(png);
+            CompletableFuture<Path> pending = new CompletableFuture<>();
+            CompletableFuture<Path> existing = written.putIfAbsent(hash, pending);
+            
+            Path file;
+            if (existing != null) {
+                duplicates.incrementAndGet();
+                file = existing.join();
+            } else {
+                try {
+                    byte[] output = encode(png);
+                    Files.createDirectories(directory);
+                    file = Files.write(directory.resolve(fileName), output);
+                    bytesWritten.addAndGet(output.length);
+                    pending.complete(file);
+                } catch (IOException | RuntimeException e) {
+                    pending.completeExceptionally(e);
+                    written.remove(hash);
+                    throw e;
+                }
+            }
+            
+            result.complete(file);
+            
+            if (attachment != null) {
+                attachToAllure(lifecycle, attachment, file);
+            }
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+            System.err.println("Failed to write screenshot " + fileName + ": " + e.getMessage());
+        }
+    }
+    
+    private void attachToAllure(AllureLifecycle lifecycle, String attachment, Path file) throws IOException {
+        Path linkDirectory = allureLinkDirectory;
+        if (linkDirectory != null) {
+            try {
+                Files.createDirectories(linkDirectory);
+                Files.createLink(linkDirectory.resolve(attachment), file.toAbsolutePath());
+                return;
+            } catch (IOException | UnsupportedOperationException e) {
+                // Different file systems or no link support; copy instead
+            }
+        }
+        
+        try (InputStream stream = Files.newInputStream(file)) {
+            lifecycle.writeAttachment(attachment, stream);
+        }
+    }
+    
+    private byte[] encode(byte[] png) throws IOException {
+        if (!jpeg && maxWidth <= 0) {
+            return png;
+        }
+        
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        if (maxWidth > 0 && image.getWidth() > maxWidth) {
+            int height = (int) Math.round(image.getHeight() * (double) maxWidth / image.getWidth());
+            BufferedImage scaled = new BufferedImage(maxWidth, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = scaled.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, maxWidth, height, null);
+            graphics.dispose();
+            image = scaled;
+        } else if (jpeg && image.getType() != BufferedImage.TYPE_INT_RGB) {
+            BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = rgb.createGraphics();
+            graphics.drawImage(image, 0, 0, null);
+            graphics.dispose();
+            image = rgb;
+        }
+        
+        ByteArrayOutputStream output = new ByteArrayOutputStream(png.length / 2);
+        if (!jpeg) {
+            ImageIO.write(image, "png", output);
+            return output.toByteArray();
+        }
+        
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(output)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+    
+    private String extension() {
+        return jpeg ? "jpg" : "png";
+    }
+    
+    private static String sanitize(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+    
+    private static String sha256(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
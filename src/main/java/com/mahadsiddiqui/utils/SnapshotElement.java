@@ -0,0 +1,110 @@
+package com.mahadsiddiqui.utils;
+
+import io.appium.java_client.AppiumBy;
+import org.openqa.selenium.By;
+import org.openqa.selenium.Rectangle;
+import org.w3c.dom.Element;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Read-only view of one element in a page snapshot
+ */
+public class SnapshotElement {
+    
+    private static final Pattern ANDROID_BOUNDS = Pattern.compile("\\[(-?\\d+),(-?\\d+)]\\[(-?\\d+),(-?\\d+)]");
+    
+    private final PageSnapshot snapshot;
+    private final Element node;
+    
+    SnapshotElement(PageSnapshot snapshot, Element node) {
+        this.snapshot = snapshot;
+        this.node = node;
+    }
+    
+    /**
+     * Get raw attribute value, or null if absent
+     */
+    public String getAttribute(String name) {
+        return node.hasAttribute(name) ? node.getAttribute(name) : null;
+    }
+    
+    /**
+     * Get element class name
+     */
+    public String getTagName() {
+        return node.getTagName();
+    }
+    
+    /**
+     * Get visible text (Android text, iOS label or value)
+     */
+    public String getText() {
+        for (String attribute : new String[] {"text", "label", "value"}) {
+            if (node.hasAttribute(attribute)) {
+                return node.getAttribute(attribute);
+            }
+        }
+        return "";
+    }
+    
+    /**
+     * Whether the element is displayed; elements without the attribute count as displayed
+     */
+    public boolean isDisplayed() {
+        String displayed = node.hasAttribute("displayed") ? node.getAttribute("displayed") : node.getAttribute("visible");
+        return !"false".equals(displayed);
+    }
+    
+    /**
+     * Whether the element is enabled
+     */
+    public boolean isEnabled() {
+        return !"false".equals(node.getAttribute("enabled"));
+    }
+    
+    /**
+     * Get element bounds from the Android bounds attribute or the iOS x/y/width/height attributes
+     */
+    public Rectangle getRect() {
+        Matcher matcher = ANDROID_BOUNDS.matcher(node.getAttribute("bounds"));
+        if (matcher.matches()) {
+            int left = Integer.parseInt(matcher.group(1));
+            int top = Integer.parseInt(matcher.group(2));
+            int right = Integer.parseInt(matcher.group(3));
+            int bottom = Integer.parseInt(matcher.group(4));
+            return new Rectangle(left, top, bottom - top, right - left);
+        }
+        return new Rectangle(intAttribute("x"), intAttribute("y"), intAttribute("height"), intAttribute("width"));
+    }
+    
+    /**
+     * The cheapest device-side locator that identifies this element, or null if it has no id unique on the screen
+     * Rows of a list usually share one resource-id, and the device would resolve such an id to the first row
+     */
+    public By toDeviceLocator() {
+        String resourceId = getAttribute("resource-id");
+        if (resourceId != null && !resourceId.isEmpty() && snapshot.findById(resourceId).size() == 1) {
+            return By.id(resourceId);
+        }
+        for (String attribute : new String[] {"content-desc", "name"}) {
+            String accessibilityId = getAttribute(attribute);
+            if (accessibilityId != null && !accessibilityId.isEmpty()
+                && snapshot.findByAccessibilityId(accessibilityId).size() == 1) {
+                return AppiumBy.accessibilityId(accessibilityId);
+            }
+        }
+        return null;
+    }
+    
+    private int intAttribute(String name) {
+        String value = node.getAttribute(name);
+        return value.isEmpty() ? 0 : Integer.parseInt(value);
+    }
+    
+    @Override
+    public String toString() {
+        return node.getTagName() + "[" + getText() + "]";
+    }
+}
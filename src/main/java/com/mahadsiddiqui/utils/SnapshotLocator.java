@@ -0,0 +1,133 @@
+package com.mahadsiddiqui.utils;
+
+import io.appium.java_client.AppiumDriver;
+import org.openqa.selenium.By;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.WebElement;
+
+import java.util.List;
+
+/**
+ * Resolves locators against a cached page snapshot and only goes back to the device to act on an element
+ * The snapshot is invalidated after every action, or explicitly when the screen changes by other means
+ * Supports id, accessibility id, class name and XPath locators; anything else falls through to the device
+ */
+public class SnapshotLocator {
+    
+    private final AppiumDriver driver;
+    private PageSnapshot snapshot;
+    private int pageSourceRequests;
+    
+    public SnapshotLocator(AppiumDriver driver) {
+        this.driver = driver;
+    }
+    
+    /**
+     * Get the current snapshot, fetching page source if it was invalidated
+     */
+    public PageSnapshot snapshot() {
+        if (snapshot == null) {
+            snapshot = PageSnapshot.parse(driver.getPageSource());
+            pageSourceRequests++;
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Drop the snapshot so the next lookup fetches fresh page source
+     */
+    public void invalidate() {
+        snapshot = null;
+    }
+    
+    /**
+     * Find all elements matching the locator in the snapshot
+     */
+    public List<SnapshotElement> findAll(By by) {
+        String locator = by.toString();
+        int separator = locator.indexOf(": ");
+        if (separator < 0) {
+            throw new IllegalArgumentException("Unsupported locator: " + locator);
+        }
+        
+        String strategy = locator.substring(locator.indexOf('.') + 1, separator);
+        String value = locator.substring(separator + 2);
+        switch (strategy) {
+            case "id":
+                return snapshot().findById(value);
+            case "accessibilityId":
+                return snapshot().findByAccessibilityId(value);
+            case "className":
+                return snapshot().findByClassName(value);
+            case "xpath":
+                return snapshot().findByXPath(value);
+            default:
+                throw new IllegalArgumentException("Snapshot lookup does not support " + strategy + " locators");
+        }
+    }
+    
+    /**
+     * Find the first element matching the locator in the snapshot
+     */
+    public SnapshotElement find(By by) {
+        List<SnapshotElement> matches = findAll(by);
+        if (matches.isEmpty()) {
+            throw new NoSuchElementException("No element matching " + by + " in page snapshot");
+        }
+        return matches.get(0);
+    }
+    
+    /**
+     * Whether any element matches the locator in the snapshot
+     */
+    public boolean isPresent(By by) {
+        return !findAll(by).isEmpty();
+    }
+    
+    /**
+     * Whether a matching element is present and displayed in the snapshot
+     */
+    public boolean isDisplayed(By by) {
+        List<SnapshotElement> matches = findAll(by);
+        return !matches.isEmpty() && matches.get(0).isDisplayed();
+    }
+    
+    /**
+     * Get the text of the first matching element in the snapshot
+     */
+    public String getText(By by) {
+        return find(by).getText();
+    }
+    
+    /**
+     * Resolve a live element on the device, using the element's id rather than the original locator when that id
+     * is unique on the screen; otherwise the original locator, whose first match is the one the snapshot found
+     */
+    public WebElement resolve(By by) {
+        By deviceLocator = find(by).toDeviceLocator();
+        return driver.findElement(deviceLocator != null ? deviceLocator : by);
+    }
+    
+    /**
+     * Click the element and invalidate the snapshot
+     */
+    public void click(By by) {
+        resolve(by).click();
+        invalidate();
+    }
+    
+    /**
+     * Type into the element and invalidate the snapshot
+     */
+    public void type(By by, String text) {
+        resolve(by).sendKeys(text);
+        invalidate();
+    }
+    
+    /**
+     * Number of page source round trips made so far
+     */
+    public int getPageSourceRequests() {
+        return pageSourceRequests;
+    }
+}
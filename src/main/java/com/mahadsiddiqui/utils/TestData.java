@@ -0,0 +1,19 @@
+package com.mahadsiddiqui.utils;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Names the data file, relative to test.data.path, that feeds a test through TestDataProvider
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface TestData {
+    
+    /**
+     * JSON (array of objects) or CSV (header row first) file name
+     */
+    String value();
+}
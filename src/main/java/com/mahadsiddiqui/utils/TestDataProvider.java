@@ -0,0 +1,367 @@
+package com.mahadsiddiqui.utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import org.testng.ITestContext;
+import org.testng.annotations.DataProvider;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Streams JSON and CSV test data files and feeds them to TestNG data providers
+ * Files are read with Jackson's streaming parser rather than bound to a tree. Files up to
+ * test.data.cache.max.bytes are parsed once per JVM and shared across test classes; larger files are
+ * streamed row by row on every use so that memory stays flat regardless of row count. Streams a data
+ * provider opens are closed once read to the end, or when their test finishes (see TestDataListener)
+ */
+public final class TestDataProvider {
+    
+    private static final JsonFactory JSON = new ObjectMapper().getFactory();
+    private static final Map<Path, List<DataRecord>> CACHE = new ConcurrentHashMap<>();
+    private static final String OPEN_STREAMS = "test.data.streams";
+    
+    private TestDataProvider() {
+    }
+    
+    /**
+     * Data provider for tests annotated with {@link TestData}, yielding one DataRecord per row
+     */
+    @DataProvider(name = "testData", parallel = true)
+    public static Iterator<Object[]> testData(Method method, ITestContext context) {
+        TestData data = method.getAnnotation(TestData.class);
+        if (data == null) {
+            throw new IllegalArgumentException(method.getName() + " needs a @TestData annotation");
+        }
+        
+        Iterator<DataRecord> records = iterator(data.value());
+        if (records instanceof Closeable) {
+            // TestNG drops the iterator without closing it when it stops early, so the test's context tracks it
+            openStreams(context).add((Closeable) records);
+        }
+        return new Iterator<Object[]>() {
+            @Override
+            public boolean hasNext() {
+                if (records.hasNext()) {
+                    return true;
+                }
+                close(records);
+                return false;
+            }
+            
+            @Override
+            public Object[] next() {
+                return new Object[] {records.next()};
+            }
+        };
+    }
+    
+    /**
+     * Close the streams data providers opened for a test that are still not read to the end
+     */
+    public static void closeStreams(ITestContext context) {
+        Set<Closeable> streams = openStreams(context);
+        for (Closeable stream : streams) {
+            close(stream);
+        }
+        streams.clear();
+    }
+    
+    /**
+     * Close an iterator from {@link #iterator} or {@link #stream} that was not read to the end
+     */
+    public static void close(Object iterator) {
+        if (iterator instanceof Closeable) {
+            try {
+                ((Closeable) iterator).close();
+            } catch (IOException e) {
+                System.err.println("Failed to close test data stream: " + e.getMessage());
+            }
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Set<Closeable> openStreams(ITestContext context) {
+        synchronized (context) {
+            Object streams = context.getAttribute(OPEN_STREAMS);
+            if (streams == null) {
+                streams = ConcurrentHashMap.newKeySet();
+                context.setAttribute(OPEN_STREAMS, streams);
+            }
+            return (Set<Closeable>) streams;
+        }
+    }
+    
+    /**
+     * Iterate a data file under test.data.path, from the cache when it is small enough to be kept
+     */
+    public static Iterator<DataRecord> iterator(String fileName) {
+        return iterator(resolve(fileName));
+    }
+    
+    /**
+     * Iterate a data file, from the cache when it is small enough to be kept
+     */
+    public static Iterator<DataRecord> iterator(Path file) {
+        List<DataRecord> cached = CACHE.get(file);
+        if (cached != null) {
+            return cached.iterator();
+        }
+        
+        long maxCachedBytes = Long.parseLong(MobileDriverConfig.getProperty("test.data.cache.max.bytes", "262144"));
+        try {
+            if (Files.size(file) <= maxCachedBytes) {
+                return records(file).iterator();
+            }
+            return stream(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read test data " + file, e);
+        }
+    }
+    
+    /**
+     * All rows of a data file under test.data.path, parsed once per JVM
+     */
+    public static List<DataRecord> records(String fileName) {
+        return records(resolve(fileName));
+    }
+    
+    /**
+     * All rows of a data file, parsed once per JVM
+     */
+    public static List<DataRecord> records(Path file) {
+        return CACHE.computeIfAbsent(file, path -> {
+            List<DataRecord> rows = new ArrayList<>();
+            Iterator<DataRecord> iterator = stream(path);
+            while (iterator.hasNext()) {
+                rows.add(iterator.next());
+            }
+            return Collections.unmodifiableList(rows);
+        });
+    }
+    
+    /**
+     * Number of rows in a data file under test.data.path, streaming it when it is too large to cache
+     */
+    public static int count(String fileName) {
+        Iterator<DataRecord> rows = iterator(fileName);
+        try {
+            int count = 0;
+            while (rows.hasNext()) {
+                rows.next();
+                count++;
+            }
+            return count;
+        } finally {
+            close(rows);
+        }
+    }
+    
+    /**
+     * First row of a data file under test.data.path
+     */
+    public static DataRecord first(String fileName) {
+        Iterator<DataRecord> iterator = iterator(fileName);
+        try {
+            if (!iterator.hasNext()) {
+                throw new IllegalStateException("Test data file " + fileName + " is empty");
+            }
+            return iterator.next();
+        } finally {
+            close(iterator);
+        }
+    }
+    
+    /**
+     * Stream a data file row by row without caching it
+     * The file stays open until the last row is read; pass iterators abandoned earlier to {@link #close}
+     */
+    public static Iterator<DataRecord> stream(Path file) {
+        try {
+            String name = file.getFileName().toString().toLowerCase();
+            if (name.endsWith(".csv")) {
+                return new CsvIterator(Files.newBufferedReader(file, StandardCharsets.UTF_8));
+            }
+            return new JsonIterator(JSON.createParser(file.toFile()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open test data " + file, e);
+        }
+    }
+    
+    private static Path resolve(String fileName) {
+        return Paths.get(MobileDriverConfig.getProperty("test.data.path", "src/test/resources/data/"), fileName);
+    }
+    
+    /**
+     * Reads a top-level array of flat JSON objects; nested values are kept as JSON text
+     */
+    private static class JsonIterator implements Iterator<DataRecord>, Closeable {
+        
+        private final JsonParser parser;
+        private final Map<String, String[]> columnSets = new HashMap<>();
+        private DataRecord next;
+        private boolean done;
+        
+        JsonIterator(JsonParser parser) throws IOException {
+            this.parser = parser;
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                parser.close();
+                throw new IOException("Test data JSON must be an array of objects");
+            }
+        }
+        
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) {
+                next = read();
+            }
+            return next != null;
+        }
+        
+        @Override
+        public DataRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            DataRecord record = next;
+            next = null;
+            return record;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            done = true;
+            parser.close();
+        }
+        
+        private DataRecord read() {
+            try {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    done = true;
+                    parser.close();
+                    return null;
+                }
+                
+                List<String> columns = new ArrayList<>();
+                List<String> values = new ArrayList<>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    columns.add(parser.getCurrentName());
+                    JsonToken value = parser.nextToken();
+                    if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                        values.add(parser.readValueAsTree().toString());
+                    } else {
+                        values.add(value == JsonToken.VALUE_NULL ? null : parser.getText());
+                    }
+                }
+                
+                // Rows with the same fields share one column array
+                String[] shared = columnSets.computeIfAbsent(String.join("\u0000", columns),
+                    key -> columns.toArray(new String[0]));
+                return new DataRecord(shared, values.toArray(new String[0]));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to parse test data", e);
+            }
+        }
+    }
+    
+    /**
+     * Reads CSV with a header row, supporting quoted fields with embedded commas and doubled quotes
+     */
+    private static class CsvIterator implements Iterator<DataRecord>, Closeable {
+        
+        private final BufferedReader reader;
+        private final String[] columns;
+        private String line;
+        
+        CsvIterator(BufferedReader reader) throws IOException {
+            this.reader = reader;
+            String header = reader.readLine();
+            this.columns = header == null ? new String[0] : split(header);
+            this.line = header == null ? null : readLine();
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return line != null;
+        }
+        
+        @Override
+        public DataRecord next() {
+            if (line == null) {
+                throw new NoSuchElementException();
+            }
+            DataRecord record = new DataRecord(columns, split(line));
+            line = readLine();
+            return record;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            line = null;
+            reader.close();
+        }
+        
+        private String readLine() {
+            try {
+                String read;
+                do {
+                    read = reader.readLine();
+                } while (read != null && read.trim().isEmpty());
+                
+                if (read == null) {
+                    reader.close();
+                }
+                return read;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read test data", e);
+            }
+        }
+        
+        private static String[] split(String line) {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else if (c == '"') {
+                        quoted = false;
+                    } else {
+                        field.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            fields.add(field.toString());
+            return fields.toArray(new String[0]);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.mahadsiddiqui.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per-test duration and failure history persisted between runs
+ * Durations and failure rates are exponentially weighted so that recent runs count the most;
+ * a flip is a pass following a failure or the other way round, and marks a test as flaky
+ */
+public class TestHistory {
+    
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    
+    private final Map<String, Entry> entries = new TreeMap<>();
+    private final double alpha;
+    
+    public TestHistory(double alpha) {
+        this.alpha = alpha;
+    }
+    
+    /**
+     * Load history from a file, starting empty if it does not exist or cannot be read
+     */
+    public static TestHistory load(File file, double alpha) {
+        TestHistory history = new TestHistory(alpha);
+        if (!file.isFile()) {
+            return history;
+        }
+        
+        try {
+            Iterator<Map.Entry<String, JsonNode>> fields = MAPPER.readTree(file).fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                JsonNode node = field.getValue();
+                Entry entry = new Entry();
+                entry.runs = node.path("runs").asInt();
+                entry.flips = node.path("flips").asInt();
+                entry.meanMillis = node.path("meanMillis").asDouble();
+                entry.failureRate = node.path("failureRate").asDouble();
+                entry.lastPassed = node.path("lastPassed").asBoolean(true);
+                history.entries.put(field.getKey(), entry);
+            }
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable test history " + file + ": " + e.getMessage());
+        }
+        return history;
+    }
+    
+    /**
+     * Record one run of a test
+     */
+    public synchronized void record(String test, long durationMillis, boolean passed) {
+        Entry entry = entries.computeIfAbsent(test, key -> new Entry());
+        if (entry.runs == 0) {
+            entry.meanMillis = durationMillis;
+            entry.failureRate = passed ? 0 : 1;
+        } else {
+            entry.meanMillis = alpha * durationMillis + (1 - alpha) * entry.meanMillis;
+            entry.failureRate = alpha * (passed ? 0 : 1) + (1 - alpha) * entry.failureRate;
+            if (passed != entry.lastPassed) {
+                entry.flips++;
+            }
+        }
+        entry.runs++;
+        entry.lastPassed = passed;
+    }
+    
+    /**
+     * Expected duration of a test, or -1 if it has never run
+     */
+    public synchronized long getExpectedMillis(String test) {
+        Entry entry = entries.get(test);
+        return entry != null ? Math.round(entry.meanMillis) : -1;
+    }
+    
+    /**
+     * Weighted failure rate of a test between 0 and 1
+     */
+    public synchronized double getFailureRate(String test) {
+        Entry entry = entries.get(test);
+        return entry != null ? entry.failureRate : 0;
+    }
+    
+    /**
+     * Share of consecutive runs where the outcome changed, between 0 and 1
+     */
+    public synchronized double getFlakiness(String test) {
+        Entry entry = entries.get(test);
+        return entry != null && entry.runs > 1 ? (double) entry.flips / (entry.runs - 1) : 0;
+    }
+    
+    /**
+     * Mean expected duration across all known tests, used for tests without history
+     */
+    public synchronized long getAverageMillis() {
+        if (entries.isEmpty()) {
+            return 0;
+        }
+        double total = 0;
+        for (Entry entry : entries.values()) {
+            total += entry.meanMillis;
+        }
+        return Math.round(total / entries.size());
+    }
+    
+    /**
+     * Write history to a file
+     */
+    public synchronized void save(File file) throws IOException {
+        ObjectNode root = MAPPER.createObjectNode();
+        for (Map.Entry<String, Entry> field : entries.entrySet()) {
+            Entry entry = field.getValue();
+            ObjectNode node = root.putObject(field.getKey());
+            node.put("runs", entry.runs);
+            node.put("flips", entry.flips);
+            node.put("meanMillis", Math.round(entry.meanMillis));
+            node.put("failureRate", Math.round(entry.failureRate * 1000) / 1000.0);
+            node.put("lastPassed", entry.lastPassed);
+        }
+        
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        MAPPER.writeValue(file, root);
+    }
+    
+    private static class Entry {
+        int runs;
+        int flips;
+        double meanMillis;
+        double failureRate;
+        boolean lastPassed = true;
+    }
+}
@@ -0,0 +1,81 @@
+package com.mahadsiddiqui.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Orders tests from their history so that parallel device lanes finish as close together as possible
+ * Tests run longest first; since each free lane takes the next test, this is the greedy LPT
+ * bin-packing of tests onto lanes. With fail-fast on, tests that fail or flip often are moved to the front
+ */
+public class TestScheduler {
+    
+    private final TestHistory history;
+    private final boolean failFast;
+    private final double failFastThreshold;
+    
+    public TestScheduler(TestHistory history, boolean failFast, double failFastThreshold) {
+        this.history = history;
+        this.failFast = failFast;
+        this.failFastThreshold = failFastThreshold;
+    }
+    
+    /**
+     * Expected duration of a test, using the suite average for tests without history
+     */
+    public long expectedMillis(String test) {
+        long expected = history.getExpectedMillis(test);
+        return expected >= 0 ? expected : history.getAverageMillis();
+    }
+    
+    /**
+     * Whether a test should run ahead of the longest-first order
+     */
+    public boolean isFailFast(String test) {
+        return failFast && risk(test) >= failFastThreshold;
+    }
+    
+    /**
+     * Order tests for execution; the sort is stable, so tests without history keep declaration order
+     */
+    public List<String> order(List<String> tests) {
+        List<String> ordered = new ArrayList<>(tests);
+        ordered.sort(comparator());
+        return ordered;
+    }
+    
+    /**
+     * Comparator implementing the execution order
+     */
+    public Comparator<String> comparator() {
+        Comparator<String> failFastFirst = Comparator.comparing(test -> !isFailFast(test));
+        Comparator<String> riskiest = Comparator.comparingDouble(test -> isFailFast(test) ? -risk(test) : 0);
+        Comparator<String> longest = Comparator.comparingLong(test -> -expectedMillis(test));
+        return failFastFirst.thenComparing(riskiest).thenComparing(longest);
+    }
+    
+    /**
+     * Predicted wall time for running tests in the given order on a number of lanes,
+     * each lane taking the next test as soon as it is free
+     */
+    public long makespan(List<String> ordered, int lanes) {
+        PriorityQueue<Long> finish = new PriorityQueue<>();
+        for (int i = 0; i < Math.max(1, lanes); i++) {
+            finish.add(0L);
+        }
+        
+        long makespan = 0;
+        for (String test : ordered) {
+            long end = finish.poll() + expectedMillis(test);
+            makespan = Math.max(makespan, end);
+            finish.add(end);
+        }
+        return makespan;
+    }
+    
+    private double risk(String test) {
+        return Math.max(history.getFailureRate(test), history.getFlakiness(test));
+    }
+}
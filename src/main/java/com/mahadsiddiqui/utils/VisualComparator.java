@@ -0,0 +1,351 @@
+package com.mahadsiddiqui.utils;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import org.openqa.selenium.WebDriver;
+import ru.yandex.qatools.ashot.AShot;
+import ru.yandex.qatools.ashot.coordinates.Coords;
+
+import javax.imageio.ImageIO;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Tile-based visual regression against stored baselines, capturing screenshots with AShot
+ * Baselines are decoded once and cached with a content checksum and a perceptual hash per tile.
+ * Tiles whose checksum matches the baseline are skipped outright; only changed tiles get a
+ * per-pixel comparison, and tiles are compared in parallel across cores
+ */
+public class VisualComparator {
+    
+    private static volatile VisualComparator instance;
+    
+    private final Path baselineDirectory;
+    private final Path diffDirectory;
+    private final int tileSize;
+    private final int pixelTolerance;
+    private final int perceptualTolerance;
+    private final double maxDiffRatio;
+    private final boolean updateBaselines;
+    private final Map<String, Baseline> baselines = new ConcurrentHashMap<>();
+    
+    public VisualComparator(Path baselineDirectory, Path diffDirectory, int tileSize, int pixelTolerance,
+                            int perceptualTolerance, double maxDiffRatio, boolean updateBaselines) {
+        this.baselineDirectory = baselineDirectory;
+        this.diffDirectory = diffDirectory;
+        this.tileSize = tileSize;
+        this.pixelTolerance = pixelTolerance;
+        this.perceptualTolerance = perceptualTolerance;
+        this.maxDiffRatio = maxDiffRatio;
+        this.updateBaselines = updateBaselines;
+    }
+    
+    /**
+     * Get the comparator configured from visual.* properties
+     */
+    public static VisualComparator get() {
+        if (instance == null) {
+            synchronized (VisualComparator.class) {
+                if (instance == null) {
+                    instance = new VisualComparator(
+                        Paths.get(MobileDriverConfig.getProperty("visual.baseline.path", "src/test/resources/baselines/")),
+                        Paths.get(MobileDriverConfig.getProperty("visual.diff.path", "target/visual-diffs/")),
+                        Integer.parseInt(MobileDriverConfig.getProperty("visual.tile.size", "64")),
+                        Integer.parseInt(MobileDriverConfig.getProperty("visual.pixel.tolerance", "8")),
+                        Integer.parseInt(MobileDriverConfig.getProperty("visual.perceptual.tolerance", "0")),
+                        Double.parseDouble(MobileDriverConfig.getProperty("visual.max.diff.ratio", "0.001")),
+                        MobileDriverConfig.getBooleanProperty("visual.update.baselines"));
+                }
+            }
+        }
+        return instance;
+    }
+    
+    /**
+     * Regions from visual.ignore.regions, given as x,y,width,height separated by semicolons
+     * Values ending in % are a percentage of the screenshot width, so one region fits every screen density
+     */
+    public static List<Coords> configuredIgnoreRegions(int screenWidth) {
+        List<Coords> regions = new ArrayList<>();
+        for (String region : MobileDriverConfig.getProperty("visual.ignore.regions", "").split(";")) {
+            String[] parts = region.trim().split(",");
+            if (parts.length == 4) {
+                regions.add(new Coords(pixels(parts[0], screenWidth), pixels(parts[1], screenWidth),
+                    pixels(parts[2], screenWidth), pixels(parts[3], screenWidth)));
+            }
+        }
+        return regions;
+    }
+    
+    /**
+     * Capture the screen with AShot and compare it with the named baseline, ignoring the configured regions
+     */
+    public VisualDiffResult check(WebDriver driver, String name) {
+        BufferedImage actual = new AShot().takeScreenshot(driver).getImage();
+        return compare(name, actual, configuredIgnoreRegions(actual.getWidth()));
+    }
+    
+    /**
+     * Compare an image with the named baseline; a missing baseline is recorded from the image
+     */
+    public VisualDiffResult compare(String name, BufferedImage actual, Collection<? extends Rectangle> ignoreRegions) {
+        long start = System.nanoTime();
+        Baseline baseline = updateBaselines ? null : loadBaseline(name);
+        
+        if (baseline == null) {
+            saveBaseline(name, actual);
+            return new VisualDiffResult(name, true, true, 0, 0, 0, elapsedMillis(start), null);
+        }
+        
+        int width = actual.getWidth();
+        int height = actual.getHeight();
+        if (width != baseline.width || height != baseline.height) {
+            return new VisualDiffResult(name, false, false, 1.0, baseline.tileCount(), baseline.tileCount(),
+                elapsedMillis(start), null);
+        }
+        
+        int[] pixels = actual.getRGB(0, 0, width, height, null, 0, width);
+        List<Rectangle> ignored = ignoreRegions == null ? Collections.emptyList() : new ArrayList<>(ignoreRegions);
+        AtomicInteger changedTiles = new AtomicInteger();
+        AtomicLong differentPixels = new AtomicLong();
+        AtomicLong comparedPixels = new AtomicLong();
+        boolean[] changedPixel = new boolean[width * height];
+        
+        IntStream.range(0, baseline.tileCount()).parallel().forEach(tile -> {
+            Rectangle bounds = baseline.tileBounds(tile);
+            if (isIgnored(bounds, ignored)) {
+                return;
+            }
+            
+            boolean partlyIgnored = intersects(bounds, ignored);
+            if (!partlyIgnored) {
+                comparedPixels.addAndGet((long) bounds.width * bounds.height);
+                if (checksum(pixels, width, bounds) == baseline.checksums[tile]) {
+                    return;
+                }
+                if (perceptualTolerance > 0
+                    && Long.bitCount(perceptualHash(pixels, width, bounds) ^ baseline.hashes[tile]) <= perceptualTolerance) {
+                    return;
+                }
+            }
+            
+            long different = 0;
+            long compared = 0;
+            for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+                for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
+                    if (partlyIgnored && isIgnored(x, y, ignored)) {
+                        continue;
+                    }
+                    compared++;
+                    int index = y * width + x;
+                    if (!similar(pixels[index], baseline.pixels[index])) {
+                        changedPixel[index] = true;
+                        different++;
+                    }
+                }
+            }
+            if (partlyIgnored) {
+                comparedPixels.addAndGet(compared);
+            }
+            if (different > 0) {
+                changedTiles.incrementAndGet();
+                differentPixels.addAndGet(different);
+            }
+        });
+        
+        double ratio = comparedPixels.get() == 0 ? 0 : (double) differentPixels.get() / comparedPixels.get();
+        boolean matches = ratio <= maxDiffRatio;
+        Path diffImage = matches ? null : writeDiffImage(name, pixels, changedPixel, width, height, ignored);
+        return new VisualDiffResult(name, matches, false, ratio, changedTiles.get(), baseline.tileCount(),
+            elapsedMillis(start), diffImage);
+    }
+    
+    /**
+     * Drop cached baselines, e.g. after they were updated on disk
+     */
+    public void clearCache() {
+        baselines.clear();
+    }
+    
+    private static int pixels(String value, int screenWidth) {
+        String trimmed = value.trim();
+        if (trimmed.endsWith("%")) {
+            return (int) Math.round(Double.parseDouble(trimmed.substring(0, trimmed.length() - 1)) * screenWidth / 100);
+        }
+        return Integer.parseInt(trimmed);
+    }
+    
+    private Baseline loadBaseline(String name) {
+        Baseline cached = baselines.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        
+        Path file = baselineDirectory.resolve(name + ".png");
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            Baseline baseline = new Baseline(ImageIO.read(file.toFile()));
+            baselines.put(name, baseline);
+            return baseline;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read baseline " + file, e);
+        }
+    }
+    
+    private void saveBaseline(String name, BufferedImage image) {
+        try {
+            Files.createDirectories(baselineDirectory);
+            ImageIO.write(image, "png", baselineDirectory.resolve(name + ".png").toFile());
+            baselines.put(name, new Baseline(image));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write baseline " + name, e);
+        }
+    }
+    
+    private Path writeDiffImage(String name, int[] pixels, boolean[] changed, int width, int height,
+                                List<Rectangle> ignored) {
+        int[] output = Arrays.copyOf(pixels, pixels.length);
+        for (int i = 0; i < output.length; i++) {
+            if (changed[i]) {
+                output[i] = 0xFFFF0000;
+            } else if (!ignored.isEmpty() && isIgnored(i % width, i / width, ignored)) {
+                output[i] = 0xFF808080;
+            }
+        }
+        
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, output, 0, width);
+        try {
+            Files.createDirectories(diffDirectory);
+            Path file = diffDirectory.resolve(name + "-diff.png");
+            ImageIO.write(image, "png", file.toFile());
+            return file;
+        } catch (IOException e) {
+            System.err.println("Failed to write diff image for " + name + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    private boolean similar(int a, int b) {
+        return Math.abs(((a >> 16) & 0xFF) - ((b >> 16) & 0xFF)) <= pixelTolerance
+            && Math.abs(((a >> 8) & 0xFF) - ((b >> 8) & 0xFF)) <= pixelTolerance
+            && Math.abs((a & 0xFF) - (b & 0xFF)) <= pixelTolerance;
+    }
+    
+    private static long checksum(int[] pixels, int width, Rectangle bounds) {
+        long hash = 0xcbf29ce484222325L;
+        for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+            int row = y * width;
+            for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
+                hash = (hash ^ (pixels[row + x] & 0xFFFFFF)) * 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+    
+    /**
+     * 64-bit difference hash: sample a 9x8 luminance grid and compare horizontal neighbours
+     */
+    private static long perceptualHash(int[] pixels, int width, Rectangle bounds) {
+        long hash = 0;
+        for (int gy = 0; gy < 8; gy++) {
+            int y = bounds.y + gy * bounds.height / 8;
+            int previous = -1;
+            for (int gx = 0; gx < 9; gx++) {
+                int x = bounds.x + Math.min(bounds.width - 1, gx * bounds.width / 9);
+                int pixel = pixels[y * width + x];
+                int luminance = (((pixel >> 16) & 0xFF) * 299 + ((pixel >> 8) & 0xFF) * 587 + (pixel & 0xFF) * 114) / 1000;
+                if (gx > 0) {
+                    hash = (hash << 1) | (luminance > previous ? 1 : 0);
+                }
+                previous = luminance;
+            }
+        }
+        return hash;
+    }
+    
+    private static boolean isIgnored(Rectangle tile, List<Rectangle> ignored) {
+        for (Rectangle region : ignored) {
+            if (region.contains(tile)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static boolean intersects(Rectangle tile, List<Rectangle> ignored) {
+        for (Rectangle region : ignored) {
+            if (region.intersects(tile)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static boolean isIgnored(int x, int y, List<Rectangle> ignored) {
+        for (Rectangle region : ignored) {
+            if (region.contains(x, y)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+    
+    /**
+     * Decoded baseline with per-tile checksums and perceptual hashes
+     */
+    private class Baseline {
+        
+        final int width;
+        final int height;
+        final int columns;
+        final int[] pixels;
+        final long[] checksums;
+        final long[] hashes;
+        
+        Baseline(BufferedImage image) {
+            this.width = image.getWidth();
+            this.height = image.getHeight();
+            this.columns = (width + tileSize - 1) / tileSize;
+            this.pixels = image.getRGB(0, 0, width, height, null, 0, width);
+            int rows = (height + tileSize - 1) / tileSize;
+            this.checksums = new long[columns * rows];
+            this.hashes = new long[columns * rows];
+            
+            IntStream.range(0, checksums.length).parallel().forEach(tile -> {
+                Rectangle bounds = tileBounds(tile);
+                checksums[tile] = checksum(pixels, width, bounds);
+                hashes[tile] = perceptualHash(pixels, width, bounds);
+            });
+        }
+        
+        int tileCount() {
+            return checksums.length;
+        }
+        
+        Rectangle tileBounds(int tile) {
+            int x = (tile % columns) * tileSize;
+            int y = (tile / columns) * tileSize;
+            return new Rectangle(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.mahadsiddiqui.utils;
+
+import java.nio.file.Path;
+
+/**
+ * Outcome of comparing one screen against its baseline
+ */
+public class VisualDiffResult {
+    
+    private final String name;
+    private final boolean matches;
+    private final boolean newBaseline;
+    private final double diffRatio;
+    private final int changedTiles;
+    private final int totalTiles;
+    private final long durationMillis;
+    private final Path diffImage;
+    
+    VisualDiffResult(String name, boolean matches, boolean newBaseline, double diffRatio, int changedTiles,
+                     int totalTiles, long durationMillis, Path diffImage) {
+        this.name = name;
+        this.matches = matches;
+        this.newBaseline = newBaseline;
+        this.diffRatio = diffRatio;
+        this.changedTiles = changedTiles;
+        this.totalTiles = totalTiles;
+        this.durationMillis = durationMillis;
+        this.diffImage = diffImage;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Whether the screen is within the allowed difference ratio
+     */
+    public boolean matches() {
+        return matches;
+    }
+    
+    /**
+     * Whether no baseline existed and the screen was recorded as the new baseline
+     */
+    public boolean isNewBaseline() {
+        return newBaseline;
+    }
+    
+    /**
+     * Fraction of compared pixels that differ
+     */
+    public double getDiffRatio() {
+        return diffRatio;
+    }
+    
+    public int getChangedTiles() {
+        return changedTiles;
+    }
+    
+    public int getTotalTiles() {
+        return totalTiles;
+    }
+    
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+    
+    /**
+     * Diff image with changed pixels in red, or null if the screen matched
+     */
+    public Path getDiffImage() {
+        return diffImage;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s: %s, %.4f%% of pixels differ in %d/%d tiles (%d ms)%s", name,
+            newBaseline ? "new baseline" : matches ? "match" : "MISMATCH", diffRatio * 100, changedTiles, totalTiles,
+            durationMillis, diffImage != null ? ", diff " + diffImage : "");
+    }
+}
@@ -0,0 +1,284 @@
+package com.mahadsiddiqui.utils;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import org.openqa.selenium.By;
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.HasCapabilities;
+import org.openqa.selenium.NotFoundException;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.support.ui.ExpectedConditions;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Owns all polling for a driver so that explicit waits never stack on top of the implicit wait
+ * Polls start fast and back off exponentially; once a step has a learned latency on a device, the engine
+ * sleeps through most of it, never longer than the slowest regular poll, instead of spending device round
+ * trips on polls that cannot succeed yet. Latencies are only learned for named steps
+ */
+public class WaitEngine {
+    
+    private static final Map<String, LatencyEstimate> LEARNED = new ConcurrentHashMap<>();
+    private static final ThreadLocal<List<WaitRecord>> RECORDS = ThreadLocal.withInitial(ArrayList::new);
+    // Object.toString() of lambdas and anonymous conditions, which is different for every instance
+    private static final Pattern IDENTITY_NAME = Pattern.compile(".*(\\$\\$Lambda|\\$\\d+@|@[0-9a-f]+$).*");
+    
+    private final WebDriver driver;
+    private final String device;
+    private final Duration timeout;
+    private final long initialPollMillis;
+    private final long maxPollMillis;
+    private final double backoff;
+    
+    public WaitEngine(WebDriver driver) {
+        this(driver, Duration.ofSeconds(MobileDriverConfig.getExplicitWaitTimeout()));
+    }
+    
+    public WaitEngine(WebDriver driver, Duration timeout) {
+        this.driver = driver;
+        this.device = deviceKey(driver);
+        this.timeout = timeout;
+        this.initialPollMillis = Long.parseLong(MobileDriverConfig.getProperty("wait.poll.initial.ms", "50"));
+        this.maxPollMillis = Long.parseLong(MobileDriverConfig.getProperty("wait.poll.max.ms", "1000"));
+        this.backoff = Double.parseDouble(MobileDriverConfig.getProperty("wait.poll.backoff", "2.0"));
+    }
+    
+    /**
+     * Wait until the condition returns a non-null, non-false value, keyed by the condition's description
+     * Conditions without one, such as lambdas, are waited for without learning their latency
+     */
+    public <T> T until(Function<? super WebDriver, T> condition) {
+        String description = condition.toString();
+        return IDENTITY_NAME.matcher(description).matches()
+            ? until(description, null, condition)
+            : until(description, condition);
+    }
+    
+    /**
+     * Wait until the condition returns a non-null, non-false value, learning the step's latency under the given name
+     */
+    public <T> T until(String step, Function<? super WebDriver, T> condition) {
+        return until(step, LEARNED.computeIfAbsent(device + "|" + step, key -> new LatencyEstimate()), condition);
+    }
+    
+    private <T> T until(String step, LatencyEstimate estimate, Function<? super WebDriver, T> condition) {
+        long start = System.nanoTime();
+        long deadline = start + timeout.toNanos();
+        long interval = initialPollMillis;
+        boolean skippedAhead = false;
+        int polls = 0;
+        RuntimeException lastError = null;
+        
+        while (true) {
+            polls++;
+            try {
+                T value = condition.apply(driver);
+                if (value != null && !Boolean.FALSE.equals(value)) {
+                    long waited = (System.nanoTime() - start) / 1_000_000;
+                    if (estimate != null) {
+                        estimate.record(waited);
+                    }
+                    RECORDS.get().add(new WaitRecord(step, waited, polls, true,
+                        estimate != null ? estimate.expectedMillis() : 0));
+                    return value;
+                }
+            } catch (NotFoundException | StaleElementReferenceException e) {
+                lastError = e;
+            }
+            
+            long now = System.nanoTime();
+            if (now >= deadline) {
+                long waited = (now - start) / 1_000_000;
+                RECORDS.get().add(new WaitRecord(step, waited, polls, false,
+                    estimate != null ? estimate.expectedMillis() : 0));
+                throw new TimeoutException("Timed out after " + waited + " ms (" + polls + " polls) waiting for " + step,
+                    lastError);
+            }
+            
+            long sleep = interval;
+            long expected = estimate != null ? estimate.expectedMillis() : 0;
+            long elapsed = (now - start) / 1_000_000;
+            if (!skippedAhead && expected > 0 && elapsed < expected * 8 / 10) {
+                // Skip towards just before the step usually completes, then poll fast again
+                sleep = Math.min(maxPollMillis, expected * 8 / 10 - elapsed);
+                skippedAhead = true;
+            } else {
+                interval = Math.min(maxPollMillis, (long) (interval * backoff));
+            }
+            sleep(Math.min(sleep, Math.max(1, (deadline - now) / 1_000_000)));
+        }
+    }
+    
+    /**
+     * Wait for an element to be present
+     */
+    public WebElement waitForPresent(By by) {
+        return until(ExpectedConditions.presenceOfElementLocated(by));
+    }
+    
+    /**
+     * Wait for an element to be visible
+     */
+    public WebElement waitForVisible(By by) {
+        return until(ExpectedConditions.visibilityOfElementLocated(by));
+    }
+    
+    /**
+     * Wait for an element to be clickable
+     */
+    public WebElement waitForClickable(By by) {
+        return until(ExpectedConditions.elementToBeClickable(by));
+    }
+    
+    /**
+     * Check that no element matches, polling only until the given grace period has passed
+     */
+    public boolean isAbsent(By by, Duration grace) {
+        long deadline = System.nanoTime() + grace.toNanos();
+        long interval = initialPollMillis;
+        while (true) {
+            if (driver.findElements(by).isEmpty()) {
+                return true;
+            }
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            sleep(interval);
+            interval = Math.min(maxPollMillis, (long) (interval * backoff));
+        }
+    }
+    
+    /**
+     * Run an action with the driver's implicit wait temporarily enabled, for the rare calls that want it
+     */
+    public <T> T withImplicitWait(Duration implicitWait, Supplier<T> action) {
+        driver.manage().timeouts().implicitlyWait(implicitWait);
+        try {
+            return action.get();
+        } finally {
+            driver.manage().timeouts().implicitlyWait(MobileDriverConfig.getBooleanProperty("implicit.wait.enabled")
+                ? Duration.ofSeconds(MobileDriverConfig.getImplicitWaitTimeout())
+                : Duration.ZERO);
+        }
+    }
+    
+    /**
+     * Learned expected latency for a step on this engine's device, or 0 if it has not completed there yet
+     */
+    public long getExpectedMillis(String step) {
+        LatencyEstimate estimate = LEARNED.get(device + "|" + step);
+        return estimate == null ? 0 : estimate.expectedMillis();
+    }
+    
+    /**
+     * Return and clear the waits recorded on this thread
+     */
+    public static List<WaitRecord> drainRecords() {
+        List<WaitRecord> records = RECORDS.get();
+        RECORDS.remove();
+        return records;
+    }
+    
+    /**
+     * The device a driver runs on, so a slow device's latencies do not stretch waits on fast ones
+     */
+    private static String deviceKey(WebDriver driver) {
+        if (driver instanceof HasCapabilities) {
+            Capabilities capabilities = ((HasCapabilities) driver).getCapabilities();
+            if (capabilities != null) {
+                for (String name : new String[] {"appium:udid", "udid", "appium:deviceName", "deviceName"}) {
+                    Object value = capabilities.getCapability(name);
+                    if (value != null && !value.toString().isEmpty()) {
+                        return value.toString();
+                    }
+                }
+            }
+        }
+        if (driver instanceof RemoteWebDriver && ((RemoteWebDriver) driver).getSessionId() != null) {
+            return ((RemoteWebDriver) driver).getSessionId().toString();
+        }
+        return "default";
+    }
+    
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TimeoutException("Interrupted while waiting", e);
+        }
+    }
+    
+    /**
+     * Exponentially weighted moving average of how long a step takes to be satisfied
+     */
+    private static class LatencyEstimate {
+        
+        private volatile double average = -1;
+        
+        synchronized void record(long millis) {
+            average = average < 0 ? millis : average * 0.7 + millis * 0.3;
+        }
+        
+        long expectedMillis() {
+            return average < 0 ? 0 : (long) average;
+        }
+    }
+    
+    /**
+     * Time spent in one wait step
+     */
+    public static class WaitRecord {
+        
+        private final String step;
+        private final long waitedMillis;
+        private final int polls;
+        private final boolean satisfied;
+        private final long expectedMillis;
+        
+        WaitRecord(String step, long waitedMillis, int polls, boolean satisfied, long expectedMillis) {
+            this.step = step;
+            this.waitedMillis = waitedMillis;
+            this.polls = polls;
+            this.satisfied = satisfied;
+            this.expectedMillis = expectedMillis;
+        }
+        
+        public String getStep() {
+            return step;
+        }
+        
+        public long getWaitedMillis() {
+            return waitedMillis;
+        }
+        
+        public int getPolls() {
+            return polls;
+        }
+        
+        public boolean isSatisfied() {
+            return satisfied;
+        }
+        
+        public long getExpectedMillis() {
+            return expectedMillis;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%6d ms %3d polls %-9s (expected %d ms) %s",
+                waitedMillis, polls, satisfied ? "ok" : "timed out", expectedMillis, step);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.mahadsiddiqui.drivers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+/**
+ * App install cache tests
+ */
+public class AppInstallCacheTest {
+    
+    @Test(description = "Verify the mapped hash matches a plain SHA-256 of the artifact")
+    public void testHashMatchesDigest() throws Exception {
+        Path dir = Files.createTempDirectory("install-cache");
+        byte[] content = new byte[300_000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        Path app = Files.write(dir.resolve("app.apk"), content);
+        
+        StringBuilder expected = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+            expected.append(String.format("%02x", b));
+        }
+        Assert.assertEquals(new AppInstallCache(dir.resolve("state.json")).hash(app), expected.toString());
+    }
+    
+    @Test(description = "Verify an installed build skips the install on the next session")
+    public void testInstalledBuildSkipsInstall() throws IOException {
+        Path dir = Files.createTempDirectory("install-cache");
+        Path app = Files.write(dir.resolve("app.apk"), "build-1".getBytes(StandardCharsets.UTF_8));
+        AppInstallCache cache = new AppInstallCache(dir.resolve("state.json"));
+        
+        AppInstallCache.Plan first = cache.plan("emulator-5554", app, "appium-2.5.0");
+        Assert.assertFalse(first.isUpToDate());
+        cache.installed(first);
+        
+        AppInstallCache.Plan second = cache.plan("emulator-5554", app, "appium-2.5.0");
+        Assert.assertTrue(second.isUpToDate());
+        DesiredCapabilities capabilities = new DesiredCapabilities();
+        capabilities.setCapability("app", app.toString());
+        second.applyTo(capabilities, true);
+        Assert.assertNull(capabilities.getCapability("app"));
+        Assert.assertEquals(capabilities.getCapability("skipServerInstallation"), true);
+        
+        second.restore(capabilities, true);
+        Assert.assertEquals(capabilities.getCapability("app"), app.toString());
+        Assert.assertEquals(capabilities.getCapability("skipDeviceInitialization"), false);
+        
+        Assert.assertFalse(cache.plan("emulator-5556", app, "appium-2.5.0").isUpToDate(), "Other devices still install");
+        Assert.assertFalse(cache.plan("emulator-5554", app, "appium-2.6.0").isUpToDate(), "New helper server installs");
+        Assert.assertFalse(cache.plan("emulator-5554", app, null).isUpToDate(), "Unknown helper server installs");
+    }
+    
+    @Test(description = "Verify install state survives a restart and a changed artifact reinstalls")
+    public void testStatePersistsAndArtifactChangeInvalidates() throws IOException {
+        Path dir = Files.createTempDirectory("install-cache");
+        Path state = dir.resolve("state.json");
+        Path app = Files.write(dir.resolve("app.apk"), "build-1".getBytes(StandardCharsets.UTF_8));
+        new AppInstallCache(state).installed(new AppInstallCache(state).plan("pixel7", app, "appium-2.5.0"));
+        
+        AppInstallCache restarted = new AppInstallCache(state);
+        Assert.assertTrue(restarted.plan("pixel7", app, "appium-2.5.0").isUpToDate());
+        
+        Files.write(app, "build-22".getBytes(StandardCharsets.UTF_8));
+        Assert.assertFalse(restarted.plan("pixel7", app, "appium-2.5.0").isUpToDate());
+        
+        restarted.invalidate("pixel7");
+        Assert.assertFalse(new AppInstallCache(state).plan("pixel7", app, "appium-2.5.0").isUpToDate());
+    }
+    
+    @Test(description = "Verify installs are keyed on the installed driver's version, not the Appium core build")
+    public void testDriverVersionFromExtensionListing() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        String cli = "{\"uiautomator2\": {\"version\": \"2.29.0\", \"installed\": true},"
+            + " \"xcuitest\": {\"version\": \"5.7.0\", \"installed\": true}}";
+        Assert.assertEquals(AppInstallCache.driverVersion(mapper.readTree(cli), "uiautomator2"), "uiautomator2-2.29.0");
+        Assert.assertEquals(AppInstallCache.driverVersion(mapper.readTree(cli), "xcuitest"), "xcuitest-5.7.0");
+        
+        String server = "{\"value\": {\"drivers\": {\"uiautomator2\": {\"version\": \"2.30.1\"}}}}";
+        Assert.assertEquals(AppInstallCache.driverVersion(mapper.readTree(server), "uiautomator2"),
+            "uiautomator2-2.30.1");
+        Assert.assertNull(AppInstallCache.driverVersion(mapper.readTree(server), "xcuitest"),
+            "Unlisted drivers are unknown");
+        String status = "{\"value\": {\"build\": {\"version\": \"2.5.0\"}}}";
+        Assert.assertNull(AppInstallCache.driverVersion(mapper.readTree(status), "uiautomator2"),
+            "The core build says nothing about the driver");
+    }
+}
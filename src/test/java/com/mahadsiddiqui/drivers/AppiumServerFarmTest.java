@@ -0,0 +1,178 @@
+package com.mahadsiddiqui.drivers;
+
+import com.sun.net.httpserver.HttpServer;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server farm tests using a fake local server in place of Appium
+ */
+public class AppiumServerFarmTest {
+    
+    @Test(description = "Verify every instance starts on its own port and answers status requests")
+    public void testFarmStartsInstancesOnDistinctPorts() throws Exception {
+        AppiumServerFarm farm = new AppiumServerFarm(3, FakeServer::new, new PortAllocator());
+        farm.start(60);
+        try {
+            Set<Integer> ports = new HashSet<>();
+            for (int i = 0; i < farm.size(); i++) {
+                URL url = farm.getServerUrl(i);
+                ports.add(url.getPort());
+                Assert.assertEquals(status(url), 200, "Server " + i + " should answer /status");
+            }
+            Assert.assertEquals(ports.size(), 3, "Each server should have its own port");
+        } finally {
+            farm.stop();
+        }
+    }
+    
+    @Test(description = "Verify devices are spread across servers with unique driver ports")
+    public void testRoutesAreBalancedAndPortsDoNotCollide() {
+        AppiumServerFarm farm = new AppiumServerFarm(2, FakeServer::new, new PortAllocator());
+        farm.start(60);
+        try {
+            AppiumServerFarm.Route first = farm.route(new DeviceProfile("first", Collections.emptyMap()));
+            AppiumServerFarm.Route second = farm.route(new DeviceProfile("second", Collections.emptyMap()));
+            
+            Assert.assertNotEquals(first.getUrl(), second.getUrl(), "Devices should go to different servers");
+            Assert.assertNotEquals(first.getSystemPort(), second.getSystemPort());
+            Assert.assertNotEquals(first.getWdaLocalPort(), second.getWdaLocalPort());
+            Assert.assertNotEquals(first.getChromedriverPort(), second.getChromedriverPort());
+            Assert.assertEquals(farm.route(new DeviceProfile("first", Collections.emptyMap())), first,
+                "A device should keep its route");
+        } finally {
+            farm.stop();
+        }
+    }
+    
+    @Test(description = "Verify the health check restarts a crashed server on the same port")
+    public void testHealthCheckRestartsCrashedServer() throws Exception {
+        AppiumServerFarm farm = new AppiumServerFarm(1, FakeServer::new, new PortAllocator());
+        farm.start(60);
+        try {
+            URL url = farm.getServerUrl(0);
+            FakeServer.crash(url.getPort());
+            
+            farm.checkHealth();
+            
+            Assert.assertEquals(farm.getRestarts(), 1, "Crashed server should be restarted");
+            Assert.assertEquals(farm.getServerUrl(0).getPort(), url.getPort(), "Restart should reuse the port");
+            Assert.assertEquals(status(farm.getServerUrl(0)), 200, "Restarted server should answer /status");
+        } finally {
+            farm.stop();
+        }
+    }
+    
+    @Test(description = "Verify routing and URL lookups do not wait for a health probe that hangs")
+    public void testHealthCheckDoesNotBlockRouting() throws Exception {
+        CountDownLatch probing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AppiumServerFarm farm = new AppiumServerFarm(1, port -> new FakeServer(port) {
+            @Override
+            public boolean isRunning() {
+                probing.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.isRunning();
+            }
+        }, new PortAllocator());
+        farm.start(60);
+        Thread checker = new Thread(farm::checkHealth);
+        try {
+            checker.start();
+            Assert.assertTrue(probing.await(5, TimeUnit.SECONDS), "Health check should be probing");
+            
+            long start = System.nanoTime();
+            Assert.assertNotNull(farm.getServerUrl(0));
+            Assert.assertNotNull(farm.route(new DeviceProfile("device", Collections.emptyMap())).getUrl());
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2),
+                "Lookups should not wait for the probe");
+        } finally {
+            release.countDown();
+            checker.join(5000);
+            farm.stop();
+        }
+    }
+    
+    private static int status(URL base) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(base, "/status").openConnection();
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+    
+    /**
+     * Minimal stand-in for an Appium server that only answers /status
+     */
+    private static class FakeServer implements ServerInstance {
+        
+        private static final Map<Integer, FakeServer> RUNNING = new ConcurrentHashMap<>();
+        
+        private final int port;
+        private HttpServer server;
+        
+        FakeServer(int port) {
+            this.port = port;
+        }
+        
+        static void crash(int port) {
+            RUNNING.get(port).stop();
+        }
+        
+        @Override
+        public void start() {
+            try {
+                server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            server.createContext("/status", exchange -> {
+                byte[] body = "{\"value\":{\"ready\":true}}".getBytes();
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            });
+            server.start();
+            RUNNING.put(port, this);
+        }
+        
+        @Override
+        public void stop() {
+            if (server != null) {
+                server.stop(0);
+                server = null;
+            }
+        }
+        
+        @Override
+        public boolean isRunning() {
+            return server != null;
+        }
+        
+        @Override
+        public URL getUrl() {
+            try {
+                return new URL("http://127.0.0.1:" + port + "/");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.mahadsiddiqui.drivers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mahadsiddiqui.simulator.ScreenModel;
+import com.mahadsiddiqui.simulator.SimulatedAppiumServer;
+import io.appium.java_client.AppiumDriver;
+import io.appium.java_client.android.AndroidDriver;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cloud admission tests against the simulator standing in for a provider with a fixed number of slots
+ */
+public class CloudSessionBrokerTest {
+    
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final List<String> CAPACITY = Arrays.asList("busy", "parallel");
+    
+    private final HttpClient http = HttpClient.newHttpClient();
+    
+    @Test(description = "Verify more threads than slots queue instead of being rejected by the provider")
+    public void testThreadsBeyondSlotsQueue() throws Exception {
+        SimulatedAppiumServer provider = provider(3);
+        try {
+            CloudSessionBroker broker = new CloudSessionBroker("stub", provider.getUrl(), 3, Duration.ofSeconds(30),
+                1, 10, 100, CAPACITY);
+            runSessions(broker, provider.getUrl(), 12);
+            
+            Assert.assertEquals(broker.getCapacityRejections(), 0, broker.summary());
+            Assert.assertEquals(broker.getPeakInUse(), 3);
+            Assert.assertEquals(broker.getInUse(), 0, "Every slot should be returned");
+            Assert.assertEquals(broker.getQueueWait().getCount(), 12);
+            Assert.assertTrue(broker.getQueueWait().getMax() >= 50_000, "Later sessions should have queued");
+        } finally {
+            provider.stop();
+        }
+    }
+    
+    @Test(description = "Verify capacity rejections from a shared provider are retried with backoff")
+    public void testCapacityRejectionsBackOffAndSucceed() throws Exception {
+        SimulatedAppiumServer provider = provider(2);
+        try {
+            // Four local slots against two real ones, as when another run shares the account
+            CloudSessionBroker broker = new CloudSessionBroker("stub", provider.getUrl(), 4, Duration.ofSeconds(30),
+                50, 20, 200, CAPACITY);
+            runSessions(broker, provider.getUrl(), 8);
+            
+            Assert.assertTrue(broker.getCapacityRejections() > 0, broker.summary());
+            Assert.assertEquals(broker.getInUse(), 0);
+        } finally {
+            provider.stop();
+        }
+    }
+    
+    @Test(description = "Verify other session errors fail straight away and free the slot")
+    public void testOtherErrorsAreNotRetried() {
+        CloudSessionBroker broker = new CloudSessionBroker("stub", null, 1, Duration.ofSeconds(1), 5, 10, 100,
+            CAPACITY);
+        try {
+            broker.open(slot -> {
+                throw new IllegalStateException("Invalid app capability");
+            });
+            Assert.fail("Session should have failed");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(broker.getCapacityRejections(), 0);
+        }
+        Assert.assertEquals(broker.getInUse(), 0);
+        Assert.assertTrue(broker.isCapacityError(new RuntimeException("wrapped",
+            new RuntimeException("All parallel tests are currently in use"))));
+    }
+    
+    @Test(description = "Verify an idle pooled session quits to free its slot for a device that needs a session")
+    public void testIdleSessionIsReclaimedForQueuedDevice() throws Exception {
+        SimulatedAppiumServer provider = provider(1);
+        try {
+            CloudSessionBroker broker = new CloudSessionBroker("stub", provider.getUrl(), 1, Duration.ofSeconds(5),
+                1, 10, 100, CAPACITY);
+            DevicePool pool = cloudPool(broker, provider.getUrl(), 2);
+            
+            DriverLease first = pool.acquire();
+            pool.release(first);
+            Assert.assertTrue(first.hasSession(), "The released session should be kept for reuse");
+            
+            // The pool hands out the other device next, which needs the slot the idle session holds
+            DriverLease second = pool.acquire(Duration.ofSeconds(1));
+            Assert.assertTrue(second != first, "The other device should be handed out");
+            Assert.assertFalse(first.hasSession(), "The idle session should have been quit");
+            Assert.assertEquals(broker.getReclaimed(), 1, broker.summary());
+            Assert.assertEquals(broker.getInUse(), 1);
+            
+            second.getDriver().quit();
+            Assert.assertEquals(broker.getInUse(), 0, "Quitting the driver should free its slot");
+        } finally {
+            provider.stop();
+        }
+    }
+    
+    @Test(description = "Verify a session released while another device waits for a slot is quit, not kept")
+    public void testReleasedSessionIsQuitWhileOthersQueue() throws Exception {
+        SimulatedAppiumServer provider = provider(1);
+        try {
+            CloudSessionBroker broker = new CloudSessionBroker("stub", provider.getUrl(), 1, Duration.ofSeconds(5),
+                1, 10, 100, CAPACITY);
+            DevicePool pool = cloudPool(broker, provider.getUrl(), 2);
+            
+            DriverLease first = pool.acquire();
+            CompletableFuture<DriverLease> waiting = CompletableFuture.supplyAsync(() -> pool.acquire(Duration.ofSeconds(1)));
+            while (!broker.hasQueuedRequests()) {
+                Thread.sleep(10);
+            }
+            pool.release(first);
+            
+            DriverLease second = waiting.get(5, TimeUnit.SECONDS);
+            Assert.assertFalse(first.hasSession(), "The released session should not be kept while others queue");
+            Assert.assertNotNull(second.getDriver());
+            pool.evict(second);
+            Assert.assertEquals(broker.getInUse(), 0);
+        } finally {
+            provider.stop();
+        }
+    }
+    
+    /**
+     * Device pool wired to the broker the way MobileDriverConfig does for cloud sessions
+     */
+    private static DevicePool cloudPool(CloudSessionBroker broker, URL url, int devices) {
+        List<DeviceProfile> profiles = new ArrayList<>();
+        for (int i = 1; i <= devices; i++) {
+            profiles.add(new DeviceProfile("cloud-" + i, Collections.emptyMap()));
+        }
+        DevicePool pool = new DevicePool(profiles, profile -> broker.open(slot -> {
+            InstrumentedCommandExecutor executor = new InstrumentedCommandExecutor(url,
+                org.openqa.selenium.remote.http.HttpClient.Factory.createDefault(), profile.getId());
+            executor.setOnQuit(slot::release);
+            return (AppiumDriver) new AndroidDriver(executor, capabilities(profile));
+        }));
+        broker.setIdleSessionReclaimer(pool::closeIdleSession);
+        pool.setSessionsQueued(broker::hasQueuedRequests);
+        return pool;
+    }
+    
+    private static DesiredCapabilities capabilities(DeviceProfile profile) {
+        DesiredCapabilities capabilities = new DesiredCapabilities();
+        capabilities.setCapability("platformName", "Android");
+        capabilities.setCapability("automationName", "UiAutomator2");
+        capabilities.setCapability("deviceName", profile.getId());
+        capabilities.setCapability("appPackage", profile.getProperty("app.package"));
+        capabilities.setCapability("appActivity", profile.getProperty("app.activity"));
+        return capabilities;
+    }
+    
+    private void runSessions(CloudSessionBroker broker, URL url, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> sessions = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                sessions.add(executor.submit(() -> {
+                    StubSession session = broker.open(slot -> {
+                        try {
+                            return new StubSession(createSession(url), slot);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e.getMessage(), e);
+                        }
+                    });
+                    try {
+                        Thread.sleep(50);
+                        send(url, "DELETE", "/session/" + session.id, null);
+                    } finally {
+                        // What the command executor does when a real session quits
+                        session.slot.release();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> session : sessions) {
+                session.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    private String createSession(URL url) throws Exception {
+        HttpResponse<String> response = send(url, "POST", "/session", "{\"capabilities\":{\"alwaysMatch\":{}}}");
+        JsonNode value = MAPPER.readTree(response.body()).path("value");
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException(value.path("message").asText());
+        }
+        return value.path("sessionId").asText();
+    }
+    
+    private HttpResponse<String> send(URL url, String method, String path, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url.toString().replaceAll("/$", "") + path))
+            .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+            .header("Content-Type", "application/json")
+            .build();
+        return http.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+    
+    private static SimulatedAppiumServer provider(int slots) throws Exception {
+        SimulatedAppiumServer server = new SimulatedAppiumServer(
+            ScreenModel.load(new File("src/test/resources/simulator/screens.json")), 0, 5, 0, 20, 0, slots, 4);
+        server.start();
+        return server;
+    }
+    
+    private static class StubSession {
+        final String id;
+        final CloudSessionBroker.Slot slot;
+        
+        StubSession(String id, CloudSessionBroker.Slot slot) {
+            this.id = id;
+            this.slot = slot;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.mahadsiddiqui.drivers;
+
+import org.openqa.selenium.remote.http.HttpHandler;
+import org.openqa.selenium.remote.http.HttpMethod;
+import org.openqa.selenium.remote.http.HttpRequest;
+import org.openqa.selenium.remote.http.HttpResponse;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection reuse accounting tests
+ */
+public class ConnectionStatsTest {
+    
+    @Test(description = "Verify sequential requests reuse one kept-alive connection")
+    public void testSequentialRequestsReuseConnection() {
+        ConnectionStats stats = new ConnectionStats(4, 60_000);
+        HttpHandler handler = stats.apply(request -> new HttpResponse());
+        
+        for (int i = 0; i < 10; i++) {
+            handler.execute(new HttpRequest(HttpMethod.GET, "/status"));
+        }
+        
+        Assert.assertEquals(stats.getConnectionsOpened(), 1);
+        Assert.assertEquals(stats.getConnectionsReused(), 9);
+    }
+    
+    @Test(description = "Verify concurrent requests each open a connection until the pool has idle ones")
+    public void testConcurrentRequestsOpenConnections() throws InterruptedException {
+        ConnectionStats stats = new ConnectionStats(4, 60_000);
+        CountDownLatch inFlight = new CountDownLatch(3);
+        HttpHandler handler = stats.apply(request -> {
+            inFlight.countDown();
+            try {
+                inFlight.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new HttpResponse();
+        });
+        
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        for (int i = 0; i < 3; i++) {
+            executor.submit(() -> handler.execute(new HttpRequest(HttpMethod.GET, "/status")));
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        handler.execute(new HttpRequest(HttpMethod.GET, "/status"));
+        
+        Assert.assertEquals(stats.getConnectionsOpened(), 3);
+        Assert.assertEquals(stats.getConnectionsReused(), 1);
+    }
+    
+    @Test(description = "Verify the pool is treated as empty after the keep-alive timeout")
+    public void testKeepAliveExpiry() throws InterruptedException {
+        ConnectionStats stats = new ConnectionStats(4, 50);
+        HttpHandler handler = stats.apply(request -> new HttpResponse());
+        
+        handler.execute(new HttpRequest(HttpMethod.GET, "/status"));
+        Thread.sleep(120);
+        handler.execute(new HttpRequest(HttpMethod.GET, "/status"));
+        
+        Assert.assertEquals(stats.getConnectionsOpened(), 2);
+    }
+}
@@ -0,0 +1,141 @@
+package com.mahadsiddiqui.drivers;
+
+import com.mahadsiddiqui.simulator.ScreenModel;
+import com.mahadsiddiqui.simulator.SimulatedAppiumServer;
+import io.appium.java_client.AppiumDriver;
+import io.appium.java_client.android.AndroidDriver;
+import org.openqa.selenium.NoSuchSessionException;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Device leasing tests with sessions opened on the simulator
+ */
+public class DevicePoolTest {
+    
+    private static final DeviceProfile DEVICE = new DeviceProfile("pooled", Collections.emptyMap());
+    
+    private final AtomicInteger opened = new AtomicInteger();
+    private final AtomicInteger quits = new AtomicInteger();
+    private final Set<AppiumDriver> dead = ConcurrentHashMap.newKeySet();
+    private SimulatedAppiumServer server;
+    
+    @BeforeMethod
+    public void setUp() throws Exception {
+        server = new SimulatedAppiumServer(ScreenModel.load(new File("src/test/resources/simulator/screens.json")),
+            0, 0, 0, 0, 0, 0, 4);
+        server.start();
+        opened.set(0);
+        quits.set(0);
+        dead.clear();
+    }
+    
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() {
+        server.stop();
+    }
+    
+    @Test(description = "Verify a timed acquire gives up once every device stays leased past the timeout")
+    public void testTimedAcquireTimesOut() {
+        DevicePool pool = new DevicePool(Collections.singletonList(DEVICE), factory());
+        DriverLease lease = pool.acquire(Duration.ofSeconds(5));
+        
+        long start = System.currentTimeMillis();
+        try {
+            pool.acquire(Duration.ofMillis(300));
+            Assert.fail("The only device is leased");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getMessage().startsWith("No device became available"), e.getMessage());
+        }
+        long waited = System.currentTimeMillis() - start;
+        Assert.assertTrue(waited >= 300 && waited < 3000, "Waited " + waited + "ms");
+        Assert.assertNull(pool.tryAcquire());
+        
+        pool.evict(lease);
+        Assert.assertEquals(pool.availableCount(), 1);
+    }
+    
+    @Test(description = "Verify the health check replaces a session that died while its device sat in the pool")
+    public void testHealthCheckEvictsDeadSession() {
+        DevicePool pool = new DevicePool(Collections.singletonList(DEVICE), factory());
+        DriverLease lease = pool.acquire(Duration.ofSeconds(5));
+        AppiumDriver first = lease.getDriver();
+        pool.release(lease);
+        Assert.assertTrue(lease.hasSession(), "A healthy session should be kept for reuse");
+        
+        dead.add(first);
+        lease = pool.acquire(Duration.ofSeconds(5));
+        
+        Assert.assertNotSame(lease.getDriver(), first);
+        Assert.assertFalse(lease.isWarm(), "A replacement session is a cold start");
+        Assert.assertEquals(opened.get(), 2);
+        Assert.assertEquals(quits.get(), 1, "The dead session should be quit");
+        pool.evict(lease);
+    }
+    
+    @Test(description = "Verify release keeps the session for the next lease while evict discards it")
+    public void testReleaseKeepsSessionAndEvictDiscardsIt() {
+        DevicePool pool = new DevicePool(Collections.singletonList(DEVICE), factory());
+        DriverLease lease = pool.acquire(Duration.ofSeconds(5));
+        AppiumDriver driver = lease.getDriver();
+        Assert.assertEquals(pool.availableCount(), 0);
+        
+        pool.release(lease);
+        Assert.assertEquals(pool.availableCount(), 1);
+        Assert.assertEquals(quits.get(), 0);
+        
+        lease = pool.acquire(Duration.ofSeconds(5));
+        Assert.assertSame(lease.getDriver(), driver, "The released session should be reused");
+        Assert.assertTrue(lease.isWarm());
+        Assert.assertEquals(lease.getTestsRun(), 1);
+        
+        pool.evict(lease);
+        Assert.assertEquals(pool.availableCount(), 1);
+        Assert.assertFalse(lease.hasSession());
+        Assert.assertEquals(quits.get(), 1);
+        
+        lease = pool.acquire(Duration.ofSeconds(5));
+        Assert.assertNotSame(lease.getDriver(), driver, "An evicted session should not come back");
+        Assert.assertEquals(opened.get(), 2);
+        pool.evict(lease);
+    }
+    
+    /**
+     * Sessions on the simulator whose device can be made to drop them
+     */
+    private Function<DeviceProfile, AppiumDriver> factory() {
+        return profile -> {
+            DesiredCapabilities capabilities = new DesiredCapabilities();
+            capabilities.setCapability("platformName", "Android");
+            capabilities.setCapability("automationName", "UiAutomator2");
+            capabilities.setCapability("deviceName", profile.getId());
+            opened.incrementAndGet();
+            return new AndroidDriver(server.getUrl(), capabilities) {
+                @Override
+                public Options manage() {
+                    if (dead.contains(this)) {
+                        throw new NoSuchSessionException("Session dropped by the device");
+                    }
+                    return super.manage();
+                }
+                
+                @Override
+                public void quit() {
+                    quits.incrementAndGet();
+                    super.quit();
+                }
+            };
+        };
+    }
+}
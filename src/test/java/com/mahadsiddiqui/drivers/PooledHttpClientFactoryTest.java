@@ -0,0 +1,92 @@
+package com.mahadsiddiqui.drivers;
+
+import org.openqa.selenium.remote.http.ClientConfig;
+import org.openqa.selenium.remote.http.HttpClient;
+import org.openqa.selenium.remote.http.HttpRequest;
+import org.openqa.selenium.remote.http.HttpResponse;
+import org.openqa.selenium.remote.http.WebSocket;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shared client lifecycle tests with a delegate factory that records what it creates and closes
+ */
+public class PooledHttpClientFactoryTest {
+    
+    private static final URI SERVER = URI.create("http://127.0.0.1:4723");
+    
+    @Test(description = "Verify shutdown leaves a client open until the sessions using it detach")
+    public void testShutdownWaitsForAttachedSessions() {
+        RecordingFactory delegate = new RecordingFactory();
+        PooledHttpClientFactory factory = factory(delegate);
+        ClientConfig config = ClientConfig.defaultConfig().baseUri(SERVER);
+        
+        HttpClient first = factory.createClient(config);
+        HttpClient second = factory.createClient(config);
+        Assert.assertEquals(delegate.created.size(), 1, "Sessions against one server should share a client");
+        
+        factory.shutdown();
+        first.close();
+        Assert.assertFalse(delegate.created.get(0).closed, "A session still uses the client");
+        second.close();
+        Assert.assertTrue(delegate.created.get(0).closed);
+        
+        // The retired client is not handed out again
+        factory.createClient(config).close();
+        Assert.assertEquals(delegate.created.size(), 2);
+    }
+    
+    @Test(description = "Verify sessions with different servers or filters do not share a client")
+    public void testClientsAreKeyedByConfig() {
+        RecordingFactory delegate = new RecordingFactory();
+        PooledHttpClientFactory factory = factory(delegate);
+        ClientConfig config = ClientConfig.defaultConfig().baseUri(SERVER);
+        
+        factory.createClient(config);
+        factory.createClient(ClientConfig.defaultConfig().baseUri(URI.create("http://127.0.0.1:4724")));
+        factory.createClient(config.withFilter(next -> next));
+        factory.createClient(config);
+        
+        Assert.assertEquals(delegate.created.size(), 3);
+    }
+    
+    private static PooledHttpClientFactory factory(HttpClient.Factory delegate) {
+        return new PooledHttpClientFactory(delegate, Duration.ofSeconds(5), Duration.ofSeconds(30), false, 4,
+            Duration.ofSeconds(60));
+    }
+    
+    private static class RecordingFactory implements HttpClient.Factory {
+        final List<RecordingClient> created = new ArrayList<>();
+        
+        @Override
+        public HttpClient createClient(ClientConfig config) {
+            RecordingClient client = new RecordingClient();
+            created.add(client);
+            return client;
+        }
+    }
+    
+    private static class RecordingClient implements HttpClient {
+        volatile boolean closed;
+        
+        @Override
+        public HttpResponse execute(HttpRequest request) {
+            return new HttpResponse();
+        }
+        
+        @Override
+        public WebSocket openSocket(HttpRequest request, WebSocket.Listener listener) {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
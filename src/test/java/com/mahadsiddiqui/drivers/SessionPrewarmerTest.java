@@ -0,0 +1,120 @@
+package com.mahadsiddiqui.drivers;
+
+import com.mahadsiddiqui.simulator.ScreenModel;
+import com.mahadsiddiqui.simulator.SimulatedAppiumServer;
+import io.appium.java_client.AppiumDriver;
+import io.appium.java_client.android.AndroidDriver;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Session pre-warming tests with sessions opened on the simulator
+ */
+public class SessionPrewarmerTest {
+    
+    private static final DeviceProfile FIRST = new DeviceProfile("first", Collections.emptyMap());
+    private static final DeviceProfile SECOND = new DeviceProfile("second", Collections.emptyMap());
+    
+    private final AtomicInteger quits = new AtomicInteger();
+    private SimulatedAppiumServer server;
+    
+    @BeforeMethod
+    public void setUp() throws Exception {
+        server = new SimulatedAppiumServer(ScreenModel.load(new File("src/test/resources/simulator/screens.json")),
+            0, 0, 0, 0, 0, 0, 4);
+        server.start();
+        quits.set(0);
+    }
+    
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() {
+        server.stop();
+    }
+    
+    @Test(description = "Verify a pre-warmed session is a hit and a lease with nothing warm is a miss")
+    public void testHitsAndMisses() {
+        SessionPrewarmer prewarmer = new SessionPrewarmer(factory(), 2, 1);
+        try {
+            prewarmer.warm(FIRST);
+            
+            Assert.assertNotNull(prewarmer.take(FIRST), "The session being opened should be handed over");
+            Assert.assertNull(prewarmer.take(FIRST), "Nothing else was pre-warmed");
+            Assert.assertNull(prewarmer.take(SECOND));
+            Assert.assertEquals(prewarmer.getStarted(), 1);
+            Assert.assertEquals(prewarmer.getHits(), 1);
+            Assert.assertEquals(prewarmer.getMisses(), 2);
+            Assert.assertEquals(prewarmer.getWasted(), 0);
+            Assert.assertEquals(prewarmer.getHitRate(), 1.0 / 3, 0.001);
+        } finally {
+            prewarmer.shutdown();
+        }
+    }
+    
+    @Test(description = "Verify no more sessions are opened than tests are left to start, per device and in total")
+    public void testWarmStopsAtDemand() {
+        SessionPrewarmer prewarmer = new SessionPrewarmer(factory(), 2, 1);
+        try {
+            prewarmer.setTestsNotStarted(1);
+            prewarmer.warm(FIRST);
+            prewarmer.warm(FIRST);
+            prewarmer.warm(SECOND);
+            
+            Assert.assertEquals(prewarmer.getStarted(), 1, prewarmer.toString());
+        } finally {
+            prewarmer.shutdown();
+        }
+    }
+    
+    @Test(description = "Verify spare sessions are quit and counted as wasted once the queue runs dry")
+    public void testTrimToDemand() throws Exception {
+        SessionPrewarmer prewarmer = new SessionPrewarmer(factory(), 2, 1);
+        prewarmer.setTestsNotStarted(3);
+        prewarmer.warm(FIRST);
+        prewarmer.warm(SECOND);
+        awaitReady(prewarmer, 2);
+        
+        prewarmer.testStarted();
+        Assert.assertEquals(prewarmer.getReady(), 2, "Two tests still need the two sessions");
+        prewarmer.testStarted();
+        Assert.assertEquals(prewarmer.getReady(), 1, "One test left needs one session");
+        Assert.assertEquals(prewarmer.getWasted(), 1);
+        Assert.assertEquals(quits.get(), 1);
+        
+        prewarmer.shutdown();
+        Assert.assertEquals(prewarmer.getReady(), 0);
+        Assert.assertEquals(prewarmer.getWasted(), 2, "Shutdown should quit the last spare");
+        Assert.assertEquals(quits.get(), 2);
+    }
+    
+    private Function<DeviceProfile, AppiumDriver> factory() {
+        return profile -> {
+            DesiredCapabilities capabilities = new DesiredCapabilities();
+            capabilities.setCapability("platformName", "Android");
+            capabilities.setCapability("automationName", "UiAutomator2");
+            capabilities.setCapability("deviceName", profile.getId());
+            return new AndroidDriver(server.getUrl(), capabilities) {
+                @Override
+                public void quit() {
+                    quits.incrementAndGet();
+                    super.quit();
+                }
+            };
+        };
+    }
+    
+    private static void awaitReady(SessionPrewarmer prewarmer, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (prewarmer.getReady() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(prewarmer.getReady(), count, prewarmer.toString());
+    }
+}
@@ -0,0 +1,251 @@
+package com.mahadsiddiqui.grid;
+
+import com.mahadsiddiqui.utils.ResultStream;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Coordinator tests with several workers on local sockets standing in for runner hosts
+ */
+public class GridCoordinatorTest {
+    
+    @Test(description = "Verify every test runs once across workers and the results merge into one stream")
+    public void testWorkersShareSuiteAndMergeResults() throws Exception {
+        List<String> tests = tests(40);
+        Path file = Files.createTempFile("grid-results", ".ndjson");
+        ResultStream results = new ResultStream(file, 16, 1000);
+        GridCoordinator coordinator = new GridCoordinator(0, tests, results, 2, 5000, 2).start();
+        
+        List<GridWorker> workers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        int[] devices = {1, 2, 4};
+        for (int i = 0; i < devices.length; i++) {
+            GridWorker worker = worker(coordinator, "host-" + i, devices[i], sleeping(20));
+            workers.add(worker);
+            threads.add(start(worker));
+        }
+        
+        Assert.assertTrue(coordinator.awaitCompletion(30, TimeUnit.SECONDS), coordinator.summary());
+        coordinator.close();
+        join(threads);
+        results.close();
+        
+        Map<String, Integer> runs = runs(file);
+        Assert.assertEquals(runs.size(), tests.size());
+        for (String test : tests) {
+            Assert.assertEquals(runs.get(test), Integer.valueOf(1), test);
+        }
+        int executed = 0;
+        for (GridWorker worker : workers) {
+            Assert.assertTrue(worker.getExecuted() > 0, worker.getRegisteredId() + " ran nothing");
+            executed += worker.getExecuted();
+        }
+        Assert.assertEquals(executed, tests.size());
+        Assert.assertTrue(workers.get(2).getExecuted() > workers.get(0).getExecuted(),
+            "The worker with more devices should run more tests: " + coordinator.summary());
+    }
+    
+    @Test(description = "Verify a worker that joins after the queue is handed out steals from the loaded one")
+    public void testIdleWorkerStealsQueuedTests() throws Exception {
+        List<String> tests = tests(20);
+        Path file = Files.createTempFile("grid-results", ".ndjson");
+        ResultStream results = new ResultStream(file, 16, 1000);
+        // A prefetch this deep lets the first worker take the whole queue
+        GridCoordinator coordinator = new GridCoordinator(0, tests, results, 50, 5000, 2).start();
+        
+        GridWorker first = worker(coordinator, "first", 1, sleeping(50));
+        Thread firstThread = start(first);
+        while (first.getExecuted() == 0) {
+            Thread.sleep(10);
+        }
+        GridWorker second = worker(coordinator, "second", 1, sleeping(50));
+        Thread secondThread = start(second);
+        
+        Assert.assertTrue(coordinator.awaitCompletion(30, TimeUnit.SECONDS), coordinator.summary());
+        coordinator.close();
+        join(Collections.singletonList(firstThread));
+        join(Collections.singletonList(secondThread));
+        results.close();
+        
+        Assert.assertTrue(coordinator.getSteals() > 0, coordinator.summary());
+        Assert.assertTrue(second.getExecuted() > 0, coordinator.summary());
+        Assert.assertEquals(first.getExecuted() + second.getExecuted(), tests.size());
+        Assert.assertEquals(runs(file).size(), tests.size());
+    }
+    
+    @Test(description = "Verify tests held by a worker that dies are reassigned to the remaining workers")
+    public void testDeadWorkerTestsAreReassigned() throws Exception {
+        List<String> tests = tests(12);
+        Path file = Files.createTempFile("grid-results", ".ndjson");
+        ResultStream results = new ResultStream(file, 16, 1000);
+        GridCoordinator coordinator = new GridCoordinator(0, tests, results, 4, 5000, 2).start();
+        
+        AtomicReference<GridWorker> crashing = new AtomicReference<>();
+        GridWorker doomed = worker(coordinator, "doomed", 2, (test, lane) -> {
+            if (test.endsWith("test3")) {
+                crashing.get().abort();
+            }
+            return sleeping(20).run(test, lane);
+        });
+        crashing.set(doomed);
+        Thread doomedThread = start(doomed);
+        while (doomed.getRegisteredId() == null) {
+            Thread.sleep(10);
+        }
+        GridWorker survivor = worker(coordinator, "survivor", 2, sleeping(20));
+        Thread survivorThread = start(survivor);
+        
+        Assert.assertTrue(coordinator.awaitCompletion(30, TimeUnit.SECONDS), coordinator.summary());
+        coordinator.close();
+        join(Arrays.asList(doomedThread, survivorThread));
+        results.close();
+        
+        Assert.assertTrue(coordinator.getReassigned() > 0, coordinator.summary());
+        Map<String, Integer> runs = runs(file);
+        Assert.assertEquals(runs.size(), tests.size());
+        for (String test : tests) {
+            Assert.assertEquals(runs.get(test), Integer.valueOf(1), test);
+        }
+        List<String> devices = new ArrayList<>();
+        ResultStream.forEach(file, record -> {
+            if (record.path("name").asText().equals("test3")) {
+                devices.add(record.path("device").asText());
+            }
+        });
+        Assert.assertTrue(devices.get(0).startsWith("survivor/"), devices.toString());
+    }
+    
+    @Test(description = "Verify a test that keeps killing workers is failed after the attempt limit")
+    public void testTestKillingWorkersFailsAfterMaxAttempts() throws Exception {
+        List<String> tests = tests(6);
+        Path file = Files.createTempFile("grid-results", ".ndjson");
+        ResultStream results = new ResultStream(file, 16, 1000);
+        GridCoordinator coordinator = new GridCoordinator(0, tests, results, 1, 5000, 2).start();
+        
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            AtomicReference<GridWorker> self = new AtomicReference<>();
+            GridWorker worker = worker(coordinator, "host-" + i, 1, (test, lane) -> {
+                if (test.endsWith("test0")) {
+                    self.get().abort();
+                }
+                return sleeping(10).run(test, lane);
+            });
+            self.set(worker);
+            threads.add(start(worker));
+        }
+        
+        Assert.assertTrue(coordinator.awaitCompletion(30, TimeUnit.SECONDS), coordinator.summary());
+        coordinator.close();
+        join(threads);
+        results.close();
+        
+        Map<String, String> status = new HashMap<>();
+        Map<String, String> errors = new HashMap<>();
+        ResultStream.forEach(file, record -> {
+            status.put(record.path("name").asText(), record.path("status").asText());
+            errors.put(record.path("name").asText(), record.path("error").asText(""));
+        });
+        Assert.assertEquals(status.size(), tests.size());
+        Assert.assertEquals(status.get("test0"), "FAILED");
+        Assert.assertTrue(errors.get("test0").contains("after 2 attempts"), errors.get("test0"));
+        Assert.assertEquals(status.get("test5"), "PASSED");
+    }
+    
+    @Test(description = "Verify attachments are copied to the coordinator instead of linked on the worker")
+    public void testAttachmentsAreCopiedToCoordinator() throws Exception {
+        Path dir = Files.createTempDirectory("grid-report");
+        ResultStream results = new ResultStream(dir.resolve("results.ndjson"), 16, 1000);
+        GridCoordinator coordinator = new GridCoordinator(0, tests(1), results, 1, 5000, 2).start();
+        
+        Path screenshot = Files.createTempFile("failure", ".png");
+        Files.write(screenshot, new byte[] {1, 2, 3});
+        GridWorker worker = worker(coordinator, "remote", 1, (test, lane) -> {
+            List<ResultStream.TestRecord> records = sleeping(10).run(test, lane);
+            records.get(0).getAttachments().add(new ResultStream.Attachment("Screenshot", "image/png",
+                CompletableFuture.completedFuture(screenshot)));
+            return records;
+        });
+        Thread thread = start(worker);
+        
+        Assert.assertTrue(coordinator.awaitCompletion(30, TimeUnit.SECONDS), coordinator.summary());
+        coordinator.close();
+        join(Collections.singletonList(thread));
+        results.close();
+        Files.delete(screenshot);
+        
+        List<String> paths = new ArrayList<>();
+        ResultStream.forEach(dir.resolve("results.ndjson"), record ->
+            record.path("attachments").forEach(attachment -> paths.add(attachment.path("path").asText())));
+        Assert.assertEquals(paths.size(), 1);
+        Path copy = Paths.get(paths.get(0));
+        Assert.assertTrue(copy.toAbsolutePath().startsWith(dir.toAbsolutePath().resolve("attachments")),
+            copy.toString());
+        Assert.assertTrue(Arrays.equals(Files.readAllBytes(copy), new byte[] {1, 2, 3}), "Copy should match");
+    }
+    
+    private static List<String> tests(int count) {
+        List<String> tests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            tests.add("com.example.GridTests.test" + i);
+        }
+        return tests;
+    }
+    
+    private static GridWorker.Executor sleeping(long millis) {
+        return (test, lane) -> {
+            long start = System.currentTimeMillis();
+            Thread.sleep(millis);
+            int dot = test.lastIndexOf('.');
+            return Collections.singletonList(new ResultStream.TestRecord(test.substring(dot + 1),
+                test.substring(0, dot), "PASSED", lane, start, millis, null, null));
+        };
+    }
+    
+    private static GridWorker worker(GridCoordinator coordinator, String id, int devices, GridWorker.Executor executor) {
+        List<String> lanes = new ArrayList<>();
+        for (int i = 1; i <= devices; i++) {
+            lanes.add(id + "-device-" + i);
+        }
+        return new GridWorker("localhost", coordinator.getPort(), id, lanes, executor, 200, 20);
+    }
+    
+    private static Thread start(GridWorker worker) {
+        Thread thread = new Thread(() -> {
+            try {
+                worker.run();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+    
+    private static void join(List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join(10_000);
+            Assert.assertFalse(thread.isAlive(), thread.getName() + " did not stop");
+        }
+    }
+    
+    private static Map<String, Integer> runs(Path file) throws Exception {
+        Map<String, Integer> runs = new HashMap<>();
+        ResultStream.forEach(file, record ->
+            runs.merge(record.path("class").asText() + "." + record.path("name").asText(), 1, Integer::sum));
+        return runs;
+    }
+}
@@ -0,0 +1,50 @@
+package com.mahadsiddiqui.grid;
+
+import com.mahadsiddiqui.utils.ScreenshotPipeline;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.TakesScreenshot;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test methods TestNgExecutorTest runs on grid lanes, each as its own TestNG suite; not listed in any suite file
+ */
+public class GridLaneFixture {
+    
+    static volatile CountDownLatch otherLaneFinished = new CountDownLatch(1);
+    
+    @Test
+    public void capturesAfterOtherLaneFinished() throws Exception {
+        Assert.assertTrue(otherLaneFinished.await(30, TimeUnit.SECONDS), "The other lane never finished");
+        
+        // The other lane's suite has ended by now, so shared listener state must still be usable
+        Path file = ScreenshotPipeline.get().capture(new StaticScreen(), "after-other-lane").get(10, TimeUnit.SECONDS);
+        Assert.assertNotNull(file, "Screenshot was not written");
+    }
+    
+    @Test
+    public void failsRightAway() {
+        Assert.fail("Intentional lane failure");
+    }
+    
+    private static class StaticScreen implements TakesScreenshot {
+        @Override
+        public <X> X getScreenshotAs(OutputType<X> target) {
+            try {
+                ByteArrayOutputStream png = new ByteArrayOutputStream();
+                ImageIO.write(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "png", png);
+                return target.convertFromPngBytes(png.toByteArray());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
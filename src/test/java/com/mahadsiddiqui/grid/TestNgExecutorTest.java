@@ -0,0 +1,54 @@
+package com.mahadsiddiqui.grid;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import com.mahadsiddiqui.listeners.DeviceLogListener;
+import com.mahadsiddiqui.listeners.ScreenshotListener;
+import com.mahadsiddiqui.listeners.WaitReportListener;
+import com.mahadsiddiqui.utils.ResultStream;
+import org.testng.Assert;
+import org.testng.ITestNGListener;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs real TestNG suites on two grid lanes at once, as a worker does
+ */
+public class TestNgExecutorTest {
+    
+    private static final String FIXTURE = GridLaneFixture.class.getName();
+    
+    @Test(description = "Verify a lane's suite ending does not tear down listener state another lane still uses")
+    public void testLanesRunSuitesSideBySide() throws Exception {
+        List<Class<? extends ITestNGListener>> listeners =
+            Arrays.asList(WaitReportListener.class, ScreenshotListener.class, DeviceLogListener.class);
+        GridLaneFixture.otherLaneFinished = new CountDownLatch(1);
+        
+        MobileDriverConfig.holdDevicePool(true);
+        try (TestNgExecutor executor = new TestNgExecutor(listeners, null)) {
+            CompletableFuture<List<ResultStream.TestRecord>> slowLane = CompletableFuture.supplyAsync(
+                () -> executor.run(FIXTURE + ".capturesAfterOtherLaneFinished", "lane-1"));
+            List<ResultStream.TestRecord> fastLane;
+            try {
+                fastLane = executor.run(FIXTURE + ".failsRightAway", "lane-2");
+            } finally {
+                GridLaneFixture.otherLaneFinished.countDown();
+            }
+            List<ResultStream.TestRecord> slow = slowLane.get(60, TimeUnit.SECONDS);
+            
+            Assert.assertEquals(fastLane.size(), 1);
+            Assert.assertEquals(fastLane.get(0).getStatus(), "FAILED");
+            Assert.assertTrue(fastLane.get(0).getError().contains("Intentional lane failure"), fastLane.get(0).getError());
+            
+            Assert.assertEquals(slow.size(), 1);
+            Assert.assertEquals(slow.get(0).getName(), "capturesAfterOtherLaneFinished");
+            Assert.assertEquals(slow.get(0).getStatus(), "PASSED", String.valueOf(slow.get(0).getError()));
+        } finally {
+            MobileDriverConfig.holdDevicePool(false);
+        }
+    }
+}
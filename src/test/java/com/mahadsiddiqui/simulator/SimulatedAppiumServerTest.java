@@ -0,0 +1,182 @@
+package com.mahadsiddiqui.simulator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Simulated backend tests driving the scripted screens over plain W3C HTTP
+ */
+public class SimulatedAppiumServerTest {
+    
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final File MODEL = new File("src/test/resources/simulator/screens.json");
+    
+    private final HttpClient http = HttpClient.newHttpClient();
+    
+    @Test(description = "Verify the scripted login flow moves between screens")
+    public void testLoginFlow() throws Exception {
+        SimulatedAppiumServer server = new SimulatedAppiumServer(ScreenModel.load(MODEL), 0, 0, 0, 0, 0, 0, 4);
+        server.start();
+        try {
+            String session = "/session/" + newSession(server).path("value").path("sessionId").asText();
+            
+            Assert.assertEquals(call(server, "GET", session + "/appium/device/current_activity", null)
+                .path("value").asText(), ".MainActivity");
+            call(server, "POST", session + "/element/email_field/value", "{\"text\":\"test@example.com\"}");
+            call(server, "POST", session + "/element/password_field/value", "{\"text\":\"password123\"}");
+            call(server, "POST", session + "/element/login_submit/click", "{}");
+            
+            Assert.assertEquals(call(server, "GET", session + "/appium/device/current_activity", null)
+                .path("value").asText(), ".HomeActivity");
+            JsonNode product = call(server, "POST", session + "/element",
+                "{\"using\":\"xpath\",\"value\":\"//*[contains(@text, 'laptop')]\"}");
+            Assert.assertEquals(product.path("value").path("element-6066-11e4-a52e-4f735466cecf").asText(),
+                "product_laptop");
+        } finally {
+            server.stop();
+        }
+    }
+    
+    @Test(description = "Verify invalid input follows the otherwise branch and delayed elements appear late")
+    public void testValidationAndDelayedElements() throws Exception {
+        SimulatedAppiumServer server = new SimulatedAppiumServer(ScreenModel.load(MODEL), 0, 0, 0, 0, 0, 0, 4);
+        server.start();
+        try {
+            String session = "/session/" + newSession(server).path("value").path("sessionId").asText();
+            call(server, "POST", session + "/element/email_field/value", "{\"text\":\"invalid-email\"}");
+            call(server, "POST", session + "/element/login_submit/click", "{}");
+            Assert.assertTrue(call(server, "GET", session + "/source", null).path("value").asText()
+                .contains("login_error"), "Invalid login should show the error screen");
+            
+            call(server, "POST", session + "/element/email_field/value", "{\"text\":\"a@example.com\"}");
+            call(server, "POST", session + "/element/password_field/value", "{\"text\":\"secret\"}");
+            call(server, "POST", session + "/element/login_submit/click", "{}");
+            String find = "{\"using\":\"id\",\"value\":\"welcome_message\"}";
+            Assert.assertEquals(status(server, "POST", session + "/element", find), 404,
+                "Welcome message should not be there straight away");
+            Thread.sleep(400);
+            Assert.assertEquals(status(server, "POST", session + "/element", find), 200);
+        } finally {
+            server.stop();
+        }
+    }
+    
+    @Test(description = "Verify injected failures and the session cap")
+    public void testFailureInjectionAndCapacity() throws Exception {
+        SimulatedAppiumServer server = new SimulatedAppiumServer(ScreenModel.load(MODEL), 0, 0, 0, 0, 1.0, 1, 4);
+        server.start();
+        try {
+            String session = "/session/" + newSession(server).path("value").path("sessionId").asText();
+            
+            Assert.assertEquals(status(server, "GET", session + "/source", null), 500);
+            Assert.assertEquals(newSession(server).path("value").path("error").asText(), "session not created");
+        } finally {
+            server.stop();
+        }
+    }
+    
+    @Test(description = "Verify concurrent session requests never exceed the cap and a deleted session frees its slot")
+    public void testCapacityHoldsUnderConcurrentRequests() throws Exception {
+        SimulatedAppiumServer server = new SimulatedAppiumServer(ScreenModel.load(MODEL), 0, 0, 0, 0, 0, 3, 16);
+        server.start();
+        try {
+            List<CompletableFuture<HttpResponse<String>>> pending = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                pending.add(http.sendAsync(request(server, "POST", "/session", "{\"capabilities\":{}}"),
+                    HttpResponse.BodyHandlers.ofString()));
+            }
+            List<String> created = new ArrayList<>();
+            for (CompletableFuture<HttpResponse<String>> response : pending) {
+                JsonNode value = MAPPER.readTree(response.get().body()).path("value");
+                if (value.has("sessionId")) {
+                    created.add(value.path("sessionId").asText());
+                }
+            }
+            
+            Assert.assertEquals(created.size(), 3, "Exactly max sessions requests should get a session");
+            Assert.assertEquals(server.getSessionCount(), 3);
+            Assert.assertEquals(newSession(server).path("value").path("error").asText(), "session not created");
+            
+            call(server, "DELETE", "/session/" + created.get(0), null);
+            call(server, "DELETE", "/session/" + created.get(0), null);
+            Assert.assertTrue(newSession(server).path("value").has("sessionId"), "The deleted session's slot is free");
+            Assert.assertEquals(newSession(server).path("value").path("error").asText(), "session not created",
+                "Deleting a session twice should free one slot only");
+        } finally {
+            server.stop();
+        }
+    }
+    
+    @Test(description = "Verify a malformed request body gets an invalid argument reply")
+    public void testMalformedBodyIsRejected() throws Exception {
+        SimulatedAppiumServer server = new SimulatedAppiumServer(ScreenModel.load(MODEL), 0, 0, 0, 0, 0, 0, 4);
+        server.start();
+        try {
+            HttpResponse<String> response = http.send(request(server, "POST", "/session", "{\"capabilities\":"),
+                HttpResponse.BodyHandlers.ofString());
+            
+            Assert.assertEquals(response.statusCode(), 400);
+            Assert.assertEquals(MAPPER.readTree(response.body()).path("value").path("error").asText(),
+                "invalid argument");
+        } finally {
+            server.stop();
+        }
+    }
+    
+    @Test(description = "Verify many concurrent sessions wait on latency without a thread each")
+    public void testConcurrentSessionsWithLatency() throws Exception {
+        SimulatedAppiumServer server = new SimulatedAppiumServer(ScreenModel.load(MODEL), 0, 200, 0, 0, 0, 0, 4);
+        server.start();
+        try {
+            long start = System.currentTimeMillis();
+            List<CompletableFuture<HttpResponse<String>>> pending = new ArrayList<>();
+            for (int i = 0; i < 400; i++) {
+                pending.add(http.sendAsync(request(server, "POST", "/session", "{\"capabilities\":{}}"),
+                    HttpResponse.BodyHandlers.ofString()));
+            }
+            for (CompletableFuture<HttpResponse<String>> response : pending) {
+                Assert.assertEquals(response.get().statusCode(), 200);
+            }
+            
+            Assert.assertEquals(server.getSessionCount(), 400);
+            Assert.assertTrue(System.currentTimeMillis() - start < 5000,
+                "400 sessions at 200 ms each should overlap, took " + (System.currentTimeMillis() - start) + " ms");
+        } finally {
+            server.stop();
+        }
+    }
+    
+    private JsonNode newSession(SimulatedAppiumServer server) throws Exception {
+        return call(server, "POST", "/session",
+            "{\"capabilities\":{\"alwaysMatch\":{\"appium:appPackage\":\"com.example.app\"}}}");
+    }
+    
+    private JsonNode call(SimulatedAppiumServer server, String method, String path, String body) throws Exception {
+        return MAPPER.readTree(http.send(request(server, method, path, body), HttpResponse.BodyHandlers.ofString())
+            .body());
+    }
+    
+    private int status(SimulatedAppiumServer server, String method, String path, String body) throws Exception {
+        return http.send(request(server, method, path, body), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+    
+    private static HttpRequest request(SimulatedAppiumServer server, String method, String path, String body)
+            throws IOException {
+        return HttpRequest.newBuilder(URI.create(server.getUrl().toString().replaceAll("/$", "") + path))
+            .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+            .header("Content-Type", "application/json")
+            .build();
+    }
+}
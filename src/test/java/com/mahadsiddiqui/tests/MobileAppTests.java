@@ -1,20 +1,36 @@
 package com.mahadsiddiqui.tests;
 
 import com.mahadsiddiqui.config.MobileDriverConfig;
+import com.mahadsiddiqui.listeners.PerformanceListener;
+import com.mahadsiddiqui.utils.ActionBatch;
+import com.mahadsiddiqui.utils.BroadcastResult;
+import com.mahadsiddiqui.utils.BroadcastRunner;
+import com.mahadsiddiqui.utils.DataRecord;
+import com.mahadsiddiqui.utils.GestureEngine;
+import com.mahadsiddiqui.utils.PerformanceSampler;
+import com.mahadsiddiqui.utils.ScreenshotPipeline;
+import com.mahadsiddiqui.utils.SnapshotLocator;
+import com.mahadsiddiqui.utils.TestData;
+import com.mahadsiddiqui.utils.TestDataProvider;
+import com.mahadsiddiqui.utils.WaitEngine;
 import io.qameta.allure.*;
 import io.appium.java_client.AppiumDriver;
+import io.appium.java_client.InteractsWithApps;
 import io.appium.java_client.android.AndroidDriver;
 import io.appium.java_client.ios.IOSDriver;
 import org.openqa.selenium.By;
+import org.openqa.selenium.ScreenOrientation;
 import org.openqa.selenium.WebElement;
-import org.openqa.selenium.support.ui.WebDriverWait;
 import org.openqa.selenium.support.ui.ExpectedConditions;
 import org.testng.Assert;
 import org.testng.annotations.AfterMethod;
+import org.testng.annotations.AfterSuite;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.lang.reflect.Method;
 import java.time.Duration;
+import java.util.Arrays;
 
 /**
  * Mobile app test class demonstrating comprehensive mobile testing scenarios
@@ -24,20 +40,29 @@ import java.time.Duration;
 @Feature("E-commerce Mobile App")
 public class MobileAppTests {
     
-    private AppiumDriver driver;
-    private WebDriverWait wait;
+    private static final String BROADCAST = "broadcast";
     
-    @BeforeMethod
-    public void setUp() {
-        driver = MobileDriverConfig.initializeDriver();
-        wait = new WebDriverWait(driver, Duration.ofSeconds(MobileDriverConfig.getExplicitWaitTimeout()));
+    private final ThreadLocal<WaitEngine> wait = new ThreadLocal<>();
+    
+    @BeforeMethod(alwaysRun = true)
+    public void setUp(Method method) {
+        // Broadcast tests lease their own devices, so they get no session of their own
+        if (Arrays.asList(method.getAnnotation(Test.class).groups()).contains(BROADCAST)) {
+            return;
+        }
+        AppiumDriver driver = MobileDriverConfig.initializeDriver();
+        wait.set(new WaitEngine(driver));
     }
     
-    @AfterMethod
+    @AfterMethod(alwaysRun = true)
     public void tearDown() {
-        if (driver != null) {
-            driver.quit();
-        }
+        wait.remove();
+        MobileDriverConfig.quitDriver();
+    }
+    
+    @AfterSuite(alwaysRun = true)
+    public void shutDown() {
+        MobileDriverConfig.shutdownDevicePool();
     }
     
     @Test(description = "Verify app launches successfully")
@@ -55,22 +80,21 @@ public class MobileAppTests {
         Assert.assertTrue(currentActivity.contains("MainActivity"), "Should be on main activity");
     }
     
-    @Test(description = "Verify login functionality")
+    @Test(description = "Verify login functionality",
+          dataProvider = "testData", dataProviderClass = TestDataProvider.class)
+    @TestData("users.json")
     @Story("User Authentication")
     @Severity(SeverityLevel.CRITICAL)
     @Description("Test to verify that user can login with valid credentials")
-    public void testUserLogin() {
+    public void testUserLogin(DataRecord user) {
         // Given - App is launched and user is on login screen
         navigateToLogin();
         
         // When - User enters valid credentials and logs in
-        String email = "test@example.com";
-        String password = "password123";
-        
-        loginUser(email, password);
+        loginUser(user.get("email"), user.get("password"));
         
         // Then - Verify user is logged in successfully
-        WebElement welcomeMessage = wait.until(ExpectedConditions.presenceOfElementLocated(
+        WebElement welcomeMessage = wait.get().until(ExpectedConditions.presenceOfElementLocated(
             By.id("welcome_message")));
         Assert.assertTrue(welcomeMessage.isDisplayed(), "Welcome message should be displayed");
     }
@@ -81,14 +105,14 @@ public class MobileAppTests {
     @Description("Test to verify that users can search for products")
     public void testProductSearch() {
         // Given - User is logged in and on home screen
-        loginUser("test@example.com", "password123");
+        loginDefaultUser();
         
         // When - User searches for a product
         String searchTerm = "laptop";
         searchProduct(searchTerm);
         
         // Then - Verify search results are displayed
-        WebElement searchResults = wait.until(ExpectedConditions.presenceOfElementLocated(
+        WebElement searchResults = wait.get().until(ExpectedConditions.presenceOfElementLocated(
             By.id("search_results")));
         Assert.assertTrue(searchResults.isDisplayed(), "Search results should be displayed");
     }
@@ -99,14 +123,14 @@ public class MobileAppTests {
     @Description("Test to verify that users can add products to cart")
     public void testAddToCart() {
         // Given - User is on product details page
-        loginUser("test@example.com", "password123");
+        loginDefaultUser();
         navigateToProduct("laptop");
         
         // When - User adds product to cart
         addToCart();
         
         // Then - Verify product is added to cart
-        WebElement cartCount = wait.until(ExpectedConditions.presenceOfElementLocated(
+        WebElement cartCount = wait.get().until(ExpectedConditions.presenceOfElementLocated(
             By.id("cart_count")));
         Assert.assertEquals(cartCount.getText(), "1", "Cart count should be 1");
     }
@@ -117,22 +141,56 @@ public class MobileAppTests {
     @Description("Test to verify that users can complete checkout process")
     public void testCheckoutProcess() {
         // Given - User has items in cart
-        loginUser("test@example.com", "password123");
+        loginDefaultUser();
         addProductToCart();
         navigateToCart();
         
         // When - User proceeds to checkout
         proceedToCheckout();
         fillShippingDetails();
+        ScreenshotPipeline.get().onStep(driver(), "checkout_shipping");
         selectPaymentMethod();
         completeOrder();
         
         // Then - Verify order is placed successfully
-        WebElement orderConfirmation = wait.until(ExpectedConditions.presenceOfElementLocated(
+        WebElement orderConfirmation = wait.get().until(ExpectedConditions.presenceOfElementLocated(
             By.id("order_confirmation")));
         Assert.assertTrue(orderConfirmation.isDisplayed(), "Order confirmation should be displayed");
     }
     
+    @Test(description = "Verify checkout process on every pooled device at once", groups = BROADCAST)
+    @Story("Checkout")
+    @Severity(SeverityLevel.NORMAL)
+    @Description("Test to verify that the checkout flow behaves the same across devices, step by step")
+    public void testCheckoutAcrossDevices() {
+        // Given - The broadcast leases every device it runs on itself
+        
+        // When - The checkout flow runs on all devices with a barrier after each step
+        BroadcastResult result = BroadcastRunner.fromConfig().run("checkout", device -> {
+            wait.set(new WaitEngine(device.getDriver()));
+            try {
+                loginDefaultUser();
+                device.step("login");
+                addProductToCart();
+                navigateToCart();
+                device.step("cart");
+                proceedToCheckout();
+                fillShippingDetails();
+                device.step("shipping");
+                selectPaymentMethod();
+                completeOrder();
+                wait.get().until(ExpectedConditions.presenceOfElementLocated(By.id("order_confirmation")));
+                device.step("confirmation");
+            } finally {
+                wait.remove();
+            }
+        });
+        Allure.addAttachment("Broadcast timings", "text/plain", result.summary());
+        
+        // Then - Verify the order went through on every device
+        result.assertPassed();
+    }
+    
     @Test(description = "Verify form validation")
     @Story("Form Validation")
     @Severity(SeverityLevel.NORMAL)
@@ -146,7 +204,7 @@ public class MobileAppTests {
         submitForm();
         
         // Then - Verify validation errors are displayed
-        WebElement emailError = wait.until(ExpectedConditions.presenceOfElementLocated(
+        WebElement emailError = wait.get().until(ExpectedConditions.presenceOfElementLocated(
             By.id("email_error")));
         Assert.assertTrue(emailError.isDisplayed(), "Email validation error should be displayed");
     }
@@ -157,13 +215,13 @@ public class MobileAppTests {
     @Description("Test to verify that app handles screen orientation changes")
     public void testScreenOrientation() {
         // Given - App is in portrait mode
-        loginUser("test@example.com", "password123");
+        loginDefaultUser();
         
         // When - Device orientation changes to landscape
         rotateToLandscape();
         
         // Then - Verify app adapts to landscape mode
-        WebElement mainContent = wait.until(ExpectedConditions.presenceOfElementLocated(
+        WebElement mainContent = wait.get().until(ExpectedConditions.presenceOfElementLocated(
             By.id("main_content")));
         Assert.assertTrue(mainContent.isDisplayed(), "Main content should be visible in landscape");
         
@@ -180,7 +238,7 @@ public class MobileAppTests {
     @Description("Test to verify that push notifications are handled correctly")
     public void testPushNotifications() {
         // Given - App is running in background
-        loginUser("test@example.com", "password123");
+        loginDefaultUser();
         minimizeApp();
         
         // When - Push notification is received
@@ -208,51 +266,76 @@ public class MobileAppTests {
         // Then - Verify launch time is acceptable (less than 3 seconds)
         Assert.assertTrue(launchTime < 3000, "App should launch within 3 seconds. Actual: " + launchTime + "ms");
         Assert.assertNotNull(currentActivity, "App should have launched successfully");
+        
+        // And - Verify device resources stay within the configured thresholds
+        PerformanceSampler sampler = PerformanceListener.current();
+        if (sampler != null) {
+            sampler.markScreen(currentActivity);
+            sampler.sampleNow();
+            Assert.assertTrue(sampler.getViolations().isEmpty(),
+                "Performance thresholds exceeded: " + sampler.getViolations());
+        }
     }
     
     // Helper methods
+    private AppiumDriver driver() {
+        return MobileDriverConfig.getDriver();
+    }
+    
     private String getCurrentActivity() {
-        if (driver instanceof AndroidDriver) {
-            return ((AndroidDriver) driver).currentActivity();
+        if (driver() instanceof AndroidDriver) {
+            return ((AndroidDriver) driver()).currentActivity();
         }
-        return driver.getCurrentUrl();
+        return driver().getCurrentUrl();
     }
     
     private void navigateToLogin() {
-        WebElement loginButton = wait.until(ExpectedConditions.elementToBeClickable(
+        WebElement loginButton = wait.get().until(ExpectedConditions.elementToBeClickable(
             By.id("login_button")));
         loginButton.click();
     }
     
+    private void loginDefaultUser() {
+        DataRecord user = TestDataProvider.first(MobileDriverConfig.getProperty("user.data.file", "users.json"));
+        loginUser(user.get("email"), user.get("password"));
+    }
+    
     private void loginUser(String email, String password) {
-        WebElement emailField = wait.until(ExpectedConditions.presenceOfElementLocated(
-            By.id("email_field")));
-        emailField.sendKeys(email);
-        
-        WebElement passwordField = driver.findElement(By.id("password_field"));
-        passwordField.sendKeys(password);
-        
-        WebElement loginButton = driver.findElement(By.id("login_submit"));
-        loginButton.click();
+        // One round trip when the server allows driver scripts, step by step otherwise
+        new ActionBatch(driver())
+            .type(By.id("email_field"), email)
+            .type(By.id("password_field"), password)
+            .tap(By.id("login_submit"))
+            .run();
     }
     
     private void searchProduct(String searchTerm) {
-        WebElement searchField = wait.until(ExpectedConditions.presenceOfElementLocated(
+        WebElement searchField = wait.get().until(ExpectedConditions.presenceOfElementLocated(
             By.id("search_field")));
         searchField.sendKeys(searchTerm);
         
-        WebElement searchButton = driver.findElement(By.id("search_button"));
+        WebElement searchButton = driver().findElement(By.id("search_button"));
         searchButton.click();
     }
     
     private void navigateToProduct(String productName) {
-        WebElement productLink = wait.until(ExpectedConditions.elementToBeClickable(
-            By.xpath("//*[contains(text(), '" + productName + "')]")));
-        productLink.click();
+        // Look for the product in one page source read and click it through its id when it is already on screen
+        SnapshotLocator locator = new SnapshotLocator(driver());
+        By productLink = By.xpath("//*[contains(@text, '" + productName + "') or contains(@label, '" + productName + "')]");
+        if (locator.isDisplayed(productLink)) {
+            locator.click(productLink);
+            return;
+        }
+        
+        // Further down the catalog; the scroll and find happen on the server where possible
+        GestureEngine gestures = GestureEngine.of(driver()).onScreen("catalog");
+        WebElement scrolledTo = wait.get().until("product link " + productName,
+            d -> gestures.scrollToText(productName));
+        scrolledTo.click();
     }
     
     private void addToCart() {
-        WebElement addToCartButton = wait.until(ExpectedConditions.elementToBeClickable(
+        WebElement addToCartButton = wait.get().until(ExpectedConditions.elementToBeClickable(
             By.id("add_to_cart")));
         addToCartButton.click();
     }
@@ -262,13 +345,13 @@ public class MobileAppTests {
     }
     
     private void navigateToCart() {
-        WebElement cartIcon = wait.until(ExpectedConditions.elementToBeClickable(
+        WebElement cartIcon = wait.get().until(ExpectedConditions.elementToBeClickable(
             By.id("cart_icon")));
         cartIcon.click();
     }
     
     private void proceedToCheckout() {
-        WebElement checkoutButton = wait.until(ExpectedConditions.elementToBeClickable(
+        WebElement checkoutButton = wait.get().until(ExpectedConditions.elementToBeClickable(
             By.id("checkout_button")));
         checkoutButton.click();
     }
@@ -286,36 +369,36 @@ public class MobileAppTests {
     }
     
     private void navigateToRegistration() {
-        WebElement registerButton = wait.until(ExpectedConditions.elementToBeClickable(
+        WebElement registerButton = wait.get().until(ExpectedConditions.elementToBeClickable(
             By.id("register_button")));
         registerButton.click();
     }
     
     private void fillRegistrationForm(String name, String email, String phone) {
-        WebElement nameField = driver.findElement(By.id("name_field"));
+        WebElement nameField = driver().findElement(By.id("name_field"));
         nameField.sendKeys(name);
         
-        WebElement emailField = driver.findElement(By.id("email_field"));
+        WebElement emailField = driver().findElement(By.id("email_field"));
         emailField.sendKeys(email);
         
-        WebElement phoneField = driver.findElement(By.id("phone_field"));
+        WebElement phoneField = driver().findElement(By.id("phone_field"));
         phoneField.sendKeys(phone);
     }
     
     private void submitForm() {
-        WebElement submitButton = driver.findElement(By.id("submit_button"));
+        WebElement submitButton = driver().findElement(By.id("submit_button"));
         submitButton.click();
     }
     
     private void rotateToLandscape() {
-        driver.rotate(org.openqa.selenium.ScreenOrientation.LANDSCAPE);
+        GestureEngine.of(driver()).rotate(ScreenOrientation.LANDSCAPE);
     }
     
     private void rotateToPortrait() {
-        driver.rotate(org.openqa.selenium.ScreenOrientation.PORTRAIT);
+        GestureEngine.of(driver()).rotate(ScreenOrientation.PORTRAIT);
     }
     
     private void minimizeApp() {
-        driver.runAppInBackground(Duration.ofSeconds(5));
+        ((InteractsWithApps) driver()).runAppInBackground(Duration.ofSeconds(5));
     }
 }
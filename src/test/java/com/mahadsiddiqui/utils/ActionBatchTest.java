@@ -0,0 +1,218 @@
+package com.mahadsiddiqui.utils;
+
+import io.appium.java_client.ExecutesDriverScript;
+import io.appium.java_client.driverscripts.ScriptValue;
+import org.openqa.selenium.By;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Action batch tests against a stand-in driver that answers driver scripts and element commands
+ */
+public class ActionBatchTest {
+    
+    @Test(description = "Verify script results are mapped back to the steps that produced them")
+    public void testScriptResultsMapToSteps() {
+        FakeDriver fake = new FakeDriver(script -> Arrays.asList(
+            result(true, null, null, 12),
+            result(true, null, null, 4),
+            result(true, "1", null, 7)));
+        
+        List<ActionBatch.StepResult> results = new ActionBatch(fake.driver(), Duration.ofSeconds(1))
+            .type(By.id("email_field"), "user@example.com")
+            .tap(By.id("login_submit"))
+            .assertText(By.id("cart_count"), "1")
+            .run();
+        
+        Assert.assertEquals(fake.scripts.size(), 1, "All steps should go in one driver script");
+        Assert.assertTrue(fake.scripts.get(0).contains("\"using\":\"id\",\"value\":\"email_field\""), fake.scripts.get(0));
+        Assert.assertEquals(results.size(), 3);
+        Assert.assertTrue(results.get(0).isBatched());
+        Assert.assertEquals(results.get(1).getStep(), "tap " + By.id("login_submit"));
+        Assert.assertEquals(results.get(1).getElapsedMillis(), 4);
+        Assert.assertEquals(results.get(2).getIndex(), 2);
+        Assert.assertEquals(results.get(2).getValue(), "1");
+        Assert.assertTrue(fake.actions.isEmpty(), "Nothing should run outside the script");
+    }
+    
+    @Test(description = "Verify a failing scripted step is reported with the steps that ran before it")
+    public void testScriptErrorNamesFailedStep() {
+        FakeDriver fake = new FakeDriver(script -> Arrays.asList(
+            result(true, null, null, 3),
+            result(false, null, "No element matching " + By.id("login_submit"), 1000)));
+        
+        try {
+            new ActionBatch(fake.driver(), Duration.ofSeconds(1))
+                .type(By.id("email_field"), "user@example.com")
+                .tap(By.id("login_submit"))
+                .assertDisplayed(By.id("main_content"))
+                .run();
+            Assert.fail("The batch should have failed");
+        } catch (ActionBatch.StepFailedException e) {
+            Assert.assertEquals(e.getFailedStep().getIndex(), 1);
+            Assert.assertEquals(e.getFailedStep().getStep(), "tap " + By.id("login_submit"));
+            Assert.assertTrue(e.getFailedStep().getError().contains("No element matching"), e.getMessage());
+            Assert.assertEquals(e.getResults().size(), 2);
+            Assert.assertTrue(e.getResults().get(0).isSuccess());
+        }
+    }
+    
+    @Test(description = "Verify steps run one by one when the server rejects driver scripts, and stay that way")
+    public void testFallsBackWhenScriptsRejected() {
+        FakeDriver fake = new FakeDriver(script -> {
+            throw new WebDriverException("Potentially insecure feature 'execute_driver_script' has not been enabled");
+        });
+        fake.texts.put(By.id("email_field").toString(), "");
+        fake.texts.put(By.id("cart_count").toString(), "1");
+        
+        for (int run = 0; run < 2; run++) {
+            List<ActionBatch.StepResult> results = new ActionBatch(fake.driver(), Duration.ofSeconds(1))
+                .type(By.id("email_field"), "user@example.com")
+                .assertText(By.id("cart_count"), "1")
+                .run();
+            Assert.assertEquals(results.size(), 2);
+            Assert.assertFalse(results.get(0).isBatched());
+            Assert.assertEquals(results.get(1).getValue(), "1");
+        }
+        
+        Assert.assertEquals(fake.scripts.size(), 1, "A rejected session should not be sent scripts again");
+        Assert.assertEquals(fake.actions.get(0), "sendKeys " + By.id("email_field") + " user@example.com");
+    }
+    
+    @Test(description = "Verify a failing step run one by one stops the batch and reports that step")
+    public void testStepByStepErrorNamesFailedStep() {
+        FakeDriver fake = new FakeDriver(script -> {
+            throw new WebDriverException("unknown command: execute_driver_script");
+        });
+        fake.texts.put(By.id("cart_count").toString(), "2");
+        fake.texts.put(By.id("checkout_button").toString(), "Checkout");
+        
+        try {
+            new ActionBatch(fake.driver(), Duration.ofMillis(200))
+                .assertText(By.id("cart_count"), "1")
+                .tap(By.id("checkout_button"))
+                .run();
+            Assert.fail("The batch should have failed");
+        } catch (ActionBatch.StepFailedException e) {
+            Assert.assertEquals(e.getFailedStep().getIndex(), 0);
+            Assert.assertEquals(e.getFailedStep().getError(), By.id("cart_count") + " has text \"2\"");
+            Assert.assertEquals(e.getResults().size(), 1);
+        }
+        Assert.assertTrue(fake.actions.isEmpty(), "Steps after the failure should not run");
+    }
+    
+    @Test(description = "Verify other script errors are not mistaken for missing driver script support")
+    public void testOtherScriptErrorsPropagate() {
+        FakeDriver fake = new FakeDriver(script -> {
+            throw new WebDriverException("Session timed out");
+        });
+        fake.texts.put(By.id("email_field").toString(), "");
+        
+        try {
+            new ActionBatch(fake.driver(), Duration.ofSeconds(1)).tap(By.id("email_field")).run();
+            Assert.fail("The script error should propagate");
+        } catch (WebDriverException e) {
+            Assert.assertTrue(e.getMessage().contains("Session timed out"), e.getMessage());
+        }
+        Assert.assertTrue(fake.actions.isEmpty(), "Steps should not be retried one by one");
+    }
+    
+    private static Map<String, Object> result(boolean ok, String value, String error, long millis) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("ok", ok);
+        result.put("value", value);
+        result.put("error", error);
+        result.put("ms", millis);
+        return result;
+    }
+    
+    /**
+     * Driver whose elements are the locators with a text in texts; scripts are answered by the given function
+     */
+    private static class FakeDriver {
+        final Function<String, Object> scriptResult;
+        final Map<String, String> texts = new HashMap<>();
+        final List<String> scripts = Collections.synchronizedList(new ArrayList<>());
+        final List<String> actions = Collections.synchronizedList(new ArrayList<>());
+        private final WebDriver driver;
+        
+        FakeDriver(Function<String, Object> scriptResult) {
+            this.scriptResult = scriptResult;
+            this.driver = createDriver();
+        }
+        
+        WebDriver driver() {
+            return driver;
+        }
+        
+        private WebDriver createDriver() {
+            return (WebDriver) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {WebDriver.class, ExecutesDriverScript.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "executeDriverScript":
+                            scripts.add((String) args[0]);
+                            return new ScriptValue(scriptResult.apply((String) args[0]), Collections.emptyMap());
+                        case "findElement":
+                            return element((By) args[0]);
+                        case "findElements":
+                            return texts.containsKey(args[0].toString())
+                                ? Collections.singletonList(element((By) args[0]))
+                                : Collections.emptyList();
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "FakeDriver";
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        }
+        
+        private WebElement element(By by) {
+            String text = texts.get(by.toString());
+            if (text == null) {
+                throw new NoSuchElementException("No element " + by);
+            }
+            return (WebElement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {WebElement.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "sendKeys":
+                            actions.add("sendKeys " + by + " " + String.join("", (CharSequence[]) args[0]));
+                            return null;
+                        case "click":
+                            actions.add("click " + by);
+                            return null;
+                        case "getText":
+                            return text;
+                        case "isDisplayed":
+                            return true;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "FakeElement " + by;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.mahadsiddiqui.utils;
+
+import com.mahadsiddiqui.drivers.DevicePool;
+import com.mahadsiddiqui.drivers.DeviceProfile;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Broadcast execution tests using devices without sessions
+ */
+public class BroadcastRunnerTest {
+    
+    @Test(description = "Verify devices run concurrently and the wall time tracks the slowest device")
+    public void testWallTimeTracksSlowestDevice() {
+        DevicePool pool = pool(3);
+        BroadcastResult result = new BroadcastRunner(pool, 3, true, Duration.ofSeconds(10), Duration.ofSeconds(5))
+            .run("sleep", device -> {
+                Thread.sleep(delay(device));
+                device.step("work");
+            });
+        
+        Assert.assertTrue(result.isPassed());
+        Assert.assertEquals(result.getDevices().size(), 3);
+        Assert.assertTrue(result.getWallMillis() < result.getSerialMillis(),
+            "Broadcast should beat serial: " + result.summary());
+        Assert.assertTrue(result.getWallMillis() < 500, result.summary());
+        Assert.assertTrue(result.getStepSkew().get("work") >= 150, result.summary());
+        Assert.assertEquals(pool.availableCount(), 3, "Every device should be returned");
+    }
+    
+    @Test(description = "Verify no device starts a step before every device finished the previous one")
+    public void testBarriersAlignSteps() {
+        Map<String, Long> firstDone = new ConcurrentHashMap<>();
+        Map<String, Long> secondStarted = new ConcurrentHashMap<>();
+        
+        BroadcastResult result = new BroadcastRunner(pool(3), 3, true, Duration.ofSeconds(10), Duration.ofSeconds(5))
+            .run("aligned", device -> {
+                Thread.sleep(delay(device));
+                firstDone.put(device.getId(), System.nanoTime());
+                device.step("first");
+                secondStarted.put(device.getId(), System.nanoTime());
+                device.step("second");
+            });
+        
+        Assert.assertTrue(result.isPassed());
+        Assert.assertTrue(Collections.min(secondStarted.values()) >= Collections.max(firstDone.values()),
+            "A device started the second step early");
+        for (BroadcastResult.DeviceResult device : result.getDevices()) {
+            Assert.assertTrue(device.getStepMillis().get("second") < 100,
+                "Barrier waits should not count as step time: " + result.summary());
+        }
+    }
+    
+    @Test(description = "Verify a failing device is reported without stalling the others at later barriers")
+    public void testFailureDoesNotBlockOtherDevices() {
+        BroadcastResult result = new BroadcastRunner(pool(3), 3, true, Duration.ofSeconds(30), Duration.ofSeconds(5))
+            .run("failing", device -> {
+                device.step("open");
+                if (device.getId().equals("device-1")) {
+                    throw new AssertionError("button missing");
+                }
+                device.step("submit");
+            });
+        
+        Assert.assertEquals(result.getFailures().size(), 1);
+        Assert.assertEquals(result.getFailures().get(0).getDeviceId(), "device-1");
+        Assert.assertTrue(result.getWallMillis() < 5000, "Remaining devices should not wait for the failed one");
+        try {
+            result.assertPassed();
+            Assert.fail("assertPassed should report the failed device");
+        } catch (AssertionError e) {
+            Assert.assertTrue(e.getMessage().contains("device-1: java.lang.AssertionError: button missing"),
+                e.getMessage());
+        }
+    }
+    
+    @Test(description = "Verify a broadcast that cannot lease every device runs nowhere and returns what it took")
+    public void testPartialLeaseIsReleased() {
+        DevicePool pool = pool(2);
+        AtomicInteger ran = new AtomicInteger();
+        
+        try {
+            new BroadcastRunner(pool, 3, true, Duration.ofSeconds(10), Duration.ofMillis(200))
+                .run("too many", device -> ran.incrementAndGet());
+            Assert.fail("The broadcast should fail without enough devices");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getMessage().contains("Could not lease 3 devices"), e.getMessage());
+        }
+        
+        Assert.assertEquals(ran.get(), 0, "No device should start on a partial set");
+        Assert.assertEquals(pool.availableCount(), 2, "Leased devices should be returned");
+    }
+    
+    private static long delay(BroadcastRunner.Device device) {
+        return Long.parseLong(device.getId().substring("device-".length())) * 100;
+    }
+    
+    private static DevicePool pool(int size) {
+        List<DeviceProfile> profiles = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            profiles.add(new DeviceProfile("device-" + i, Collections.emptyMap()));
+        }
+        return new DevicePool(profiles, profile -> null);
+    }
+}
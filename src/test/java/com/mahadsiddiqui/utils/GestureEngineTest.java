@@ -0,0 +1,86 @@
+package com.mahadsiddiqui.utils;
+
+import org.openqa.selenium.Rectangle;
+import org.openqa.selenium.ScreenOrientation;
+import org.openqa.selenium.UnsupportedCommandException;
+import org.openqa.selenium.WebDriverException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gesture geometry and per-screen, per-orientation caching tests
+ */
+public class GestureEngineTest {
+    
+    private static final Rectangle PORTRAIT = new Rectangle(0, 0, 2400, 1080);
+    
+    @Test(description = "Verify swipes run through the middle of the area in the finger's direction")
+    public void testSwipePaths() {
+        int[] up = GestureEngine.swipePath(PORTRAIT, GestureEngine.Direction.UP, 0.6);
+        Assert.assertEquals(up, new int[] {540, 1920, 540, 480});
+        
+        int[] right = GestureEngine.swipePath(new Rectangle(100, 200, 400, 800), GestureEngine.Direction.RIGHT, 0.5);
+        Assert.assertEquals(right, new int[] {300, 400, 700, 400});
+    }
+    
+    @Test(description = "Verify pinch fingers move apart for zoom in and together for zoom out, inside the area")
+    public void testPinchPaths() {
+        int[][] zoomIn = GestureEngine.pinchPaths(PORTRAIT, 2.0);
+        int[][] zoomOut = GestureEngine.pinchPaths(PORTRAIT, 0.5);
+        
+        Assert.assertTrue(spread(zoomIn, 2) > spread(zoomIn, 0), "Fingers should spread to zoom in");
+        Assert.assertTrue(spread(zoomOut, 2) < spread(zoomOut, 0), "Fingers should close to zoom out");
+        Assert.assertEquals(spread(zoomIn, 2), 2 * spread(zoomIn, 0), 2.0);
+        for (int[] finger : zoomIn) {
+            for (int i = 0; i < 4; i += 2) {
+                Assert.assertTrue(finger[i] >= 0 && finger[i] <= 1080 && finger[i + 1] >= 0 && finger[i + 1] <= 2400);
+            }
+        }
+    }
+    
+    @Test(description = "Verify geometry is measured once per screen and orientation, and rotating back reuses it")
+    public void testGeometryCachedPerScreenAndOrientation() {
+        GestureEngine.GeometryCache cache = new GestureEngine.GeometryCache();
+        AtomicInteger measured = new AtomicInteger();
+        
+        for (int i = 0; i < 5; i++) {
+            cache.get("catalog", ScreenOrientation.PORTRAIT, "window", () -> measure(measured, PORTRAIT));
+        }
+        Assert.assertEquals(measured.get(), 1);
+        
+        Rectangle landscape = cache.get("catalog", ScreenOrientation.LANDSCAPE, "window",
+            () -> measure(measured, new Rectangle(0, 0, 1080, 2400)));
+        Assert.assertEquals(landscape.getWidth(), 2400);
+        Assert.assertEquals(cache.get("catalog", ScreenOrientation.PORTRAIT, "window",
+            () -> measure(measured, PORTRAIT)).getWidth(), 1080);
+        Assert.assertEquals(measured.get(), 2, "Rotating back should not measure again");
+        
+        cache.invalidate("catalog");
+        cache.get("catalog", ScreenOrientation.PORTRAIT, "window", () -> measure(measured, PORTRAIT));
+        Assert.assertEquals(measured.get(), 3);
+    }
+    
+    @Test(description = "Verify only a missing command or strategy turns server-side scrolling off for the session")
+    public void testOnlyUnsupportedErrorsDisableServerScroll() {
+        Assert.assertTrue(GestureEngine.isUnsupported(new UnsupportedCommandException("mobile: scroll")));
+        Assert.assertTrue(GestureEngine.isUnsupported(
+            new WebDriverException("Unknown method 'mobile: scroll'. Only 'mobile: tap' are supported")));
+        Assert.assertTrue(GestureEngine.isUnsupported(
+            new WebDriverException("Locator Strategy '-android uiautomator' is not supported for this session")));
+        
+        Assert.assertFalse(GestureEngine.isUnsupported(
+            new WebDriverException("An unknown server-side error occurred: XCTest timed out scrolling")));
+        Assert.assertFalse(GestureEngine.isUnsupported(new WebDriverException("Connection reset")));
+    }
+    
+    private static double spread(int[][] fingers, int offset) {
+        return Math.hypot(fingers[1][offset] - fingers[0][offset], fingers[1][offset + 1] - fingers[0][offset + 1]);
+    }
+    
+    private static Rectangle measure(AtomicInteger measured, Rectangle rect) {
+        measured.incrementAndGet();
+        return rect;
+    }
+}
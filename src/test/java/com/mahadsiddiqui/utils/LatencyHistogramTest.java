@@ -0,0 +1,71 @@
+package com.mahadsiddiqui.utils;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Latency histogram accuracy and concurrency tests
+ */
+public class LatencyHistogramTest {
+    
+    @Test(description = "Verify percentiles are within bucket precision")
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10_000; i++) {
+            histogram.record(i * 100L);
+        }
+        
+        Assert.assertEquals(histogram.getCount(), 10_000);
+        assertWithin(histogram.getPercentile(50), 500_000, 0.04);
+        assertWithin(histogram.getPercentile(90), 900_000, 0.04);
+        assertWithin(histogram.getPercentile(99), 990_000, 0.04);
+        Assert.assertEquals(histogram.getMax(), 1_000_000);
+        Assert.assertEquals(histogram.getMean(), 500_050.0, 0.001);
+    }
+    
+    @Test(description = "Verify small values land in exact buckets")
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3);
+        histogram.record(7);
+        
+        Assert.assertEquals(histogram.getPercentile(50), 3);
+        Assert.assertEquals(histogram.getPercentile(100), 7);
+    }
+    
+    @Test(description = "Verify bucket bounds contain the values mapped to them")
+    public void testBucketBoundsContainValues() {
+        for (long value = 1; value < 1L << 36; value = value * 3 + 1) {
+            Assert.assertTrue(LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(value)) >= value,
+                "Upper bound should cover " + value);
+        }
+    }
+    
+    @Test(description = "Verify concurrent recording loses no values")
+    public void testConcurrentRecording() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    histogram.record(i % 5000);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        Assert.assertEquals(histogram.getCount(), 400_000);
+    }
+    
+    private static void assertWithin(long actual, long expected, double tolerance) {
+        Assert.assertTrue(Math.abs(actual - expected) <= expected * tolerance,
+            "Expected " + expected + " within " + (tolerance * 100) + "% but was " + actual);
+    }
+}
@@ -0,0 +1,137 @@
+package com.mahadsiddiqui.utils;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.logging.LogEntries;
+import org.openqa.selenium.logging.LogEntry;
+import org.openqa.selenium.logging.Logs;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Device log ring buffer and app filter tests
+ */
+public class LogRingBufferTest {
+    
+    private static final String[] SOURCES = {"logcat", "server"};
+    
+    @Test(description = "Verify the buffer keeps the newest lines within its byte budget, across the wrap")
+    public void testOldestLinesAreDropped() throws IOException {
+        LogRingBuffer buffer = new LogRingBuffer(64, 100);
+        for (int i = 0; i < 20; i++) {
+            buffer.add(1000 + i, 0, "line-" + i);
+        }
+        
+        // Each line is 6 or 7 bytes, so only the last 9 fit in 64 bytes
+        Assert.assertEquals(buffer.size(), 9);
+        Assert.assertEquals(buffer.getDropped(), 11);
+        String window = window(buffer, 0, Long.MAX_VALUE);
+        Assert.assertFalse(window.contains("line-10"), window);
+        Assert.assertTrue(window.contains("[logcat] line-11\n") && window.endsWith("line-19\n"), window);
+    }
+    
+    @Test(description = "Verify a window only contains lines logged between its times")
+    public void testWindowSelectsByTime() throws IOException {
+        LogRingBuffer buffer = new LogRingBuffer(1024, 3);
+        buffer.add(1000, 0, "before");
+        buffer.add(2000, 1, "during");
+        buffer.add(3000, 0, "after");
+        buffer.add(2500, 0, "also during");
+        
+        Assert.assertEquals(buffer.size(), 3, "The entry limit should drop the oldest line");
+        Assert.assertEquals(window(buffer, 1500, 2600).split("\n").length, 2);
+        Assert.assertTrue(window(buffer, 1500, 2600).contains("[server] during"));
+    }
+    
+    @Test(description = "Verify logcat lines are kept for the app package, its processes and crash markers only")
+    public void testAppFilter() {
+        DeviceLogCollector collector = new DeviceLogCollector(null, Arrays.asList("logcat", "server"),
+            Arrays.asList("FATAL EXCEPTION", "com.example.app"), true, new LogRingBuffer(1024, 16),
+            Collections.emptyMap());
+        
+        Assert.assertTrue(collector.accept("logcat",
+            "10-16 12:00:00.000   612   640 I ActivityManager: Start proc 4321:com.example.app/u0a123 for activity"));
+        Assert.assertTrue(collector.accept("logcat", "10-16 12:00:01.000  4321  4321 D OkHttp: --> GET /api/cart"));
+        Assert.assertFalse(collector.accept("logcat", "10-16 12:00:01.000   612   700 D WifiService: scan"));
+        Assert.assertTrue(collector.accept("logcat", "10-16 12:00:02.000  9999  9999 E AndroidRuntime: FATAL EXCEPTION"));
+        Assert.assertTrue(collector.accept("server", "[HTTP] --> POST /session"));
+        
+        DeviceLogCollector unfiltered = new DeviceLogCollector(null, Collections.singletonList("logcat"),
+            Collections.emptyList(), false, new LogRingBuffer(1024, 16), Collections.emptyMap());
+        Assert.assertTrue(unfiltered.accept("logcat", "10-16 12:00:01.000   612   700 D WifiService: scan"));
+    }
+    
+    @Test(description = "Verify a tailed log type is read from its process and filtered, without the session")
+    public void testTailedLogSkipsSession() throws Exception {
+        String logcat = "10-16 12:00:00.000   612   640 I ActivityManager: Start proc 4321:com.example.app/u0a123\n"
+            + "10-16 12:00:01.000   612   700 D WifiService: scan\n"
+            + "10-16 12:00:01.000  4321  4321 D OkHttp: --> GET /api/cart\n";
+        LogRingBuffer buffer = new LogRingBuffer(1024, 16);
+        // No driver: pulling through the session would fail and mark logcat unsupported
+        DeviceLogCollector collector = new DeviceLogCollector(null, Collections.singletonList("logcat"),
+            Collections.singletonList("com.example.app"), true, buffer,
+            Collections.singletonMap("logcat", Arrays.asList("printf", logcat)));
+        
+        collector.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (buffer.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        collector.stop();
+        
+        String window = window(buffer, 0, Long.MAX_VALUE);
+        Assert.assertEquals(buffer.size(), 2, window);
+        Assert.assertTrue(window.contains("OkHttp"), window);
+        Assert.assertFalse(window.contains("WifiService"), window);
+    }
+    
+    @Test(description = "Verify untailed log types are pulled through the session only when a window is written")
+    public void testUntailedLogPulledOnFlushOnly() throws Exception {
+        AtomicInteger pulls = new AtomicInteger();
+        Logs logs = proxy(Logs.class, (name, args) -> {
+            pulls.incrementAndGet();
+            return new LogEntries(Collections.singletonList(
+                new LogEntry(Level.INFO, System.currentTimeMillis(), "com.example.app crashed")));
+        });
+        WebDriver.Options options = proxy(WebDriver.Options.class, (name, args) -> logs);
+        WebDriver driver = proxy(WebDriver.class, (name, args) -> options);
+        LogRingBuffer buffer = new LogRingBuffer(1024, 16);
+        DeviceLogCollector collector = new DeviceLogCollector(driver, Collections.singletonList("logcat"),
+            Collections.singletonList("com.example.app"), true, buffer, Collections.emptyMap());
+        
+        collector.start();
+        Thread.sleep(200);
+        Assert.assertEquals(pulls.get(), 0, "A passing test should not touch the session");
+        
+        Path file = Files.createTempFile("device-log", ".log.gz");
+        Assert.assertEquals(collector.flush(0, Long.MAX_VALUE, file), 1);
+        Assert.assertEquals(pulls.get(), 1);
+        collector.stop();
+    }
+    
+    private interface Answer {
+        Object answer(String method, Object[] args);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Answer answer) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+            (self, method, args) -> answer.answer(method.getName(), args));
+    }
+    
+    private static String window(LogRingBuffer buffer, long from, long to) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeTo(out, from, to, SOURCES);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
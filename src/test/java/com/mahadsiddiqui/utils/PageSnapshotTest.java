@@ -0,0 +1,109 @@
+package com.mahadsiddiqui.utils;
+
+import io.appium.java_client.AppiumBy;
+import org.openqa.selenium.By;
+import org.openqa.selenium.Rectangle;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+/**
+ * Page snapshot indexing and lookup tests against sample UiAutomator2 and XCUITest page sources
+ */
+public class PageSnapshotTest {
+    
+    private static final String ANDROID_SOURCE =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+        + "<hierarchy index=\"0\" class=\"hierarchy\" rotation=\"0\" width=\"1080\" height=\"2400\">"
+        + "<android.widget.FrameLayout index=\"0\" class=\"android.widget.FrameLayout\" bounds=\"[0,0][1080,2400]\" displayed=\"true\">"
+        + "<android.widget.EditText index=\"0\" class=\"android.widget.EditText\" resource-id=\"com.example.app:id/email_field\" text=\"\" bounds=\"[40,300][1040,420]\" displayed=\"true\" enabled=\"true\"/>"
+        + "<android.widget.Button index=\"1\" class=\"android.widget.Button\" resource-id=\"com.example.app:id/login_button\" content-desc=\"Login\" text=\"Log in\" bounds=\"[40,500][1040,620]\" displayed=\"true\" enabled=\"false\"/>"
+        + "<android.widget.TextView index=\"2\" class=\"android.widget.TextView\" resource-id=\"com.example.app:id/product_title\" text=\"Gaming laptop\" bounds=\"[40,700][1040,760]\" displayed=\"false\"/>"
+        + "<android.widget.TextView index=\"3\" class=\"android.widget.TextView\" resource-id=\"com.example.app:id/cart_count\" text=\"1\" bounds=\"[980,40][1040,100]\" displayed=\"true\"/>"
+        + "</android.widget.FrameLayout>"
+        + "</hierarchy>";
+    
+    private static final String IOS_SOURCE =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+        + "<AppiumAUT><XCUIElementTypeApplication name=\"Shop\" x=\"0\" y=\"0\" width=\"390\" height=\"844\" visible=\"true\">"
+        + "<XCUIElementTypeButton type=\"XCUIElementTypeButton\" name=\"login_button\" label=\"Log in\" x=\"20\" y=\"400\" width=\"350\" height=\"44\" visible=\"true\" enabled=\"true\"/>"
+        + "</XCUIElementTypeApplication></AppiumAUT>";
+    
+    private static final String PRODUCT_LIST_SOURCE =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+        + "<hierarchy index=\"0\" class=\"hierarchy\" rotation=\"0\" width=\"1080\" height=\"2400\">"
+        + "<androidx.recyclerview.widget.RecyclerView class=\"androidx.recyclerview.widget.RecyclerView\" resource-id=\"com.example.app:id/product_list\" bounds=\"[0,200][1080,2400]\">"
+        + "<android.widget.TextView class=\"android.widget.TextView\" resource-id=\"com.example.app:id/product_name\" content-desc=\"product\" text=\"Phone\" bounds=\"[40,220][1040,320]\"/>"
+        + "<android.widget.TextView class=\"android.widget.TextView\" resource-id=\"com.example.app:id/product_name\" content-desc=\"product\" text=\"Gaming laptop\" bounds=\"[40,340][1040,440]\"/>"
+        + "<android.widget.TextView class=\"android.widget.TextView\" resource-id=\"com.example.app:id/product_name\" content-desc=\"Tablet\" text=\"Tablet\" bounds=\"[40,460][1040,560]\"/>"
+        + "</androidx.recyclerview.widget.RecyclerView>"
+        + "</hierarchy>";
+    
+    @Test(description = "Verify resource ids resolve with and without the package prefix")
+    public void testFindByResourceId() {
+        PageSnapshot snapshot = PageSnapshot.parse(ANDROID_SOURCE);
+        
+        Assert.assertEquals(snapshot.findById("login_button").size(), 1);
+        Assert.assertEquals(snapshot.findById("com.example.app:id/login_button").size(), 1);
+        Assert.assertTrue(snapshot.findById("missing").isEmpty(), "Unknown id should not match");
+    }
+    
+    @Test(description = "Verify accessibility id, class and text indexes")
+    public void testSecondaryIndexes() {
+        PageSnapshot snapshot = PageSnapshot.parse(ANDROID_SOURCE);
+        
+        Assert.assertEquals(snapshot.findByAccessibilityId("Login").get(0).getText(), "Log in");
+        Assert.assertEquals(snapshot.findByClassName("android.widget.TextView").size(), 2);
+        Assert.assertEquals(snapshot.findByText("1").get(0).getAttribute("resource-id"), "com.example.app:id/cart_count");
+    }
+    
+    @Test(description = "Verify XPath locators are evaluated against the snapshot")
+    public void testFindByXPath() {
+        PageSnapshot snapshot = PageSnapshot.parse(ANDROID_SOURCE);
+        
+        List<SnapshotElement> matches = snapshot.findByXPath("//*[contains(@text, 'laptop')]");
+        Assert.assertEquals(matches.size(), 1);
+        Assert.assertEquals(matches.get(0).getAttribute("resource-id"), "com.example.app:id/product_title");
+    }
+    
+    @Test(description = "Verify element state and bounds are read from attributes")
+    public void testElementState() {
+        PageSnapshot snapshot = PageSnapshot.parse(ANDROID_SOURCE);
+        
+        SnapshotElement loginButton = snapshot.findById("login_button").get(0);
+        Assert.assertTrue(loginButton.isDisplayed());
+        Assert.assertFalse(loginButton.isEnabled());
+        Assert.assertFalse(snapshot.findById("product_title").get(0).isDisplayed());
+        
+        Rectangle rect = loginButton.getRect();
+        Assert.assertEquals(rect.getX(), 40);
+        Assert.assertEquals(rect.getY(), 500);
+        Assert.assertEquals(rect.getWidth(), 1000);
+        Assert.assertEquals(rect.getHeight(), 120);
+    }
+    
+    @Test(description = "Verify iOS name attributes serve both id and accessibility id lookups")
+    public void testIosSource() {
+        PageSnapshot snapshot = PageSnapshot.parse(IOS_SOURCE);
+        
+        SnapshotElement button = snapshot.findById("login_button").get(0);
+        Assert.assertSame(button, snapshot.findByAccessibilityId("login_button").get(0));
+        Assert.assertEquals(button.getText(), "Log in");
+        Assert.assertEquals(button.getRect().getWidth(), 350);
+    }
+    
+    @Test(description = "Verify ids shared by list rows are not used to resolve one row on the device")
+    public void testDuplicateIdsAreNotDeviceLocators() {
+        PageSnapshot snapshot = PageSnapshot.parse(PRODUCT_LIST_SOURCE);
+        
+        SnapshotElement laptop = snapshot.findByXPath("//*[@text='Gaming laptop']").get(0);
+        Assert.assertNull(laptop.toDeviceLocator(), "A shared id and accessibility id would select the first row");
+        
+        SnapshotElement tablet = snapshot.findByText("Tablet").get(0);
+        Assert.assertEquals(String.valueOf(tablet.toDeviceLocator()), AppiumBy.accessibilityId("Tablet").toString());
+        
+        SnapshotElement list = snapshot.findById("product_list").get(0);
+        Assert.assertEquals(String.valueOf(list.toDeviceLocator()), By.id("com.example.app:id/product_list").toString());
+    }
+}
@@ -0,0 +1,45 @@
+package com.mahadsiddiqui.utils;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+
+/**
+ * Parsing of the batched dumpsys output one performance sample is read from
+ */
+public class PerformanceSamplerTest {
+    
+    private static final String OUTPUT = "@@memory\n"
+        + "         TOTAL PSS:   153600            TOTAL RSS:   240000       TOTAL SWAP PSS:       12\n"
+        + "@@cpu\n"
+        + "  18% 4321/com.example.app: 12% user + 6.5% kernel / faults: 310 minor\n"
+        + "@@battery\n"
+        + "  level: 87\n"
+        + "@@activity\n"
+        + "    mResumedActivity: ActivityRecord{6f1a2b u0 com.example.app/.checkout.CartActivity t42}\n"
+        + "@@frames\n"
+        + "Janky frames: 12 (4.25%)\n";
+    
+    @Test(description = "Verify every metric is read from its section of one shell call")
+    public void testParseBatchedOutput() {
+        Map<String, String> sections = PerformanceSampler.sections(OUTPUT);
+        Map<PerformanceSampler.Metric, Double> values = PerformanceSampler.parse(sections);
+        
+        Assert.assertEquals(values.get(PerformanceSampler.Metric.MEMORY_MB), 150.0, 0.001);
+        Assert.assertEquals(values.get(PerformanceSampler.Metric.CPU_PERCENT), 18.5, 0.001);
+        Assert.assertEquals(values.get(PerformanceSampler.Metric.BATTERY_PERCENT), 87.0, 0.001);
+        Assert.assertEquals(values.get(PerformanceSampler.Metric.JANKY_FRAMES_PERCENT), 4.25, 0.001);
+        Assert.assertEquals(PerformanceSampler.parseActivity(sections.get("activity")), ".checkout.CartActivity");
+    }
+    
+    @Test(description = "Verify metrics missing from the output are left out rather than reported as zero")
+    public void testMissingSections() {
+        Map<String, String> sections = PerformanceSampler.sections("@@memory\n@@cpu\n@@battery\n  level: 50\n");
+        Map<PerformanceSampler.Metric, Double> values = PerformanceSampler.parse(sections);
+        
+        Assert.assertEquals(values.size(), 1);
+        Assert.assertEquals(values.get(PerformanceSampler.Metric.BATTERY_PERCENT), 50.0, 0.001);
+        Assert.assertNull(PerformanceSampler.parseActivity(sections.get("activity")));
+    }
+}
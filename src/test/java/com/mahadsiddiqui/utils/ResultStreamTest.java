@@ -0,0 +1,82 @@
+package com.mahadsiddiqui.utils;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Result stream and streamed HTML report tests
+ */
+public class ResultStreamTest {
+    
+    @Test(description = "Verify every queued result reaches the file in order, with attachments by reference")
+    public void testResultsAreStreamedInOrder() throws IOException {
+        Path dir = Files.createTempDirectory("result-stream");
+        Path screenshot = Files.write(dir.resolve("login.png"), new byte[0]);
+        // A small queue forces the producer to wait for the writer
+        ResultStream stream = new ResultStream(dir.resolve("results.ndjson"), 4, 5000);
+        
+        // The writer waits for an attachment that is still being written, as screenshots are
+        CompletableFuture<Path> pending = CompletableFuture.supplyAsync(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return screenshot;
+        });
+        for (int i = 0; i < 2000; i++) {
+            ResultStream.TestRecord record = new ResultStream.TestRecord("test" + i, "Tests",
+                i % 10 == 0 ? "FAILED" : "PASSED", "device-" + (i % 4), 1000L + i, 5, null,
+                i % 10 == 0 ? "java.lang.AssertionError: <expected>" : null);
+            if (i == 1) {
+                record.attach(Collections.singletonList(new ResultStream.Attachment("login", "image/png", pending)));
+            }
+            stream.write(record);
+        }
+        Path file = stream.close();
+        
+        Assert.assertEquals(stream.getWritten(), 2000);
+        AtomicInteger index = new AtomicInteger();
+        ResultStream.forEach(file, record -> {
+            int i = index.getAndIncrement();
+            Assert.assertEquals(record.path("name").asText(), "test" + i);
+            if (i == 1) {
+                Assert.assertEquals(record.path("attachments").get(0).path("path").asText(), screenshot.toString());
+            }
+        });
+        Assert.assertEquals(index.get(), 2000);
+    }
+    
+    @Test(description = "Verify the HTML report totals the stream and links attachments relative to the report")
+    public void testHtmlReportIsBuiltFromStream() throws IOException {
+        Path dir = Files.createTempDirectory("result-stream");
+        Files.createDirectories(dir.resolve("screenshots"));
+        Path screenshot = Files.write(dir.resolve("screenshots/cart.png"), new byte[0]);
+        ResultStream stream = new ResultStream(dir.resolve("reports/results.ndjson"), 16, 5000);
+        stream.write(new ResultStream.TestRecord("testCart", "Tests", "PASSED", "pixel7", 1000, 40, "[{sku=1}]", null)
+            .attach(Collections.singletonList(new ResultStream.Attachment("cart", "image/png",
+                CompletableFuture.completedFuture(screenshot)))));
+        stream.write(new ResultStream.TestRecord("testLogin", "Tests", "FAILED", "iphone14", 1010, 60, null,
+            "java.lang.AssertionError: expected <welcome> & got nothing"));
+        stream.write(new ResultStream.TestRecord("testPush", "Tests", "SKIPPED", "-", 1020, 0, null, null));
+        Path results = stream.close();
+        
+        Path html = dir.resolve("reports/test-report.html");
+        HtmlReport.write(results, html, "Nightly <run>");
+        String report = new String(Files.readAllBytes(html), StandardCharsets.UTF_8);
+        
+        Assert.assertTrue(report.contains("<title>Nightly &lt;run&gt;</title>"));
+        Assert.assertTrue(report.contains("3 tests"));
+        Assert.assertTrue(report.contains("1 passed") && report.contains("1 failed") && report.contains("1 skipped"));
+        Assert.assertTrue(report.contains("expected &lt;welcome&gt; &amp; got nothing"));
+        Assert.assertTrue(report.contains("src=\"../screenshots/cart.png\""), report);
+    }
+}
@@ -0,0 +1,200 @@
+package com.mahadsiddiqui.utils;
+
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.TakesScreenshot;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Screenshot capture policy, deduplication and backpressure tests on synthetic screens
+ */
+public class ScreenshotPipelineTest {
+    
+    private Path directory;
+    
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("screenshots");
+    }
+    
+    @Test(description = "Verify identical screens are written once and share the file")
+    public void testDuplicatesShareFile() throws Exception {
+        ScreenshotPipeline pipeline = pipeline(ScreenshotPipeline.Policy.FAILURE, 0, 2, 8, false);
+        Screen screen = new Screen(64, 2);
+        
+        Path first = pipeline.capture(screen, "home").get(10, TimeUnit.SECONDS);
+        Path second = pipeline.capture(screen, "home again").get(10, TimeUnit.SECONDS);
+        screen.next();
+        Path third = pipeline.capture(screen, "cart").get(10, TimeUnit.SECONDS);
+        
+        Assert.assertEquals(second, first, "The same bytes should hash to the file already written");
+        Assert.assertNotEquals(third, first);
+        Assert.assertEquals(files(), 2);
+        Assert.assertTrue(pipeline.toString().contains("duplicates=1"), pipeline.toString());
+    }
+    
+    @Test(description = "Verify a full queue makes the capturing thread write the screenshot instead of dropping it")
+    public void testFullQueueRunsOnCaller() throws Exception {
+        // One worker and one queue slot: the third capture in a row finds both busy
+        ScreenshotPipeline pipeline = pipeline(ScreenshotPipeline.Policy.FAILURE, 0, 1, 1, true);
+        Screen screen = new Screen(1200, 12);
+        
+        List<CompletableFuture<Path>> results = new ArrayList<>();
+        int doneOnReturn = 0;
+        for (int i = 0; i < 12; i++) {
+            CompletableFuture<Path> result = pipeline.capture(screen, "busy " + i);
+            if (result.isDone()) {
+                doneOnReturn++;
+            }
+            results.add(result);
+            screen.next();
+        }
+        pipeline.flush(30);
+        
+        Assert.assertTrue(doneOnReturn > 0, "No capture was written on the calling thread");
+        for (CompletableFuture<Path> result : results) {
+            Assert.assertTrue(Files.exists(result.get(1, TimeUnit.SECONDS)));
+        }
+        Assert.assertEquals(files(), 12, "Every screenshot should be written");
+    }
+    
+    @Test(description = "Verify the failure policy only captures at the end of failed tests")
+    public void testFailurePolicy() {
+        ScreenshotPipeline pipeline = pipeline(ScreenshotPipeline.Policy.FAILURE, 1.0, 2, 8, false);
+        Screen screen = new Screen(16, 1);
+        
+        pipeline.onStep(screen, "step");
+        pipeline.onTestEnd(screen, "passed", true);
+        Assert.assertEquals(screen.captures, 0);
+        
+        pipeline.onTestEnd(screen, "failed", false);
+        Assert.assertEquals(screen.captures, 1);
+        pipeline.flush(10);
+    }
+    
+    @Test(description = "Verify the step policy captures every step")
+    public void testStepPolicy() {
+        ScreenshotPipeline pipeline = pipeline(ScreenshotPipeline.Policy.STEP, 0, 2, 8, false);
+        Screen screen = new Screen(16, 1);
+        
+        for (int i = 0; i < 5; i++) {
+            pipeline.onStep(screen, "step " + i);
+        }
+        Assert.assertEquals(screen.captures, 5);
+        pipeline.flush(10);
+    }
+    
+    @Test(description = "Verify the sampled policy captures roughly screenshot.sample.rate of steps")
+    public void testSampledPolicy() {
+        Screen screen = new Screen(16, 1);
+        ScreenshotPipeline never = pipeline(ScreenshotPipeline.Policy.SAMPLED, 0, 2, 8, false);
+        ScreenshotPipeline always = pipeline(ScreenshotPipeline.Policy.SAMPLED, 1.0, 2, 8, false);
+        ScreenshotPipeline half = pipeline(ScreenshotPipeline.Policy.SAMPLED, 0.5, 2, 64, false);
+        
+        for (int i = 0; i < 10; i++) {
+            never.onStep(screen, "never " + i);
+        }
+        Assert.assertEquals(screen.captures, 0);
+        for (int i = 0; i < 10; i++) {
+            always.onStep(screen, "always " + i);
+        }
+        Assert.assertEquals(screen.captures, 10);
+        
+        screen.captures = 0;
+        for (int i = 0; i < 400; i++) {
+            half.onStep(screen, "half " + i);
+        }
+        Assert.assertTrue(screen.captures > 120 && screen.captures < 280, screen.captures + " of 400 sampled");
+        always.flush(10);
+        half.flush(10);
+    }
+    
+    @Test(description = "Verify flush waits for every queued screenshot to be written")
+    public void testFlushWaitsForWriters() throws IOException {
+        ScreenshotPipeline pipeline = pipeline(ScreenshotPipeline.Policy.FAILURE, 0, 2, 32, true);
+        Screen screen = new Screen(800, 6);
+        
+        List<CompletableFuture<Path>> results = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            results.add(pipeline.capture(screen, "queued " + i));
+            screen.next();
+        }
+        pipeline.flush(30);
+        
+        for (CompletableFuture<Path> result : results) {
+            Assert.assertTrue(result.isDone(), "flush returned before a screenshot was written");
+        }
+        Assert.assertEquals(files(), 6);
+        
+        // The workers keep running after a flush
+        Assert.assertNotNull(pipeline.capture(screen, "after flush").join());
+    }
+    
+    private ScreenshotPipeline pipeline(ScreenshotPipeline.Policy policy, double sampleRate, int threads,
+                                        int queueSize, boolean jpeg) {
+        ScreenshotPipeline pipeline = new ScreenshotPipeline(directory, policy, sampleRate, true, false,
+            jpeg ? 400 : 0, jpeg, 0.8f, threads, queueSize);
+        // Keep attachments made outside a running test out of the project's Allure results
+        pipeline.setAllureLinkDirectory(directory.resolve("allure"));
+        return pipeline;
+    }
+    
+    private long files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+    
+    /**
+     * Device screen that cycles through distinct noise images and counts how often it was captured
+     */
+    private static class Screen implements TakesScreenshot {
+        
+        private final List<byte[]> frames = new ArrayList<>();
+        private int frame;
+        private int captures;
+        
+        Screen(int size, int count) {
+            Random random = new Random(size);
+            for (int i = 0; i < count; i++) {
+                BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+                for (int y = 0; y < size; y++) {
+                    for (int x = 0; x < size; x++) {
+                        image.setRGB(x, y, random.nextInt());
+                    }
+                }
+                try {
+                    ByteArrayOutputStream png = new ByteArrayOutputStream();
+                    ImageIO.write(image, "png", png);
+                    frames.add(png.toByteArray());
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        
+        void next() {
+            frame = (frame + 1) % frames.size();
+        }
+        
+        @Override
+        public <X> X getScreenshotAs(OutputType<X> target) {
+            captures++;
+            return target.convertFromPngBytes(frames.get(frame));
+        }
+    }
+}
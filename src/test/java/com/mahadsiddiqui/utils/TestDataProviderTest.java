@@ -0,0 +1,90 @@
+package com.mahadsiddiqui.utils;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Streaming test data parsing and caching tests
+ */
+public class TestDataProviderTest {
+    
+    @Test(description = "Verify JSON rows are parsed with nested values kept as text")
+    public void testJsonRecords() throws IOException {
+        Path file = Files.createTempFile("users", ".json");
+        Files.write(file, ("[{\"email\":\"a@example.com\",\"age\":30,\"tags\":[\"x\",\"y\"]},"
+            + "{\"email\":\"b@example.com\",\"age\":null}]").getBytes());
+        
+        List<DataRecord> records = TestDataProvider.records(file);
+        
+        Assert.assertEquals(records.size(), 2);
+        Assert.assertEquals(records.get(0).get("email"), "a@example.com");
+        Assert.assertEquals(records.get(0).get("age"), "30");
+        Assert.assertEquals(records.get(0).get("tags"), "[\"x\",\"y\"]");
+        Assert.assertNull(records.get(1).get("age"));
+    }
+    
+    @Test(description = "Verify CSV rows handle quoted fields")
+    public void testCsvRecords() throws IOException {
+        Path file = Files.createTempFile("products", ".csv");
+        Files.write(file, "name,price,description\nlaptop,999,\"Fast, light\"\n\nphone,499,\"The \"\"best\"\"\"\n"
+            .getBytes());
+        
+        List<DataRecord> records = TestDataProvider.records(file);
+        
+        Assert.assertEquals(records.size(), 2);
+        Assert.assertEquals(records.get(0).get("description"), "Fast, light");
+        Assert.assertEquals(records.get(1).get("description"), "The \"best\"");
+    }
+    
+    @Test(description = "Verify a file is parsed once and shared between callers")
+    public void testRecordsAreMemoized() throws IOException {
+        Path file = Files.createTempFile("cached", ".json");
+        Files.write(file, "[{\"id\":\"1\"}]".getBytes());
+        
+        List<DataRecord> first = TestDataProvider.records(file);
+        Files.write(file, "[{\"id\":\"2\"}]".getBytes());
+        
+        Assert.assertSame(TestDataProvider.records(file), first, "Second read should come from the cache");
+    }
+    
+    @Test(description = "Verify large files stream lazily row by row")
+    public void testStreamsLargeFile() throws IOException {
+        Path file = Files.createTempFile("large", ".csv");
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write("id,email\n");
+            for (int i = 0; i < 50_000; i++) {
+                writer.write(i + ",user" + i + "@example.com\n");
+            }
+        }
+        
+        Iterator<DataRecord> rows = TestDataProvider.stream(file);
+        int count = 0;
+        DataRecord last = null;
+        while (rows.hasNext()) {
+            last = rows.next();
+            count++;
+        }
+        
+        Assert.assertEquals(count, 50_000);
+        Assert.assertEquals(last.get("email"), "user49999@example.com");
+    }
+    
+    @Test(description = "Verify a stream closed before its last row stops yielding rows")
+    public void testAbandonedStreamCloses() throws IOException {
+        Path file = Files.createTempFile("abandoned", ".json");
+        Files.write(file, "[{\"id\":\"1\"},{\"id\":\"2\"}]".getBytes());
+        
+        Iterator<DataRecord> rows = TestDataProvider.stream(file);
+        Assert.assertEquals(rows.next().get("id"), "1");
+        TestDataProvider.close(rows);
+        
+        Assert.assertFalse(rows.hasNext(), "A closed stream should not read further");
+    }
+}
@@ -0,0 +1,73 @@
+package com.mahadsiddiqui.utils;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * History-driven test ordering tests
+ */
+public class TestSchedulerTest {
+    
+    private static final List<String> DECLARED = Arrays.asList("login", "search", "cart", "checkout", "register");
+    
+    private TestHistory history() {
+        TestHistory history = new TestHistory(0.3);
+        history.record("login", 20_000, true);
+        history.record("search", 30_000, true);
+        history.record("cart", 40_000, true);
+        history.record("checkout", 120_000, true);
+        history.record("register", 30_000, true);
+        return history;
+    }
+    
+    @Test(description = "Verify tests run longest first and shorten the makespan")
+    public void testLongestFirst() {
+        TestScheduler scheduler = new TestScheduler(history(), false, 0.2);
+        
+        List<String> ordered = scheduler.order(DECLARED);
+        
+        Assert.assertEquals(ordered.get(0), "checkout");
+        Assert.assertEquals(ordered.get(ordered.size() - 1), "login");
+        Assert.assertEquals(scheduler.makespan(ordered, 2), 120_000);
+        Assert.assertTrue(scheduler.makespan(DECLARED, 2) > 120_000, "Declaration order should finish later");
+    }
+    
+    @Test(description = "Verify failing and flaky tests run first when fail-fast is enabled")
+    public void testFailFastFirst() {
+        TestHistory history = history();
+        history.record("login", 20_000, false);
+        history.record("register", 30_000, false);
+        history.record("register", 30_000, false);
+        
+        List<String> ordered = new TestScheduler(history, true, 0.2).order(DECLARED);
+        
+        Assert.assertEquals(ordered.subList(0, 3), Arrays.asList("login", "register", "checkout"));
+    }
+    
+    @Test(description = "Verify tests without history keep declaration order")
+    public void testUnknownTestsKeepOrder() {
+        TestScheduler scheduler = new TestScheduler(new TestHistory(0.3), true, 0.2);
+        
+        Assert.assertEquals(scheduler.order(DECLARED), DECLARED);
+    }
+    
+    @Test(description = "Verify history survives a save and load")
+    public void testHistoryRoundTrip() throws IOException {
+        File file = File.createTempFile("test-history", ".json");
+        TestHistory history = history();
+        history.record("cart", 60_000, false);
+        history.save(file);
+        
+        TestHistory loaded = TestHistory.load(file, 0.3);
+        
+        Assert.assertEquals(loaded.getExpectedMillis("cart"), 46_000);
+        Assert.assertEquals(loaded.getFailureRate("cart"), 0.3, 0.001);
+        Assert.assertEquals(loaded.getFlakiness("cart"), 1.0, 0.001);
+        Assert.assertEquals(loaded.getExpectedMillis("unknown"), -1);
+    }
+}
@@ -0,0 +1,110 @@
+package com.mahadsiddiqui.utils;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import ru.yandex.qatools.ashot.coordinates.Coords;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Visual comparator tests on synthetic screens
+ */
+public class VisualComparatorTest {
+    
+    private VisualComparator comparator;
+    
+    @BeforeMethod
+    public void setUp() throws IOException {
+        Path directory = Files.createTempDirectory("visual");
+        comparator = new VisualComparator(directory.resolve("baselines"), directory.resolve("diffs"),
+            64, 8, 0, 0.001, false);
+    }
+    
+    @Test(description = "Verify a missing baseline is recorded and then matched")
+    public void testRecordsAndMatchesBaseline() {
+        VisualDiffResult first = comparator.compare("home", screen(), Collections.emptyList());
+        VisualDiffResult second = comparator.compare("home", screen(), Collections.emptyList());
+        
+        Assert.assertTrue(first.isNewBaseline(), "First comparison should record the baseline");
+        Assert.assertTrue(second.matches(), "Identical screen should match");
+        Assert.assertEquals(second.getChangedTiles(), 0);
+    }
+    
+    @Test(description = "Verify a changed region is reported with a diff image")
+    public void testDetectsChange() {
+        comparator.compare("cart", screen(), Collections.emptyList());
+        
+        BufferedImage changed = screen();
+        Graphics2D graphics = changed.createGraphics();
+        graphics.setColor(Color.RED);
+        graphics.fillRect(320, 640, 128, 128);
+        graphics.dispose();
+        
+        VisualDiffResult result = comparator.compare("cart", changed, Collections.emptyList());
+        Assert.assertFalse(result.matches(), "Changed screen should not match");
+        Assert.assertEquals(result.getChangedTiles(), 4, "Only the tiles under the change should differ");
+        Assert.assertNotNull(result.getDiffImage());
+        Assert.assertTrue(Files.exists(result.getDiffImage()), "Diff image should be written");
+    }
+    
+    @Test(description = "Verify changes inside ignore regions do not fail the comparison")
+    public void testIgnoresRegions() {
+        comparator.compare("clock", screen(), Collections.emptyList());
+        
+        BufferedImage changed = screen();
+        Graphics2D graphics = changed.createGraphics();
+        graphics.setColor(Color.BLACK);
+        graphics.fillRect(900, 20, 100, 40);
+        graphics.dispose();
+        
+        VisualDiffResult result = comparator.compare("clock", changed,
+            Collections.singletonList(new Coords(0, 0, 1080, 80)));
+        Assert.assertTrue(result.matches(), "Status bar change should be ignored: " + result);
+    }
+    
+    @Test(description = "Verify configured regions given as a percentage of the width scale with the screen")
+    public void testConfiguredRegionsScaleWithWidth() {
+        List<Coords> large = VisualComparator.configuredIgnoreRegions(1080);
+        List<Coords> small = VisualComparator.configuredIgnoreRegions(720);
+        
+        Assert.assertEquals(large.size(), 1);
+        Assert.assertEquals(large.get(0), new Rectangle(0, 0, 1080, 81));
+        Assert.assertEquals(small.get(0), new Rectangle(0, 0, 720, 54));
+    }
+    
+    @Test(description = "Verify differences below the pixel tolerance are treated as equal")
+    public void testPixelTolerance() {
+        comparator.compare("tolerance", screen(), Collections.emptyList());
+        
+        BufferedImage shifted = screen();
+        for (int y = 0; y < shifted.getHeight(); y++) {
+            for (int x = 0; x < shifted.getWidth(); x++) {
+                shifted.setRGB(x, y, shifted.getRGB(x, y) ^ 0x000003);
+            }
+        }
+        
+        Assert.assertTrue(comparator.compare("tolerance", shifted, Collections.emptyList()).matches());
+    }
+    
+    private static BufferedImage screen() {
+        BufferedImage image = new BufferedImage(1080, 1920, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, 1080, 1920);
+        graphics.setColor(Color.BLUE);
+        graphics.fillRect(0, 0, 1080, 80);
+        graphics.setColor(Color.DARK_GRAY);
+        graphics.fillRect(40, 200, 1000, 120);
+        graphics.dispose();
+        return image;
+    }
+}
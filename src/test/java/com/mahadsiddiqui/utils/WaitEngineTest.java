@@ -0,0 +1,143 @@
+package com.mahadsiddiqui.utils;
+
+import com.mahadsiddiqui.config.MobileDriverConfig;
+import org.openqa.selenium.HasCapabilities;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Polling, latency learning and implicit wait tests against a fake driver
+ */
+public class WaitEngineTest {
+    
+    @Test(description = "Verify polls back off exponentially from wait.poll.initial.ms up to wait.poll.max.ms")
+    public void testBackoffSchedule() {
+        List<Long> polls = new ArrayList<>();
+        WaitEngine engine = new WaitEngine(driver("backoff", new ArrayList<>()), Duration.ofSeconds(10));
+        
+        // A lambda has no stable name, so nothing is learned and every gap is a regular poll
+        engine.until(driver -> succeedsOnPoll(polls, 7));
+        
+        List<Long> expected = Arrays.asList(50L, 100L, 200L, 400L, 800L, 1000L);
+        List<Long> gaps = gaps(polls);
+        Assert.assertEquals(gaps.size(), expected.size());
+        for (int i = 0; i < gaps.size(); i++) {
+            Assert.assertTrue(gaps.get(i) >= expected.get(i) - 1 && gaps.get(i) < expected.get(i) + 150,
+                "Poll gaps " + gaps + " should follow " + expected);
+        }
+    }
+    
+    @Test(description = "Verify a learned latency longer than wait.poll.max.ms skips ahead by at most one max poll")
+    public void testSkipAheadCappedAtMaxPoll() {
+        String step = "slow screen " + System.nanoTime();
+        WaitEngine engine = new WaitEngine(driver("skip", new ArrayList<>()), Duration.ofSeconds(10));
+        long start = System.nanoTime();
+        engine.until(step, driver -> System.nanoTime() - start >= 1_500_000_000L);
+        Assert.assertTrue(engine.getExpectedMillis(step) >= 1500);
+        
+        List<Long> polls = new ArrayList<>();
+        long again = System.nanoTime();
+        engine.until(step, driver -> {
+            polls.add(System.nanoTime());
+            return System.nanoTime() - again >= 1_000_000_000L;
+        });
+        
+        List<Long> gaps = gaps(polls);
+        Assert.assertTrue(gaps.get(0) >= 999 && gaps.get(0) < 1150,
+            "The skip ahead should sleep one max poll rather than 80% of the expected latency: " + gaps);
+    }
+    
+    @Test(description = "Verify latencies are averaged per device and not shared with other devices")
+    public void testLatencyLearnedPerDevice() {
+        String step = "login " + System.nanoTime();
+        WaitEngine slow = new WaitEngine(driver("slow-device", new ArrayList<>()), Duration.ofSeconds(10));
+        WaitEngine fast = new WaitEngine(driver("fast-device", new ArrayList<>()), Duration.ofSeconds(10));
+        WaitEngine.drainRecords();
+        
+        slow.until(step, driver -> true);
+        List<Long> polls = new ArrayList<>();
+        slow.until(step, driver -> succeedsOnPoll(polls, 4));
+        
+        List<WaitEngine.WaitRecord> records = WaitEngine.drainRecords();
+        long first = records.get(0).getWaitedMillis();
+        long second = records.get(1).getWaitedMillis();
+        Assert.assertEquals(records.get(1).getPolls(), 4);
+        Assert.assertEquals(slow.getExpectedMillis(step), (long) (first * 0.7 + second * 0.3),
+            "The estimate should be an exponentially weighted average of " + records);
+        Assert.assertEquals(fast.getExpectedMillis(step), 0, "Another device should not inherit the latency");
+        
+        fast.until(step, driver -> true);
+        Assert.assertTrue(fast.getExpectedMillis(step) < slow.getExpectedMillis(step));
+    }
+    
+    @Test(description = "Verify the implicit wait is restored from config even when the action throws")
+    public void testImplicitWaitRestored() {
+        List<Duration> implicitWaits = new ArrayList<>();
+        WaitEngine engine = new WaitEngine(driver("implicit", implicitWaits), Duration.ofSeconds(10));
+        Duration configured = MobileDriverConfig.getBooleanProperty("implicit.wait.enabled")
+            ? Duration.ofSeconds(MobileDriverConfig.getImplicitWaitTimeout())
+            : Duration.ZERO;
+        
+        Assert.assertEquals(engine.withImplicitWait(Duration.ofSeconds(3), () -> "found"), "found");
+        Assert.assertEquals(implicitWaits, Arrays.asList(Duration.ofSeconds(3), configured));
+        
+        implicitWaits.clear();
+        try {
+            engine.withImplicitWait(Duration.ofSeconds(5), () -> {
+                throw new IllegalStateException("element gone");
+            });
+            Assert.fail("The action's exception should propagate");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(e.getMessage(), "element gone");
+        }
+        Assert.assertEquals(implicitWaits, Arrays.asList(Duration.ofSeconds(5), configured));
+    }
+    
+    private static boolean succeedsOnPoll(List<Long> polls, int poll) {
+        polls.add(System.nanoTime());
+        return polls.size() >= poll;
+    }
+    
+    private static List<Long> gaps(List<Long> polls) {
+        List<Long> gaps = new ArrayList<>();
+        for (int i = 1; i < polls.size(); i++) {
+            gaps.add((polls.get(i) - polls.get(i - 1)) / 1_000_000);
+        }
+        return gaps;
+    }
+    
+    /**
+     * Driver on the named device that records every implicit wait it is given
+     */
+    private static WebDriver driver(String device, List<Duration> implicitWaits) {
+        DesiredCapabilities capabilities = new DesiredCapabilities();
+        capabilities.setCapability("deviceName", device);
+        WebDriver.Timeouts[] timeouts = new WebDriver.Timeouts[1];
+        timeouts[0] = proxy(WebDriver.Timeouts.class, (name, args) -> {
+            implicitWaits.add((Duration) args[0]);
+            return timeouts[0];
+        });
+        WebDriver.Options options = proxy(WebDriver.Options.class, (name, args) -> timeouts[0]);
+        return (WebDriver) Proxy.newProxyInstance(WebDriver.class.getClassLoader(),
+            new Class<?>[] {WebDriver.class, HasCapabilities.class},
+            (self, method, args) -> "getCapabilities".equals(method.getName()) ? capabilities : options);
+    }
+    
+    private interface Answer {
+        Object answer(String method, Object[] args);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Answer answer) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+            (self, method, args) -> answer.answer(method.getName(), args));
+    }
+}